@@ -39,7 +39,7 @@
  * constructor
  *
  */
-FolderWatcher::FolderWatcher():CHAR_MODIFIED('#') {
+FolderWatcher::FolderWatcher():CHAR_MODIFIED('#'),MAX_JOURNAL_ENTRIES(1000),_notifyFilter(0) {
 }
 
 /**
@@ -115,6 +115,9 @@ bool FolderWatcher::startWatch() {
 								//|IN_OPEN				//File was opened (*)
 								;
 
+	// needed for watching directories created later
+	_notifyFilter = notifyFilter;
+
 
 
 	WatchedFolder aWatchedFolder;
@@ -149,6 +152,8 @@ bool FolderWatcher::startWatch() {
 
 	}
 
+	loadJournal();
+
 	return (_indexed_folders.size() > 0);
 }
 
@@ -161,6 +166,7 @@ bool FolderWatcher::addWatchRecursive(const bool isRoot, const int watchId, cons
 			return false;
 		}else{
 			_inotify2id.insert(std::make_pair(inotifyId, watchId));
+			_inotify2path[inotifyId] = folder_name;
 			log("watch added for root=%s", folder_name.c_str());
 		}
 	}
@@ -200,6 +206,7 @@ bool FolderWatcher::addWatchRecursive(const bool isRoot, const int watchId, cons
 				continue;
 			}else{
 				_inotify2id.insert(std::make_pair(inotifyId, watchId));
+				_inotify2path[inotifyId] = sub_folder_name;
 				log("watch added for sub_dir=%s", sub_folder_name.c_str());
 
 				addWatchRecursive(false, watchId, sub_folder_name, notifyFilter);
@@ -225,6 +232,7 @@ bool FolderWatcher::stopWatch() {
 
 	_indexed_folders.clear();
 	_inotify2id.clear();
+	_inotify2path.clear();
 
 	close(_fd);
 	_fd = -1;
@@ -238,12 +246,31 @@ bool FolderWatcher::stopWatch() {
 /**
  * Watches' callback
  *
- * Removes the watch and updates the indexes file
+ * Writes the directory in which the change occurred to the journal. If the
+ * journal can't be used for the watched folder, removes the watches and
+ * flags the whole folder as modified in the indexes file.
  *
  */
-void FolderWatcher::callback(int inotifyId, int action) {
+void FolderWatcher::callback(int inotifyId, int action, const char *name) {
 	log("callback : inotifyId=%d,action=%d", inotifyId, action);
 
+	// Events were lost, so we don't know what changed
+	if(action & IN_Q_OVERFLOW) {
+		log("event queue overflow");
+		folders_container_type::const_iterator itFolder;
+		for(itFolder = _indexed_folders.begin() ; itFolder != _indexed_folders.end() ; ++itFolder) {
+			if(!itFolder->second._modified) {
+				setModified(itFolder->first);
+			}
+		}
+		return;
+	}
+
+	// The watch was removed
+	if(action & IN_IGNORED) {
+		return;
+	}
+
 	if(_inotify2id.find(inotifyId) == _inotify2id.end()) {
 		log("id unknown ???");
 		return;
@@ -257,6 +284,101 @@ void FolderWatcher::callback(int inotifyId, int action) {
 
 	}
 
+	const std::string dir = _inotify2path[inotifyId];
+
+	// The watched directory itself was deleted or moved. Unless it is the
+	// indexed folder, this is also reported as a change in its parent.
+	if(action & (IN_DELETE_SELF | IN_MOVE_SELF)) {
+		if(dir == _indexed_folders[watchId]._path) {
+			setModified(watchId);
+		}
+		return;
+	}
+
+	// Watch directories created in or moved into the watched directory
+	if((action & IN_ISDIR) && (action & (IN_CREATE | IN_MOVED_TO)) && name != NULL) {
+		addWatchRecursive(true, watchId, dir + "/" + name, _notifyFilter);
+	}
+
+	journalChange(watchId, dir);
+}
+
+
+/**
+ * Appends the given changed directory to the journal
+ *
+ * Directories that are already in the journal, or whose ancestors are, are
+ * skipped, since DocFetcher updates the whole subtree of each journaled
+ * directory. If the journal grows too large, the whole folder is flagged as
+ * modified instead.
+ *
+ */
+void FolderWatcher::journalChange(const int watchId, const std::string &dir) {
+	WatchedFolder &folder = _indexed_folders[watchId];
+
+	std::string ancestor = dir;
+	while(true) {
+		if(folder._journaled.find(ancestor) != folder._journaled.end()) {
+			return;
+		}
+		if(ancestor.size() <= folder._path.size()) {
+			break;
+		}
+		std::string::size_type pos = ancestor.rfind('/');
+		if(pos == std::string::npos || pos == 0) {
+			break;
+		}
+		ancestor = ancestor.substr(0, pos);
+	}
+
+	if(folder._journaled.size() >= MAX_JOURNAL_ENTRIES) {
+		log("journal overflow for %s", folder._path.c_str());
+		setModified(watchId);
+		return;
+	}
+
+	folder._journaled.insert(dir);
+
+	std::ofstream out(getJournalFile().c_str(), std::ios::app);
+	if(!out) {
+		log("Cannot open journal file (%s)", getJournalFile().c_str());
+		setModified(watchId);
+		return;
+	}
+	out << dir << std::endl;
+}
+
+
+/**
+ * Reads the journal left over from a previous run of the daemon, so that the
+ * compaction and the size limit take the existing entries into account
+ *
+ */
+void FolderWatcher::loadJournal() {
+	std::ifstream in(getJournalFile().c_str());
+	std::string line;
+	while(std::getline(in, line)) {
+		if(line.empty() || (line.size()>=2 && line.substr(0,2) == "//")) {
+			continue;
+		}
+		folders_container_type::iterator itFolder;
+		for(itFolder = _indexed_folders.begin() ; itFolder != _indexed_folders.end() ; ++itFolder) {
+			const std::string &root = itFolder->second._path;
+			if(line == root || line.compare(0, root.size() + 1, root + "/") == 0) {
+				itFolder->second._journaled.insert(line);
+				break;
+			}
+		}
+	}
+}
+
+
+/**
+ * Removes the watches of the given folder and flags the whole folder as
+ * modified in the indexes file
+ *
+ */
+void FolderWatcher::setModified(const int watchId) {
 	for(inotify2id_container_type::const_iterator it = _inotify2id.begin() ; it != _inotify2id.end() ; ++it) {
 		if(it->second == watchId) {
 			inotify_rm_watch(_fd, it->first);
@@ -265,12 +387,12 @@ void FolderWatcher::callback(int inotifyId, int action) {
 	}
 
 	_indexed_folders[watchId]._modified = true;
+	_indexed_folders[watchId]._journaled.clear();
 
 	if(!updateIndexesFile()){
 		log("updateIndexesFile failed");
 		return;
 	}
-
 }
 
 
@@ -316,7 +438,7 @@ void FolderWatcher::run()
 	    while (i < len)
 	    {
 	        struct inotify_event *event = (struct inotify_event *) &buf[i];
-	       	callback(event->wd, event->mask);
+	       	callback(event->wd, event->mask, event->len > 0 ? event->name : NULL);
 
 	        i += sizeof (struct inotify_event) + event->len;
 	    }
@@ -329,3 +451,7 @@ std::string FolderWatcher::getLockFile() {
 	return _indexes_file_path + ".lock";
 }
 
+std::string FolderWatcher::getJournalFile() {
+	return _indexes_file_path + ".journal";
+}
+
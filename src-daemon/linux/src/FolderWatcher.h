@@ -12,15 +12,20 @@
 #ifndef FOLDERWATCHER_H_
 #define FOLDERWATCHER_H_
 
+#include <set>
+
 struct WatchedFolder {
 	std::string _path;
 	bool _modified;
+	// changed directories written to the journal
+	std::set<std::string> _journaled;
 };
 
 class FolderWatcher {
 public:
 	typedef std::map<int,WatchedFolder> folders_container_type;
 	typedef std::map<int,int> 			inotify2id_container_type;
+	typedef std::map<int,std::string> 	inotify2path_container_type;
 
 	FolderWatcher();
 	virtual ~FolderWatcher();
@@ -28,6 +33,7 @@ public:
 	bool findIndexesFile();
 
 	std::string getLockFile();
+	std::string getJournalFile();
 
 	bool startWatch();
 	bool stopWatch();
@@ -39,16 +45,22 @@ private:
 	bool updateIndexesFile();
 	bool addWatchRecursive(const bool, const int, const std::string &, const long);
 
+	void loadJournal();
+	void journalChange(const int watchId, const std::string &dir);
+	void setModified(const int watchId);
 
-
-	void callback(int watchID, int action);
+	void callback(int watchID, int action, const char *name);
 
 	std::string _indexes_file_path;
 	const char CHAR_MODIFIED;
+	// number of journaled directories above which the whole folder is flagged
+	const size_t MAX_JOURNAL_ENTRIES;
+	long _notifyFilter;
 
 
 	folders_container_type _indexed_folders;
 	inotify2id_container_type   _inotify2id;
+	inotify2path_container_type _inotify2path;
 
 	int _fd;
 };
@@ -49,7 +49,7 @@ extern HWND _hwndMain;
  * constructor
  *
  */
-FolderWatcher::FolderWatcher():CHAR_MODIFIED('#') {
+FolderWatcher::FolderWatcher():CHAR_MODIFIED('#'),MAX_JOURNAL_ENTRIES(1000) {
 	_this = this;
 }
 
@@ -145,6 +145,8 @@ bool FolderWatcher::startWatch() {
 
 	}
 
+	loadJournal();
+
 	return (_indexed_folders.size() > 0);
 }
 
@@ -164,7 +166,9 @@ bool FolderWatcher::stopWatch() {
 /**
  * Watches' callback
  *
- * Removes the watch and updates the indexes file
+ * Writes the directory in which the change occurred to the journal. If the
+ * journal can't be used for the watched folder, removes the watch and flags
+ * the whole folder as modified in the indexes file.
  *
  */
 void FolderWatcher::callback(int watchID, int action, const WCHAR* rootPath, const WCHAR* filePath) {
@@ -181,28 +185,138 @@ void FolderWatcher::callback(int watchID, int action, const WCHAR* rootPath, con
 		return;
 	}
 
-	// impossible to remove here, we tell the main thread to do it
-	::PostMessage(_hwndMain, WM_REMOVE_WATCH, 0, watchID);
-
 	if(_this->_indexed_folders[watchID]._modified == true){
 		log("already done...");
 		return;
 
 	}
 
-	_this->_indexed_folders[watchID]._modified = true;
+	// Action 0 means the notification buffer overflowed, so we don't know what changed
+	if(action == 0) {
+		log("notification buffer overflow");
+		_this->setModified(watchID);
+		return;
+	}
 
-	if(!_this->updateIndexesFile()){
-		log("updateIndexesFile failed");
+	std::wstring path = rootPath;
+	path += L"\\";
+	path += filePath;
+
+	char mb_path [MAX_PATH * MB_CUR_MAX];
+	size_t count_chars = wcstombs(mb_path, path.c_str(), sizeof(mb_path) - 1);
+	if(count_chars == (size_t) -1) {
+		log("cannot convert path to multibyte string");
+		_this->setModified(watchID);
+		return;
+	}
+	mb_path[count_chars] = 0;
+
+	// The change occurred in the parent directory of the file
+	std::string dir = mb_path;
+	std::string::size_type pos = dir.rfind('\\');
+	if(pos != std::string::npos) {
+		dir = dir.substr(0, pos);
+	}
+
+	_this->journalChange(watchID, dir);
+}
+
+
+/**
+ * Appends the given changed directory to the journal
+ *
+ * Directories that are already in the journal, or whose ancestors are, are
+ * skipped, since DocFetcher updates the whole subtree of each journaled
+ * directory. If the journal grows too large, the whole folder is flagged as
+ * modified instead.
+ *
+ */
+void FolderWatcher::journalChange(const int watchID, const std::string &dir) {
+	WatchedFolder &folder = _indexed_folders[watchID];
+
+	std::string ancestor = dir;
+	while(true) {
+		if(folder._journaled.find(ancestor) != folder._journaled.end()) {
+			return;
+		}
+		if(ancestor.size() <= folder._path.size()) {
+			break;
+		}
+		std::string::size_type pos = ancestor.rfind('\\');
+		if(pos == std::string::npos) {
+			break;
+		}
+		ancestor = ancestor.substr(0, pos);
+	}
+
+	if(folder._journaled.size() >= MAX_JOURNAL_ENTRIES) {
+		log("journal overflow for %s", folder._path.c_str());
+		setModified(watchID);
+		return;
+	}
+
+	folder._journaled.insert(dir);
+
+	std::ofstream out(getJournalFile().c_str(), std::ios::app);
+	if(!out) {
+		log("Cannot open journal file (%s)", getJournalFile().c_str());
+		setModified(watchID);
 		return;
 	}
+	out << dir << std::endl;
+}
+
+
+/**
+ * Reads the journal left over from a previous run of the daemon, so that the
+ * compaction and the size limit take the existing entries into account
+ *
+ */
+void FolderWatcher::loadJournal() {
+	std::ifstream in(getJournalFile().c_str());
+	std::string line;
+	while(std::getline(in, line)) {
+		if(line.empty() || (line.size()>=2 && line.substr(0,2) == "//")) {
+			continue;
+		}
+		folders_container_type::iterator itFolder;
+		for(itFolder = _indexed_folders.begin() ; itFolder != _indexed_folders.end() ; ++itFolder) {
+			const std::string &root = itFolder->second._path;
+			if(line == root || line.compare(0, root.size() + 1, root + "\\") == 0) {
+				itFolder->second._journaled.insert(line);
+				break;
+			}
+		}
+	}
+}
+
+
+/**
+ * Removes the watch of the given folder and flags the whole folder as
+ * modified in the indexes file
+ *
+ */
+void FolderWatcher::setModified(const int watchID) {
+	// impossible to remove here, we tell the main thread to do it
+	::PostMessage(_hwndMain, WM_REMOVE_WATCH, 0, watchID);
+
+	_indexed_folders[watchID]._modified = true;
+	_indexed_folders[watchID]._journaled.clear();
 
+	if(!updateIndexesFile()){
+		log("updateIndexesFile failed");
+		return;
+	}
 }
 
 std::string FolderWatcher::getLockFile() {
 	return _indexes_file_path + ".lock";
 }
 
+std::string FolderWatcher::getJournalFile() {
+	return _indexes_file_path + ".journal";
+}
+
 bool FolderWatcher::findIndexesFile() {
 
 	// Portable version -> the directory ./indexes exists
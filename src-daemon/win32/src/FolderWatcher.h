@@ -13,6 +13,7 @@
 #define INDEXEDDIRECTORIES_H_
 
 #include <map>
+#include <set>
 #include <string>
 #include "jnotify_win32/Lock.h"
 
@@ -22,6 +23,8 @@
 struct WatchedFolder {
 	std::string _path;
 	bool _modified;
+	// changed directories written to the journal
+	std::set<std::string> _journaled;
 };
 
 class FolderWatcher {
@@ -34,6 +37,7 @@ public:
 	bool findIndexesFile();
 
 	std::string FolderWatcher::getLockFile();
+	std::string FolderWatcher::getJournalFile();
 
 	bool startWatch();
 	bool stopWatch();
@@ -41,10 +45,15 @@ public:
 private:
 	std::string _indexes_file_path;
 	const char CHAR_MODIFIED;
+	// number of journaled directories above which the whole folder is flagged
+	const size_t MAX_JOURNAL_ENTRIES;
 
 	static void callback(int watchID, int action, const WCHAR* rootPath, const WCHAR* filePath);
 
 	bool updateIndexesFile();
+	void loadJournal();
+	void journalChange(const int watchID, const std::string &dir);
+	void setModified(const int watchID);
 
 	folders_container_type _indexed_folders;
 
@@ -156,6 +156,15 @@ void CALLBACK Win32FSHook::changeCallback(DWORD dwErrorCode, DWORD dwNumberOfByt
 		return;
 	}
 
+	// No data means the notification buffer overflowed and the changes were lost
+	if (dwNumberOfBytesTransfered == 0)
+	{
+		log("changeCallback : buffer overflow for watch id %d", wd);
+		watchData->getCallback()(watchData->getId(), 0, watchData->getPath(), L"");
+		watchData->watchDirectory();
+		return;
+	}
+
 	char* events=(char*)watchData->getNotifyInfo();
 	FILE_NOTIFY_INFORMATION *event;
 	int i=0;
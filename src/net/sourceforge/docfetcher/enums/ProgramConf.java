@@ -57,6 +57,13 @@ public final class ProgramConf {
 		IgnoreJunctionsAndSymlinks (true),
 		SaveSettings (true),
 		TextPreviewEnabled (true),
+		DeferOversizedFiles (true),
+		TruncateOversizedFiles (true),
+		OutlookFastUpdates (false),
+		StorePdfPageOffsets (false),
+		FastRescan (false),
+		NioFileListing (true),
+		CollapseDuplicates (false),
 		;
 
 		private boolean value;
@@ -80,6 +87,30 @@ public final class ProgramConf {
 		UnpackCacheCapacity (20, 1),
 		Analyzer (0, 0),
 		InitialSorting (0, Integer.MIN_VALUE),
+		ParseMemoryBudget (40, 1, 100),
+		OversizedFileMaxChars (10000000, 1000),
+		HeadlessIndexingThreads (2, 1),
+		SearchServerPort (8085, 0, 65535),
+		SearchServerThreads (4, 1),
+		SearchServerQueueSize (64, 1),
+		PstFilePoolSize (4, 1),
+		PstFileIdleTimeout (60, 1),
+		OutlookAttachmentThreads (2, 1),
+		OutlookAttachmentMemoryCap (64, 1),
+		PdfExtractionThreads (1, 1),
+		PdfParallelPageThreshold (500, 1),
+		PreviewPrefetchCount (2, 0),
+		PreviewPrefetchMaxChars (10000000, 0),
+		PreviewWindowSize (500000, 10000),
+		FastRescanVerifyPeriod (10, 1),
+		DirectoryScanThreads (1, 1),
+		DirectoryScanBufferSize (100000, 0),
+		IndexMergeIdleDelay (300, 0),
+		IndexMergeMaxSegments (10, 1),
+		IndexMergeMaxDeletedPercent (10, 1, 100),
+		BulkWriterRamBuffer (64, 1),
+		BulkWriterMergeFactor (30, 2),
+		CheckpointInterval (300, 0),
 		;
 
 		private int value;
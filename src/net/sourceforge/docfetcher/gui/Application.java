@@ -18,6 +18,7 @@ import java.io.InputStream;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
@@ -49,6 +50,8 @@ import net.sourceforge.docfetcher.model.IndexLoadingProblems.CorruptedIndex;
 import net.sourceforge.docfetcher.model.IndexLoadingProblems.OverflowIndex;
 import net.sourceforge.docfetcher.model.IndexRegistry;
 import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.index.BatchIndexer;
+import net.sourceforge.docfetcher.model.index.BatchIndexer.ExitCode;
 import net.sourceforge.docfetcher.model.index.IndexingQueue;
 import net.sourceforge.docfetcher.model.index.Task.CancelAction;
 import net.sourceforge.docfetcher.model.index.Task.CancelHandler;
@@ -56,6 +59,7 @@ import net.sourceforge.docfetcher.model.index.Task.IndexAction;
 import net.sourceforge.docfetcher.model.parse.ParseService;
 import net.sourceforge.docfetcher.model.parse.Parser;
 import net.sourceforge.docfetcher.model.search.ResultDocument;
+import net.sourceforge.docfetcher.model.search.SearchServer;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.CharsetDetectorHelper;
 import net.sourceforge.docfetcher.util.ConfLoader;
@@ -238,7 +242,17 @@ public final class Application {
 		
 		// Update indexes in headless mode
 		if (args.length >= 1 && args[0].equals("--update-indexes")) {
-			loadIndexRegistryHeadless(getIndexParentDir(IndexRegistry.indexPathOverride));
+			List<String> headlessArgs = Arrays.asList(args).subList(1, args.length);
+			updateIndexesHeadless(
+				getIndexParentDir(IndexRegistry.indexPathOverride), headlessArgs);
+			return;
+		}
+		
+		// Serve search requests in headless mode
+		if (args.length >= 1 && args[0].equals("--search-server")) {
+			List<String> headlessArgs = Arrays.asList(args).subList(1, args.length);
+			runSearchServer(
+				getIndexParentDir(IndexRegistry.indexPathOverride), headlessArgs);
 			return;
 		}
 
@@ -563,6 +577,11 @@ public final class Application {
 					// Must be called *after* the indexes have been loaded
 					daemon.enqueueUpdateTasks();
 					
+					// Resume indexing that was interrupted by a crash
+					IndexingQueue queue = indexRegistry.getQueue();
+					for (LuceneIndex index : loadingProblems.getInterruptedIndexes())
+						queue.addTask(index, IndexAction.UPDATE);
+					
 					// Confirm deletion of obsolete files inside the index
 					// folder
 					if (ProgramConf.Bool.ReportObsoleteIndexFiles.get()
@@ -619,33 +638,122 @@ public final class Application {
 		}.start();
 	}
 	
-	private static void loadIndexRegistryHeadless(@NotNull File indexParentDir) {
+	/**
+	 * Updates indexes from the command-line, without showing the GUI. The
+	 * arguments following "--update-indexes" are an optional thread count
+	 * ("--threads=N") and the root paths of the indexes to update; if no root
+	 * paths are given, all indexes are updated. Progress messages are printed
+	 * to stderr, and a JSON summary is printed to stdout. The program exits
+	 * with one of the codes defined in {@link BatchIndexer.ExitCode}.
+	 */
+	private static void updateIndexesHeadless(	@NotNull File indexParentDir,
+												@NotNull List<String> args) {
+		int threadCount = ProgramConf.Int.HeadlessIndexingThreads.get();
+		List<String> rootPaths = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("--threads=")) {
+				threadCount = Util.toInt(arg.substring("--threads=".length()), -1);
+				if (threadCount < 1) {
+					Util.printErr("Invalid thread count: " + arg);
+					System.exit(ExitCode.INVALID_ARGUMENTS.value);
+				}
+			}
+			else {
+				rootPaths.add(arg);
+			}
+		}
+		
 		int cacheCapacity = ProgramConf.Int.UnpackCacheCapacity.get();
 		int reporterCapacity = ProgramConf.Int.MaxLinesInProgressPanel.get();
 		indexRegistry = new IndexRegistry(
 			indexParentDir, cacheCapacity, reporterCapacity);
 		
+		ExitCode exitCode;
 		try {
 			indexRegistry.load(Cancelable.nullCancelable);
-			final IndexingQueue queue = indexRegistry.getQueue();
-			
-			queue.evtQueueEmpty.add(new Event.Listener<Void>() {
-				public void update(Void eventData) {
-					indexRegistry.getSearcher().shutdown();
-					queue.shutdown(new CancelHandler() {
-						public CancelAction cancel() {
-							return CancelAction.KEEP;
-						}
-					});
-				}
-			});
-			
-			for (LuceneIndex index : indexRegistry.getIndexes())
-				queue.addTask(index, IndexAction.UPDATE);
+			List<String> unmatchedPaths = new ArrayList<String>();
+			List<LuceneIndex> indexes = BatchIndexer.selectIndexes(
+				indexRegistry.getIndexes(), rootPaths, unmatchedPaths);
+			if (unmatchedPaths.isEmpty()) {
+				BatchIndexer batchIndexer = new BatchIndexer(
+					indexRegistry, threadCount, System.err);
+				BatchIndexer.Summary summary = batchIndexer.run(indexes);
+				System.out.println(summary.toJson());
+				exitCode = summary.getExitCode();
+			}
+			else {
+				for (String path : unmatchedPaths)
+					Util.printErr("No index found for: " + path);
+				exitCode = ExitCode.INVALID_ARGUMENTS;
+			}
 		}
 		catch (IOException e) {
 			Util.printErr(e);
+			exitCode = ExitCode.LOADING_FAILED;
 		}
+		
+		// The searcher is only available if the indexes were loaded
+		if (exitCode != ExitCode.LOADING_FAILED)
+			indexRegistry.getSearcher().shutdown();
+		indexRegistry.getQueue().shutdown(new CancelHandler() {
+			public CancelAction cancel() {
+				return CancelAction.KEEP;
+			}
+		});
+		System.exit(exitCode.value);
+	}
+	
+	/**
+	 * Loads the indexes and starts a local search server, without showing the
+	 * GUI. The only supported argument is an optional port ("--port=N"). The
+	 * server runs until the program is terminated.
+	 */
+	private static void runSearchServer(@NotNull File indexParentDir,
+										@NotNull List<String> args) {
+		int port = ProgramConf.Int.SearchServerPort.get();
+		for (String arg : args) {
+			if (arg.startsWith("--port="))
+				port = Util.toInt(arg.substring("--port=".length()), -1);
+			else
+				port = -1;
+			if (port < 0 || port > 65535) {
+				Util.printErr("Invalid argument: " + arg);
+				System.exit(1);
+			}
+		}
+		
+		int cacheCapacity = ProgramConf.Int.UnpackCacheCapacity.get();
+		int reporterCapacity = ProgramConf.Int.MaxLinesInProgressPanel.get();
+		indexRegistry = new IndexRegistry(
+			indexParentDir, cacheCapacity, reporterCapacity);
+		
+		final SearchServer server;
+		try {
+			indexRegistry.load(Cancelable.nullCancelable);
+			server = new SearchServer(
+				indexRegistry, port,
+				ProgramConf.Int.SearchServerThreads.get(),
+				ProgramConf.Int.SearchServerQueueSize.get());
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			System.exit(1);
+			return;
+		}
+		
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				server.stop(1);
+				indexRegistry.getSearcher().shutdown();
+				indexRegistry.getQueue().shutdown(new CancelHandler() {
+					public CancelAction cancel() {
+						return CancelAction.KEEP;
+					}
+				});
+			}
+		});
+		server.start();
+		Util.println("Search server listening on http://localhost:" + server.getPort() + "/");
 	}
 	
 	private static void reportObsoleteIndexFiles(	@NotNull Shell mainShell,
@@ -922,8 +1030,18 @@ public final class Application {
 
 		resultPanel.evtSelection.add(new Event.Listener<List<ResultDocument>>() {
 			public void update(List<ResultDocument> eventData) {
-				if (!eventData.isEmpty())
-					previewPanel.setPreview(eventData.get(0));
+				if (eventData.isEmpty())
+					return;
+				previewPanel.setPreview(eventData.get(0));
+				int prefetchCount = ProgramConf.Int.PreviewPrefetchCount.get();
+				if (prefetchCount > 0)
+					previewPanel.prefetch(resultPanel.getAdjacentResults(prefetchCount));
+			}
+		});
+
+		resultPanel.evtResultsChanged.add(new Event.Listener<List<ResultDocument>>() {
+			public void update(List<ResultDocument> eventData) {
+				previewPanel.retainPrefetched(eventData);
 			}
 		});
 
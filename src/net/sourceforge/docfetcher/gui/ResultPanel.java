@@ -93,6 +93,7 @@ public final class ResultPanel {
 	private static final DateFormat dateFormat = new SimpleDateFormat();
 	
 	public final Event<List<ResultDocument>> evtSelection = new Event<List<ResultDocument>> ();
+	public final Event<List<ResultDocument>> evtResultsChanged = new Event<List<ResultDocument>> ();
 	public final Event<Void> evtHideInSystemTray = new Event<Void>();
 	
 	private final VirtualTableViewer<ResultDocument> viewer;
@@ -141,7 +142,10 @@ public final class ResultPanel {
 		
 		viewer.addColumn(new VariableHeaderColumn<ResultDocument>(Msg.title.get(), Msg.subject.get()) {
 			protected String getLabel(ResultDocument element) {
-				return element.getTitle();
+				int duplicateCount = element.getDuplicateCount();
+				if (duplicateCount == 0)
+					return element.getTitle();
+				return element.getTitle() + " (+" + duplicateCount + ")";
 			}
 			protected Image getImage(ResultDocument element) {
 				if (element.isEmail())
@@ -354,6 +358,16 @@ public final class ResultPanel {
 		return viewer.getSelection();
 	}
 	
+	/**
+	 * Returns up to the given number of results after and before the focused
+	 * result, nearest first.
+	 */
+	@MutableCopy
+	@NotNull
+	public List<ResultDocument> getAdjacentResults(int count) {
+		return viewer.getAdjacentElements(count);
+	}
+	
 	// header mode: auto-detect for "files + emails", no auto-detect for files and emails mode
 	public void setResults(	@NotNull List<ResultDocument> results,
 							@NotNull HeaderMode headerMode) {
@@ -368,6 +382,7 @@ public final class ResultPanel {
 		
 		viewer.setRoot(results);
 		viewer.scrollToTop();
+		evtResultsChanged.fire(results);
 	}
 	
 	private void setActualHeaderMode(List<ResultDocument> elements) {
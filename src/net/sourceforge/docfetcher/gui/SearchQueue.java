@@ -30,9 +30,11 @@ import net.sourceforge.docfetcher.model.IndexRegistry;
 import net.sourceforge.docfetcher.model.LuceneIndex;
 import net.sourceforge.docfetcher.model.TreeCheckState;
 import net.sourceforge.docfetcher.model.parse.Parser;
+import net.sourceforge.docfetcher.model.search.Facets;
 import net.sourceforge.docfetcher.model.search.ResultDocument;
 import net.sourceforge.docfetcher.model.search.SearchException;
 import net.sourceforge.docfetcher.model.search.Searcher;
+import net.sourceforge.docfetcher.model.search.Searcher.SearchResults;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Event;
@@ -72,8 +74,9 @@ public final class SearchQueue {
 	private final EnumSet<GuiEvent> queue = EnumSet.noneOf(GuiEvent.class);
 	
 	@Nullable private volatile String query;
-	@Nullable private volatile Set<String> listDocIds;
+	@Nullable private volatile Set<String> listUidPrefixes;
 	@Nullable private List<ResultDocument> results;
+	@Nullable private Facets facets;
 	@Nullable private Set<String> checkedParsers;
 	@Nullable private TreeCheckState treeCheckState;
 	private boolean allParsersChecked;
@@ -174,7 +177,7 @@ public final class SearchQueue {
 			public void update(Set<String> eventData) {
 				lock.lock();
 				try {
-					listDocIds = eventData;
+					listUidPrefixes = eventData;
 					queue.add(GuiEvent.SEARCH_OR_LIST);
 					queueNotEmpty.signal();
 				}
@@ -188,7 +191,7 @@ public final class SearchQueue {
 	private boolean threadLoop() {
 		final EnumSet<GuiEvent> queueCopy;
 		final String query;
-		final Set<String> listDocIds;
+		final Set<String> listUidPrefixes;
 		
 		lock.lock();
 		try {
@@ -198,9 +201,9 @@ public final class SearchQueue {
 			queueCopy = EnumSet.copyOf(queue);
 			queue.clear();
 			query = this.query;
-			listDocIds = this.listDocIds;
+			listUidPrefixes = this.listUidPrefixes;
 			this.query = null;
-			this.listDocIds = null;
+			this.listUidPrefixes = null;
 		}
 		catch (InterruptedException e) {
 			return false;
@@ -234,10 +237,16 @@ public final class SearchQueue {
 				if (searcher == null)
 					return false;
 				
-				if (query != null)
-					results = searcher.search(query);
-				else if (listDocIds != null)
-					results = searcher.list(listDocIds);
+				if (query != null) {
+					SearchResults searchResults = searcher.searchWithFacets(
+						query, ProgramConf.Bool.CollapseDuplicates.get());
+					results = searchResults.resultDocuments;
+					facets = searchResults.facets;
+				}
+				else if (listUidPrefixes != null) {
+					results = searcher.list(listUidPrefixes);
+					facets = null;
+				}
 				else
 					throw new IllegalStateException();
 			}
@@ -251,6 +260,7 @@ public final class SearchQueue {
 				
 				// Don't return yet, we might have to update the filters
 				results = null;
+				facets = null;
 			}
 			catch (CheckedOutOfMemoryError e) {
 				UtilGui.showOutOfMemoryMessage(searchBar.getControl(), e);
@@ -312,14 +322,18 @@ public final class SearchQueue {
 				filesFound = true;
 		}
 		final HeaderMode mode = HeaderMode.getInstance(filesFound, emailsFound);
+		final Facets facets = this.facets;
 		
 		// Set results
 		Util.runSyncExec(searchBar.getControl(), new Runnable() {
 			public void run() {
 				resultPanel.setResults(visibleResults, mode);
 				resultPanel.sortByColumn(ProgramConf.Int.InitialSorting.get());
-				if (queueCopy.contains(GuiEvent.SEARCH_OR_LIST))
+				if (queueCopy.contains(GuiEvent.SEARCH_OR_LIST)) {
 					resultPanel.getControl().setFocus();
+					fileTypePanel.setFacets(facets);
+					filesizePanel.setFacets(facets);
+				}
 				updateResultStatus(); // Must be done *after* setting the results
 				searchBar.setEnabled(true);
 				
@@ -17,9 +17,11 @@ import java.util.List;
 
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.model.parse.Parser;
+import net.sourceforge.docfetcher.model.search.Facets;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.collect.ListMap;
 import net.sourceforge.docfetcher.util.collect.ListMap.Entry;
 import net.sourceforge.docfetcher.util.gui.ContextMenuManager;
@@ -126,6 +128,22 @@ public final class FileTypePanel {
 		return table;
 	}
 
+	/**
+	 * Shows the number of hits per file type from the given facets next to
+	 * the file types, or removes the numbers if the given facets are null.
+	 */
+	public void setFacets(@Nullable Facets facets) {
+		for (TableItem item : table.getItems()) {
+			Parser parser = (Parser) item.getData();
+			String label = parser.getTypeLabel();
+			if (facets != null) {
+				String parserName = parser.getClass().getSimpleName();
+				label += " (" + facets.getParserCount(parserName) + ")";
+			}
+			item.setText(label);
+		}
+	}
+
 	@NotNull
 	public ListMap<Parser, Boolean> getParserStateMap() {
 		TableItem[] items = table.getItems();
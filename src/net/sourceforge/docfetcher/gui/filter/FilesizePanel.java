@@ -12,6 +12,7 @@
 package net.sourceforge.docfetcher.gui.filter;
 
 import net.sourceforge.docfetcher.gui.UtilGui;
+import net.sourceforge.docfetcher.model.search.Facets;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -167,6 +168,44 @@ public final class FilesizePanel {
 		}
 	}
 	
+	/**
+	 * Shows the number of hits per size range from the given facets in the
+	 * tooltip of the panel, or removes the tooltip if the given facets are
+	 * null.
+	 */
+	public void setFacets(@Nullable Facets facets) {
+		String toolTip = null;
+		if (facets != null) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < Facets.getSizeBucketCount(); i++) {
+				long min = Facets.getSizeBucketMin(i);
+				Long max = Facets.getSizeBucketMax(i);
+				if (i > 0)
+					sb.append("\n");
+				if (max == null)
+					sb.append(">= ").append(formatSize(min));
+				else
+					sb.append(formatSize(min)).append(" - ").append(formatSize(max));
+				sb.append(": ").append(facets.getSizeCount(i));
+			}
+			toolTip = sb.toString();
+		}
+		comp.setToolTipText(toolTip);
+		minField.setToolTipText(toolTip);
+		maxField.setToolTipText(toolTip);
+	}
+	
+	@NotNull
+	private static String formatSize(long bytes) {
+		for (FilesizeUnit unit : new FilesizeUnit[] {
+				FilesizeUnit.GB, FilesizeUnit.MB, FilesizeUnit.KB }) {
+			long value = unit.convert(bytes, FilesizeUnit.Byte);
+			if (value > 0 && FilesizeUnit.Byte.convert(value, unit) == bytes)
+				return value + " " + unit.name();
+		}
+		return bytes + " " + FilesizeUnit.Byte.name();
+	}
+
 	// Returned array has size 2 and may contain null values.
 	@Nullable
 	public Long[] getValuesInKB() {
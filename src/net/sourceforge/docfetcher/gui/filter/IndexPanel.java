@@ -38,6 +38,7 @@ import net.sourceforge.docfetcher.model.index.IndexingQueue.Rejection;
 import net.sourceforge.docfetcher.model.index.Task.IndexAction;
 import net.sourceforge.docfetcher.model.index.file.FileIndex;
 import net.sourceforge.docfetcher.model.index.outlook.OutlookIndex;
+import net.sourceforge.docfetcher.model.search.Searcher;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
@@ -81,6 +82,10 @@ public final class IndexPanel {
 	}
 	
 	public final Event<Void> evtCheckStatesChanged = new Event<Void>();
+	/**
+	 * Fired with the UID prefixes of the folders whose documents should be
+	 * listed.
+	 */
 	public final Event<Set<String>> evtListDocuments = new Event<Set<String>>();
 	public final Event<Rectangle> evtIndexingDialogMinimized = new Event<Rectangle>();
 	public final Event<Void> evtIndexingDialogOpened = new Event<Void>();
@@ -515,10 +520,13 @@ public final class IndexPanel {
 			}
 			public void run() {
 				List<ViewNode> selection = viewer.getSelection();
-				Set<String> uids = new HashSet<String>();
-				for (ViewNode viewNode : selection)
-					uids.addAll(viewNode.getDocumentIds());
-				evtListDocuments.fire(uids);
+				Set<String> uidPrefixes = new HashSet<String>();
+				for (ViewNode viewNode : selection) {
+					String uidPrefix = getUidPrefix(viewNode);
+					if (uidPrefix != null)
+						uidPrefixes.add(uidPrefix);
+				}
+				evtListDocuments.fire(uidPrefixes);
 			}
 		});
 		
@@ -635,6 +643,22 @@ public final class IndexPanel {
 		return getNearestFile(parent);
 	}
 
+	// Returns the UID prefix of the documents below the given index or folder,
+	// or null if the folder doesn't belong to any registered index.
+	@Nullable
+	private String getUidPrefix(@NotNull ViewNode viewNode) {
+		if (viewNode instanceof LuceneIndex) {
+			LuceneIndex index = (LuceneIndex) viewNode;
+			return Searcher.getUidPrefix(index, index.getRootFolder().getPath());
+		}
+		Folder<?, ?> folder = (Folder<?, ?>) viewNode;
+		Folder<?, ?> root = folder.getRoot();
+		for (LuceneIndex index : indexRegistry.getIndexes())
+			if (index.getRootFolder() == root)
+				return Searcher.getUidPrefix(index, folder.getPath());
+		return null;
+	}
+
 	@NotNull
 	public Tree getControl() {
 		return tree;
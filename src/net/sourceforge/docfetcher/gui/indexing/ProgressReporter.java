@@ -11,9 +11,14 @@
 
 package net.sourceforge.docfetcher.gui.indexing;
 
+import java.util.List;
+
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.model.index.IndexingError;
 import net.sourceforge.docfetcher.model.index.IndexingInfo;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.ParserStats;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Phase;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
@@ -24,13 +29,6 @@ import net.sourceforge.docfetcher.util.annotations.Nullable;
  */
 final class ProgressReporter extends IndexingReporter {
 	
-	/*
-	 * TODO post-release-1.1: maybe print out some filesize-based info at the end:
-	 * - file throughput (MB/sec, files/sec)
-	 * - average filesize
-	 * take care when calculating filesizes for HTML pairs!
-	 */
-	
 	// TODO i18n
 	
 	private final ProgressTable progressTable;
@@ -98,6 +96,46 @@ final class ProgressReporter extends IndexingReporter {
 		return String.format("%,d\t %s", info.getNumber(), displayName);
 	}
 	
+	public void summary(@NotNull IndexingMetrics metrics) {
+		List<ParserStats> parserStats = metrics.getParserStats();
+		if (parserStats.isEmpty())
+			return;
+		ParserStats total = metrics.getTotalStats();
+		long elapsed = metrics.getElapsedNanos();
+		progressTable.append(String.format(
+			"%,d files, %.1f files/s, %.1f MB/s",
+			total.getFiles(),
+			total.getFiles() * 1000000000.0 / Math.max(1, elapsed),
+			total.getBytes() * 1000000000.0 / Math.max(1, elapsed) / (1024 * 1024)));
+		for (ParserStats stats : parserStats)
+			progressTable.append(getMessage(stats));
+		StringBuilder phases = new StringBuilder();
+		for (Phase phase : Phase.values()) {
+			if (phases.length() > 0)
+				phases.append(", ");
+			phases.append(phase.name().toLowerCase().replace('_', ' '));
+			phases.append(' ');
+			phases.append(toHumanReadableDuration(metrics.getNanos(phase) / 1000000));
+		}
+		progressTable.append(phases.toString());
+	}
+	
+	@NotNull
+	private static String getMessage(@NotNull ParserStats stats) {
+		return String.format(
+			"%s: %,d files, %.1f files/s, %.1f MB/s, " +
+			"p50/p95/p99 %d/%d/%d ms, %d failed, %d out of memory",
+			stats.getParserName(),
+			stats.getFiles(),
+			stats.getFilesPerSec(),
+			stats.getBytesPerSec() / (1024 * 1024),
+			stats.getPercentileNanos(50) / 1000000,
+			stats.getPercentileNanos(95) / 1000000,
+			stats.getPercentileNanos(99) / 1000000,
+			stats.getFailures(),
+			stats.getOutOfMemoryErrors());
+	}
+	
 	public void fail(@NotNull IndexingError error) {
 		String displayName = error.getTreeNode().getDisplayName();
 		progressTable.append("### " + Msg.error.format(displayName));
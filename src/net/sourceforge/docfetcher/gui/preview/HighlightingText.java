@@ -17,11 +17,13 @@ import java.util.List;
 
 import net.sourceforge.docfetcher.enums.Img;
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.enums.SettingsConf;
 import net.sourceforge.docfetcher.gui.UtilGui;
 import net.sourceforge.docfetcher.model.search.HighlightedString;
 import net.sourceforge.docfetcher.model.search.Range;
 import net.sourceforge.docfetcher.util.Event;
+import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.gui.ContextMenuManager;
@@ -33,6 +35,8 @@ import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.events.PaintEvent;
+import org.eclipse.swt.events.PaintListener;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.Point;
@@ -40,18 +44,43 @@ import org.eclipse.swt.graphics.Resource;
 import org.eclipse.swt.widgets.Composite;
 
 /**
+ * A read-only text viewer with highlighted search hits.
+ * <p>
+ * In order to keep the viewer responsive on huge documents, the full text and
+ * the hit positions are kept in a model, and only a window of the text around
+ * the visible region is put into the underlying {@code StyledText}. When the
+ * user scrolls close to one of the edges of the window, the window is moved
+ * so that it is centered on the visible region again. Hit navigation operates
+ * on the model and moves the window as needed. Texts that are shorter than
+ * the window size are shown in their entirety.
+ * 
  * @author Tran Nam Quang
  */
 final class HighlightingText {
 	
 	private static final int margin = 10;
 	
+	/*
+	 * How far the window start is moved backwards in order to start the
+	 * window at the beginning of a line.
+	 */
+	private static final int maxLineSearch = 1000;
+	
 	@NotNull private StyledText textViewer; //TODO Replace with: http://sourceforge.net/projects/jintilla
 	@NotNull private StyleRange highlightStyle;
 	@NotNull private Color highlightColor;
 	
+	// The model: text segments and hit ranges (start, length) in model offsets
+	private final List<String> segments = new ArrayList<String>();
 	private final List<int[]> rangesList = new ArrayList<int[]>();
+	private int textLength;
 	private int occCount;
+	
+	// Model offset of the first character in the text widget
+	private int windowStart;
+	private final int windowSize = ProgramConf.Int.PreviewWindowSize.get();
+	private boolean windowMovePending = false;
+	
 	private Font normalFont;
 	private Font monoFont;
 	
@@ -62,6 +91,22 @@ final class HighlightingText {
 		textViewer.setContent(new AppendingStyledTextContent());
 		setHighlightColorAndStyle();
 		
+		// Move the window when the user scrolls close to one of its edges
+		textViewer.addPaintListener(new PaintListener() {
+			public void paintControl(PaintEvent e) {
+				if (windowMovePending || !isNearWindowEdge())
+					return;
+				windowMovePending = true;
+				Util.runAsyncExec(textViewer, new Runnable() {
+					public void run() {
+						windowMovePending = false;
+						if (isNearWindowEdge())
+							centerWindowOnTopLine();
+					}
+				});
+			}
+		});
+		
 		// Update highlight color when preferences entry changes
 		SettingsConf.IntArray.PreviewHighlighting.evtChanged.add(new Event.Listener<int[]>() {
 			public void update(int[] eventData) {
@@ -131,8 +176,11 @@ final class HighlightingText {
 	
 	public void clear() {
 		textViewer.setText("");
+		segments.clear();
 		rangesList.clear();
+		textLength = 0;
 		occCount = 0;
+		windowStart = 0;
 	}
 	
 	public void setUseMonoFont(boolean useMonoFont) {
@@ -149,56 +197,159 @@ final class HighlightingText {
 	}
 	
 	public void setText(@NotNull HighlightedString string) {
+		segments.clear();
 		rangesList.clear();
+		textLength = 0;
 		occCount = 0;
+		windowStart = 0;
 		
-		textViewer.setText(string.getString());
+		textViewer.setText("");
 		if (string.isEmpty())
 			return;
 		
-		int[] rangeArray = getRangeArray(string, 0);
-		if (SettingsConf.Bool.HighlightingEnabled.get()) {
-			StyleRange[] styles = getStylesArray(string);
-			textViewer.setStyleRanges(rangeArray, styles);
-		}
-		
-		rangesList.add(rangeArray);
-		occCount = string.getRangeCount();
+		addToModel(string);
+		setWindow(0);
 	}
 	
 	public void appendText(@NotNull HighlightedString string) {
 		if (string.isEmpty())
 			return;
 		
-		int offset = textViewer.getCharCount();
-		textViewer.append(string.getString());
+		int offset = textLength;
+		addToModel(string);
 		
-		int[] rangeArray = getRangeArray(string, offset);
+		/*
+		 * Only put the new text into the widget if the window reaches the end
+		 * of the text and the window size isn't exceeded. Otherwise, the new
+		 * text will be shown when the window is moved.
+		 */
+		int charCount = textViewer.getCharCount();
+		if (windowStart + charCount != offset
+				|| charCount + string.length() > windowSize)
+			return;
+		textViewer.append(string.getString());
 		if (SettingsConf.Bool.HighlightingEnabled.get()) {
-			StyleRange[] styles = getStylesArray(string);
-			textViewer.setStyleRanges(offset, string.length(), rangeArray, styles);
+			int[] rangeArray = getRangeArray(string, offset - windowStart);
+			StyleRange[] styles = getStylesArray(string.getRangeCount());
+			textViewer.setStyleRanges(
+				offset - windowStart, string.length(), rangeArray, styles);
 		}
-		
-		rangesList.add(rangeArray);
+	}
+	
+	private void addToModel(@NotNull HighlightedString string) {
+		segments.add(string.getString());
+		rangesList.add(getRangeArray(string, textLength));
+		textLength += string.length();
 		occCount += string.getRangeCount();
 	}
 	
 	public void updateHighlighting() {
 		if (SettingsConf.Bool.HighlightingEnabled.get()) {
-			int[] fullRangeArray = new int[2 * occCount];
-			int offset = 0;
-			for (int[] array : rangesList) {
-				System.arraycopy(array, 0, fullRangeArray, offset, array.length);
-				offset += array.length;
+			// Collect the ranges inside the window, in widget offsets
+			int windowEnd = windowStart + textViewer.getCharCount();
+			int[] rangeArray = new int[2 * occCount];
+			int count = 0;
+			for (int[] ranges : rangesList) {
+				for (int i = 0; i < ranges.length - 1; i += 2) {
+					int start = Math.max(ranges[i], windowStart);
+					int end = Math.min(ranges[i] + ranges[i + 1], windowEnd);
+					if (start >= end)
+						continue;
+					rangeArray[count * 2] = start - windowStart;
+					rangeArray[count * 2 + 1] = end - start;
+					count++;
+				}
 			}
-			StyleRange[] styleArray = new StyleRange[occCount];
-			Arrays.fill(styleArray, highlightStyle);
-			textViewer.setStyleRanges(fullRangeArray, styleArray);
+			textViewer.setStyleRanges(
+				Arrays.copyOf(rangeArray, 2 * count), getStylesArray(count));
 		}
 		else {
 			textViewer.setStyleRanges(new StyleRange[0]);
 		}
 	}
+	
+	/**
+	 * Puts the part of the model text that starts at the given model offset
+	 * into the widget. The start is moved to the beginning of the line if the
+	 * line start is close enough.
+	 */
+	private void setWindow(int start) {
+		start = Util.clamp(start, 0, Math.max(0, textLength - windowSize));
+		for (int i = start - 1; i >= 0 && i >= start - maxLineSearch; i--) {
+			if (charAt(i) == '\n') {
+				start = i + 1;
+				break;
+			}
+		}
+		int end = Math.min(textLength, start + windowSize);
+		windowStart = start;
+		textViewer.setText(getModelText(start, end));
+		updateHighlighting();
+	}
+	
+	// Returns true if the visible region is close to an edge of the window
+	// that isn't an edge of the model text
+	private boolean isNearWindowEdge() {
+		int charCount = textViewer.getCharCount();
+		if (charCount == textLength)
+			return false;
+		int topOffset = textViewer.getOffsetAtLine(textViewer.getTopIndex());
+		int edgeDistance = windowSize / 4;
+		if (windowStart > 0 && topOffset < edgeDistance)
+			return true;
+		return windowStart + charCount < textLength
+			&& topOffset > charCount - edgeDistance;
+	}
+	
+	private void centerWindowOnTopLine() {
+		int topOffset = windowStart
+			+ textViewer.getOffsetAtLine(textViewer.getTopIndex());
+		Point sel = textViewer.getSelection();
+		int selStart = windowStart + sel.x;
+		int selEnd = windowStart + sel.y;
+		
+		textViewer.setRedraw(false);
+		setWindow(topOffset - windowSize / 2);
+		int windowEnd = windowStart + textViewer.getCharCount();
+		if (sel.x != sel.y && selStart >= windowStart && selEnd <= windowEnd)
+			textViewer.setSelection(selStart - windowStart, selEnd - windowStart);
+		textViewer.setTopIndex(textViewer.getLineAtOffset(topOffset - windowStart));
+		textViewer.setRedraw(true);
+	}
+	
+	// Makes sure the given range of model offsets is inside the window
+	private void showInWindow(int start, int end) {
+		int windowEnd = windowStart + textViewer.getCharCount();
+		if (start >= windowStart && end <= windowEnd)
+			return;
+		setWindow((start + end - windowSize) / 2);
+	}
+	
+	@NotNull
+	private String getModelText(int start, int end) {
+		if (segments.size() == 1)
+			return segments.get(0).substring(start, end);
+		StringBuilder sb = new StringBuilder(end - start);
+		int offset = 0;
+		for (String segment : segments) {
+			int segmentEnd = offset + segment.length();
+			if (segmentEnd > start && offset < end)
+				sb.append(segment, Math.max(start, offset) - offset,
+					Math.min(end, segmentEnd) - offset);
+			offset = segmentEnd;
+		}
+		return sb.toString();
+	}
+	
+	private char charAt(int index) {
+		int offset = 0;
+		for (String segment : segments) {
+			if (index < offset + segment.length())
+				return segment.charAt(index - offset);
+			offset += segment.length();
+		}
+		throw new IndexOutOfBoundsException();
+	}
 
 	/**
 	 * Selects and scrolls to the nearest occurrence, if one exists, starting
@@ -212,7 +363,7 @@ final class HighlightingText {
 	@Nullable
 	public Integer goTo(boolean forward) {
 		Point sel = textViewer.getSelection();
-		int searchStart = forward ? sel.y : sel.x;
+		int searchStart = windowStart + (forward ? sel.y : sel.x);
 		return goTo(forward, searchStart);
 	}
 	
@@ -238,8 +389,7 @@ final class HighlightingText {
 		if (tokenStart == -1)
 			return;
 		
-		textViewer.setSelection(tokenStart, tokenEnd);
-		scrollToMiddle((tokenStart + tokenEnd) / 2);
+		select(tokenStart, tokenEnd);
 	}
 	
 	/**
@@ -251,7 +401,7 @@ final class HighlightingText {
 	 */
 	@Nullable
 	public Integer goToLast() {
-		return goTo(false, textViewer.getCharCount());
+		return goTo(false, textLength);
 	}
 	
 	@Nullable
@@ -292,10 +442,16 @@ final class HighlightingText {
 		if (tokenStart == -1)
 			return null;
 		
-		textViewer.setSelection(tokenStart, tokenEnd);
-		scrollToMiddle((tokenStart + tokenEnd) / 2);
+		select(tokenStart, tokenEnd);
 		return tokenIndex;
 	}
+	
+	// Selects and scrolls to the given range of model offsets
+	private void select(int start, int end) {
+		showInWindow(start, end);
+		textViewer.setSelection(start - windowStart, end - windowStart);
+		scrollToMiddle((start + end) / 2 - windowStart);
+	}
 
 	@NotNull
 	private static int[] getRangeArray(@NotNull HighlightedString string,
@@ -310,8 +466,8 @@ final class HighlightingText {
 	}
 	
 	@NotNull
-	private StyleRange[] getStylesArray(@NotNull HighlightedString string) {
-		StyleRange[] styles = new StyleRange[string.getRangeCount()];
+	private StyleRange[] getStylesArray(int count) {
+		StyleRange[] styles = new StyleRange[count];
 		Arrays.fill(styles, highlightStyle);
 		return styles;
 	}
@@ -13,7 +13,10 @@ package net.sourceforge.docfetcher.gui.preview;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -73,6 +76,8 @@ public final class PreviewPanel extends Composite {
 	private final DelayedOverlay delayedOverlay;
 	private final StyledText errorField;
 	@Nullable private Color lightRed; // Only allocated when needed
+	private final PreviewPrefetcher prefetcher = new PreviewPrefetcher(
+		ProgramConf.Int.PreviewPrefetchMaxChars.get());
 	
 	// These fields should only be accessed by the GUI thread
 	@Nullable private ResultDocument lastDoc;
@@ -109,6 +114,7 @@ public final class PreviewPanel extends Composite {
 		addDisposeListener(new DisposeListener() {
 			public void widgetDisposed(DisposeEvent e) {
 				disposeLastResources();
+				prefetcher.shutdown();
 				if (lightRed != null)
 					lightRed.dispose();
 			}
@@ -134,6 +140,43 @@ public final class PreviewPanel extends Composite {
 		setPreviewUnchecked(doc);
 	}
 	
+	/**
+	 * Extracts and highlights the text of the given documents in the
+	 * background, so that they can be shown immediately when they are passed
+	 * to {@link #setPreview(ResultDocument)} later. Documents that were
+	 * previously passed to this method but haven't been prefetched yet are
+	 * skipped.
+	 */
+	@NotThreadSafe
+	public void prefetch(@NotNull List<ResultDocument> docs) {
+		Util.checkNotNull(docs);
+		Util.assertSwtThread();
+		if (!ProgramConf.Bool.TextPreviewEnabled.get())
+			return;
+		List<ResultDocument> textDocs = new ArrayList<ResultDocument>(docs.size());
+		for (ResultDocument doc : docs)
+			if (!doc.isEmail() && !isShownInBrowser(doc))
+				textDocs.add(doc);
+		prefetcher.prefetch(textDocs);
+	}
+	
+	/**
+	 * Discards the prefetched text of all documents that are not among the
+	 * given documents. This should be called when the result documents have
+	 * changed.
+	 */
+	@ThreadSafe
+	public void retainPrefetched(@NotNull Collection<ResultDocument> docs) {
+		prefetcher.retainAll(docs);
+	}
+	
+	@NotThreadSafe
+	private boolean isShownInBrowser(@NotNull ResultDocument doc) {
+		return doc.isHtmlFile()
+			&& SettingsConf.Bool.PreferHtmlPreview.get()
+			&& !browserCreationFailed;
+	}
+	
 	@ThreadSafe
 	public boolean setHtmlFile(@NotNull File file) {
 		Util.checkNotNull(file);
@@ -168,7 +211,11 @@ public final class PreviewPanel extends Composite {
 		else if (doc.isPdfFile() || doc.isChmFile()) {
 			moveToTop(textPreview);
 			clearPreviews(true, true, true, true);
-			new PagingThread(doc, requestCount).start();
+			List<HighlightedString> pages = prefetcher.get(doc);
+			if (pages != null)
+				setTextSafely(pages, false, requestCount, true);
+			else
+				new PagingThread(doc, requestCount).start();
 		}
 		else if (doc.isHtmlFile()
 				&& SettingsConf.Bool.PreferHtmlPreview.get()
@@ -181,7 +228,11 @@ public final class PreviewPanel extends Composite {
 			textPreview.setHtmlButtonEnabled(htmlEnabled);
 			moveToTop(textPreview);
 			clearPreviews(false, false, true, true);
-			new TextThread(doc, requestCount).start();
+			List<HighlightedString> pages = prefetcher.get(doc);
+			if (pages != null)
+				setTextSafely(pages, doc.isPlainTextFile(), requestCount, false);
+			else
+				new TextThread(doc, requestCount).start();
 		}
 	}
 	
@@ -443,8 +494,10 @@ public final class PreviewPanel extends Composite {
 			};
 			updater.start();
 			
+			final List<HighlightedString> pages = new ArrayList<HighlightedString>();
 			doc.readPages(new PreviewPageHandler() {
 				public void handlePage(HighlightedString pageText) {
+					pages.add(pageText);
 					queue.put(new Item(pageText, false));
 				}
 				public boolean isStopped() {
@@ -453,6 +506,10 @@ public final class PreviewPanel extends Composite {
 			});
 			
 			queue.put(new Item(null, true));
+			
+			// Keep the pages in case the user comes back to this document
+			if (!isStopped)
+				prefetcher.put(doc, pages);
 		}
 	}
 	
@@ -464,6 +521,7 @@ public final class PreviewPanel extends Composite {
 		protected void doRun(Hider overlayHider) throws ParseException,
 				FileNotFoundException, CheckedOutOfMemoryError {
 			HighlightedString string = doc.getHighlightedText();
+			prefetcher.put(doc, Collections.singletonList(string));
 			setTextSafely(string, doc.isPlainTextFile(), startCount, false);
 		}
 	}
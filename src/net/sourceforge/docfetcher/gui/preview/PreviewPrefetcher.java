@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.gui.preview;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.docfetcher.model.parse.ParseException;
+import net.sourceforge.docfetcher.model.search.HighlightedString;
+import net.sourceforge.docfetcher.model.search.ResultDocument;
+import net.sourceforge.docfetcher.model.search.ResultDocument.PreviewPageHandler;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.ImmutableCopy;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+/**
+ * Extracts and highlights the text of result documents in a background thread
+ * before they are shown on the preview panel, so that the user can step
+ * through the results without waiting for each file to be parsed.
+ * <p>
+ * The highlighted text is kept in a cache whose total size is bounded by a
+ * number of characters. The least recently used documents are evicted first.
+ * Since the highlighting depends on the query, the cache is keyed by result
+ * document identity rather than by file path.
+ * <p>
+ * Only documents whose preview consists of highlighted text are supported,
+ * i.e. no e-mails and no HTML files shown in the browser.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class PreviewPrefetcher {
+
+	private final int maxChars;
+
+	// Iteration order is from least to most recently used
+	private final LinkedHashMap<ResultDocument, List<HighlightedString>> cache = new LinkedHashMap<ResultDocument, List<HighlightedString>>(16, 0.75f, true); // guarded by 'this' lock
+	private long cacheChars = 0; // guarded by 'this' lock
+	private final LinkedList<ResultDocument> queue = new LinkedList<ResultDocument>(); // guarded by 'this' lock
+	@Nullable private ResultDocument currentDoc; // guarded by 'this' lock
+	@Nullable private Thread thread; // guarded by 'this' lock
+
+	/*
+	 * Incremented whenever the document currently being prefetched becomes
+	 * obsolete, so that the prefetching thread can stop early and discard its
+	 * output.
+	 */
+	private long generation = 0; // guarded by 'this' lock
+	private boolean isShutdown = false; // guarded by 'this' lock
+
+	public PreviewPrefetcher(int maxChars) {
+		Util.checkThat(maxChars >= 0);
+		this.maxChars = maxChars;
+	}
+
+	/**
+	 * Returns the cached pages of the given document, or null if the document
+	 * is not in the cache.
+	 */
+	@ImmutableCopy
+	@Nullable
+	public synchronized List<HighlightedString> get(@NotNull ResultDocument doc) {
+		List<HighlightedString> pages = cache.get(doc);
+		return pages == null ? null : new ArrayList<HighlightedString>(pages);
+	}
+
+	/**
+	 * Puts the given pages of the given document into the cache. Pages that
+	 * exceed the cache size on their own are ignored.
+	 */
+	public synchronized void put(	@NotNull ResultDocument doc,
+									@NotNull List<HighlightedString> pages) {
+		Util.checkNotNull(doc, pages);
+		if (isShutdown)
+			return;
+		long chars = countChars(pages);
+		if (chars > maxChars)
+			return;
+		List<HighlightedString> oldPages = cache.remove(doc);
+		if (oldPages != null)
+			cacheChars -= countChars(oldPages);
+		Iterator<List<HighlightedString>> it = cache.values().iterator();
+		while (cacheChars + chars > maxChars && it.hasNext()) {
+			cacheChars -= countChars(it.next());
+			it.remove();
+		}
+		cache.put(doc, new ArrayList<HighlightedString>(pages));
+		cacheChars += chars;
+	}
+
+	/**
+	 * Replaces the documents waiting to be prefetched with the given documents,
+	 * which will be prefetched in the given order. Documents that are already
+	 * in the cache are skipped.
+	 */
+	public synchronized void prefetch(@NotNull List<ResultDocument> docs) {
+		Util.checkNotNull(docs);
+		if (isShutdown || maxChars == 0)
+			return;
+		queue.clear();
+		for (ResultDocument doc : docs)
+			if (!cache.containsKey(doc) && doc != currentDoc)
+				queue.add(doc);
+		if (queue.isEmpty())
+			return;
+		if (thread == null) {
+			thread = new Thread(PreviewPrefetcher.class.getName()) {
+				public void run() {
+					runPrefetching();
+				}
+			};
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Removes all documents that are not among the given documents from the
+	 * cache and from the prefetching queue, and cancels the prefetching of the
+	 * current document if it is not among the given documents either. This
+	 * should be called when the result documents have changed, e.g. after a
+	 * new search.
+	 */
+	public synchronized void retainAll(@NotNull Collection<ResultDocument> docs) {
+		Set<ResultDocument> docSet = Collections.newSetFromMap(
+			new IdentityHashMap<ResultDocument, Boolean>());
+		docSet.addAll(docs);
+		queue.retainAll(docSet);
+		Iterator<Map.Entry<ResultDocument, List<HighlightedString>>> it = cache.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<ResultDocument, List<HighlightedString>> entry = it.next();
+			if (docSet.contains(entry.getKey()))
+				continue;
+			cacheChars -= countChars(entry.getValue());
+			it.remove();
+		}
+		if (currentDoc != null && !docSet.contains(currentDoc))
+			generation++;
+	}
+
+	/**
+	 * Cancels all prefetching, clears the cache and stops the prefetching
+	 * thread. The receiver cannot be used anymore after calling this method.
+	 */
+	public synchronized void shutdown() {
+		isShutdown = true;
+		generation++;
+		queue.clear();
+		cache.clear();
+		cacheChars = 0;
+		notifyAll();
+	}
+
+	private void runPrefetching() {
+		while (true) {
+			ResultDocument doc;
+			long startGeneration;
+			synchronized (this) {
+				currentDoc = null;
+				while (queue.isEmpty() && !isShutdown) {
+					try {
+						wait();
+					}
+					catch (InterruptedException e) {
+						// Ignore
+					}
+				}
+				if (isShutdown) {
+					thread = null;
+					return;
+				}
+				doc = queue.removeFirst();
+				currentDoc = doc;
+				startGeneration = generation;
+			}
+
+			/*
+			 * Errors are ignored here; they will be reported when the
+			 * document is actually shown on the preview panel.
+			 */
+			List<HighlightedString> pages = null;
+			try {
+				pages = extract(doc, startGeneration);
+			}
+			catch (ParseException e) {
+			}
+			catch (FileNotFoundException e) {
+			}
+			catch (CheckedOutOfMemoryError e) {
+				// Free some memory
+				synchronized (this) {
+					cache.clear();
+					cacheChars = 0;
+				}
+			}
+			catch (RuntimeException e) {
+				Util.printErr(e);
+			}
+
+			synchronized (this) {
+				if (pages != null && generation == startGeneration)
+					put(doc, pages);
+			}
+		}
+	}
+
+	// Returns null if the extraction was canceled or exceeded the cache size
+	@Nullable
+	private List<HighlightedString> extract(@NotNull ResultDocument doc,
+	                                        final long startGeneration)
+			throws ParseException, FileNotFoundException,
+			CheckedOutOfMemoryError {
+		if (!doc.isPdfFile() && !doc.isChmFile())
+			return Collections.singletonList(doc.getHighlightedText());
+
+		final List<HighlightedString> pages = new ArrayList<HighlightedString>();
+		final long[] chars = new long[1];
+		doc.readPages(new PreviewPageHandler() {
+			public void handlePage(HighlightedString pageText) {
+				pages.add(pageText);
+				chars[0] += pageText.length();
+			}
+			public boolean isStopped() {
+				return chars[0] > maxChars || isStale(startGeneration);
+			}
+		});
+		if (chars[0] > maxChars || isStale(startGeneration))
+			return null;
+		return pages;
+	}
+
+	private synchronized boolean isStale(long startGeneration) {
+		return generation != startGeneration;
+	}
+
+	private static long countChars(@NotNull List<HighlightedString> pages) {
+		long chars = 0;
+		for (HighlightedString page : pages)
+			chars += page.length();
+		return chars;
+	}
+
+}
@@ -16,6 +16,12 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import net.sourceforge.docfetcher.model.index.IndexingQueue;
 import net.sourceforge.docfetcher.model.index.Task.IndexAction;
@@ -29,12 +35,32 @@ import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
 
 /**
+ * Communicates with the native daemon, which watches the indexed folders
+ * while DocFetcher isn't running.
+ * <p>
+ * The daemon reads the indexed folders from the indexes file. When it detects
+ * a change in a folder, it appends the directory in which the change occurred
+ * to the journal file, skipping directories that are already journaled
+ * together with one of their ancestors. If the journal of a folder grows too
+ * large, or if the changes can't be tracked for other reasons, the daemon
+ * flags the whole folder as modified in the indexes file with a leading '#'.
+ * <p>
+ * On startup, DocFetcher updates the flagged folders completely, and for the
+ * other folders only the journaled directories and everything below them.
+ *
  * @author Tran Nam Quang
  */
 public final class Daemon {
 	
+	/*
+	 * Maximum number of journaled directories of an index above which the
+	 * index is updated completely.
+	 */
+	private static final int MAX_DIRTY_DIRS = 1000;
+	
 	private final IndexRegistry indexRegistry;
 	private final File indexesFile;
+	private final File journalFile;
 
 	public Daemon(@NotNull IndexRegistry indexRegistry) {
 		Util.checkNotNull(indexRegistry);
@@ -42,6 +68,7 @@ public final class Daemon {
 		
 		File indexParentDir = indexRegistry.getIndexParentDir();
 		indexesFile = new File(indexParentDir, ".indexes.txt");
+		journalFile = new File(indexParentDir, ".indexes.txt.journal");
 		
 		/*
 		 * Open a FileOutputStream for writing. This lets the daemon know that
@@ -74,6 +101,7 @@ public final class Daemon {
 			return; // Happens when we're inside the IDE
 		
 		final IndexingQueue queue = indexRegistry.getQueue();
+		final Set<LuceneIndex> modifiedIndexes = new LinkedHashSet<LuceneIndex>();
 		try {
 			Files.readLines(indexesFile, Charsets.UTF_8, new LineProcessor<Void>() {
 				public boolean processLine(String line) throws IOException {
@@ -90,7 +118,7 @@ public final class Daemon {
 					if (index == null)
 						return true; // Unknown directory?
 					
-					queue.addTask(index, IndexAction.UPDATE);
+					modifiedIndexes.add(index);
 					return true;
 				}
 				public Void getResult() {
@@ -102,6 +130,67 @@ public final class Daemon {
 			// Don't show stacktrace window here, GUI might not be available
 			Util.printErr(e);
 		}
+		
+		Map<LuceneIndex, List<File>> dirtyDirsMap = readJournal(
+			journalFile, indexRegistry.getIndexes());
+		
+		for (LuceneIndex index : modifiedIndexes)
+			queue.addTask(index, IndexAction.UPDATE);
+		for (Map.Entry<LuceneIndex, List<File>> entry : dirtyDirsMap.entrySet()) {
+			LuceneIndex index = entry.getKey();
+			List<File> dirtyDirs = entry.getValue();
+			if (modifiedIndexes.contains(index))
+				continue;
+			if (dirtyDirs.size() > MAX_DIRTY_DIRS)
+				queue.addTask(index, IndexAction.UPDATE);
+			else
+				queue.addTask(index, IndexAction.UPDATE, dirtyDirs);
+		}
+	}
+	
+	/**
+	 * Reads the directories in the given journal file and assigns them to
+	 * those of the given indexes that contain them. Returns an empty map if the
+	 * journal file doesn't exist or can't be read.
+	 */
+	@NotNull
+	static Map<LuceneIndex, List<File>> readJournal(@NotNull File journalFile,
+													@NotNull final List<LuceneIndex> indexes) {
+		final Map<LuceneIndex, List<File>> dirtyDirsMap = new LinkedHashMap<LuceneIndex, List<File>>();
+		if (!journalFile.exists())
+			return dirtyDirsMap;
+		try {
+			Files.readLines(journalFile, Charsets.UTF_8, new LineProcessor<Void>() {
+				public boolean processLine(String line) throws IOException {
+					if (line.trim().isEmpty() || line.startsWith("//")) //$NON-NLS-1$
+						return true;
+					File dir = new File(line).getAbsoluteFile();
+					Path dirPath = new Path(dir);
+					for (LuceneIndex index : indexes) {
+						if (index.isEmailIndex())
+							continue;
+						File rootFile = index.getCanonicalRootFile();
+						if (!rootFile.equals(dir) && !new Path(rootFile).contains(dirPath))
+							continue;
+						List<File> dirtyDirs = dirtyDirsMap.get(index);
+						if (dirtyDirs == null) {
+							dirtyDirs = new ArrayList<File>();
+							dirtyDirsMap.put(index, dirtyDirs);
+						}
+						dirtyDirs.add(dir);
+						break;
+					}
+					return true;
+				}
+				public Void getResult() {
+					return null;
+				}
+			});
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+		return dirtyDirsMap;
 	}
 	
 	@Nullable
@@ -128,6 +217,14 @@ public final class Daemon {
 		finally {
 			Closeables.closeQuietly(writer);
 		}
+		
+		/*
+		 * Like the flags in the indexes file, the journal is only cleared
+		 * after the indexing queue has terminated, so that the journaled
+		 * changes aren't lost if the program crashes before the updates have
+		 * finished. The journal will be recreated by the daemon.
+		 */
+		journalFile.delete();
 	}
 
 }
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class DaemonTest {
+
+	@Test
+	public void testReadJournal() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File root1 = Util.getCanonicalFile(new File(tempDir, "root1"));
+			File root2 = Util.getCanonicalFile(new File(tempDir, "root2"));
+			root1.mkdir();
+			root2.mkdir();
+			FileIndex index1 = new FileIndex(null, root1);
+			FileIndex index2 = new FileIndex(null, root2);
+
+			File journalFile = new File(tempDir, ".indexes.txt.journal");
+			String journal = Joiner.on('\n').join(
+				"//Comment line",
+				new File(root1, "a").getPath(),
+				new File(root2, "b/c").getPath(),
+				new File(root1, "d").getPath(),
+				new File(tempDir, "unknown").getPath(),
+				"");
+			Files.write(journal, journalFile, Charsets.UTF_8);
+
+			List<LuceneIndex> indexes = Arrays.<LuceneIndex>asList(index1, index2);
+			Map<LuceneIndex, List<File>> dirtyDirsMap = Daemon.readJournal(journalFile, indexes);
+			assertEquals(2, dirtyDirsMap.size());
+			assertEquals(Arrays.asList(new File(root1, "a"), new File(root1, "d")), dirtyDirsMap.get(index1));
+			assertEquals(Arrays.asList(new File(root2, "b/c")), dirtyDirsMap.get(index2));
+
+			// Missing journal
+			assertTrue(Daemon.readJournal(new File(tempDir, "missing"), indexes).isEmpty());
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+}
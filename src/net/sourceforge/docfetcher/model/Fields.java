@@ -21,6 +21,9 @@ import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.Field.TermVector;
 import org.apache.lucene.document.NumericField;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 /**
  * @author Tran Nam Quang
  */
@@ -48,19 +51,25 @@ public enum Fields {
 	// The following must be stored as a numeric field in order to enable
 	// filtering and sorting for the web interface
 	SIZE (Store.YES, Index.ANALYZED_NO_NORMS),
-	PARSER (Store.YES, Index.NO), // Use constant EMAIL_PARSER for emails
+	// Indexed for type filtering and facet counting; not indexed in older indexes
+	PARSER (Store.YES, Index.NOT_ANALYZED_NO_NORMS), // Use constant EMAIL_PARSER for emails
+	// Hash of the content for detecting copies, see createSignatureHasher(); optional
+	SIGNATURE (Store.NO, Index.NOT_ANALYZED_NO_NORMS),
 	
 	// Fields available for files
 	FILENAME (Store.YES, Index.ANALYZED),
 	TITLE (Store.YES, Index.ANALYZED),
 	AUTHOR (Store.YES, Index.ANALYZED),
-	LAST_MODIFIED (Store.YES, Index.NO),
+	// Numeric field for sorting and filtering; stored as a string in older indexes
+	LAST_MODIFIED (Store.YES, Index.NOT_ANALYZED_NO_NORMS),
+	PAGE_OFFSETS (Store.YES, Index.NO), // optional, see ParseResult.getPageOffsets()
 	
 	// Fields available for emails
 	SUBJECT (Store.YES, Index.ANALYZED),
 	SENDER (Store.YES, Index.ANALYZED),
 	RECIPIENTS (Store.YES, Index.ANALYZED), // TODO post-release-1.1: show this field on results panel in "email mode"
-	DATE (Store.YES, Index.NO), // this field is optional
+	// Optional numeric field; stored as a string in older indexes
+	DATE (Store.YES, Index.NOT_ANALYZED_NO_NORMS),
 	;
 	
 	public static final String EMAIL_PARSER = "EmailParser";
@@ -93,6 +102,17 @@ public enum Fields {
 		return new NumericField(key, store, true).setLongValue(fieldValue);
 	}
 	
+	/**
+	 * Returns a hasher for computing the value of the {@link #SIGNATURE}
+	 * field. Documents with the same signature are considered copies of each
+	 * other, so the hashed data should only comprise the content and not the
+	 * filename or location of the document.
+	 */
+	@NotNull
+	public static Hasher createSignatureHasher() {
+		return Hashing.murmur3_128().newHasher();
+	}
+	
 	// Will create a tokenized and indexed field that is not stored if the given
 	// fieldValue is not a String
 	// does not store token positions and offsets
@@ -28,6 +28,7 @@ public final class IndexLoadingProblems {
 	private final List<File> obsoleteFiles = new LazyList<File>();
 	private final List<CorruptedIndex> corruptedIndexes = new LazyList<CorruptedIndex>();
 	private final List<OverflowIndex> overflowIndexes = new LazyList<OverflowIndex> ();
+	private final List<LuceneIndex> interruptedIndexes = new LazyList<LuceneIndex>();
 	
 	IndexLoadingProblems() {
 	}
@@ -44,6 +45,10 @@ public final class IndexLoadingProblems {
 		overflowIndexes.add(Util.checkNotNull(index));
 	}
 	
+	void addInterruptedIndex(@NotNull LuceneIndex index) {
+		interruptedIndexes.add(Util.checkNotNull(index));
+	}
+	
 	@NotNull
 	public List<File> getObsoleteFiles() {
 		return Collections.unmodifiableList(obsoleteFiles);
@@ -59,6 +64,16 @@ public final class IndexLoadingProblems {
 		return Collections.unmodifiableList(overflowIndexes);
 	}
 	
+	/**
+	 * Returns the indexes that were restored from a checkpoint because the
+	 * program was terminated while they were being created or updated. These
+	 * indexes are incomplete until they are updated again.
+	 */
+	@NotNull
+	public List<LuceneIndex> getInterruptedIndexes() {
+		return Collections.unmodifiableList(interruptedIndexes);
+	}
+	
 	/**
 	 * A corrupted index that couldn't be loaded during initialization.
 	 */
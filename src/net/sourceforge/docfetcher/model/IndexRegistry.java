@@ -14,6 +14,7 @@ package net.sourceforge.docfetcher.model;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -24,12 +25,17 @@ import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -68,11 +74,19 @@ import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.standard.StandardFilter;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
 import com.google.common.primitives.Longs;
 
@@ -100,6 +114,7 @@ public final class IndexRegistry {
 
 	private static final String SER_FILENAME = "tree-index.ser";
 	private static final String NAME_FILENAME = "index-name.txt";
+	private static final String CHECKPOINT_FILENAME = "tree-index.checkpoint";
 	
 	/*
 	 * This setting prevents errors that would otherwise occur if the user
@@ -121,6 +136,17 @@ public final class IndexRegistry {
 	 */
 	private final Map<LuceneIndex, Long> indexes = Maps.newTreeMap(IndexComparator.instance); // guarded by read-write lock
 
+	/*
+	 * Serializes the writing of tree index files and guards the set of indexes
+	 * whose files are about to be deleted, as well as the indexes that are
+	 * being saved. To avoid deadlocks, the registry lock must not be acquired
+	 * while holding this lock.
+	 */
+	private final Object saveLock = new Object();
+	private final Set<LuceneIndex> deletedIndexes = Collections.newSetFromMap(
+		new WeakHashMap<LuceneIndex, Boolean>()); // guarded by saveLock
+	private final Multiset<LuceneIndex> savingIndexes = HashMultiset.create(); // guarded by saveLock
+
 	/*
 	 * This read-write lock is used for the index registry, the indexing queue,
 	 * the searcher and the folder watcher. With the exception of the searcher,
@@ -250,8 +276,12 @@ public final class IndexRegistry {
 				if (!indexes.containsKey(index))
 					continue;
 				indexes.remove(index);
-				if (deleteFiles)
+				if (deleteFiles) {
+					synchronized (saveLock) {
+						deletedIndexes.add(index);
+					}
 					deletions.add(new PendingDeletion(index));
+				}
 				removed.add(index);
 			}
 
@@ -355,6 +385,7 @@ public final class IndexRegistry {
 				break;
 			if (file.isDirectory()) {
 				File serFile = new File(file, SER_FILENAME);
+				boolean interrupted = restoreCheckpoint(file, serFile);
 				if (serFile.isFile()) {
 					/*
 					 * Try to load the tree-index.ser. If this fails, we're
@@ -363,9 +394,13 @@ public final class IndexRegistry {
 					 * serialization version UID was changed after 1.1 beta 6.
 					 */
 					try {
-						if (!loadIndex(serFile)) {
+						LuceneIndex index = loadIndex(serFile);
+						if (index == null) {
 							loadingProblems.addObsoleteFile(file);
 						}
+						else if (interrupted) {
+							loadingProblems.addInterruptedIndex(index);
+						}
 					} catch (StackOverflowError e) {
 						loadingProblems.addOverflowIndex(new OverflowIndex(file, e));
 					}
@@ -433,11 +468,63 @@ public final class IndexRegistry {
 	}
 
 	/**
-	 * Load the given tree index file. Returns whether the file was successfully
+	 * If the given index directory contains a checkpoint, replaces the tree
+	 * index file with it and returns true. A checkpoint is left behind if the
+	 * program was terminated during an index creation or update, and it is
+	 * always newer than the tree index file, since the latter's saving
+	 * removes the checkpoint.
+	 * <p>
+	 * Nothing is restored if the Lucene index in the given directory is
+	 * currently locked for writing, since in that case the checkpoint belongs
+	 * to an update that is still running in another program instance.
+	 */
+	private static boolean restoreCheckpoint(	@NotNull File indexDir,
+												@NotNull File serFile) {
+		File checkpointFile = new File(indexDir, CHECKPOINT_FILENAME);
+		if (!checkpointFile.isFile())
+			return false;
+		try {
+			Directory luceneDir = FSDirectory.open(indexDir);
+			try {
+				if (IndexWriter.isLocked(luceneDir))
+					return false;
+			}
+			finally {
+				luceneDir.close();
+			}
+			Files.move(
+				checkpointFile.toPath(), serFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Loads the given tree index file and adds the loaded index to the
+	 * registry. Returns the loaded index, or null if the file couldn't be
 	 * loaded.
 	 */
+	@Nullable
+	@ThreadSafe
+	private LuceneIndex loadIndex(@NotNull File serFile) {
+		long lastModified = serFile.lastModified();
+		LuceneIndex index = readIndex(serFile);
+		if (index != null)
+			addIndex(index, lastModified);
+		return index;
+	}
+
+	/**
+	 * Reads the given tree index file without adding the index to the
+	 * registry. Returns the read index, or null if the file couldn't be read.
+	 */
+	@Nullable
 	@ThreadSafe
-	private boolean loadIndex(@NotNull File serFile) {
+	private static LuceneIndex readIndex(@NotNull File serFile) {
 		ObjectInputStream in = null;
 		try {
 			FileInputStream fin = new FileInputStream(serFile);
@@ -456,125 +543,334 @@ public final class IndexRegistry {
 			}
 			//If index can be loaded, load the index name from file
 			index.getRootFolder().setDisplayName(loadIndexName(index.getIndexDirPath()));
-			addIndex(index, serFile.lastModified());
-			return true;
+			return index;
 		}
 		catch (Exception e) {
-			return false;
+			return null;
 		}
 		finally {
 			Closeables.closeQuietly(in);
 		}
 	}
 
-	private void reload() {
-		writeLock.lock();
+	/**
+	 * Brings the registry up to date with the tree index files in the index
+	 * folder, which may have been added, modified or deleted by another
+	 * program instance or by the batch indexer.
+	 * <p>
+	 * Changes are detected by comparing the last-modified values of the tree
+	 * index files with the cached ones, so unchanged indexes are neither read
+	 * nor replaced. New and modified indexes are read without holding the
+	 * registry lock, so that searches aren't blocked in the meantime. The
+	 * registry is then updated in one step under the write lock, and the
+	 * searcher keeps the open readers of all other indexes.
+	 */
+	@VisibleForTesting
+	void reload() {
+		/*
+		 * The index folders are mapped by name rather than by path, since the
+		 * paths of the indexes may be relative in the portable version and
+		 * thus might not match the paths of the listed folders.
+		 */
+		Map<String, LuceneIndex> indexDirMap = Maps.newHashMap();
+		Map<LuceneIndex, Long> oldIndexes;
+		readLock.lock();
 		try {
-			Map<File, LuceneIndex> indexDirMap = Maps.newHashMap();
-			for (LuceneIndex index : indexes.keySet())
-				indexDirMap.put(index.getIndexDirPath().getCanonicalFile(), index);
+			oldIndexes = Maps.newHashMap(indexes);
+		}
+		finally {
+			readLock.unlock();
+		}
+		for (LuceneIndex index : oldIndexes.keySet())
+			indexDirMap.put(index.getIndexDirPath().getName(), index);
+
+		// New and modified indexes, along with the last-modified values
+		Map<LuceneIndex, Long> loadedIndexes = Maps.newLinkedHashMap();
+
+		// Maps the new versions of modified indexes to the old versions
+		Map<LuceneIndex, LuceneIndex> oldVersions = Maps.newHashMap();
+
+		for (File indexDir : Util.listFiles(indexParentDir)) {
+			if (!indexDir.isDirectory())
+				continue;
+			File serFile = new File(indexDir, SER_FILENAME);
+			if (!serFile.isFile())
+				continue;
+
+			LuceneIndex oldIndex = indexDirMap.remove(indexDir.getName());
+			long newLM = serFile.lastModified();
+
+			// Existing index; skip if unmodified or not saved yet
+			if (oldIndex != null) {
+				Long oldLM = oldIndexes.get(oldIndex);
+				if (oldLM == null || oldLM.longValue() == newLM)
+					continue;
+			}
 
 			/*
-			 * The code below is pretty inefficient if many indexes are added,
-			 * modified and/or removed. However, we can assume that these operations
-			 * are usually performed one index at a time, so the inefficiency
-			 * doesn't really matter.
+			 * If the file can't be read, for example because it is still being
+			 * written, the old version of a modified index is kept. The file
+			 * will be read again on the next change notification.
 			 */
+			LuceneIndex newIndex = readIndex(serFile);
+			if (newIndex == null)
+				continue;
+			loadedIndexes.put(newIndex, newLM);
+			if (oldIndex != null)
+				oldVersions.put(newIndex, oldIndex);
+		}
 
-			for (File indexDir : Util.listFiles(indexParentDir)) {
-				if (!indexDir.isDirectory())
-					continue;
-				File serFile = new File(indexDir, SER_FILENAME);
-				if (!serFile.isFile())
-					continue;
+		writeLock.lock();
+		try {
+			List<LuceneIndex> indexesToRemove = new ArrayList<LuceneIndex>();
 
-				LuceneIndex index = indexDirMap.remove(Util.getAbsFile(indexDir));
+			/*
+			 * Indexes without tree index file are removed, unless they haven't
+			 * been saved yet, which is the case if they were just created.
+			 */
+			for (LuceneIndex index : indexDirMap.values())
+				if (indexes.get(index) != null)
+					indexesToRemove.add(index);
 
-				// New index found
-				if (index == null) {
-					loadIndex(serFile);
+			Set<String> indexDirNames = Sets.newHashSet();
+			for (LuceneIndex index : indexes.keySet())
+				indexDirNames.add(index.getIndexDirPath().getName());
+
+			Iterator<LuceneIndex> it = loadedIndexes.keySet().iterator();
+			while (it.hasNext()) {
+				LuceneIndex newIndex = it.next();
+				LuceneIndex oldIndex = oldVersions.get(newIndex);
+				if (oldIndex == null) {
+					// Skip new index if it was added in the meantime
+					if (indexDirNames.contains(newIndex.getIndexDirPath().getName()))
+						it.remove();
+				}
+				else if (indexes.containsKey(oldIndex)
+						&& Objects.equal(indexes.get(oldIndex), oldIndexes.get(oldIndex))
+						&& !isSaving(oldIndex)) {
+					/*
+					 * Replace the old version of the index. Let's just hope it
+					 * isn't in the queue right now.
+					 */
+					indexesToRemove.add(oldIndex);
 				}
-				// Existing index; may have been modified
 				else {
-					Long oldLM = indexes.get(index);
-					long newLM = serFile.lastModified();
-					if (oldLM != null && oldLM.longValue() != newLM) {
-						/*
-						 * Remove the old version of the index and add the new
-						 * version. Let's just hope it isn't in the queue or being
-						 * searched in right now.
-						 */
-						removeIndexes(Collections.singletonList(index), false);
-						loadIndex(serFile);
-					}
+					// Skip modified index if it was saved or removed in the meantime,
+					// or if it is being saved by this program instance
+					it.remove();
 				}
 			}
 
-			// Handle missing indexes
-			removeIndexes(indexDirMap.values(), false);
+			removeIndexes(indexesToRemove, false);
+			for (Map.Entry<LuceneIndex, Long> entry : loadedIndexes.entrySet())
+				addIndex(entry.getKey(), entry.getValue());
 		}
 		finally {
 			writeLock.unlock();
 		}
 	}
 
+	/**
+	 * Saves the given index to disk. This does not put the index back into
+	 * the registry if it was removed in the meantime.
+	 * <p>
+	 * The index is first serialized into memory and then written to disk,
+	 * both without holding the registry lock, so that searches aren't blocked
+	 * while a large index is saved or while the index folder resides on a slow
+	 * network drive. The write lock is only taken to publish the new
+	 * last-modified value of the saved file.
+	 * <p>
+	 * The tree of the index is serialized as it is, so this method must not be
+	 * called while the index is being updated.
+	 */
+	@ThreadSafe
 	@VisibleForPackageGroup
 	public void save(@NotNull LuceneIndex index) {
 		Util.checkNotNull(index);
-		writeLock.lock();
+		File indexDir = index.getIndexDirPath().getCanonicalFile();
+		File serFile = new File(indexDir, SER_FILENAME);
+
+		/*
+		 * DocFetcher might have been burned onto a CD-ROM; if so, then just
+		 * ignore it.
+		 */
+		if (serFile.exists() && !serFile.canWrite())
+			return;
+
+		// Serialized form of the index, written after acquiring the save lock
+		byte[] serialized;
 		try {
-			File indexDir = index.getIndexDirPath().getCanonicalFile();
-			indexDir.mkdirs();
-			File serFile = new File(indexDir, SER_FILENAME);
+			serialized = serialize(index);
+		}
+		catch (StackOverflowError e) {
+			AppUtil.showError("Couldn't save index '" + index.getDisplayName() + "': Folder hierarchy "
+					+ "is too deep! Please reduce the folder depth and rebuild the index.", true, false);
+			return;
+		}
+		catch (IOException e) {
+			Util.printErr(e); // The average user doesn't need to know
+			return;
+		}
 
-			/*
-			 * DocFetcher might have been burned onto a CD-ROM; if so, then just
-			 * ignore it.
-			 */
-			if (serFile.exists() && !serFile.canWrite())
-				return;
+		long lastModified;
+		boolean saving = false;
+		try {
+			synchronized (saveLock) {
+				/*
+				 * Don't write into the folder of an index that is being
+				 * deleted, otherwise the folder might be recreated.
+				 */
+				if (deletedIndexes.contains(index))
+					return;
 
-			ObjectOutputStream out = null;
-			try {
-				serFile.createNewFile();
-				FileOutputStream fout = new FileOutputStream(serFile);
-				FileLock lock = fout.getChannel().lock();
+				/*
+				 * Until the new last-modified value is published below, a
+				 * reload might see the new file along with the old
+				 * last-modified value and mistake the file for one written by
+				 * another program instance, so the reload must skip the index
+				 * in the meantime.
+				 */
+				savingIndexes.add(index);
+				saving = true;
+
+				indexDir.mkdirs();
+				FileOutputStream fout = null;
+				boolean saved = false;
 				try {
-					/*
-					 * Without this BufferedOutputStream, there can be noticeable
-					 * performance problems if the index resides on a network drive.
-					 */
-					out = new ObjectOutputStream(new BufferedOutputStream(fout));
-					out.writeObject(index);
+					serFile.createNewFile();
+					fout = new FileOutputStream(serFile);
+					FileLock lock = fout.getChannel().lock();
+					try {
+						fout.write(serialized);
+						saved = true;
+					}
+					finally {
+						lock.release();
+					}
+				}
+				catch (IOException e) {
+					Util.printErr(e); // The average user doesn't need to know
 				}
 				finally {
-					lock.release();
+					Closeables.closeQuietly(fout);
 				}
+				
+				// The checkpoint of an interrupted update is obsolete now
+				if (saved)
+					deleteCheckpoint(index);
+				
+				if (ProgramConf.Bool.AllowIndexRenaming.get()) {
+					// If saving the index succeeded, save the indexName in a separate file
+					if (!saveIndexName(new File(indexDir, NAME_FILENAME), index.getRootFolder().getDisplayName())) {
+						AppUtil.showError(Msg.rename_index_failed.get(), true, false);
+					}
+				}
+				lastModified = serFile.lastModified();
 			}
-			catch (StackOverflowError e) {
-				AppUtil.showError("Couldn't save index '" + index.getDisplayName() + "': Folder hierarchy "
-						+ "is too deep! Please reduce the folder depth and rebuild the index.", true, false);
-			}
-			catch (IOException e) {
-				Util.printErr(e); // The average user doesn't need to know
+
+			// Update cached last-modified value of index
+			writeLock.lock();
+			try {
+				if (indexes.containsKey(index))
+					indexes.put(index, lastModified);
 			}
 			finally {
-				Closeables.closeQuietly(out);
+				writeLock.unlock();
 			}
-			
-			if (ProgramConf.Bool.AllowIndexRenaming.get()) {
-				// If saving the index succeeded, save the indexName in a separate file
-				if (!saveIndexName(new File(indexDir, NAME_FILENAME), index.getRootFolder().getDisplayName())) {
-					AppUtil.showError(Msg.rename_index_failed.get(), true, false);
+		}
+		finally {
+			// Done after publishing the last-modified value
+			if (saving) {
+				synchronized (saveLock) {
+					savingIndexes.remove(index);
 				}
 			}
+		}
+	}
 
-			// Update cached last-modified value of index
-			indexes.put(index, serFile.lastModified());
+	/**
+	 * Returns whether the files of the given index are about to be deleted,
+	 * i.e. whether the index was removed from the registry with the files
+	 * deletion flag set. Nothing must be written into the folder of such an
+	 * index anymore.
+	 */
+	@ThreadSafe
+	@VisibleForPackageGroup
+	public boolean isDeleted(@NotNull LuceneIndex index) {
+		synchronized (saveLock) {
+			return deletedIndexes.contains(index);
+		}
+	}
+
+	@ThreadSafe
+	private boolean isSaving(@NotNull LuceneIndex index) {
+		synchronized (saveLock) {
+			return savingIndexes.contains(index);
+		}
+	}
+
+	@NotNull
+	private static byte[] serialize(@NotNull LuceneIndex index)
+			throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bout);
+		out.writeObject(index);
+		out.close();
+		return bout.toByteArray();
+	}
+
+	/**
+	 * Writes the given index to a checkpoint file in its index directory,
+	 * from which the index will be restored on the next startup if the
+	 * program is terminated before the index is saved. The index is written
+	 * to a temporary file first, which then replaces the previous checkpoint,
+	 * so that a crash while writing leaves the previous checkpoint intact.
+	 * <p>
+	 * Unlike {@link #save(LuceneIndex)}, this method doesn't add the index to
+	 * the registry and doesn't acquire the registry lock. It is meant to be
+	 * called by the thread that is updating the index.
+	 */
+	static void saveCheckpoint(@NotNull LuceneIndex index) throws IOException {
+		File indexDir = index.getIndexDirPath().getCanonicalFile();
+		indexDir.mkdirs();
+		File tempFile = new File(indexDir, CHECKPOINT_FILENAME + ".tmp");
+		File checkpointFile = new File(indexDir, CHECKPOINT_FILENAME);
+		FileOutputStream fout = new FileOutputStream(tempFile);
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fout));
+			out.writeObject(index);
+			out.flush();
+			fout.getFD().sync();
+		}
+		catch (StackOverflowError e) {
+			throw new IOException(e);
 		}
 		finally {
-			writeLock.unlock();
+			Closeables.close(fout, false);
 		}
+		try {
+			Files.move(
+				tempFile.toPath(), checkpointFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Deletes the checkpoint written by {@link #saveCheckpoint(LuceneIndex)}
+	 * for the given index, if there is one. This must be called whenever an
+	 * index creation or update has finished normally, including the cases
+	 * where the index isn't saved afterwards, since otherwise the obsolete
+	 * checkpoint would be restored on the next startup.
+	 */
+	@VisibleForPackageGroup
+	public static void deleteCheckpoint(@NotNull LuceneIndex index) {
+		File indexDir = index.getIndexDirPath().getCanonicalFile();
+		new File(indexDir, CHECKPOINT_FILENAME).delete();
 	}
 
 	@NotNull
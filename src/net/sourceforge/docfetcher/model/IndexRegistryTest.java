@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.index.Task.CancelAction;
+import net.sourceforge.docfetcher.model.index.Task.CancelHandler;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class IndexRegistryTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		File tempDir = Util.createTempDir();
+		File indexParentDir = new File(tempDir, "indexes");
+		IndexRegistry registry = new IndexRegistry(indexParentDir, 1, 1);
+		IndexRegistry otherRegistry = new IndexRegistry(indexParentDir, 1, 1);
+		try {
+			LuceneIndex modified = createIndex(tempDir, indexParentDir, "modified");
+			LuceneIndex deleted = createIndex(tempDir, indexParentDir, "deleted");
+			LuceneIndex corrupted = createIndex(tempDir, indexParentDir, "corrupted");
+			for (LuceneIndex index : new LuceneIndex[] {modified, deleted, corrupted}) {
+				registry.addIndex(index);
+				registry.save(index);
+			}
+
+			// An index that hasn't been saved yet must be kept
+			LuceneIndex unsaved = createIndex(tempDir, indexParentDir, "unsaved");
+			registry.addIndex(unsaved);
+
+			// Nothing to do if no tree index file has changed
+			List<LuceneIndex> indexes = registry.getIndexes();
+			registry.reload();
+			assertEquals(indexes, registry.getIndexes());
+
+			File serFile = getSerFile(modified);
+			assertTrue(serFile.setLastModified(serFile.lastModified() - 10000));
+			assertTrue(getSerFile(deleted).delete());
+			serFile = getSerFile(corrupted);
+			Files.write("corrupted", serFile, Charsets.UTF_8);
+			assertTrue(serFile.setLastModified(serFile.lastModified() - 10000));
+
+			// Index saved by another program instance
+			LuceneIndex added = createIndex(tempDir, indexParentDir, "added");
+			otherRegistry.addIndex(added);
+			otherRegistry.save(added);
+
+			registry.reload();
+			indexes = registry.getIndexes();
+			assertEquals(4, indexes.size());
+			assertFalse(indexes.contains(modified));
+			assertFalse(indexes.contains(deleted));
+			assertTrue(indexes.contains(corrupted));
+			assertTrue(indexes.contains(unsaved));
+			assertNotNull(findIndex(indexes, modified.getCanonicalRootFile()));
+			assertNotNull(findIndex(indexes, added.getCanonicalRootFile()));
+
+			// The reloaded index must not be reloaded again
+			LuceneIndex reloaded = findIndex(indexes, modified.getCanonicalRootFile());
+			registry.reload();
+			assertTrue(registry.getIndexes().contains(reloaded));
+		}
+		finally {
+			CancelHandler cancelHandler = new CancelHandler() {
+				public CancelAction cancel() {
+					return CancelAction.KEEP;
+				}
+			};
+			registry.getQueue().shutdown(cancelHandler);
+			otherRegistry.getQueue().shutdown(cancelHandler);
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private static LuceneIndex createIndex(	File tempDir,
+											File indexParentDir,
+											String name) {
+		File rootDir = new File(tempDir, name);
+		rootDir.mkdirs();
+		return new FileIndex(indexParentDir, rootDir);
+	}
+
+	private static File getSerFile(LuceneIndex index) {
+		return new File(index.getIndexDirPath().getCanonicalFile(), "tree-index.ser");
+	}
+
+	private static LuceneIndex findIndex(List<LuceneIndex> indexes, File rootFile) {
+		for (LuceneIndex index : indexes)
+			if (index.getCanonicalRootFile().equals(rootFile))
+				return index;
+		return null;
+	}
+
+}
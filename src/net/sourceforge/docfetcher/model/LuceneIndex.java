@@ -14,6 +14,7 @@ package net.sourceforge.docfetcher.model;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 
 import net.sourceforge.docfetcher.model.TreeIndex.IndexingResult;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
@@ -61,6 +62,17 @@ public interface LuceneIndex extends ViewNode, Serializable {
 	public IndexingResult update(	@Nullable IndexingReporter reporter,
 	                             	@Nullable Cancelable cancelable);
 	
+	/**
+	 * Same as {@link #update(IndexingReporter, Cancelable)}, but only updates
+	 * the given directories and everything below them, if the index supports
+	 * it. Otherwise, or if the given collection is null, the whole index is
+	 * updated.
+	 */
+	@NotNull
+	public IndexingResult update(	@Nullable IndexingReporter reporter,
+	                             	@Nullable Cancelable cancelable,
+	                             	@Nullable Collection<File> dirtyDirs);
+	
 	@NotNull
 	public Directory getLuceneDir() throws IOException;
 	
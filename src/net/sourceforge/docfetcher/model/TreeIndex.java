@@ -13,9 +13,13 @@ package net.sourceforge.docfetcher.model;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.index.IndexWriterAdapter.WriterProfile;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.util.AppUtil;
 import net.sourceforge.docfetcher.util.Util;
@@ -24,6 +28,7 @@ import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
@@ -53,6 +58,8 @@ public abstract class TreeIndex <
 	@Nullable private final Path fileIndexDirPath;
 	@Nullable private transient RAMDirectory ramIndexDir;
 	@Nullable private transient File indexParentDir;
+	@Nullable private transient WriterProfile writerProfile;
+	private transient long lastCheckpoint;
 	
 	// if indexDir is null, all content is written to a RAM index, which
 	// can be retrieved via getLuceneDir
@@ -139,19 +146,106 @@ public abstract class TreeIndex <
 	@NotNull
 	public final IndexingResult update(	@Nullable IndexingReporter reporter,
 										@Nullable Cancelable cancelable) {
+		return update(reporter, cancelable, null);
+	}
+	
+	@NotNull
+	public final IndexingResult update(	@Nullable IndexingReporter reporter,
+										@Nullable Cancelable cancelable,
+										@Nullable Collection<File> dirtyDirs) {
 		if (reporter == null)
 			reporter = IndexingReporter.nullReporter;
 		if (cancelable == null)
 			cancelable = Cancelable.nullCancelable;
 		if (cancelable.isCanceled())
 			return IndexingResult.SUCCESS_UNCHANGED;
-		return doUpdate(reporter, cancelable);
+		IndexingMetrics metrics = reporter.getMetrics();
+		long startTime = System.nanoTime();
+		
+		/*
+		 * Index creations and rebuilds start with an empty Lucene index and
+		 * add all documents at once, whereas updates usually only touch a few
+		 * documents.
+		 */
+		writerProfile = dirtyDirs == null && !luceneIndexExists()
+			? WriterProfile.BULK
+			: WriterProfile.INCREMENTAL;
+		lastCheckpoint = System.currentTimeMillis();
+		try {
+			return doUpdate(reporter, cancelable, dirtyDirs);
+		}
+		finally {
+			metrics.finish(System.nanoTime() - startTime);
+			reporter.summary(metrics);
+		}
+	}
+	
+	private boolean luceneIndexExists() {
+		try {
+			return IndexReader.indexExists(getLuceneDir());
+		}
+		catch (IOException e) {
+			return true;
+		}
+	}
+	
+	/**
+	 * Returns the profile that subclasses should use for the index writers of
+	 * the currently running update.
+	 */
+	@NotNull
+	protected final WriterProfile getWriterProfile() {
+		return writerProfile == null ? WriterProfile.INCREMENTAL : writerProfile;
+	}
+	
+	/**
+	 * Returns whether the running update should save a checkpoint, i.e.
+	 * whether checkpoints are enabled, the index is stored on disk, and the
+	 * checkpoint interval has elapsed since the start of the update or since
+	 * the last checkpoint.
+	 */
+	protected final boolean isCheckpointDue() {
+		int interval = ProgramConf.Int.CheckpointInterval.get();
+		if (interval == 0 || fileIndexDirPath == null)
+			return false;
+		return System.currentTimeMillis() - lastCheckpoint >= interval * 1000L;
+	}
+	
+	/**
+	 * Saves the current state of this index as a checkpoint, from which an
+	 * update can be resumed if the program is terminated before the index is
+	 * saved. Before calling this method, subclasses must commit their Lucene
+	 * index writer, and they may only call it at points where the tree
+	 * contains exactly the documents that have been written to the Lucene
+	 * index. Errors are printed, but otherwise ignored.
+	 */
+	protected final void saveCheckpoint() {
+		try {
+			IndexRegistry.saveCheckpoint(this);
+		}
+		catch (IOException e) {
+			Util.printErr(e);
+		}
+		lastCheckpoint = System.currentTimeMillis();
 	}
 	
 	@NotNull
 	protected abstract IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
 												@NotNull Cancelable cancelable);
 	
+	/**
+	 * Updates the given directories and everything below them. Subclasses
+	 * that can't update parts of the index just run a complete update, which
+	 * is the default implementation. The given collection is null if a
+	 * complete update was requested.
+	 */
+	@NotNull
+	protected IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
+										@NotNull Cancelable cancelable,
+										@Nullable Collection<File> dirtyDirs) {
+		return doUpdate(reporter, cancelable);
+	}
+	
 	@NotNull
 	public final Directory getLuceneDir() throws IOException {
 		if (fileIndexDirPath != null) {
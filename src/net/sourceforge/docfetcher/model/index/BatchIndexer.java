@@ -0,0 +1,346 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.TreeIndex.IndexingResult;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Change;
+import net.sourceforge.docfetcher.util.JsonWriter;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.ImmutableCopy;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Updates a set of indexes from the command-line. In contrast to the indexing
+ * queue, which processes one index at a time, the batch indexer updates
+ * several indexes concurrently, using a fixed number of threads. The amount
+ * of memory used for parsing is still bounded by the parse service's memory
+ * governor, which is shared by all threads.
+ * <p>
+ * The batch indexer must not be used while the indexing queue of the same
+ * index registry is processing tasks. Background merges are suspended while
+ * the batch indexer is updating indexes.
+ * <p>
+ * Concurrent updates share some process-wide state. The charset detection of
+ * the text parser is serialized. Archives are mounted in the global TrueZIP
+ * file system, whose operations are thread-safe; since the indexes of a
+ * registry never overlap, each update only mounts and unmounts the archives
+ * below its own root folder.
+ *
+ * @author Tran Nam Quang
+ */
+public final class BatchIndexer {
+
+	public enum ExitCode {
+		/** All indexes were updated without errors. */
+		SUCCESS (0),
+		/** All indexes were updated, but some files could not be indexed. */
+		FILE_ERRORS (1),
+		/** At least one index could not be updated. */
+		INDEX_FAILURES (2),
+		/** The command-line arguments were invalid. */
+		INVALID_ARGUMENTS (3),
+		/** The indexes could not be loaded. */
+		LOADING_FAILED (4),
+		;
+
+		public final int value;
+
+		private ExitCode(int value) {
+			this.value = value;
+		}
+	}
+
+	/*
+	 * Number of extracted files after which a progress line is printed for an
+	 * index.
+	 */
+	private static final int PROGRESS_INTERVAL = 1000;
+
+	private final IndexRegistry indexRegistry;
+	private final int threadCount;
+	private final PrintStream progressOut;
+
+	public BatchIndexer(@NotNull IndexRegistry indexRegistry,
+						int threadCount,
+						@NotNull PrintStream progressOut) {
+		Util.checkNotNull(indexRegistry, progressOut);
+		Util.checkThat(threadCount >= 1);
+		this.indexRegistry = indexRegistry;
+		this.threadCount = threadCount;
+		this.progressOut = progressOut;
+	}
+
+	/**
+	 * Returns those of the given indexes whose root path matches one of the
+	 * given paths, or all given indexes if the list of paths is empty. The
+	 * paths that don't match any index are added to the given list of
+	 * unmatched paths.
+	 */
+	@NotNull
+	public static List<LuceneIndex> selectIndexes(	@NotNull List<LuceneIndex> indexes,
+													@NotNull List<String> rootPaths,
+													@NotNull List<String> unmatchedPaths) {
+		if (rootPaths.isEmpty())
+			return new ArrayList<LuceneIndex>(indexes);
+		List<LuceneIndex> selected = new ArrayList<LuceneIndex>(rootPaths.size());
+		for (String rootPath : rootPaths) {
+			File rootFile = Util.getCanonicalFile(rootPath);
+			boolean found = false;
+			for (LuceneIndex index : indexes) {
+				if (!index.getCanonicalRootFile().equals(rootFile))
+					continue;
+				if (!selected.contains(index))
+					selected.add(index);
+				found = true;
+			}
+			if (!found)
+				unmatchedPaths.add(rootPath);
+		}
+		return selected;
+	}
+
+	/**
+	 * Updates the given indexes and saves them, then returns a summary of the
+	 * updates. This method blocks until all updates have finished.
+	 */
+	@NotNull
+	public Summary run(@NotNull List<LuceneIndex> indexes) {
+		long start = System.nanoTime();
+		List<IndexSummary> indexSummaries = new ArrayList<IndexSummary>(indexes.size());
+		if (indexes.isEmpty())
+			return new Summary(indexSummaries, System.nanoTime() - start);
+
+		int poolSize = Math.min(threadCount, indexes.size());
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+		try {
+			List<Future<IndexSummary>> futures = new ArrayList<Future<IndexSummary>>(indexes.size());
+			for (final LuceneIndex index : indexes) {
+				futures.add(executor.submit(new Callable<IndexSummary>() {
+					public IndexSummary call() {
+						return update(index);
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					indexSummaries.add(futures.get(i).get());
+				}
+				catch (ExecutionException e) {
+					Util.printErr(e.getCause());
+					indexSummaries.add(new IndexSummary(
+						indexes.get(i), e.getCause()));
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return new Summary(indexSummaries, System.nanoTime() - start);
+	}
+
+	@NotNull
+	private IndexSummary update(@NotNull LuceneIndex index) {
+		String rootPath = index.getCanonicalRootFile().getPath();
+		BatchReporter reporter = new BatchReporter(rootPath);
+		IndexingResult result;
+
+		// A background merge must not hold the index's write lock now
+		IndexMaintenance maintenance = indexRegistry.getQueue().getMaintenance();
+		maintenance.setBusy(true);
+		try {
+			progressOut.println("Updating: " + rootPath);
+			result = index.update(reporter, Cancelable.nullCancelable);
+
+			/*
+			 * As with updates from the indexing queue, save the index even if
+			 * the update failed, so that the parts that were indexed
+			 * successfully don't have to be reindexed the next time.
+			 */
+			if (indexRegistry.getIndexes().contains(index))
+				indexRegistry.save(index);
+		}
+		finally {
+			maintenance.setBusy(false);
+		}
+
+		IndexSummary summary = new IndexSummary(index, result, reporter);
+		progressOut.println(String.format(
+			"Updated: %s (%s, %,d added, %,d modified, %,d deleted, %d errors)",
+			rootPath, result.name(), summary.getChangeCount(Change.ADDED),
+			summary.getChangeCount(Change.MODIFIED),
+			summary.getChangeCount(Change.DELETED), summary.errors.size()));
+		return summary;
+	}
+
+	private final class BatchReporter extends IndexingReporter {
+		private final String rootPath;
+		private final IndexingMetrics metrics = new IndexingMetrics();
+		private final List<IndexingError> errors = Collections.synchronizedList(new ArrayList<IndexingError>());
+
+		public BatchReporter(@NotNull String rootPath) {
+			this.rootPath = rootPath;
+		}
+
+		public void info(@NotNull IndexingInfo info) {
+			int number = info.getNumber();
+			if (number > 0 && number % PROGRESS_INTERVAL == 0)
+				progressOut.println(String.format(
+					"Progress: %s (%,d files)", rootPath, number));
+		}
+
+		public void fail(@NotNull IndexingError error) {
+			errors.add(error);
+		}
+
+		@NotNull
+		public IndexingMetrics getMetrics() {
+			return metrics;
+		}
+	}
+
+	public static final class IndexSummary {
+		private final LuceneIndex index;
+		@Nullable private final IndexingResult result; // null if the update crashed
+		private final IndexingMetrics metrics;
+		private final List<IndexingError> errors;
+		@Nullable private final Throwable crash;
+
+		private IndexSummary(	@NotNull LuceneIndex index,
+								@NotNull IndexingResult result,
+								@NotNull BatchReporter reporter) {
+			this.index = index;
+			this.result = result;
+			this.metrics = reporter.metrics;
+			synchronized (reporter.errors) {
+				this.errors = ImmutableList.copyOf(reporter.errors);
+			}
+			this.crash = null;
+		}
+
+		private IndexSummary(@NotNull LuceneIndex index, @NotNull Throwable crash) {
+			this.index = index;
+			this.result = null;
+			this.metrics = IndexingMetrics.nullMetrics;
+			this.errors = Collections.emptyList();
+			this.crash = crash;
+		}
+
+		@NotNull
+		public LuceneIndex getIndex() {
+			return index;
+		}
+
+		public boolean isFailure() {
+			return result == null || result == IndexingResult.FAILURE;
+		}
+
+		public long getChangeCount(@NotNull Change change) {
+			return metrics.getChangeCount(change);
+		}
+
+		@ImmutableCopy
+		@NotNull
+		public List<IndexingError> getErrors() {
+			return errors;
+		}
+
+		private void writeJson(@NotNull JsonWriter json) {
+			long elapsed = metrics.getElapsedNanos();
+			json.beginObject();
+			json.name("root").value(index.getCanonicalRootFile().getPath());
+			json.name("result").value(result == null ? "CRASHED" : result.name());
+			json.name("durationMillis").value(elapsed < 0 ? -1 : elapsed / 1000000);
+			json.name("added").value(getChangeCount(Change.ADDED));
+			json.name("modified").value(getChangeCount(Change.MODIFIED));
+			json.name("deleted").value(getChangeCount(Change.DELETED));
+			if (crash != null)
+				json.name("crash").value(Util.getLowestMessage(crash));
+			json.name("errors").beginArray();
+			for (IndexingError error : errors) {
+				json.beginObject();
+				json.name("type").value(error.getErrorType().name());
+				json.name("path").value(error.getTreeNode().getPath().getCanonicalPath());
+				json.name("message").value(error.getLocalizedMessage());
+				json.endObject();
+			}
+			json.endArray();
+			json.name("metrics");
+			metrics.writeJson(json);
+			json.endObject();
+		}
+	}
+
+	public static final class Summary {
+		private final List<IndexSummary> indexSummaries;
+		private final long durationNanos;
+
+		private Summary(@NotNull List<IndexSummary> indexSummaries,
+						long durationNanos) {
+			this.indexSummaries = ImmutableList.copyOf(indexSummaries);
+			this.durationNanos = durationNanos;
+		}
+
+		@ImmutableCopy
+		@NotNull
+		public List<IndexSummary> getIndexSummaries() {
+			return indexSummaries;
+		}
+
+		@NotNull
+		public ExitCode getExitCode() {
+			boolean hasErrors = false;
+			for (IndexSummary summary : indexSummaries) {
+				if (summary.isFailure())
+					return ExitCode.INDEX_FAILURES;
+				if (!summary.errors.isEmpty())
+					hasErrors = true;
+			}
+			return hasErrors ? ExitCode.FILE_ERRORS : ExitCode.SUCCESS;
+		}
+
+		@NotNull
+		public String toJson() {
+			JsonWriter json = new JsonWriter();
+			json.beginObject();
+			json.name("exitCode").value(getExitCode().value);
+			json.name("durationMillis").value(durationNanos / 1000000);
+			json.name("indexes").beginArray();
+			for (IndexSummary summary : indexSummaries)
+				summary.writeJson(json);
+			json.endArray();
+			json.endObject();
+			return json.toString();
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.index.BatchIndexer.ExitCode;
+import net.sourceforge.docfetcher.model.index.BatchIndexer.IndexSummary;
+import net.sourceforge.docfetcher.model.index.BatchIndexer.Summary;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Change;
+import net.sourceforge.docfetcher.model.index.Task.CancelAction;
+import net.sourceforge.docfetcher.model.index.Task.CancelHandler;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.NullOutputStream;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class BatchIndexerTest {
+	
+	static {
+		AppUtil.Const.autoInit();
+	}
+	
+	@Test
+	public void testParallelUpdate() throws Exception {
+		File tempDir = Util.createTempDir();
+		File indexParentDir = new File(tempDir, "indexes");
+		IndexRegistry registry = new IndexRegistry(indexParentDir, 1, 1);
+		try {
+			List<LuceneIndex> indexes = new ArrayList<LuceneIndex>();
+			for (int i = 0; i < 3; i++) {
+				File rootDir = new File(tempDir, "root" + i);
+				rootDir.mkdirs();
+				for (int j = 0; j <= i; j++)
+					Files.write("text " + j, new File(rootDir, j + ".txt"), Charsets.UTF_8);
+				indexes.add(new FileIndex(null, rootDir));
+			}
+			
+			// Select indexes by root path
+			List<String> unmatched = new ArrayList<String>();
+			List<LuceneIndex> selected = BatchIndexer.selectIndexes(
+				indexes,
+				Arrays.asList(
+					new File(tempDir, "root2").getPath(),
+					new File(tempDir, "root0").getPath(),
+					new File(tempDir, "missing").getPath()),
+				unmatched);
+			assertEquals(Arrays.asList(indexes.get(2), indexes.get(0)), selected);
+			assertEquals(1, unmatched.size());
+			
+			// Update all indexes concurrently
+			PrintStream out = new PrintStream(new NullOutputStream());
+			BatchIndexer batchIndexer = new BatchIndexer(registry, 2, out);
+			Summary summary = batchIndexer.run(indexes);
+			assertEquals(ExitCode.SUCCESS, summary.getExitCode());
+			List<IndexSummary> indexSummaries = summary.getIndexSummaries();
+			assertEquals(3, indexSummaries.size());
+			for (int i = 0; i < 3; i++) {
+				IndexSummary indexSummary = indexSummaries.get(i);
+				assertEquals(indexes.get(i), indexSummary.getIndex());
+				assertEquals(i + 1, indexSummary.getChangeCount(Change.ADDED));
+				assertEquals(0, indexSummary.getChangeCount(Change.DELETED));
+			}
+			
+			// Deleted files must show up in the next summary
+			new File(tempDir, "root2/0.txt").delete();
+			summary = batchIndexer.run(indexes.subList(2, 3));
+			IndexSummary indexSummary = summary.getIndexSummaries().get(0);
+			assertEquals(0, indexSummary.getChangeCount(Change.ADDED));
+			assertEquals(1, indexSummary.getChangeCount(Change.DELETED));
+		}
+		finally {
+			registry.getQueue().shutdown(new CancelHandler() {
+				public CancelAction cancel() {
+					return CancelAction.KEEP;
+				}
+			});
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testParallelArchives() throws Exception {
+		File tempDir = Util.createTempDir();
+		File indexParentDir = new File(tempDir, "indexes");
+		IndexRegistry registry = new IndexRegistry(indexParentDir, 1, 1);
+		try {
+			// Each index contains archives and text files in several encodings
+			List<LuceneIndex> indexes = new ArrayList<LuceneIndex>();
+			for (int i = 0; i < 2; i++) {
+				File rootDir = new File(tempDir, "root" + i);
+				rootDir.mkdirs();
+				for (int j = 0; j < 5; j++) {
+					File zipFile = new File(rootDir, "archive" + j + ".zip");
+					ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(zipFile));
+					try {
+						for (int k = 0; k < 3; k++) {
+							zipOut.putNextEntry(new ZipEntry(k + ".txt"));
+							zipOut.write(("text " + k).getBytes(Charsets.UTF_8));
+							zipOut.closeEntry();
+						}
+					}
+					finally {
+						zipOut.close();
+					}
+					String text = "Gr\u00fc\u00dfe " + j;
+					Files.write(text, new File(rootDir, j + "-utf8.txt"), Charsets.UTF_8);
+					Files.write(text, new File(rootDir, j + "-latin1.txt"), Charsets.ISO_8859_1);
+				}
+				indexes.add(new FileIndex(null, rootDir));
+			}
+			
+			PrintStream out = new PrintStream(new NullOutputStream());
+			Summary summary = new BatchIndexer(registry, 2, out).run(indexes);
+			assertEquals(ExitCode.SUCCESS, summary.getExitCode());
+			for (IndexSummary indexSummary : summary.getIndexSummaries())
+				assertEquals(25, indexSummary.getChangeCount(Change.ADDED));
+		}
+		finally {
+			registry.getQueue().shutdown(new CancelHandler() {
+				public CancelAction cancel() {
+					return CancelAction.KEEP;
+				}
+			});
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	@Test
+	public void testNoMergeDuringUpdate() throws Exception {
+		ProgramConf.Int.IndexMergeIdleDelay.load("1");
+		File tempDir = Util.createTempDir();
+		File indexParentDir = new File(tempDir, "indexes");
+		IndexRegistry registry = new IndexRegistry(indexParentDir, 1, 1);
+		try {
+			File rootDir = new File(tempDir, "root");
+			rootDir.mkdirs();
+			final FileIndex index = new FileIndex(indexParentDir, rootDir);
+			registry.addIndex(index);
+
+			/*
+			 * Stall the update at its start for longer than the idle delay,
+			 * and record the number of segments before and after the stall.
+			 */
+			final AtomicBoolean stall = new AtomicBoolean(false);
+			final AtomicInteger segmentsBefore = new AtomicInteger();
+			final AtomicInteger segmentsAfter = new AtomicInteger();
+			PrintStream out = new PrintStream(new NullOutputStream()) {
+				public void println(String line) {
+					if (!line.startsWith("Updating:") || !stall.getAndSet(false))
+						return;
+					try {
+						segmentsBefore.set(getSegmentCount(index));
+						Thread.sleep(2500);
+						segmentsAfter.set(getSegmentCount(index));
+					}
+					catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			};
+
+			// Two update runs produce two segments
+			BatchIndexer batchIndexer = new BatchIndexer(registry, 1, out);
+			for (int i = 0; i < 2; i++) {
+				Files.write("text", new File(rootDir, i + ".txt"), Charsets.UTF_8);
+				batchIndexer.run(Arrays.<LuceneIndex>asList(index));
+			}
+			
+			ProgramConf.Int.IndexMergeMaxSegments.load("1");
+			stall.set(true);
+			Summary summary = batchIndexer.run(Arrays.<LuceneIndex>asList(index));
+			assertEquals(ExitCode.SUCCESS, summary.getExitCode());
+			assertEquals(2, segmentsBefore.get());
+			assertEquals(2, segmentsAfter.get());
+			
+			// The merge runs once the batch indexer is idle
+			long deadline = System.currentTimeMillis() + 30000;
+			while (getSegmentCount(index) > 1 && System.currentTimeMillis() < deadline)
+				Thread.sleep(100);
+			assertEquals(1, getSegmentCount(index));
+		}
+		finally {
+			ProgramConf.Int.IndexMergeIdleDelay.load("300");
+			ProgramConf.Int.IndexMergeMaxSegments.load("10");
+			registry.getQueue().shutdown(new CancelHandler() {
+				public CancelAction cancel() {
+					return CancelAction.KEEP;
+				}
+			});
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	private static int getSegmentCount(LuceneIndex index) throws Exception {
+		return IndexMaintenance.getStats(index.getLuceneDir()).segmentCount;
+	}
+
+}
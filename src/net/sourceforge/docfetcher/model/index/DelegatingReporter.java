@@ -35,6 +35,7 @@ public final class DelegatingReporter extends IndexingReporter {
 	private final List<IndexingError> errors;
 	@Nullable private Long start;
 	@Nullable private Long end;
+	private final IndexingMetrics metrics = new IndexingMetrics();
 
 	DelegatingReporter(int infoCapacity) {
 		infos = new BoundedList<IndexingInfo>(infoCapacity);
@@ -52,6 +53,8 @@ public final class DelegatingReporter extends IndexingReporter {
 			delegate.setStartTime(start);
 		if (end != null)
 			delegate.setEndTime(end);
+		if (metrics.isFinished())
+			delegate.summary(metrics);
 		
 		List<IndexingInfo> infoCopy = new ArrayList<IndexingInfo>(infos);
 		List<IndexingError> errorCopy = new ArrayList<IndexingError>(errors);
@@ -94,5 +97,15 @@ public final class DelegatingReporter extends IndexingReporter {
 		if (delegate != null)
 			delegate.fail(error);
 	}
+	
+	@NotNull
+	public IndexingMetrics getMetrics() {
+		return metrics; // no lock needed, metrics object is thread-safe
+	}
+	
+	public synchronized void summary(@NotNull IndexingMetrics metrics) {
+		if (delegate != null)
+			delegate.summary(metrics);
+	}
 
 }
\ No newline at end of file
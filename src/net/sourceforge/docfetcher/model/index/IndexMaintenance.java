@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.search.Searcher;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SerialMergeScheduler;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Merges the segments of the Lucene indexes in the background while no
+ * indexes are being updated. Index updates add new segments and mark replaced
+ * documents as deleted, so an index that is updated often accumulates many
+ * small segments and deleted documents over time, which slows down searches
+ * and wastes disk space.
+ * <p>
+ * After the indexing queue and the batch indexer have been idle for a while,
+ * each index in the
+ * registry is inspected: If it has too many segments, it is merged into a
+ * single segment; otherwise, if too many of its documents are deleted, the
+ * segments with deletions are rewritten. The merging runs on a low-priority
+ * thread and doesn't hold the registry lock, so searches are not blocked. As
+ * soon as the indexing queue starts a new task or the batch indexer starts an
+ * update, a running merge is aborted, so that the index writer of the update
+ * doesn't have to wait for the write lock of the index. Completed merges are
+ * kept.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+public final class IndexMaintenance {
+
+	/**
+	 * The outcome of the maintenance of an index.
+	 */
+	public static final class Report {
+		@NotNull public final LuceneIndex luceneIndex;
+		public final int segmentsBefore;
+		public final int segmentsAfter;
+		public final long bytesBefore;
+		public final long bytesAfter;
+
+		private Report(	@NotNull LuceneIndex luceneIndex,
+						@NotNull IndexStats before,
+						@NotNull IndexStats after) {
+			this.luceneIndex = luceneIndex;
+			this.segmentsBefore = before.segmentCount;
+			this.segmentsAfter = after.segmentCount;
+			this.bytesBefore = before.bytes;
+			this.bytesAfter = after.bytes;
+		}
+
+		/**
+		 * Returns the number of bytes freed on disk by the maintenance, which
+		 * may be negative if the merge was aborted.
+		 */
+		public long getReclaimedBytes() {
+			return bytesBefore - bytesAfter;
+		}
+	}
+
+	// Segment statistics of the last commit of an index
+	static final class IndexStats {
+		public final int segmentCount;
+		public final int docCount;
+		public final int delCount;
+		public final long bytes;
+
+		private IndexStats(int segmentCount, int docCount, int delCount, long bytes) {
+			this.segmentCount = segmentCount;
+			this.docCount = docCount;
+			this.delCount = delCount;
+			this.bytes = bytes;
+		}
+
+		public int getDeletedPercent() {
+			return docCount == 0 ? 0 : (int) (100L * delCount / docCount);
+		}
+	}
+
+	private final IndexRegistry indexRegistry;
+
+	// All fields below are guarded by this object's lock
+	private boolean shutdown = false;
+	private int busyCount = 0; // Number of running index updates
+	private boolean dirty = true;
+	private long lastActivity = System.currentTimeMillis();
+	@Nullable private IndexWriter writer;
+	@Nullable private LuceneIndex writerIndex;
+
+	IndexMaintenance(@NotNull IndexRegistry indexRegistry) {
+		this.indexRegistry = Util.checkNotNull(indexRegistry);
+		if (ProgramConf.Int.IndexMergeIdleDelay.get() == 0)
+			return;
+		Thread thread = new Thread(IndexMaintenance.class.getName()) {
+			public void run() {
+				while (threadLoop());
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	// returns whether the loop should continue
+	private boolean threadLoop() {
+		// Wait until no index has been updated for long enough
+		synchronized (this) {
+			long delay = ProgramConf.Int.IndexMergeIdleDelay.get() * 1000L;
+			while (!shutdown) {
+				long remaining = lastActivity + delay - System.currentTimeMillis();
+				if (busyCount == 0 && dirty && remaining <= 0)
+					break;
+				try {
+					if (busyCount > 0 || !dirty)
+						wait();
+					else
+						wait(remaining);
+				}
+				catch (InterruptedException e) {
+					return false;
+				}
+			}
+			if (shutdown)
+				return false;
+			dirty = false;
+		}
+
+		List<LuceneIndex> indexes = indexRegistry.getIndexes();
+		for (LuceneIndex luceneIndex : indexes) {
+			synchronized (this) {
+				if (shutdown || busyCount > 0)
+					break;
+			}
+			Report report = maintain(luceneIndex);
+			if (report == null)
+				continue;
+			File rootFile = luceneIndex.getCanonicalRootFile();
+			// Not on stdout, where the batch indexer prints its summary
+			Util.printErr(String.format(
+				"Merged: %s (%d -> %d segments, %d KB reclaimed)",
+				rootFile, report.segmentsBefore, report.segmentsAfter,
+				report.getReclaimedBytes() / 1024));
+			Searcher searcher = indexRegistry.getSearcher();
+			if (searcher != null)
+				searcher.replaceLuceneSearcher();
+		}
+		return true;
+	}
+
+	/**
+	 * Merges the given index if it has too many segments or too many deleted
+	 * documents. Returns a report if a merge was run, or null if the index
+	 * didn't need a merge, if the merge couldn't be started, or if an index
+	 * update is running.
+	 */
+	@Nullable
+	Report maintain(@NotNull LuceneIndex luceneIndex) {
+		try {
+			return maintain(luceneIndex, luceneIndex.getLuceneDir());
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	// Same as maintain(LuceneIndex), but runs on the given Lucene directory
+	@Nullable
+	@VisibleForTesting
+	Report maintain(@NotNull LuceneIndex luceneIndex,
+					@NotNull Directory luceneDir) {
+		try {
+			IndexStats before = getStats(luceneDir);
+			if (before == null)
+				return null;
+			boolean tooManySegments = before.segmentCount > ProgramConf.Int.IndexMergeMaxSegments.get();
+			int maxDeletedPercent = ProgramConf.Int.IndexMergeMaxDeletedPercent.get();
+			boolean tooManyDeletions = before.delCount > 0
+					&& before.getDeletedPercent() >= maxDeletedPercent;
+			if (!tooManySegments && !tooManyDeletions)
+				return null;
+
+			TieredMergePolicy mergePolicy = new TieredMergePolicy();
+			mergePolicy.setForceMergeDeletesPctAllowed(maxDeletedPercent);
+			IndexWriterConfig config = new IndexWriterConfig(
+				IndexRegistry.LUCENE_VERSION, IndexRegistry.getAnalyzer());
+			config.setMergeScheduler(new SerialMergeScheduler());
+			config.setMergePolicy(mergePolicy);
+
+			/*
+			 * The writer is opened while holding the lock, so that no update
+			 * can start in between checking the busy count and publishing the
+			 * writer.
+			 */
+			IndexWriter writer;
+			synchronized (this) {
+				if (shutdown || busyCount > 0 || indexRegistry.isDeleted(luceneIndex))
+					return null;
+				writer = new IndexWriter(luceneDir, config);
+				this.writer = writer;
+				this.writerIndex = luceneIndex;
+			}
+			try {
+				if (tooManySegments)
+					writer.forceMerge(1);
+				else
+					writer.forceMergeDeletes();
+			}
+			finally {
+				synchronized (this) {
+					this.writer = null;
+					this.writerIndex = null;
+				}
+				writer.close();
+			}
+
+			IndexStats after = getStats(luceneDir);
+			if (after == null)
+				return null;
+			return new Report(luceneIndex, before, after);
+		}
+		catch (AlreadyClosedException e) {
+			// Merge was aborted by an index update
+			return null;
+		}
+		catch (IOException e) {
+			/*
+			 * Thrown for example if the index is locked by another writer or
+			 * if the merge was aborted. In any case, the index will be
+			 * inspected again when no index is updated the next time.
+			 */
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the segment statistics of the last commit in the given
+	 * directory, or null if the directory doesn't contain an index.
+	 */
+	@Nullable
+	static IndexStats getStats(@NotNull Directory luceneDir) {
+		try {
+			SegmentInfos infos = new SegmentInfos();
+			infos.read(luceneDir);
+			int docCount = 0;
+			int delCount = 0;
+			long bytes = 0;
+			for (int i = 0; i < infos.size(); i++) {
+				SegmentInfo info = infos.info(i);
+				docCount += info.docCount;
+				delCount += info.getDelCount();
+				bytes += info.sizeInBytes(true);
+			}
+			return new IndexStats(infos.size(), docCount, delCount, bytes);
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Notifies the maintenance thread that an index update has started or
+	 * finished. Updates may overlap, and no merges are run until all of them
+	 * have finished. If an update is started while a merge is running, the
+	 * merge is aborted, and this method blocks until the write lock of the
+	 * index has been released.
+	 */
+	void setBusy(boolean busy) {
+		IndexWriter writerToAbort;
+		synchronized (this) {
+			busyCount += busy ? 1 : -1;
+			assert busyCount >= 0;
+			lastActivity = System.currentTimeMillis();
+			if (!busy)
+				dirty = true;
+			writerToAbort = busy ? writer : null;
+			notifyAll();
+		}
+		abort(writerToAbort);
+	}
+
+	/**
+	 * Aborts a running merge on the given index, if there is one. This must be
+	 * called before the index is deleted, and after the index registry has
+	 * marked the index as deleted, which prevents any further merges on it.
+	 */
+	void abortMerge(@NotNull LuceneIndex luceneIndex) {
+		IndexWriter writerToAbort;
+		synchronized (this) {
+			writerToAbort = writerIndex == luceneIndex ? writer : null;
+		}
+		abort(writerToAbort);
+	}
+
+	/**
+	 * Aborts a running merge and terminates the maintenance thread.
+	 */
+	void shutdown() {
+		IndexWriter writerToAbort;
+		synchronized (this) {
+			shutdown = true;
+			writerToAbort = writer;
+			notifyAll();
+		}
+		abort(writerToAbort);
+	}
+
+	private static void abort(@Nullable IndexWriter writer) {
+		if (writer == null)
+			return;
+		try {
+			/*
+			 * Closing without waiting for merges aborts the running merge and
+			 * releases the write lock. The maintenance thread will then get an
+			 * exception, which it ignores.
+			 */
+			writer.close(false);
+		}
+		catch (Exception e) {
+			// Ignore
+		}
+	}
+
+}
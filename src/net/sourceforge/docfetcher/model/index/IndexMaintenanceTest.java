@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.index.IndexMaintenance.IndexStats;
+import net.sourceforge.docfetcher.model.index.IndexMaintenance.Report;
+import net.sourceforge.docfetcher.model.index.Task.CancelAction;
+import net.sourceforge.docfetcher.model.index.Task.CancelHandler;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class IndexMaintenanceTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	@Test
+	public void testMaintain() throws Exception {
+		File tempDir = Util.createTempDir();
+		IndexRegistry registry = new IndexRegistry(new File(tempDir, "indexes"), 1, 1);
+		IndexMaintenance maintenance = new IndexMaintenance(registry);
+		try {
+			File rootDir = new File(tempDir, "root");
+			rootDir.mkdir();
+			FileIndex index = new FileIndex(null, rootDir);
+			Directory luceneDir = index.getLuceneDir();
+
+			// Nothing to do on an empty index
+			assertNull(maintenance.maintain(index));
+
+			// One segment per update run
+			for (int i = 0; i < 5; i++) {
+				IndexWriterAdapter writer = new IndexWriterAdapter(luceneDir);
+				for (int j = 0; j < 10; j++)
+					writer.add(createDocument("uid" + i + "_" + j));
+				writer.close();
+			}
+			assertEquals(5, IndexMaintenance.getStats(luceneDir).segmentCount);
+			assertNull(maintenance.maintain(index));
+
+			try {
+				ProgramConf.Int.IndexMergeMaxSegments.load("4");
+				Report report = maintenance.maintain(index);
+				assertNotNull(report);
+				assertEquals(5, report.segmentsBefore);
+				assertEquals(1, report.segmentsAfter);
+			}
+			finally {
+				ProgramConf.Int.IndexMergeMaxSegments.load("10");
+			}
+
+			// Deletions below the threshold are kept
+			IndexWriterAdapter writer = new IndexWriterAdapter(luceneDir);
+			writer.delete("uid0_0");
+			writer.close();
+			assertNull(maintenance.maintain(index));
+
+			// Deletions above the threshold are expunged
+			writer = new IndexWriterAdapter(luceneDir);
+			for (int j = 0; j < 10; j++)
+				writer.delete("uid1_" + j);
+			writer.close();
+			IndexStats stats = IndexMaintenance.getStats(luceneDir);
+			assertEquals(11, stats.delCount);
+			Report report = maintenance.maintain(index);
+			assertNotNull(report);
+			assertTrue(report.getReclaimedBytes() > 0);
+			stats = IndexMaintenance.getStats(luceneDir);
+			assertEquals(0, stats.delCount);
+			assertEquals(39, stats.docCount);
+
+			/*
+			 * No merges after the index was deleted. Since the folder of the
+			 * deleted index is removed in the background, the merge is tried
+			 * on the directory above, which needs a merge again.
+			 */
+			writer = new IndexWriterAdapter(luceneDir);
+			for (int j = 0; j < 10; j++)
+				writer.delete("uid2_" + j);
+			writer.close();
+			FileIndex deletedIndex = new FileIndex(registry.getIndexParentDir(), rootDir);
+			writer = new IndexWriterAdapter(deletedIndex.getLuceneDir());
+			writer.add(createDocument("uid"));
+			writer.close();
+			registry.load(Cancelable.nullCancelable);
+			registry.addIndex(deletedIndex);
+			registry.removeIndexes(Collections.<LuceneIndex>singletonList(deletedIndex), true);
+			assertTrue(registry.isDeleted(deletedIndex));
+			assertNull(maintenance.maintain(deletedIndex, luceneDir));
+			assertNotNull(maintenance.maintain(index, luceneDir));
+		}
+		finally {
+			maintenance.shutdown();
+			registry.getQueue().shutdown(new CancelHandler() {
+				public CancelAction cancel() {
+					return CancelAction.KEEP;
+				}
+			});
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testAbortOnBusyQueue() throws Exception {
+		File tempDir = Util.createTempDir();
+		IndexRegistry registry = new IndexRegistry(new File(tempDir, "indexes"), 1, 1);
+		final IndexMaintenance maintenance = new IndexMaintenance(registry);
+		final CountDownLatch mergeStarted = new CountDownLatch(1);
+		final CountDownLatch mergeReleased = new CountDownLatch(1);
+		final AtomicBoolean armed = new AtomicBoolean(false);
+		try {
+			File rootDir = new File(tempDir, "root");
+			rootDir.mkdir();
+			final FileIndex index = new FileIndex(null, rootDir);
+
+			// A directory that blocks the first file creation of the merge
+			final Directory luceneDir = new NIOFSDirectory(new File(tempDir, "lucene")) {
+				public IndexOutput createOutput(String name) throws IOException {
+					if (armed.getAndSet(false)) {
+						mergeStarted.countDown();
+						try {
+							mergeReleased.await();
+						}
+						catch (InterruptedException e) {
+							throw new IOException(e);
+						}
+					}
+					return super.createOutput(name);
+				}
+			};
+			for (int i = 0; i < 5; i++) {
+				IndexWriterAdapter writer = new IndexWriterAdapter(luceneDir);
+				for (int j = 0; j < 10; j++)
+					writer.add(createDocument("uid" + i + "_" + j));
+				writer.close();
+			}
+
+			ProgramConf.Int.IndexMergeMaxSegments.load("4");
+			armed.set(true);
+			final AtomicReference<Report> report = new AtomicReference<Report>();
+			Thread mergeThread = new Thread() {
+				public void run() {
+					report.set(maintenance.maintain(index, luceneDir));
+				}
+			};
+			mergeThread.start();
+			assertTrue(mergeStarted.await(30, TimeUnit.SECONDS));
+
+			// Start a task while the merge is running
+			Thread queueThread = new Thread() {
+				public void run() {
+					maintenance.setBusy(true);
+				}
+			};
+			queueThread.start();
+
+			/*
+			 * Let the merge continue once the queue thread waits for it to be
+			 * aborted, so that the merge can't complete before the abort.
+			 */
+			while (queueThread.getState() != Thread.State.TIMED_WAITING
+					&& queueThread.getState() != Thread.State.WAITING
+					&& queueThread.isAlive())
+				Thread.sleep(10);
+			mergeReleased.countDown();
+			queueThread.join();
+			mergeThread.join();
+
+			// The merge was discarded and the write lock released
+			Report result = report.get();
+			assertTrue(result == null || result.segmentsAfter == 5);
+			assertEquals(5, IndexMaintenance.getStats(luceneDir).segmentCount);
+			assertFalse(IndexWriter.isLocked(luceneDir));
+
+			// No new merges while the queue is busy
+			assertNull(maintenance.maintain(index, luceneDir));
+			maintenance.setBusy(false);
+			assertNotNull(maintenance.maintain(index, luceneDir));
+		}
+		finally {
+			ProgramConf.Int.IndexMergeMaxSegments.load("10");
+			mergeReleased.countDown();
+			maintenance.shutdown();
+			registry.getQueue().shutdown(new CancelHandler() {
+				public CancelAction cancel() {
+					return CancelAction.KEEP;
+				}
+			});
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private static Document createDocument(String uid) {
+		Document doc = new Document();
+		doc.add(new Field(Fields.UID.key(), uid, Store.YES, Index.NOT_ANALYZED));
+		doc.add(new Field(Fields.CONTENT.key(), "some words " + uid, Store.NO, Index.ANALYZED));
+		return doc;
+	}
+
+}
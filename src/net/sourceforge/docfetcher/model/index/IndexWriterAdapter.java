@@ -14,15 +14,18 @@ package net.sourceforge.docfetcher.model.index;
 import java.io.Closeable;
 import java.io.IOException;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Fields;
 import net.sourceforge.docfetcher.model.IndexRegistry;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 
@@ -36,12 +39,67 @@ import com.google.common.io.Closeables;
 @VisibleForPackageGroup
 public final class IndexWriterAdapter implements Closeable {
 	
+	/**
+	 * Settings of the underlying index writer for different kinds of index
+	 * updates.
+	 */
+	public enum WriterProfile {
+		/**
+		 * For building an index from scratch: Documents are buffered in a
+		 * large RAM buffer, segments are merged less often, and no compound
+		 * files are written. This makes building large indexes faster, at the
+		 * cost of more memory and more open files while indexing.
+		 */
+		BULK {
+			protected void configure(	@NotNull IndexWriterConfig config,
+										@NotNull LogByteSizeMergePolicy mergePolicy) {
+				config.setRAMBufferSizeMB(ProgramConf.Int.BulkWriterRamBuffer.get());
+				mergePolicy.setMergeFactor(ProgramConf.Int.BulkWriterMergeFactor.get());
+				mergePolicy.setUseCompoundFile(false);
+			}
+		},
+		/**
+		 * For updating a few documents of an existing index, e.g. after
+		 * changes in a watched folder: Lucene's default settings, which keep
+		 * the number of segments and index files small.
+		 */
+		INCREMENTAL {
+			protected void configure(	@NotNull IndexWriterConfig config,
+										@NotNull LogByteSizeMergePolicy mergePolicy) {
+				config.setRAMBufferSizeMB(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+				mergePolicy.setMergeFactor(LogByteSizeMergePolicy.DEFAULT_MERGE_FACTOR);
+				mergePolicy.setUseCompoundFile(true);
+			}
+		},
+		;
+		
+		protected abstract void configure(	@NotNull IndexWriterConfig config,
+											@NotNull LogByteSizeMergePolicy mergePolicy);
+		
+		@NotNull
+		private IndexWriterConfig createConfig() {
+			IndexWriterConfig config = new IndexWriterConfig(
+				IndexRegistry.LUCENE_VERSION, IndexRegistry.getAnalyzer());
+			LogByteSizeMergePolicy mergePolicy = new LogByteSizeMergePolicy();
+			configure(config, mergePolicy);
+			config.setMergePolicy(mergePolicy);
+			return config;
+		}
+	}
+	
 	public static final Term idTerm = new Term(Fields.UID.key());
 	
 	@NotNull private IndexWriter writer;
+	@NotNull private final WriterProfile profile;
 
 	public IndexWriterAdapter(@NotNull Directory luceneDir) throws IOException {
-		writer = new IndexWriter(luceneDir, IndexRegistry.getAnalyzer(), MaxFieldLength.UNLIMITED);
+		this(luceneDir, WriterProfile.INCREMENTAL);
+	}
+
+	public IndexWriterAdapter(	@NotNull Directory luceneDir,
+								@NotNull WriterProfile profile) throws IOException {
+		this.profile = Util.checkNotNull(profile);
+		writer = new IndexWriter(luceneDir, profile.createConfig());
 	}
 
 	// may throw OutOfMemoryError
@@ -89,7 +147,7 @@ public final class IndexWriterAdapter implements Closeable {
 		 */
 		Directory indexDir = writer.getDirectory();
 		Closeables.closeQuietly(writer);
-		writer = new IndexWriter(indexDir, IndexRegistry.getAnalyzer(), MaxFieldLength.UNLIMITED);
+		writer = new IndexWriter(indexDir, profile.createConfig());
 		throw new CheckedOutOfMemoryError(t);
 	}
 
@@ -97,6 +155,14 @@ public final class IndexWriterAdapter implements Closeable {
 		writer.deleteDocuments(idTerm.createTerm(uid));
 	}
 	
+	/**
+	 * Makes all changes so far durable, so that they survive a crash of the
+	 * program before the writer is closed.
+	 */
+	public void commit() throws IOException {
+		writer.commit();
+	}
+	
 	public void close() throws IOException {
 		writer.close();
 	}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import java.io.File;
+import java.util.Random;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.index.IndexWriterAdapter.WriterProfile;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Compares the index writer profiles. For each profile, an index is built
+ * from generated documents in one run, as when an index is created, and then
+ * updated in many small runs of a few documents each, as after changes in a
+ * watched folder. For both phases, the throughput, the number of segments and
+ * files and the size of the index are printed.
+ * <p>
+ * Usage: <tt>IndexWriterBenchmark DIR [DOCUMENTS] [ROUNDS]</tt>. The indexes
+ * are written into subfolders of DIR, which are deleted afterwards. By
+ * default, a hundred thousand documents of about 4 KB each are written.
+ *
+ * @author Tran Nam Quang
+ */
+public final class IndexWriterBenchmark {
+
+	private static final int WORDS_PER_DOC = 600;
+	private static final int VOCABULARY_SIZE = 50000;
+	private static final int UPDATE_RUNS = 200;
+	private static final int DOCS_PER_UPDATE = 5;
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			Util.printErr("Usage: IndexWriterBenchmark DIR [DOCUMENTS] [ROUNDS]");
+			System.exit(1);
+		}
+		File parentDir = new File(args[0]);
+		int docCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		for (int i = 0; i < rounds; i++) {
+			for (WriterProfile profile : WriterProfile.values()) {
+				File indexDir = new File(parentDir, "index-" + profile.name().toLowerCase());
+				if (indexDir.exists())
+					Util.deleteRecursively(indexDir);
+				Directory luceneDir = FSDirectory.open(indexDir);
+				try {
+					// Same documents for all profiles
+					Random random = new Random(0);
+
+					long start = System.nanoTime();
+					IndexWriterAdapter writer = new IndexWriterAdapter(luceneDir, profile);
+					for (int j = 0; j < docCount; j++)
+						writer.add(createDocument("doc" + j, random));
+					writer.close();
+					print(i, profile, "build", docCount, start, luceneDir, indexDir);
+
+					start = System.nanoTime();
+					for (int j = 0; j < UPDATE_RUNS; j++) {
+						writer = new IndexWriterAdapter(luceneDir, profile);
+						for (int k = 0; k < DOCS_PER_UPDATE; k++) {
+							String uid = "doc" + random.nextInt(docCount);
+							writer.update(uid, createDocument(uid, random));
+						}
+						writer.close();
+					}
+					print(i, profile, "updates", UPDATE_RUNS * DOCS_PER_UPDATE, start, luceneDir, indexDir);
+				}
+				finally {
+					luceneDir.close();
+					Util.deleteRecursively(indexDir);
+				}
+			}
+		}
+	}
+
+	private static void print(	int round,
+								@NotNull WriterProfile profile,
+								@NotNull String phase,
+								int docCount,
+								long startNanos,
+								@NotNull Directory luceneDir,
+								@NotNull File indexDir) throws Exception {
+		double millis = (System.nanoTime() - startNanos) / 1000000.0;
+		SegmentInfos infos = new SegmentInfos();
+		infos.read(luceneDir);
+		long bytes = 0;
+		File[] files = indexDir.listFiles();
+		for (File file : files)
+			bytes += file.length();
+		Util.println(String.format(
+			"Round %d, %-12s %-8s %,d docs in %.0f ms (%,.0f docs/sec), %d segments, %d files, %,d KB",
+			round + 1, profile.name().toLowerCase() + ":", phase, docCount,
+			millis, docCount * 1000 / millis, infos.size(), files.length,
+			bytes / 1024));
+	}
+
+	@NotNull
+	private static Document createDocument(@NotNull String uid, @NotNull Random random) {
+		// Zipf-like word distribution, so that some words are much more common
+		StringBuilder sb = new StringBuilder(WORDS_PER_DOC * 7);
+		for (int i = 0; i < WORDS_PER_DOC; i++) {
+			double r = random.nextDouble();
+			int word = (int) (VOCABULARY_SIZE * r * r * r);
+			sb.append('w').append(Integer.toString(word, 36)).append(' ');
+		}
+		Document doc = new Document();
+		doc.add(new Field(Fields.UID.key(), uid, Store.YES, Index.NOT_ANALYZED));
+		doc.add(new Field(Fields.FILENAME.key(), uid + ".txt", Store.YES, Index.ANALYZED));
+		doc.add(new Field(Fields.CONTENT.key(), sb.toString(), Store.NO, Index.ANALYZED));
+		return doc;
+	}
+
+}
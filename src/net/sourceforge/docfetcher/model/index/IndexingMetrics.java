@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.sourceforge.docfetcher.util.JsonWriter;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.ImmutableCopy;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+/**
+ * Timing and throughput figures for a single indexing run, broken down by
+ * parser and by indexing phase. An instance is obtained from
+ * {@link IndexingReporter#getMetrics()} and filled in by the indexing code.
+ * <p>
+ * Latency percentiles are computed from a histogram with logarithmic buckets,
+ * so they are approximations with a relative error of about 10%.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+public final class IndexingMetrics {
+
+	public enum Phase {
+		MIME_DETECTION,
+		PARSING,
+		LUCENE_WRITE,
+		/** Everything not covered by the other phases. */
+		TREE_BOOKKEEPING,
+	}
+
+	public enum Outcome {
+		SUCCESS,
+		FAILURE,
+		OUT_OF_MEMORY,
+	}
+
+	/**
+	 * Types of changes made to the Lucene index.
+	 */
+	public enum Change {
+		ADDED,
+		MODIFIED,
+		DELETED,
+	}
+
+	/**
+	 * A metrics instance that discards everything recorded into it.
+	 */
+	public static final IndexingMetrics nullMetrics = new IndexingMetrics(false);
+
+	private final boolean enabled;
+	private final Map<String, ParserCounter> counters = new TreeMap<String, ParserCounter>(); // guarded by 'this' lock
+	private final long[] phaseNanos = new long[Phase.values().length]; // guarded by 'this' lock
+	private final long[] changeCounts = new long[Change.values().length]; // guarded by 'this' lock
+	private long skippedListings = 0; // guarded by 'this' lock
+	private long elapsedNanos = -1; // guarded by 'this' lock
+
+	public IndexingMetrics() {
+		this(true);
+	}
+
+	private IndexingMetrics(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Records a single invocation of the parser with the given name on a file
+	 * of the given size.
+	 */
+	public void recordParse(@NotNull String parserName,
+							long bytes,
+							long nanos,
+							@NotNull Outcome outcome) {
+		Util.checkNotNull(parserName, outcome);
+		if (!enabled)
+			return;
+		synchronized (this) {
+			ParserCounter counter = counters.get(parserName);
+			if (counter == null) {
+				counter = new ParserCounter();
+				counters.put(parserName, counter);
+			}
+			counter.record(bytes, nanos, outcome);
+			phaseNanos[Phase.PARSING.ordinal()] += nanos;
+		}
+	}
+
+	/**
+	 * Adds the given amount of time to the given phase. Parsing time should be
+	 * recorded via {@link #recordParse(String, long, long, Outcome)} instead.
+	 */
+	public void addTime(@NotNull Phase phase, long nanos) {
+		Util.checkThat(phase != Phase.PARSING && phase != Phase.TREE_BOOKKEEPING);
+		if (!enabled)
+			return;
+		synchronized (this) {
+			phaseNanos[phase.ordinal()] += nanos;
+		}
+	}
+
+	/**
+	 * Records that a document was added to, updated in or deleted from the
+	 * Lucene index.
+	 */
+	public void recordChange(@NotNull Change change) {
+		Util.checkNotNull(change);
+		if (!enabled)
+			return;
+		synchronized (this) {
+			changeCounts[change.ordinal()]++;
+		}
+	}
+
+	public synchronized long getChangeCount(@NotNull Change change) {
+		return changeCounts[change.ordinal()];
+	}
+	
+	/**
+	 * Records that the listing of an unmodified directory was skipped during
+	 * a fast rescan.
+	 */
+	public void recordSkippedListing() {
+		if (!enabled)
+			return;
+		synchronized (this) {
+			skippedListings++;
+		}
+	}
+	
+	public synchronized long getSkippedListingCount() {
+		return skippedListings;
+	}
+
+	/**
+	 * Marks the end of the indexing run, which took the given wall-clock time.
+	 * The time not covered by the other phases is booked as tree bookkeeping.
+	 */
+	public void finish(long elapsedNanos) {
+		if (!enabled)
+			return;
+		synchronized (this) {
+			this.elapsedNanos = elapsedNanos;
+			long covered = 0;
+			for (Phase phase : Phase.values())
+				if (phase != Phase.TREE_BOOKKEEPING)
+					covered += phaseNanos[phase.ordinal()];
+			phaseNanos[Phase.TREE_BOOKKEEPING.ordinal()] = Math.max(0, elapsedNanos - covered);
+		}
+	}
+
+	public synchronized boolean isFinished() {
+		return elapsedNanos >= 0;
+	}
+
+	// Returns -1 if the indexing run hasn't finished yet
+	public synchronized long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public synchronized long getNanos(@NotNull Phase phase) {
+		return phaseNanos[phase.ordinal()];
+	}
+
+	/**
+	 * Returns a snapshot of the statistics of all parsers that were used so
+	 * far, sorted by parser name.
+	 */
+	@ImmutableCopy
+	@NotNull
+	public synchronized List<ParserStats> getParserStats() {
+		List<ParserStats> list = new ArrayList<ParserStats>(counters.size());
+		for (Map.Entry<String, ParserCounter> entry : counters.entrySet())
+			list.add(entry.getValue().toStats(entry.getKey()));
+		return list;
+	}
+
+	/**
+	 * Returns the statistics of all parsers combined.
+	 */
+	@NotNull
+	public synchronized ParserStats getTotalStats() {
+		ParserCounter total = new ParserCounter();
+		for (ParserCounter counter : counters.values())
+			total.add(counter);
+		return total.toStats("Total");
+	}
+
+	public void writeJson(@NotNull JsonWriter json) {
+		List<ParserStats> parserStats = getParserStats();
+		ParserStats totalStats = getTotalStats();
+		long elapsed = getElapsedNanos();
+
+		json.beginObject();
+		json.name("elapsedMillis").value(elapsed < 0 ? -1 : elapsed / 1000000);
+		json.name("filesPerSec").value(perSec(totalStats.getFiles(), elapsed));
+		json.name("bytesPerSec").value(perSec(totalStats.getBytes(), elapsed));
+		json.name("changes").beginObject();
+		for (Change change : Change.values())
+			json.name(change.name()).value(getChangeCount(change));
+		json.endObject();
+		json.name("skippedDirListings").value(getSkippedListingCount());
+		json.name("phases").beginObject();
+		for (Phase phase : Phase.values())
+			json.name(phase.name()).value(getNanos(phase) / 1000000);
+		json.endObject();
+		json.name("total");
+		totalStats.writeJson(json);
+		json.name("parsers").beginArray();
+		for (ParserStats stats : parserStats)
+			stats.writeJson(json);
+		json.endArray();
+		json.endObject();
+	}
+
+	private static double perSec(long count, long nanos) {
+		if (nanos <= 0)
+			return 0;
+		return count * 1000000000.0 / nanos;
+	}
+
+	public static final class ParserStats {
+		private final String parserName;
+		private final long files;
+		private final long failures;
+		private final long outOfMemoryErrors;
+		private final long bytes;
+		private final long nanos;
+		private final long p50Nanos;
+		private final long p95Nanos;
+		private final long p99Nanos;
+
+		private ParserStats(@NotNull String parserName,
+							@NotNull ParserCounter counter) {
+			this.parserName = parserName;
+			this.files = counter.files;
+			this.failures = counter.failures;
+			this.outOfMemoryErrors = counter.outOfMemoryErrors;
+			this.bytes = counter.bytes;
+			this.nanos = counter.nanos;
+			this.p50Nanos = counter.histogram.getPercentile(50);
+			this.p95Nanos = counter.histogram.getPercentile(95);
+			this.p99Nanos = counter.histogram.getPercentile(99);
+		}
+
+		@NotNull
+		public String getParserName() {
+			return parserName;
+		}
+
+		// Includes failed files
+		public long getFiles() {
+			return files;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		public long getOutOfMemoryErrors() {
+			return outOfMemoryErrors;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		// Throughput relative to the time spent in the parser
+		public double getFilesPerSec() {
+			return perSec(files, nanos);
+		}
+
+		// Throughput relative to the time spent in the parser
+		public double getBytesPerSec() {
+			return perSec(bytes, nanos);
+		}
+
+		public long getPercentileNanos(int percentile) {
+			switch (percentile) {
+			case 50: return p50Nanos;
+			case 95: return p95Nanos;
+			case 99: return p99Nanos;
+			default: throw new IllegalArgumentException();
+			}
+		}
+
+		public void writeJson(@NotNull JsonWriter json) {
+			json.beginObject();
+			json.name("parser").value(parserName);
+			json.name("files").value(files);
+			json.name("failures").value(failures);
+			json.name("outOfMemoryErrors").value(outOfMemoryErrors);
+			json.name("bytes").value(bytes);
+			json.name("filesPerSec").value(getFilesPerSec());
+			json.name("bytesPerSec").value(getBytesPerSec());
+			json.name("p50Millis").value(p50Nanos / 1000000.0);
+			json.name("p95Millis").value(p95Nanos / 1000000.0);
+			json.name("p99Millis").value(p99Nanos / 1000000.0);
+			json.endObject();
+		}
+	}
+
+	private static final class ParserCounter {
+		private long files;
+		private long failures;
+		private long outOfMemoryErrors;
+		private long bytes;
+		private long nanos;
+		private final LatencyHistogram histogram = new LatencyHistogram();
+
+		public void record(long bytes, long nanos, @NotNull Outcome outcome) {
+			files++;
+			if (outcome == Outcome.FAILURE)
+				failures++;
+			else if (outcome == Outcome.OUT_OF_MEMORY)
+				outOfMemoryErrors++;
+			this.bytes += bytes;
+			this.nanos += nanos;
+			histogram.record(nanos);
+		}
+
+		public void add(@NotNull ParserCounter other) {
+			files += other.files;
+			failures += other.failures;
+			outOfMemoryErrors += other.outOfMemoryErrors;
+			bytes += other.bytes;
+			nanos += other.nanos;
+			histogram.add(other.histogram);
+		}
+
+		@NotNull
+		public ParserStats toStats(@NotNull String parserName) {
+			return new ParserStats(parserName, this);
+		}
+	}
+
+	/**
+	 * Histogram with eight buckets per power of two, starting at one
+	 * microsecond. This keeps the memory footprint constant regardless of the
+	 * number of recorded values.
+	 */
+	private static final class LatencyHistogram {
+		private static final int BUCKETS_PER_OCTAVE = 8;
+		private static final int OCTAVES = 40;
+
+		private final long[] counts = new long[BUCKETS_PER_OCTAVE * OCTAVES];
+		private long total = 0;
+
+		public void record(long nanos) {
+			counts[getBucket(nanos)]++;
+			total++;
+		}
+
+		public void add(@NotNull LatencyHistogram other) {
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += other.counts[i];
+			total += other.total;
+		}
+
+		// Returns the upper bound of the bucket containing the percentile
+		public long getPercentile(int percentile) {
+			if (total == 0)
+				return 0;
+			long rank = (long) Math.ceil(total * percentile / 100.0);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank)
+					return getUpperBound(i);
+			}
+			return getUpperBound(counts.length - 1);
+		}
+
+		private static int getBucket(long nanos) {
+			double micros = nanos / 1000.0;
+			if (micros <= 1)
+				return 0;
+			double log2 = Math.log(micros) / Math.log(2);
+			int bucket = (int) Math.ceil(log2 * BUCKETS_PER_OCTAVE);
+			return Math.min(bucket, BUCKETS_PER_OCTAVE * OCTAVES - 1);
+		}
+
+		private static long getUpperBound(int bucket) {
+			double micros = Math.pow(2, (double) bucket / BUCKETS_PER_OCTAVE);
+			return (long) (micros * 1000);
+		}
+	}
+
+}
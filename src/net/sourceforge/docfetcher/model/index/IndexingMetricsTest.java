@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Outcome;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.ParserStats;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Phase;
+import net.sourceforge.docfetcher.util.JsonWriter;
+
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class IndexingMetricsTest {
+	
+	private static final long MILLIS = 1000000;
+	
+	@Test
+	public void testParserStats() {
+		IndexingMetrics metrics = new IndexingMetrics();
+		for (int i = 1; i <= 100; i++)
+			metrics.recordParse("PdfParser", 1000, i * MILLIS, Outcome.SUCCESS);
+		metrics.recordParse("TextParser", 10, MILLIS, Outcome.FAILURE);
+		metrics.recordParse("TextParser", 10, MILLIS, Outcome.OUT_OF_MEMORY);
+		
+		List<ParserStats> stats = metrics.getParserStats();
+		assertEquals(2, stats.size());
+		ParserStats pdf = stats.get(0);
+		assertEquals("PdfParser", pdf.getParserName());
+		assertEquals(100, pdf.getFiles());
+		assertEquals(100000, pdf.getBytes());
+		assertEquals(0, pdf.getFailures());
+		
+		// Percentiles are approximate, so allow for the bucket width
+		assertApprox(50 * MILLIS, pdf.getPercentileNanos(50));
+		assertApprox(95 * MILLIS, pdf.getPercentileNanos(95));
+		assertApprox(99 * MILLIS, pdf.getPercentileNanos(99));
+		
+		ParserStats text = stats.get(1);
+		assertEquals(1, text.getFailures());
+		assertEquals(1, text.getOutOfMemoryErrors());
+		assertEquals(102, metrics.getTotalStats().getFiles());
+	}
+	
+	@Test
+	public void testPhases() {
+		IndexingMetrics metrics = new IndexingMetrics();
+		metrics.recordParse("TextParser", 10, 300 * MILLIS, Outcome.SUCCESS);
+		metrics.addTime(Phase.LUCENE_WRITE, 200 * MILLIS);
+		assertFalse(metrics.isFinished());
+		metrics.finish(1000 * MILLIS);
+		assertTrue(metrics.isFinished());
+		assertEquals(300 * MILLIS, metrics.getNanos(Phase.PARSING));
+		assertEquals(500 * MILLIS, metrics.getNanos(Phase.TREE_BOOKKEEPING));
+	}
+	
+	@Test
+	public void testNullMetrics() {
+		IndexingMetrics metrics = IndexingMetrics.nullMetrics;
+		metrics.recordParse("TextParser", 10, MILLIS, Outcome.SUCCESS);
+		metrics.finish(MILLIS);
+		assertTrue(metrics.getParserStats().isEmpty());
+		assertFalse(metrics.isFinished());
+	}
+	
+	@Test
+	public void testJson() {
+		IndexingMetrics metrics = new IndexingMetrics();
+		metrics.recordParse("Text\"Parser", 10, MILLIS, Outcome.SUCCESS);
+		metrics.finish(2 * MILLIS);
+		JsonWriter json = new JsonWriter();
+		metrics.writeJson(json);
+		String out = json.toString();
+		assertTrue(out.startsWith("{\"elapsedMillis\":2,"));
+		assertTrue(out.contains("\"parser\":\"Text\\\"Parser\""));
+		assertTrue(out.endsWith("]}"));
+	}
+	
+	private static void assertApprox(long expected, long actual) {
+		assertTrue(actual >= expected && actual <= expected * 1.1);
+	}
+
+}
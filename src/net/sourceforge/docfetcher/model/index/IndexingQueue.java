@@ -12,6 +12,7 @@
 package net.sourceforge.docfetcher.model.index;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -68,6 +69,7 @@ public final class IndexingQueue {
 
 	private final Thread thread;
 	private final IndexRegistry indexRegistry;
+	private final IndexMaintenance maintenance;
 	private final LinkedList<Task> tasks = new LinkedList<Task>(); // guarded by lock
 
 	private volatile boolean shutdown = false; // guarded by lock
@@ -84,6 +86,7 @@ public final class IndexingQueue {
 		readLock = indexRegistry.getReadLock();
 		writeLock = indexRegistry.getWriteLock();
 		readyTaskAvailable = writeLock.newCondition();
+		maintenance = new IndexMaintenance(indexRegistry);
 		
 		/*
 		 * In case of rebuild tasks, if a task is removed before it has entered
@@ -176,7 +179,8 @@ public final class IndexingQueue {
 			writeLock.unlock();
 		}
 		
-		// Indexing
+		// Indexing; a background merge must not hold the index's write lock now
+		maintenance.setBusy(true);
 		task.set(TaskState.INDEXING);
 		LuceneIndex luceneIndex = task.getLuceneIndex();
 		if (task.is(IndexAction.REBUILD)) {
@@ -194,6 +198,7 @@ public final class IndexingQueue {
 		boolean hasErrors = luceneIndex.hasErrorsDeep();
 
 		boolean doDelete = false;
+		boolean doSave = false;
 		boolean fireRemoved = false;
 		
 		// Post-processing
@@ -225,7 +230,7 @@ public final class IndexingQueue {
 					 * fails and crashes the program.
 					 */
 					if (indexRegistry.getIndexes().contains(luceneIndex)) {
-						indexRegistry.save(luceneIndex);
+						doSave = true;
 						indexRegistry.getSearcher().replaceLuceneSearcher();
 					}
 					
@@ -247,8 +252,7 @@ public final class IndexingQueue {
 			}
 			else {
 				indexRegistry.addIndex(luceneIndex);
-				if (result == IndexingResult.SUCCESS_CHANGED)
-					indexRegistry.save(luceneIndex);
+				doSave = result == IndexingResult.SUCCESS_CHANGED;
 				boolean keep = task.is(CancelAction.KEEP);
 				if (keep || shutdown || !hasErrors)
 					fireRemoved = tasks.remove(task);
@@ -259,6 +263,16 @@ public final class IndexingQueue {
 			writeLock.unlock();
 		}
 		
+		/*
+		 * Save the index without holding the lock, so that searches aren't
+		 * blocked while a large index is written to disk. The index won't be
+		 * modified in the meantime, since only this thread updates indexes.
+		 */
+		if (doSave)
+			indexRegistry.save(luceneIndex);
+		else
+			IndexRegistry.deleteCheckpoint(luceneIndex); // Done by save otherwise
+		
 		if (fireRemoved)
 			evtRemoved.fire(task);
 		
@@ -267,6 +281,7 @@ public final class IndexingQueue {
 		}
 		
 		task.evtFinished.fire(hasErrors);
+		maintenance.setBusy(false);
 		
 		// Delete index; this can be done without holding the lock
 		if (doDelete) {
@@ -315,11 +330,26 @@ public final class IndexingQueue {
 	@ThreadSafe
 	public Rejection addTask(	@NotNull LuceneIndex index,
 								@NotNull IndexAction action) {
+		return addTask(index, action, null);
+	}
+	
+	/**
+	 * Same as {@link #addTask(LuceneIndex, IndexAction)}, but if the given
+	 * collection of directories is not null, the task will only update these
+	 * directories and everything below them. This is only allowed for update
+	 * tasks. If the update is rejected because an equivalent task is already
+	 * waiting in the queue, the directories are added to that task.
+	 */
+	@Nullable
+	@ThreadSafe
+	public Rejection addTask(	@NotNull LuceneIndex index,
+								@NotNull IndexAction action,
+								@Nullable Collection<File> dirtyDirs) {
 		Util.checkNotNull(index, action);
 		Util.checkThat(index instanceof FileIndex
 				|| index instanceof OutlookIndex);
 		
-		Task task = new Task(this, index, action);
+		Task task = new Task(this, index, action, dirtyDirs);
 
 		// Check that the given index has the right index directory
 		File taskIndexDir = task.getLuceneIndex().getIndexDirPath().getCanonicalFile();
@@ -373,10 +403,13 @@ public final class IndexingQueue {
 				 * should work well enough, assuming that it is very unlikely
 				 * that the user will cancel ready tasks.
 				 */
-				for (Task queueTask : tasks)
+				for (Task queueTask : tasks) {
 					if (queueTask.is(TaskState.READY)
-							&& sameTarget(queueTask, task))
+							&& sameTarget(queueTask, task)) {
+						queueTask.addDirtyDirs(dirtyDirs);
 						return Rejection.REDUNDANT_UPDATE;
+					}
+				}
 			}
 			else if (index instanceof OutlookIndex) {
 				/*
@@ -692,8 +725,10 @@ public final class IndexingQueue {
 					it.remove();
 					removedTasks.add(task);
 				}
-				if (approveImmediately)
+				if (approveImmediately) {
+					maintenance.abortMerge(deletion.getLuceneIndex());
 					deletion.setApprovedByQueue();
+				}
 			}
 		}
 		finally {
@@ -704,6 +739,16 @@ public final class IndexingQueue {
 			evtRemoved.fire(task);
 	}
 
+	/**
+	 * Returns the background maintenance of the indexes, which must be
+	 * notified of index updates that don't go through this queue.
+	 */
+	@NotNull
+	@ThreadSafe
+	IndexMaintenance getMaintenance() {
+		return maintenance;
+	}
+
 	// returns 'proceed'; cancel handler is called if a creation or rebuild
 	// task is currently running
 	// Warning: Cancel handler is called under lock, so caller must take possible
@@ -738,6 +783,8 @@ public final class IndexingQueue {
 		
 		for (Task task : removedTasks)
 			evtRemoved.fire(task);
+		
+		maintenance.shutdown();
 
 		return true;
 	}
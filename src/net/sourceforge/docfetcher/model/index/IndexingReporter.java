@@ -30,4 +30,19 @@ public class IndexingReporter {
 	
 	public void fail(@NotNull IndexingError error) {}
 	
+	/**
+	 * Returns the metrics object into which the indexing code should record
+	 * timing and throughput figures. The default implementation returns a
+	 * metrics object that discards everything.
+	 */
+	@NotNull
+	public IndexingMetrics getMetrics() {
+		return IndexingMetrics.nullMetrics;
+	}
+	
+	/**
+	 * Called at the end of an indexing run with the finished metrics.
+	 */
+	public void summary(@NotNull IndexingMetrics metrics) {}
+	
 }
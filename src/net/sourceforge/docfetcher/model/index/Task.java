@@ -11,6 +11,13 @@
 
 package net.sourceforge.docfetcher.model.index;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.LuceneIndex;
 import net.sourceforge.docfetcher.model.PendingDeletion;
@@ -19,6 +26,7 @@ import net.sourceforge.docfetcher.model.index.DelegatingReporter.ExistingMessage
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 
@@ -62,14 +70,20 @@ public final class Task {
 	@Nullable private volatile PendingDeletion deletion;
 	private final DelegatingReporter reporter;
 	@Nullable volatile CancelAction cancelAction;
+	
+	// Directories to update; null if the whole index must be updated
+	@Nullable private Set<File> dirtyDirs; // guarded by queue lock
 
 	Task(	@NotNull IndexingQueue queue,
 			@NotNull LuceneIndex index,
-			@NotNull IndexAction indexAction) {
+			@NotNull IndexAction indexAction,
+			@Nullable Collection<File> dirtyDirs) {
 		Util.checkNotNull(queue, index, indexAction);
+		Util.checkThat(dirtyDirs == null || indexAction == IndexAction.UPDATE);
 		this.queue = queue;
 		this.index = index;
 		this.indexAction = indexAction;
+		this.dirtyDirs = dirtyDirs == null ? null : new LinkedHashSet<File>(dirtyDirs);
 		state = is(IndexAction.UPDATE) ? TaskState.READY : TaskState.NOT_READY;
 		reporter = new DelegatingReporter(queue.reporterCapacity);
 	}
@@ -95,11 +109,37 @@ public final class Task {
 
 	@NotNull
 	IndexingResult update() {
+		List<File> dirtyDirs;
+		queue.readLock.lock();
+		try {
+			dirtyDirs = this.dirtyDirs == null
+				? null
+				: new ArrayList<File>(this.dirtyDirs);
+		}
+		finally {
+			queue.readLock.unlock();
+		}
 		return index.update(reporter, new Cancelable() {
 			public boolean isCanceled() {
 				return cancelAction != null;
 			}
-		});
+		}, dirtyDirs);
+	}
+	
+	/**
+	 * Extends the directories to be updated by this task with the given
+	 * directories. If the given collection is null, the task will update the
+	 * whole index. Must be called under the queue's write lock, before the
+	 * task enters indexing state.
+	 */
+	@NotThreadSafe
+	void addDirtyDirs(@Nullable Collection<File> dirtyDirs) {
+		if (this.dirtyDirs == null)
+			return;
+		if (dirtyDirs == null)
+			this.dirtyDirs = null;
+		else
+			this.dirtyDirs.addAll(dirtyDirs);
 	}
 
 	@NotNull
@@ -107,6 +147,16 @@ public final class Task {
 		return index;
 	}
 
+	/**
+	 * Returns the timing and throughput figures of this task, which are
+	 * complete once the task has finished.
+	 */
+	@NotNull
+	@ThreadSafe
+	public IndexingMetrics getMetrics() {
+		return reporter.getMetrics();
+	}
+
 	// delegate and handler are called under lock of DelegatingReporter instance, so beware of lock-ordering deadlocks!
 	public void attachReporter(	@NotNull IndexingReporter delegate,
 								@NotNull ExistingMessagesHandler handler) {
@@ -39,6 +39,7 @@ final class AppendingContext extends FileContext {
 				context.getOriginalPath(),
 				context.getStopper(),
 				context.getFileCount(),
+				context.getMetrics(),
 				context.getIndexParentDir()
 		);
 		this.outerContext = context;
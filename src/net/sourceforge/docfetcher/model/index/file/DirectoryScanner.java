@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.file.HtmlFileLister.Entry;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.RecursiveMethod;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Lists the directories of a file tree ahead of the indexing thread, using a
+ * fork/join pool. Each listed directory forks the listing of its
+ * subdirectories, so that sibling directories are listed in parallel, which
+ * hides the latency of slow file systems such as network drives.
+ * <p>
+ * The indexing thread still walks the tree in the usual order and obtains the
+ * listings via {@link #take(File)}, so the file tree and the Lucene index are
+ * only modified by a single thread. Directories whose listing hasn't started
+ * yet are listed by the indexing thread itself. After the indexing thread has
+ * visited a directory, the listings of its subdirectories that weren't taken
+ * are discarded via {@link #discardSubDirs(File)}.
+ * <p>
+ * The number of listed entries waiting to be taken is bounded; when the bound
+ * is exceeded, the scanner stops forking until the indexing thread has caught
+ * up. Each scanner has its own pool, which is shut down when the scanner is
+ * closed, but all scanners of directories on the same volume share a limit on
+ * the number of concurrent directory listings, so that concurrent index
+ * updates don't overload a drive.
+ * <p>
+ * Only directories that are neither archives nor inside archives are listed.
+ * Symbolic links, junctions, archives, HTML folders and directories excluded
+ * by the user are not descended into.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class DirectoryScanner {
+
+	private static final int PENDING = 0;
+	private static final int RUNNING = 1;
+	private static final int DONE = 2;
+	private static final int CLAIMED = 3;
+
+	// Keys are file stores
+	private static final Map<Object, Semaphore> volumePermits = new HashMap<Object, Semaphore>(); // guarded by class lock
+
+	private final class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final File dir;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		private final CountDownLatch done = new CountDownLatch(1);
+		@Nullable private volatile List<Entry> entries;
+		@Nullable private volatile IOException error;
+
+		private ScanTask(@NotNull File dir) {
+			this.dir = dir;
+		}
+
+		protected void compute() {
+			/*
+			 * If too many listings are waiting to be taken, leave the task
+			 * pending. The indexing thread will list the directory itself
+			 * when it gets there, and resume the forking from there.
+			 */
+			if (closed || bufferedEntries.get() > maxBufferedEntries)
+				return;
+			try {
+				permits.acquire();
+			}
+			catch (InterruptedException e) {
+				return; // The pool was shut down
+			}
+			try {
+				if (!state.compareAndSet(PENDING, RUNNING))
+					return;
+				list();
+			}
+			finally {
+				permits.release();
+			}
+		}
+
+		private void list() {
+			try {
+				List<Entry> entries = HtmlFileLister.listEntriesWithAttributes(dir);
+				bufferedEntries.addAndGet(entries.size());
+				this.entries = entries;
+
+				/*
+				 * Forking before the task is done ensures that the subtasks
+				 * are known when the task is discarded.
+				 */
+				forkSubDirs(dir, entries);
+			}
+			catch (IOException e) {
+				error = e;
+			}
+			catch (RuntimeException e) {
+				error = new IOException(e);
+			}
+			finally {
+				state.set(DONE);
+				done.countDown();
+			}
+		}
+	}
+
+	private final IndexingConfig config;
+	private final Predicate<File> skip;
+	private final ForkJoinPool pool;
+	private final Semaphore permits;
+	private final int maxBufferedEntries;
+	private final ConcurrentMap<String, ScanTask> tasks = new ConcurrentHashMap<String, ScanTask>();
+	private final ConcurrentMap<String, List<ScanTask>> subTasks = new ConcurrentHashMap<String, List<ScanTask>>();
+	private final AtomicLong bufferedEntries = new AtomicLong();
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a scanner for a file tree.
+	 *
+	 * @param rootDir
+	 *            The root directory of the file tree, which determines the
+	 *            volume.
+	 * @param config
+	 *            The indexing config, which determines the HTML folders.
+	 * @param skip
+	 *            A predicate that returns true for directories excluded by
+	 *            the user. It is called from the threads of the pool.
+	 * @param threads
+	 *            The maximum number of directories that are listed at the same
+	 *            time on the volume. The value given to the first scanner of a
+	 *            volume applies to all scanners of that volume.
+	 * @param maxBufferedEntries
+	 *            The number of listed entries that may be waiting to be taken
+	 *            before the scanner pauses.
+	 */
+	public DirectoryScanner(@NotNull File rootDir,
+							@NotNull IndexingConfig config,
+							@NotNull Predicate<File> skip,
+							int threads,
+							int maxBufferedEntries) {
+		Util.checkNotNull(rootDir, config, skip);
+		Util.checkThat(threads >= 1 && maxBufferedEntries >= 0);
+		this.config = config;
+		this.skip = skip;
+		this.pool = new ForkJoinPool(threads);
+		this.permits = getVolumePermits(rootDir, threads);
+		this.maxBufferedEntries = maxBufferedEntries;
+	}
+
+	@NotNull
+	@VisibleForTesting
+	static synchronized Semaphore getVolumePermits(	@NotNull File rootDir,
+													int threads) {
+		Object volume;
+		try {
+			volume = Files.getFileStore(Paths.get(rootDir.getPath()));
+		}
+		catch (IOException e) {
+			volume = DirectoryScanner.class;
+		}
+		catch (InvalidPathException e) {
+			volume = DirectoryScanner.class;
+		}
+		Semaphore permits = volumePermits.get(volume);
+		if (permits == null) {
+			permits = new Semaphore(threads);
+			volumePermits.put(volume, permits);
+		}
+		return permits;
+	}
+
+	/**
+	 * Returns the entries of the given directory, together with their
+	 * attributes. If the directory was already listed by the scanner, the
+	 * listing is returned and removed from the scanner; if it is being listed,
+	 * this method waits for the listing; otherwise the directory is listed by
+	 * the calling thread. Either way, the listing of the subdirectories is
+	 * started.
+	 */
+	@NotNull
+	public List<Entry> take(@NotNull File dir) throws IOException {
+		ScanTask task = tasks.remove(dir.getPath());
+		if (task != null) {
+			if (!task.state.compareAndSet(PENDING, CLAIMED)) {
+				Uninterruptibles.awaitUninterruptibly(task.done);
+				IOException error = task.error;
+				if (error != null)
+					throw error;
+				List<Entry> entries = task.entries;
+				bufferedEntries.addAndGet(-entries.size());
+				return entries;
+			}
+		}
+		List<Entry> entries = HtmlFileLister.listEntriesWithAttributes(dir);
+		forkSubDirs(dir, entries);
+		return entries;
+	}
+
+	private void forkSubDirs(@NotNull File dir, @NotNull List<Entry> entries) {
+		if (closed)
+			return;
+		List<ScanTask> forked = new ArrayList<ScanTask>();
+		for (File subDir : HtmlFileLister.getSubDirsToVisit(entries, config, skip)) {
+			ScanTask task = new ScanTask(subDir);
+			if (tasks.putIfAbsent(subDir.getPath(), task) != null)
+				continue;
+			forked.add(task);
+		}
+		if (forked.isEmpty())
+			return;
+		subTasks.put(dir.getPath(), forked);
+		for (ScanTask task : forked) {
+			if (ForkJoinTask.getPool() == pool)
+				task.fork();
+			else
+				pool.execute(task);
+		}
+	}
+
+	/**
+	 * Discards the listings of those subdirectories of the given directory
+	 * that haven't been taken, together with the listings below them. This
+	 * should be called after the given directory has been visited, so that
+	 * the listings of skipped subdirectories don't take up the buffer.
+	 */
+	@RecursiveMethod
+	public void discardSubDirs(@NotNull File dir) {
+		List<ScanTask> forked = subTasks.remove(dir.getPath());
+		if (forked == null)
+			return;
+		for (ScanTask task : forked) {
+			if (!tasks.remove(task.dir.getPath(), task))
+				continue; // Already taken
+			if (task.state.compareAndSet(PENDING, CLAIMED))
+				continue; // Not listed
+			Uninterruptibles.awaitUninterruptibly(task.done);
+			List<Entry> entries = task.entries;
+			if (entries != null)
+				bufferedEntries.addAndGet(-entries.size());
+			discardSubDirs(task.dir);
+		}
+	}
+
+	/**
+	 * Returns whether the listing of the given directory has been scheduled
+	 * and not been taken yet.
+	 */
+	@VisibleForTesting
+	boolean isScheduled(@NotNull File dir) {
+		return tasks.containsKey(dir.getPath());
+	}
+
+	@VisibleForTesting
+	long getBufferedEntries() {
+		return bufferedEntries.get();
+	}
+
+	/**
+	 * Stops the scanning, discards all listings that haven't been taken and
+	 * shuts down the pool. The scanner cannot be used anymore after calling
+	 * this method.
+	 */
+	public void close() {
+		closed = true;
+		pool.shutdownNow();
+		tasks.clear();
+		subTasks.clear();
+	}
+
+}
@@ -13,7 +13,10 @@ package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.TreeNode;
@@ -23,6 +26,8 @@ import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
 import net.sourceforge.docfetcher.model.index.IndexingException;
 import net.sourceforge.docfetcher.model.index.IndexingInfo;
 import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Phase;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
 import net.sourceforge.docfetcher.model.index.PatternAction;
@@ -48,7 +53,30 @@ class FileContext {
 	@Nullable private final Path originalPath;
 	private final Cancelable cancelable;
 	private final MutableInt fileCount;
+	private final IndexingMetrics metrics;
 	@Nullable private final File indexParentDir; // null if index only exists in RAM
+	@Nullable private List<DeferredFile> deferredFiles; // null if deferral is disabled
+	private int fastRescanUpdate = -1; // -1 if fast rescans are disabled
+	@Nullable private DirectoryScanner scanner; // null if parallel scanning is disabled
+	@Nullable private CheckpointHandler checkpointHandler; // null if checkpoints are disabled; not inherited
+	
+	interface CheckpointHandler {
+		public void checkpointIfDue() throws IOException;
+	}
+	
+	private static final class DeferredFile {
+		private final FileDocument doc;
+		private final File file;
+		private final boolean isAdded;
+		
+		private DeferredFile(	@NotNull FileDocument doc,
+								@NotNull File file,
+								boolean isAdded) {
+			this.doc = doc;
+			this.file = file;
+			this.isAdded = isAdded;
+		}
+	}
 
 	protected FileContext(	@NotNull IndexingConfig config,
 							@NotNull TArchiveDetector zipDetector,
@@ -57,14 +85,17 @@ class FileContext {
 							@Nullable Path originalPath,
 							@NotNull Cancelable cancelable,
 							@NotNull MutableInt fileCount,
+							@NotNull IndexingMetrics metrics,
 							@Nullable File indexParentDir) {
 		Util.checkNotNull(config, zipDetector, writer, cancelable, fileCount);
+		Util.checkNotNull(metrics);
 		this.config = config;
 		this.zipDetector = zipDetector;
 		this.writer = writer;
 		this.originalPath = originalPath;
 		this.cancelable = cancelable;
 		this.fileCount = fileCount;
+		this.metrics = metrics;
 		this.indexParentDir = indexParentDir;
 		setReporter(reporter);
 	}
@@ -79,8 +110,10 @@ class FileContext {
 				originalPath,
 				superContext.cancelable,
 				superContext.fileCount,
+				superContext.metrics,
 				superContext.indexParentDir
 		);
+		scanner = superContext.scanner;
 	}
 	
 	@NotNull
@@ -129,11 +162,149 @@ class FileContext {
 		return fileCount;
 	}
 	
+	@NotNull
+	protected final IndexingMetrics getMetrics() {
+		return metrics;
+	}
+	
 	@Nullable
 	protected final File getIndexParentDir() {
 		return indexParentDir;
 	}
 	
+	/**
+	 * Sets the directory scanner from which the directory listings are
+	 * obtained. The scanner is inherited by sub-contexts.
+	 */
+	public final void setScanner(@Nullable DirectoryScanner scanner) {
+		this.scanner = scanner;
+	}
+	
+	@Nullable
+	public final DirectoryScanner getScanner() {
+		return scanner;
+	}
+	
+	/**
+	 * Enables fast rescans for this context, with the given number of the
+	 * current index update. Fast rescans are disabled by default, and they are
+	 * not inherited by sub-contexts.
+	 */
+	public final void setFastRescanEnabled(int updateNumber) {
+		Util.checkThat(updateNumber >= 0);
+		fastRescanUpdate = updateNumber;
+	}
+	
+	public final boolean isFastRescanEnabled() {
+		return fastRescanUpdate >= 0;
+	}
+	
+	/**
+	 * Returns true if the given folder should be listed completely during the
+	 * current update even if its directory wasn't modified, in order to detect
+	 * files that were modified in place. The folders are spread evenly over
+	 * the updates, so that each folder is verified once every
+	 * <tt>FastRescanVerifyPeriod</tt> updates.
+	 */
+	public final boolean isVerificationDue(@NotNull FileFolder folder) {
+		int period = ProgramConf.Int.FastRescanVerifyPeriod.get();
+		int hash = folder.getPath().getCanonicalPath().hashCode();
+		int slot = (hash & Integer.MAX_VALUE) % period;
+		return slot == fastRescanUpdate % period;
+	}
+	
+	/**
+	 * Enables the deferral of oversized files for this context. Deferral is
+	 * disabled by default, and it is not inherited by sub-contexts.
+	 */
+	public final void setDeferralEnabled() {
+		if (deferredFiles == null)
+			deferredFiles = new ArrayList<DeferredFile>();
+	}
+	
+	/**
+	 * If deferral is enabled and the given file is estimated to be too large
+	 * for the parse memory budget, this method puts the file on a list of
+	 * files to be indexed at the end of the update via
+	 * {@link #indexDeferredFiles()} and returns true. Otherwise, it does
+	 * nothing and returns false.
+	 * <p>
+	 * The given document should be null if the file was added. In that case,
+	 * a new document is created with a last-modified value of -1, so that the
+	 * next update will pick up the file again if the current update is
+	 * canceled before the deferred files are indexed.
+	 * <p>
+	 * Entries of zip archives are never deferred, since the enclosing archive
+	 * may be unmounted at the end of the update.
+	 */
+	public final boolean deferIfOversized(	@NotNull FileFolder folder,
+											@Nullable FileDocument doc,
+											@NotNull File file) {
+		if (deferredFiles == null)
+			return false;
+		if (file instanceof TFile && ((TFile) file).isEntry())
+			return false;
+		if (!ParseService.isOversized(file, file.getName()))
+			return false;
+		boolean isAdded = doc == null;
+		if (isAdded)
+			doc = new FileDocument(folder, file.getName(), -1);
+		deferredFiles.add(new DeferredFile(doc, file, isAdded));
+		return true;
+	}
+	
+	/**
+	 * Indexes the files that were deferred via
+	 * {@link #deferIfOversized(FileFolder, FileDocument, File)}. Files that
+	 * are still deferred when the indexing is canceled will be picked up by
+	 * the next update.
+	 */
+	public final void indexDeferredFiles() throws IndexingException {
+		if (deferredFiles == null)
+			return;
+		for (DeferredFile deferred : deferredFiles) {
+			if (isStopped())
+				break;
+			FileDocument doc = deferred.doc;
+			doc.setLastModified(deferred.file.lastModified());
+			doc.setHtmlFolder(null);
+			
+			/*
+			 * As with other modified files, remove a file that can't be
+			 * indexed from the Lucene index, but keep it in the tree.
+			 */
+			if (!index(doc, deferred.file, deferred.isAdded) && !deferred.isAdded)
+				deleteFromIndex(doc.getUniqueId());
+		}
+		deferredFiles.clear();
+	}
+	
+	/**
+	 * Sets the handler that saves checkpoints of the index. Unlike the other
+	 * settings, the handler is not inherited by sub-contexts, since the tree
+	 * isn't consistent with the Lucene index while an archive or an HTML pair
+	 * is being indexed.
+	 */
+	public final void setCheckpointHandler(@Nullable CheckpointHandler checkpointHandler) {
+		this.checkpointHandler = checkpointHandler;
+	}
+	
+	/**
+	 * Saves a checkpoint if one is due. This must only be called at points
+	 * where the tree contains exactly the documents that have been written to
+	 * the Lucene index.
+	 */
+	public final void checkpointIfDue() throws IndexingException {
+		if (checkpointHandler == null)
+			return;
+		try {
+			checkpointHandler.checkpointIfDue();
+		}
+		catch (IOException e) {
+			throw new IndexingException(e);
+		}
+	}
+	
 	// returns success
 	// if the indexing is canceled before or during the execution of this method,
 	// the last-modified value of the given document will be set to -1.
@@ -144,7 +315,8 @@ class FileContext {
 		try {
 			// Text extraction; may throw OutOfMemoryErrors
 			ParseResult parseResult = ParseService.parse(
-				config, file, doc.getName(), doc.getPath(), reporter, cancelable);
+				config, file, doc.getName(), doc.getPath(), reporter, metrics,
+				cancelable);
 			
 			/*
 			 * If we detect a cancel request at this point, the request probably
@@ -157,10 +329,12 @@ class FileContext {
 				doc.setLastModified(-1);
 
 			// Add to index or update in index; may also throw OutOfMemoryErrors
+			long startTime = System.nanoTime();
 			if (isAdded)
 				writer.add(doc, file, parseResult);
 			else
 				writer.update(doc, file, parseResult);
+			metrics.addTime(Phase.LUCENE_WRITE, System.nanoTime() - startTime);
 			
 			// Clear errors from previous indexing operations
 			doc.setError(null);
@@ -194,7 +368,9 @@ class FileContext {
 	public final void deleteFromIndex(@NotNull String uid)
 			throws IndexingException {
 		try {
+			long startTime = System.nanoTime();
 			writer.delete(uid);
+			metrics.addTime(Phase.LUCENE_WRITE, System.nanoTime() - startTime);
 		}
 		catch (IOException e) {
 			throw new IndexingException(e);
@@ -12,6 +12,7 @@
 package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Map;
 
 import net.sourceforge.docfetcher.model.Document;
@@ -58,8 +59,16 @@ public final class FileDocument extends Document<FileDocument, FileFolder> {
 	public boolean isModified(	@NotNull FileContext context,
 	                          	@NotNull File file,
 								@Nullable File htmlFolder) {
+		return isModified(context, file, file.lastModified(), htmlFolder);
+	}
+	
+	// The given last-modified value overrides the one of the given file
+	public boolean isModified(	@NotNull FileContext context,
+	                          	@NotNull File file,
+	                          	long lastModified,
+								@Nullable File htmlFolder) {
 		Util.checkThat(getName().equals(file.getName()));
-		if (getLastModified() != file.lastModified())
+		if (getLastModified() != lastModified)
 			return true;
 		return isFolderModified(context, this.htmlFolder, htmlFolder);
 	}
@@ -81,15 +90,16 @@ public final class FileDocument extends Document<FileDocument, FileFolder> {
 		final boolean[] modificationFound = { false };
 		
 		new HtmlFileLister <Exception> (newFolder, config, null) {
-			protected void handleFile(File file) {
+			protected void handleFile(File file, BasicFileAttributes attrs) {
+				long lastModified = getLastModified(file, attrs);
 				if (config.isSolidArchive(file.getName())) {
 					FileFolder subFolder = unseenSubFolders.remove(file.getName());
-					if (subFolder == null || !Objects.equal(subFolder.getLastModified(), file.lastModified()))
+					if (subFolder == null || !Objects.equal(subFolder.getLastModified(), lastModified))
 						modified();
 				}
 				else {
 					FileDocument doc = unseenDocs.remove(file.getName());
-					if (doc == null || doc.getLastModified() != file.lastModified())
+					if (doc == null || doc.getLastModified() != lastModified)
 						modified();
 				}
 			}
@@ -98,7 +108,7 @@ public final class FileDocument extends Document<FileDocument, FileFolder> {
 				if (doc == null || doc.isModified(context, htmlFile, htmlDir))
 					modified();
 			}
-			protected void handleDir(File dir) {
+			protected void handleDir(File dir, BasicFileAttributes attrs) {
 				FileFolder subFolder = unseenSubFolders.remove(dir.getName());
 				if (subFolder == null || isFolderModified(context, subFolder, dir))
 					modified();
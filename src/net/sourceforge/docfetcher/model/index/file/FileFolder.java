@@ -25,6 +25,13 @@ import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
 public class FileFolder extends Folder<FileDocument, FileFolder> {
 	
 	private static final long serialVersionUID = 1L;
+	
+	/*
+	 * The last-modified value the directory had when it was last listed
+	 * completely, or null if unknown. Only used for regular directories, not
+	 * for archives or archive entries.
+	 */
+	@Nullable private Long dirLastModified;
 
 	public static class FileFolderVisitor <T extends Throwable>
 			extends FolderVisitor<FileDocument, FileFolder, T> {
@@ -50,5 +57,14 @@ public class FileFolder extends Folder<FileDocument, FileFolder> {
 	public final boolean isArchive() {
 		return getLastModified() != null;
 	}
+	
+	@Nullable
+	public final Long getDirLastModified() {
+		return dirLastModified;
+	}
+	
+	public final void setDirLastModified(@Nullable Long dirLastModified) {
+		this.dirLastModified = dirLastModified;
+	}
 
 }
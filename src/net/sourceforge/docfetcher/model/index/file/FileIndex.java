@@ -13,10 +13,16 @@ package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.DocumentType;
 import net.sourceforge.docfetcher.model.Path;
@@ -31,12 +37,14 @@ import net.sourceforge.docfetcher.model.index.IndexingException;
 import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
+import net.sourceforge.docfetcher.model.index.file.FileContext.CheckpointHandler;
 import net.sourceforge.docfetcher.model.index.file.FileFolder.FileFolderVisitor;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.RecursiveMethod;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
 
@@ -71,6 +79,16 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 	 */
 	
 	private static final long serialVersionUID = 1L;
+	
+	/*
+	 * Directories modified less than this many milliseconds before they were
+	 * listed won't be skipped on the next update, since further modifications
+	 * made in the same moment might not have changed the last-modified value.
+	 */
+	private static final long DIR_MTIME_GRANULARITY = 2000;
+	
+	// Number of updates run on this index, used for spreading fast rescan verifications
+	private int updateCount = 0;
 
 	// if indexParentDir is null, all content is written to a RAM index, which
 	// can be retrieved via getLuceneDir
@@ -119,11 +137,18 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 
 	public IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
 									@NotNull Cancelable cancelable) {
+		return doUpdate(reporter, cancelable, null);
+	}
+	
+	public IndexingResult doUpdate(	@NotNull IndexingReporter reporter,
+									@NotNull Cancelable cancelable,
+									@Nullable Collection<File> dirtyDirs) {
 		reporter.setStartTime(System.currentTimeMillis());
 		IndexingConfig config = getConfig();
 		FileFolder rootFolder = getRootFolder();
 		rootFolder.setError(null);
 		SimpleDocWriter writer = null;
+		DirectoryScanner scanner = null;
 
 		/*
 		 * Wrap the stored root file in a TFile to enable zip archive support.
@@ -152,11 +177,48 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 					return IndexingResult.SUCCESS_UNCHANGED;
 				rootFolder.setLastModified(newLastModified);
 				
-				writer = new SimpleDocWriter(getLuceneDir());
+				writer = new SimpleDocWriter(
+					getLuceneDir(), getWriterProfile(), reporter.getMetrics());
 				FileContext context = new FileContext(
 					config, zipDetector, writer, reporter, null, cancelable,
-					new MutableInt(0), getIndexParentDir());
-				visitDirOrZip(context, rootFolder, rootFile);
+					new MutableInt(0), reporter.getMetrics(), getIndexParentDir());
+				if (ProgramConf.Bool.DeferOversizedFiles.get())
+					context.setDeferralEnabled();
+				final SimpleDocWriter finalWriter = writer;
+				context.setCheckpointHandler(new CheckpointHandler() {
+					public void checkpointIfDue() throws IOException {
+						if (!isCheckpointDue())
+							return;
+						finalWriter.commit();
+						saveCheckpoint();
+					}
+				});
+				if (ProgramConf.Bool.FastRescan.get())
+					context.setFastRescanEnabled(updateCount);
+				updateCount = updateCount == Integer.MAX_VALUE ? 0 : updateCount + 1;
+				
+				/*
+				 * Parallel scanning would list the folders that fast rescans
+				 * are meant to skip, so it is only used without fast rescans.
+				 */
+				int scanThreads = ProgramConf.Int.DirectoryScanThreads.get();
+				if (scanThreads > 1 && !context.isFastRescanEnabled()) {
+					final FileContext scanContext = context;
+					Predicate<File> skip = new Predicate<File>() {
+						public boolean apply(File dir) {
+							return scanContext.skip((TFile) dir);
+						}
+					};
+					scanner = new DirectoryScanner(
+						rootFile, config, skip, scanThreads,
+						ProgramConf.Int.DirectoryScanBufferSize.get());
+					context.setScanner(scanner);
+				}
+				if (dirtyDirs == null)
+					visitDirOrZip(context, rootFolder, rootFile);
+				else
+					visitDirtyDirs(context, rootFolder, rootFile, dirtyDirs);
+				context.indexDeferredFiles();
 			}
 			else {
 				// Return immediately if the root file wasn't modified
@@ -179,10 +241,12 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 					return IndexingResult.FAILURE;
 				}
 				
-				writer = new SimpleDocWriter(getLuceneDir());
+				writer = new SimpleDocWriter(
+					getLuceneDir(), getWriterProfile(), reporter.getMetrics());
 				SolidArchiveContext context = new SolidArchiveContext(
 					config, zipDetector, writer, reporter, null, cancelable,
-					new MutableInt(0), false, getIndexParentDir());
+					new MutableInt(0), reporter.getMetrics(), false,
+					getIndexParentDir());
 				SolidArchiveTree<?> archiveTree = factory.createSolidArchiveTree(
 					context, rootFile);
 				visitSolidArchive(context, rootFolder, archiveTree);
@@ -206,6 +270,8 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 			report(ErrorType.STACK_OVERFLOW, reporter, e);
 		}
 		finally {
+			if (scanner != null)
+				scanner.close();
 			Closeables.closeQuietly(writer);
 			reporter.setEndTime(System.currentTimeMillis());
 		}
@@ -246,7 +312,14 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 	@NotNull
 	private static FileDocument createFileDoc(	@NotNull FileFolder parentFolder,
 												@NotNull File file) {
-		return new FileDocument(parentFolder, file.getName(), file.lastModified());
+		return createFileDoc(parentFolder, file, file.lastModified());
+	}
+	
+	@NotNull
+	private static FileDocument createFileDoc(	@NotNull FileFolder parentFolder,
+												@NotNull File file,
+												long lastModified) {
+		return new FileDocument(parentFolder, file.getName(), lastModified);
 	}
 
 	// Will clean up temporary zip files
@@ -255,13 +328,26 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 										@NotNull final FileFolder folder,
 										@NotNull final File dirOrZip)
 			throws IndexingException {
+		visitDirOrZip(context, folder, dirOrZip, null);
+	}
+	
+	// The given attributes are null if not available
+	@RecursiveMethod
+	private static void visitDirOrZip(	@NotNull final FileContext context,
+										@NotNull final FileFolder folder,
+										@NotNull final File dirOrZip,
+										@Nullable BasicFileAttributes attrs)
+			throws IndexingException {
 		assert !folder.hasErrors();
 		
 		/*
 		 * The user may have deleted the directory in the meantime. See for
 		 * example: https://sourceforge.net/p/docfetcher/bugs/1004
+		 * 
+		 * This check can be skipped if the directory's attributes have just
+		 * been read.
 		 */
-		if (!dirOrZip.isDirectory()) {
+		if (attrs == null && !dirOrZip.isDirectory()) {
 			return;
 		}
 		
@@ -272,6 +358,26 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		if (Util.isCanonicallyEqual(context.getIndexParentDir(), dirOrZip))
 			return;
 		
+		/*
+		 * Fast rescan: The last-modified value of a directory changes when
+		 * entries are added, removed or renamed, so if it hasn't changed, we
+		 * don't have to list the directory, but only descend into the known
+		 * subfolders. Files modified in place go unnoticed until the directory
+		 * is verified by a complete listing.
+		 */
+		final boolean isPlainDir = isPlainDir(dirOrZip);
+		final long dirLastModified = isPlainDir
+			? HtmlFileLister.getLastModified(dirOrZip, attrs)
+			: 0;
+		Long oldDirLastModified = folder.getDirLastModified();
+		if (isPlainDir
+				&& context.isFastRescanEnabled()
+				&& oldDirLastModified != null
+				&& oldDirLastModified.longValue() == dirLastModified
+				&& !context.isVerificationDue(folder)
+				&& visitUnlistedDir(context, folder, dirOrZip))
+			return;
+		
 		final Map<String, FileDocument> unseenDocs = Maps.newHashMap(folder.getDocumentMap());
 		final Map<String, FileFolder> unseenSubFolders = Maps.newHashMap(folder.getSubFolderMap());
 
@@ -280,23 +386,30 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		 * a consistent state, so that the user can continue indexing later.
 		 */
 		new HtmlFileLister<IndexingException>(
-			dirOrZip, context.getConfig(), context.getReporter()) {
-			protected void handleFile(@NotNull File file) {
+			dirOrZip, context.getConfig(), context.getReporter(),
+			context.getScanner()) {
+			protected void handleFile(	@NotNull File file,
+										@Nullable BasicFileAttributes attrs) {
 				if (context.isStopped()) stop();
 				try {
 					if (switchDirZipToSolid(context, folder, file)) {
 						unseenSubFolders.remove(file.getName());
 						return;
 					}
+					long lastModified = getLastModified(file, attrs);
 					FileDocument doc = unseenDocs.remove(file.getName());
 					// File added
 					if (doc == null) {
-						doc = createFileDoc(folder, file);
+						if (context.deferIfOversized(folder, null, file))
+							return;
+						doc = createFileDoc(folder, file, lastModified);
 						context.index(doc, file, true);
 					}
 					// File modified
-					else if (doc.isModified(context, file, null)) {
-						doc.setLastModified(file.lastModified());
+					else if (doc.isModified(context, file, lastModified, null)) {
+						if (context.deferIfOversized(folder, doc, file))
+							return;
+						doc.setLastModified(lastModified);
 						doc.setHtmlFolder(null);
 						
 						/*
@@ -307,6 +420,13 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 						if (!context.index(doc, file, false))
 							context.deleteFromIndex(doc.getUniqueId());
 					}
+					
+					/*
+					 * Inside archives, the tree isn't consistent with the
+					 * Lucene index until the whole archive has been indexed.
+					 */
+					if (isPlainDir)
+						context.checkpointIfDue();
 				}
 				catch (IndexingException e) {
 					stop(e);
@@ -370,16 +490,19 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 				}
 			}
 
-			protected void handleDir(@NotNull File dir) {
+			protected void handleDir(	@NotNull File dir,
+										@Nullable BasicFileAttributes attrs) {
 				if (context.isStopped()) stop();
 				/*
 				 * The Folder object's last-modified attribute is non-null for
 				 * zip archives. This allows us to avoid recursion into
-				 * unmodified zip archives.
+				 * unmodified zip archives. Directories with attributes are
+				 * known to be regular directories.
 				 */
 				FileFolder subFolder = unseenSubFolders.remove(dir.getName());
-				Long newLastModified = getZipArchiveLastModified(
-					context.getConfig(), dir);
+				Long newLastModified = attrs != null
+					? null
+					: getZipArchiveLastModified(context.getConfig(), dir);
 				if (subFolder == null) { // Folder added
 					subFolder = new FileFolder(folder, dir.getName(), newLastModified);
 				}
@@ -390,17 +513,7 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 					subFolder.setError(null);
 				}
 				try {
-					visitDirOrZip(context, subFolder, dir);
-				}
-				catch (StackOverflowError e) {
-					/*
-					 * Folder hierarchy was too deep. Throw wrapped
-					 * StackOverflowError with a more helpful error message.
-					 */
-					int depth = subFolder.getParentCount();
-					String path = subFolder.getPath().getCanonicalPath();
-					String msg = Msg.folder_hierarchy_too_deep.format(depth, path);
-					throw new WrappedStackOverflowError(msg, e);
+					visitSubDirOrZip(context, subFolder, dir, attrs);
 				}
 				catch (IndexingException e) {
 					stop(e);
@@ -456,6 +569,146 @@ public final class FileIndex extends TreeIndex<FileDocument, FileFolder> {
 		}
 		for (FileFolder subFolder : unseenSubFolders.values())
 			detachMissingSubFolder(context, folder, subFolder);
+		
+		if (isPlainDir && System.currentTimeMillis() - dirLastModified > DIR_MTIME_GRANULARITY)
+			folder.setDirLastModified(dirLastModified);
+		else
+			folder.setDirLastModified(null);
+	}
+	
+	@RecursiveMethod
+	private static void visitSubDirOrZip(	@NotNull FileContext context,
+											@NotNull FileFolder subFolder,
+											@NotNull File dirOrZip,
+											@Nullable BasicFileAttributes attrs)
+			throws IndexingException {
+		try {
+			visitDirOrZip(context, subFolder, dirOrZip, attrs);
+		}
+		catch (StackOverflowError e) {
+			/*
+			 * Folder hierarchy was too deep. Throw wrapped
+			 * StackOverflowError with a more helpful error message.
+			 */
+			int depth = subFolder.getParentCount();
+			String path = subFolder.getPath().getCanonicalPath();
+			String msg = Msg.folder_hierarchy_too_deep.format(depth, path);
+			throw new WrappedStackOverflowError(msg, e);
+		}
+	}
+	
+	/**
+	 * Updates the given directories below the given root directory and
+	 * everything below them. Directories that aren't in the tree yet, that no
+	 * longer exist or that are inside archives are replaced with their nearest
+	 * ancestor that is a registered directory, and directories below other
+	 * given directories are skipped. If this leads to the root directory, the
+	 * whole tree is updated.
+	 */
+	private static void visitDirtyDirs(	@NotNull FileContext context,
+										@NotNull FileFolder rootFolder,
+										@NotNull File rootDir,
+										@NotNull Collection<File> dirtyDirs)
+			throws IndexingException {
+		if (!isPlainDir(rootDir)) {
+			visitDirOrZip(context, rootFolder, rootDir);
+			return;
+		}
+		
+		Set<FileFolder> targets = new LinkedHashSet<FileFolder>();
+		for (File dirtyDir : dirtyDirs) {
+			FileFolder target = findDirtyFolder(context, rootFolder, dirtyDir);
+			if (target == rootFolder) {
+				visitDirOrZip(context, rootFolder, rootDir);
+				return;
+			}
+			targets.add(target);
+		}
+		
+		for (FileFolder target : targets) {
+			if (context.isStopped())
+				return;
+			if (hasAncestorIn(target, targets))
+				continue;
+			target.setError(null);
+			File dir = new TFile(
+				target.getPath().getCanonicalFile(), context.getZipDetector());
+			visitSubDirOrZip(context, target, dir, null);
+		}
+	}
+	
+	@NotNull
+	private static FileFolder findDirtyFolder(	@NotNull FileContext context,
+												@NotNull FileFolder rootFolder,
+												@NotNull File dirtyDir) {
+		File dir = Util.getCanonicalFile(dirtyDir);
+		for (; dir != null; dir = dir.getParentFile()) {
+			TreeNode node = rootFolder.findTreeNode(new Path(dir));
+			if (node == rootFolder)
+				break;
+			if (!(node instanceof FileFolder))
+				continue;
+			TFile tzDir = new TFile(dir, context.getZipDetector());
+			if (isPlainDir(tzDir) && tzDir.isDirectory())
+				return (FileFolder) node;
+		}
+		return rootFolder;
+	}
+	
+	private static boolean hasAncestorIn(	@NotNull FileFolder folder,
+											@NotNull Set<FileFolder> folders) {
+		for (FileFolder parent = folder.getParent(); parent != null; parent = parent.getParent())
+			if (folders.contains(parent))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Visits the known subfolders of the given unmodified directory without
+	 * listing the directory. Returns false without doing anything if the
+	 * directory must be listed anyway, i.e. if one of the archives in it was
+	 * modified, or if it contains deferred files that haven't been indexed
+	 * yet.
+	 */
+	@RecursiveMethod
+	private static boolean visitUnlistedDir(@NotNull FileContext context,
+											@NotNull FileFolder folder,
+											@NotNull File dir)
+			throws IndexingException {
+		for (FileDocument doc : folder.getDocuments())
+			if (doc.getLastModified() == -1)
+				return false;
+		
+		List<FileFolder> subFolders = new ArrayList<FileFolder>();
+		List<File> subDirs = new ArrayList<File>();
+		for (FileFolder subFolder : folder.getSubFolders()) {
+			File subDir = new TFile(dir, subFolder.getName());
+			if (subFolder.isArchive()) {
+				if (subDir.lastModified() != subFolder.getLastModified().longValue())
+					return false;
+				continue;
+			}
+			subFolders.add(subFolder);
+			subDirs.add(subDir);
+		}
+		
+		context.getMetrics().recordSkippedListing();
+		for (int i = 0; i < subFolders.size(); i++) {
+			if (context.isStopped())
+				return true;
+			FileFolder subFolder = subFolders.get(i);
+			subFolder.setError(null);
+			visitSubDirOrZip(context, subFolder, subDirs.get(i), null);
+		}
+		return true;
+	}
+	
+	// Returns true if the given file is neither an archive nor inside one
+	static boolean isPlainDir(@NotNull File dir) {
+		if (!(dir instanceof TFile))
+			return true;
+		TFile tzDir = (TFile) dir;
+		return !tzDir.isArchive() && tzDir.getEnclArchive() == null;
 	}
 	
 	private static void detachMissingSubFolder(	@NotNull final FileContext context,
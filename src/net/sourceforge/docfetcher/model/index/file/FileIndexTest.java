@@ -12,6 +12,9 @@
 package net.sourceforge.docfetcher.model.index.file;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -19,23 +22,41 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.IndexLoadingProblems;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.LuceneIndex;
 import net.sourceforge.docfetcher.model.TreeIndex.IndexingResult;
 import net.sourceforge.docfetcher.model.UtilModel;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingQueue;
 import net.sourceforge.docfetcher.model.index.IndexingError;
 import net.sourceforge.docfetcher.model.index.IndexingInfo;
 import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
+import net.sourceforge.docfetcher.model.index.Task.CancelAction;
+import net.sourceforge.docfetcher.model.index.Task.CancelHandler;
+import net.sourceforge.docfetcher.model.index.Task.IndexAction;
 import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.collect.ListMap;
 import net.sourceforge.docfetcher.util.collect.ListMap.Entry;
 
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.Lock;
 import org.junit.Test;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
 import com.google.common.io.Files;
 import com.google.common.io.NullOutputStream;
 
@@ -184,9 +205,330 @@ public final class FileIndexTest {
 		Util.deleteRecursively(tempDir);
 	}
 	
+	/**
+	 * Checks that fast rescans skip the listing of unmodified folders, but
+	 * still detect added files.
+	 */
+	@Test
+	public void testFastRescan() throws Exception {
+		File tempDir = Util.createTempDir();
+		File subDir = new File(tempDir, "sub");
+		subDir.mkdir();
+		File textFile = new File(subDir, "test.txt");
+		Files.write("Hello World", textFile, Charsets.UTF_8);
+		
+		// Folders modified just now are always listed, so move them into the past
+		long dirLastModified = System.currentTimeMillis() - 60 * 1000;
+		subDir.setLastModified(dirLastModified);
+		tempDir.setLastModified(dirLastModified);
+		
+		ProgramConf.Bool.FastRescan.load("true");
+		ProgramConf.Int.FastRescanVerifyPeriod.load(String.valueOf(Integer.MAX_VALUE));
+		try {
+			FileIndex index = new FileIndex(null, tempDir);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(1, reporter.extractCount);
+			assertEquals(0, reporter.metrics.getSkippedListingCount());
+			
+			// File modified in place: Not detected
+			Files.write("Hello World Again", textFile, Charsets.UTF_8);
+			textFile.setLastModified(System.currentTimeMillis() + 1000);
+			subDir.setLastModified(dirLastModified);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(0, reporter.extractCount);
+			assertEquals(2, reporter.metrics.getSkippedListingCount());
+			
+			// File added: Folder is listed, modified file is detected as well
+			Files.write("Hello", new File(subDir, "test2.txt"), Charsets.UTF_8);
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(2, reporter.extractCount);
+			assertEquals(1, reporter.metrics.getSkippedListingCount());
+			UtilModel.assertDocCount(index.getLuceneDir(), 2);
+		}
+		finally {
+			ProgramConf.Bool.FastRescan.load("false");
+			ProgramConf.Int.FastRescanVerifyPeriod.load("10");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	@Test
+	public void testParallelScan() throws Exception {
+		File tempDir = Util.createTempDir();
+		for (int i = 0; i < 5; i++) {
+			File subDir = new File(tempDir, "sub" + i + "/subsub");
+			subDir.mkdirs();
+			Files.write("Hello", new File(subDir.getParentFile(), "a.txt"), Charsets.UTF_8);
+			Files.write("World", new File(subDir, "b.txt"), Charsets.UTF_8);
+		}
+
+		ProgramConf.Int.DirectoryScanThreads.load("4");
+		ProgramConf.Int.DirectoryScanBufferSize.load("3");
+		try {
+			FileIndex index = new FileIndex(null, tempDir);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(10, reporter.extractCount);
+			assertEquals(0, reporter.errorCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 10);
+
+			// Add, modify and delete files
+			Files.write("Added", new File(tempDir, "sub0/subsub/c.txt"), Charsets.UTF_8);
+			File modifiedFile = new File(tempDir, "sub1/a.txt");
+			Files.write("Modified", modifiedFile, Charsets.UTF_8);
+			modifiedFile.setLastModified(System.currentTimeMillis() + 5000);
+			Util.deleteRecursively(new File(tempDir, "sub2"));
+
+			reporter = new CountingReporter();
+			index.update(reporter, null);
+			assertEquals(2, reporter.extractCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 9);
+		}
+		finally {
+			ProgramConf.Int.DirectoryScanThreads.load("1");
+			ProgramConf.Int.DirectoryScanBufferSize.load("100000");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testDirectoryScannerSkips() throws Exception {
+		File tempDir = Util.createTempDir();
+		File plainDir = new File(tempDir, "plain");
+		File excludedDir = new File(tempDir, "excluded");
+		File htmlDir = new File(tempDir, "page_files");
+		for (File dir : new File[] {plainDir, excludedDir, htmlDir}) {
+			new File(dir, "sub").mkdirs();
+			Files.write("Hello", new File(dir, "a.txt"), Charsets.UTF_8);
+		}
+		Files.write("<html/>", new File(tempDir, "page.html"), Charsets.UTF_8);
+
+		DirectoryScanner scanner = new DirectoryScanner(
+			tempDir, new IndexingConfig(), new Predicate<File>() {
+				public boolean apply(File dir) {
+					return dir.getName().equals("excluded");
+				}
+			}, 2, 1000);
+		try {
+			assertEquals(4, scanner.take(tempDir).size());
+			assertTrue(scanner.isScheduled(plainDir));
+			assertFalse(scanner.isScheduled(excludedDir));
+			assertFalse(scanner.isScheduled(htmlDir));
+
+			// Listings that weren't taken don't take up the buffer
+			scanner.discardSubDirs(tempDir);
+			assertFalse(scanner.isScheduled(plainDir));
+			assertFalse(scanner.isScheduled(new File(plainDir, "sub")));
+			assertEquals(0, scanner.getBufferedEntries());
+
+			// Scanners on the same volume share the listing limit
+			assertSame(
+				DirectoryScanner.getVolumePermits(tempDir, 2),
+				DirectoryScanner.getVolumePermits(plainDir, 5));
+		}
+		finally {
+			scanner.close();
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testWriterProfiles() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			String text = Strings.repeat("Lorem ipsum dolor sit amet ", 200);
+			for (int i = 0; i < 20; i++)
+				Files.write(text + i, new File(tempDir, i + ".txt"), Charsets.UTF_8);
+
+			// Index creation: No compound files
+			FileIndex index = new FileIndex(null, tempDir);
+			index.update(null, null);
+			assertEquals(0, countCompoundFiles(index.getLuceneDir()));
+
+			// Index update: Small new segments are written as compound files
+			File addedFile = new File(tempDir, "added.txt");
+			Files.write("Added", addedFile, Charsets.UTF_8);
+			index.update(null, null);
+			assertEquals(1, countCompoundFiles(index.getLuceneDir()));
+			UtilModel.assertDocCount(index.getLuceneDir(), 21);
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	private static int countCompoundFiles(Directory luceneDir) throws Exception {
+		int count = 0;
+		for (String filename : luceneDir.listAll())
+			if (filename.endsWith(".cfs"))
+				count++;
+		return count;
+	}
+
+	@Test
+	public void testDirtyDirUpdate() throws Exception {
+		File tempDir = Util.createTempDir();
+		File subDir1 = new File(tempDir, "sub1");
+		File subDir2 = new File(tempDir, "sub2");
+		subDir1.mkdir();
+		subDir2.mkdir();
+		File textFile1 = new File(subDir1, "test.txt");
+		File textFile2 = new File(subDir2, "test.txt");
+		Files.write("Hello", textFile1, Charsets.UTF_8);
+		Files.write("World", textFile2, Charsets.UTF_8);
+
+		try {
+			FileIndex index = new FileIndex(null, tempDir);
+			index.update(null, null);
+			UtilModel.assertDocCount(index.getLuceneDir(), 2);
+
+			// Only the given directory is updated
+			long lastModified = System.currentTimeMillis() + 5000;
+			Files.write("Hello Again", textFile1, Charsets.UTF_8);
+			Files.write("World Again", textFile2, Charsets.UTF_8);
+			textFile1.setLastModified(lastModified);
+			textFile2.setLastModified(lastModified);
+			CountingReporter reporter = new CountingReporter();
+			index.update(reporter, null, Collections.singleton(subDir1));
+			assertEquals(1, reporter.extractCount);
+
+			// New directory: Its nearest registered ancestor is updated
+			File newDir = new File(subDir2, "new");
+			newDir.mkdir();
+			Files.write("New", new File(newDir, "test.txt"), Charsets.UTF_8);
+			reporter = new CountingReporter();
+			index.update(reporter, null, Collections.singleton(newDir));
+			assertEquals(2, reporter.extractCount);
+			UtilModel.assertDocCount(index.getLuceneDir(), 3);
+
+			// Deleted directory: The parent directory is updated
+			Util.deleteRecursively(newDir);
+			index.update(null, null, Collections.singleton(newDir));
+			UtilModel.assertDocCount(index.getLuceneDir(), 2);
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	public void testCheckpoint() throws Exception {
+		CancelHandler keepHandler = new CancelHandler() {
+			public CancelAction cancel() {
+				return CancelAction.KEEP;
+			}
+		};
+		File tempDir = Util.createTempDir();
+		final File rootDir = new File(tempDir, "root");
+		rootDir.mkdir();
+		for (int i = 0; i < 3; i++)
+			Files.write("Hello " + i, new File(rootDir, i + ".txt"), Charsets.UTF_8);
+		File indexParentDir = new File(tempDir, "indexes");
+		final File snapshotDir = new File(tempDir, "snapshot");
+
+		ProgramConf.Int.CheckpointInterval.load("1");
+		try {
+			/*
+			 * Wait for a checkpoint to become due after the first file, then
+			 * take a snapshot of the index directory while the second file is
+			 * being indexed, as if the program had crashed at that point.
+			 */
+			final FileIndex index = new FileIndex(indexParentDir, rootDir);
+			final File indexDir = index.getIndexDirPath().getCanonicalFile();
+			index.update(new CountingReporter() {
+				public void info(IndexingInfo info) {
+					super.info(info);
+					try {
+						if (extractCount == 1) {
+							Thread.sleep(1100);
+						}
+						else if (extractCount == 2) {
+							snapshotDir.mkdir();
+							for (File file : Util.listFiles(indexDir))
+								Files.copy(file, new File(snapshotDir, file.getName()));
+						}
+					}
+					catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}, null);
+			Util.deleteRecursively(indexDir);
+			assertTrue(snapshotDir.renameTo(indexDir));
+			UtilModel.assertDocCount(index.getLuceneDir(), 1);
+
+			File checkpointFile = new File(indexDir, "tree-index.checkpoint");
+			assertTrue(checkpointFile.isFile());
+
+			// The queue expects the same path form the index uses
+			File registryDir = Util.getParentFile(indexDir);
+
+			/*
+			 * The checkpoint must not be restored while the index is locked
+			 * for writing, e.g. by another program instance.
+			 */
+			Lock writeLock = index.getLuceneDir().makeLock(IndexWriter.WRITE_LOCK_NAME);
+			assertTrue(writeLock.obtain());
+			try {
+				IndexRegistry registry = new IndexRegistry(registryDir, 1, 1);
+				try {
+					IndexLoadingProblems problems = registry.load(Cancelable.nullCancelable);
+					assertTrue(problems.getInterruptedIndexes().isEmpty());
+					assertTrue(checkpointFile.isFile());
+				}
+				finally {
+					registry.getQueue().shutdown(keepHandler);
+				}
+			}
+			finally {
+				writeLock.release();
+			}
+
+			// Resume the indexing from the checkpoint, as done on startup
+			IndexRegistry registry = new IndexRegistry(registryDir, 1, 1);
+			try {
+				IndexLoadingProblems problems = registry.load(Cancelable.nullCancelable);
+				List<LuceneIndex> interrupted = problems.getInterruptedIndexes();
+				assertEquals(1, interrupted.size());
+				FileIndex restoredIndex = (FileIndex) interrupted.get(0);
+				assertEquals(registry.getIndexes(), interrupted);
+				assertEquals(1, restoredIndex.getRootFolder().getDocumentCount());
+				assertFalse(checkpointFile.exists());
+
+				final CountDownLatch queueEmpty = new CountDownLatch(1);
+				IndexingQueue queue = registry.getQueue();
+				queue.evtQueueEmpty.add(new Event.Listener<Void>() {
+					public void update(Void eventData) {
+						queueEmpty.countDown();
+					}
+				});
+				assertNull(queue.addTask(restoredIndex, IndexAction.UPDATE));
+				assertTrue(queueEmpty.await(30, TimeUnit.SECONDS));
+				assertEquals(3, restoredIndex.getRootFolder().getDocumentCount());
+				UtilModel.assertDocCount(restoredIndex.getLuceneDir(), 3);
+				assertFalse(checkpointFile.exists());
+			}
+			finally {
+				registry.getQueue().shutdown(keepHandler);
+			}
+		}
+		finally {
+			ProgramConf.Int.CheckpointInterval.load("300");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
 	private static class CountingReporter extends IndexingReporter {
-		private int extractCount = 0;
-		private int errorCount = 0;
+		protected int extractCount = 0;
+		protected int errorCount = 0;
+		private final IndexingMetrics metrics = new IndexingMetrics();
+		
+		public IndexingMetrics getMetrics() {
+			return metrics;
+		}
 		
 		public void info(IndexingInfo info) {
 			if (info.is(InfoType.EXTRACTING))
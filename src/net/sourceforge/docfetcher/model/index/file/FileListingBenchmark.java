@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.RecursiveMethod;
+
+/**
+ * Compares the speed of walking a large directory tree with the
+ * {@link HtmlFileLister}, once with NIO listing and once with the old
+ * java.io-based listing. For each file, the last-modified value and the size
+ * are read, as during indexing.
+ * <p>
+ * Usage: <tt>FileListingBenchmark DIR [ENTRIES] [ROUNDS]</tt>. If DIR doesn't
+ * exist, a tree with the given number of empty files is generated in it,
+ * defaulting to one million files in folders of a thousand files each. The
+ * results are more meaningful if the OS file cache is dropped between runs.
+ *
+ * @author Tran Nam Quang
+ */
+public final class FileListingBenchmark {
+
+	private static final int FILES_PER_DIR = 1000;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			Util.printErr("Usage: FileListingBenchmark DIR [ENTRIES] [ROUNDS]");
+			System.exit(1);
+		}
+		File rootDir = new File(args[0]);
+		int entryCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		if (!rootDir.exists()) {
+			Util.println("Generating " + entryCount + " files in " + rootDir);
+			generateTree(rootDir, entryCount);
+		}
+
+		IndexingConfig config = new IndexingConfig();
+		boolean oldValue = ProgramConf.Bool.NioFileListing.get();
+		try {
+			for (int i = 0; i < rounds; i++) {
+				for (boolean nio : new boolean[] {false, true}) {
+					ProgramConf.Bool.NioFileListing.load(String.valueOf(nio));
+					long start = System.nanoTime();
+					long[] counts = new long[2];
+					walk(rootDir, config, counts);
+					double millis = (System.nanoTime() - start) / 1000000.0;
+					Util.println(String.format(
+						"Round %d, %-7s %,d entries in %.0f ms (%,.0f entries/sec, checksum %d)",
+						i + 1, nio ? "nio:" : "java.io:", counts[0], millis,
+						counts[0] * 1000 / millis, counts[1]));
+				}
+			}
+		}
+		finally {
+			ProgramConf.Bool.NioFileListing.load(String.valueOf(oldValue));
+		}
+	}
+
+	private static void generateTree(@NotNull File rootDir, int entryCount)
+			throws IOException {
+		int dirCount = (entryCount + FILES_PER_DIR - 1) / FILES_PER_DIR;
+		int created = 0;
+		for (int i = 0; i < dirCount; i++) {
+			// Two levels of folders, so that the walker also has to recurse
+			File dir = new File(rootDir, "d" + i / 32 + "/d" + i);
+			dir.mkdirs();
+			for (int j = 0; j < FILES_PER_DIR && created < entryCount; j++) {
+				new File(dir, "file" + j + ".txt").createNewFile();
+				created++;
+			}
+		}
+	}
+
+	// Counts entries in counts[0] and accumulates a checksum in counts[1]
+	@RecursiveMethod
+	private static void walk(	@NotNull File dir,
+								@NotNull final IndexingConfig config,
+								@NotNull final long[] counts) {
+		new HtmlFileLister<RuntimeException>(dir, config, null) {
+			protected void handleFile(	@NotNull File file,
+										@Nullable BasicFileAttributes attrs) {
+				counts[0]++;
+				long length = attrs != null ? attrs.size() : file.length();
+				counts[1] += getLastModified(file, attrs) + length;
+			}
+			protected void handleDir(	@NotNull File dir,
+										@Nullable BasicFileAttributes attrs) {
+				counts[0]++;
+				walk(dir, config, counts);
+			}
+			protected void handleHtmlPair(	@NotNull File htmlFile,
+											@Nullable File htmlDir) {
+				counts[0]++;
+			}
+			protected boolean skip(@NotNull File fileOrDir) {
+				return false;
+			}
+		}.run();
+	}
+
+}
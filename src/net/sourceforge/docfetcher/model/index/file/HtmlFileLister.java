@@ -12,6 +12,14 @@
 package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -30,49 +38,259 @@ import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
+import com.google.common.base.Predicate;
+import com.google.common.io.Closeables;
+
+import de.schlichtherle.truezip.file.TFile;
+
 /**
+ * Lists the files and directories in a directory, pairs HTML files with their
+ * HTML folders and hands the results to the various handle methods.
+ * <p>
+ * For directories that are neither archives nor inside archives, the entries
+ * are listed via NIO, and the basic file attributes of each entry are read in
+ * a single call and passed to the handle methods, which avoids separate
+ * syscalls for checking the file type, the last-modified value and the size.
+ * For archive entries and for entries that are archives themselves, the
+ * attributes are not available, and the handle methods must fall back to the
+ * corresponding {@code File} methods.
+ * 
  * @author Tran Nam Quang
  */
 abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 	
+	static final class Entry {
+		final File file;
+		@Nullable final BasicFileAttributes attrs; // null if not available
+		
+		private Entry(@NotNull File file, @Nullable BasicFileAttributes attrs) {
+			this.file = file;
+			this.attrs = attrs;
+		}
+		
+		public boolean isSymLink() {
+			return attrs != null ? attrs.isSymbolicLink() : Util.isSymLink(file);
+		}
+		
+		public boolean isJunctionOrSymlink() {
+			if (attrs == null)
+				return Util.isJunctionOrSymlink(file);
+			if (!Util.IS_WINDOWS || !attrs.isOther())
+				return false;
+			/*
+			 * On Windows, junctions are reported as 'other', but so are other
+			 * reparse points such as OneDrive placeholders, which must not be
+			 * skipped. Unlike these, a junction or symlink resolves to a
+			 * different location.
+			 */
+			try {
+				java.nio.file.Path path = Paths.get(file.getPath()).toAbsolutePath();
+				java.nio.file.Path parent = path.getParent();
+				if (parent == null)
+					return false;
+				java.nio.file.Path expected = parent.toRealPath().resolve(path.getFileName());
+				return !path.toRealPath().equals(expected);
+			}
+			catch (IOException e) {
+				return false;
+			}
+			catch (InvalidPathException e) {
+				return false;
+			}
+		}
+		
+		/*
+		 * On Windows, reparse points such as OneDrive placeholders and
+		 * deduplicated files are reported as 'other' and neither as regular
+		 * files nor as directories, so we'll fall back to the File methods.
+		 */
+		public boolean isFile() {
+			if (attrs == null || attrs.isOther())
+				return file.isFile();
+			return attrs.isRegularFile();
+		}
+		
+		public boolean isDirectory() {
+			if (attrs == null || attrs.isOther())
+				return file.isDirectory();
+			return attrs.isDirectory();
+		}
+	}
+	
 	private final File parentDir;
 	private final IndexingConfig config;
 	private final Collection<String> htmlExtensions;
 	private final boolean htmlPairing;
 	@Nullable private final IndexingReporter reporter;
+	@Nullable private final DirectoryScanner scanner;
 	
 	public HtmlFileLister(	@NotNull File parentDir,
 							@NotNull IndexingConfig config,
 							@Nullable IndexingReporter reporter) {
+		this(parentDir, config, reporter, null);
+	}
+	
+	/**
+	 * If the given directory scanner is not null, the listings of plain
+	 * directories are obtained from it.
+	 */
+	public HtmlFileLister(	@NotNull File parentDir,
+							@NotNull IndexingConfig config,
+							@Nullable IndexingReporter reporter,
+							@Nullable DirectoryScanner scanner) {
 		Util.checkNotNull(parentDir, config);
 		this.parentDir = parentDir;
 		this.config = config;
 		this.htmlExtensions = config.getHtmlExtensions();
 		this.htmlPairing = config.isHtmlPairing();
 		this.reporter = reporter;
+		this.scanner = scanner;
+	}
+	
+	/**
+	 * Returns the last-modified value of the given file, taken from the given
+	 * attributes if they are available.
+	 */
+	public static long getLastModified(	@NotNull File file,
+										@Nullable BasicFileAttributes attrs) {
+		return attrs != null ? attrs.lastModifiedTime().toMillis() : file.lastModified();
 	}
 	
 	protected final void doRun() {
-		if (htmlPairing)
-			runWithHtmlPairing();
-		else
-			runWithoutHtmlPairing();
+		try {
+			if (htmlPairing)
+				runWithHtmlPairing();
+			else
+				runWithoutHtmlPairing();
+		}
+		finally {
+			// Discard prefetched listings of subdirectories that weren't visited
+			if (scanner != null)
+				scanner.discardSubDirs(parentDir);
+		}
+	}
+	
+	/**
+	 * Returns those of the given entries that are subdirectories the lister
+	 * will descend into, applying the same checks as the lister: Symbolic
+	 * links, junctions, HTML folders paired with an HTML file among the given
+	 * entries and directories for which the given skip predicate returns true
+	 * are left out. Unlike the lister, this leaves out junctions regardless of
+	 * the IgnoreJunctionsAndSymlinks setting. The entries must have been
+	 * listed with their attributes.
+	 */
+	@NotNull
+	static List<File> getSubDirsToVisit(@NotNull List<Entry> entries,
+										@NotNull IndexingConfig config,
+										@NotNull Predicate<File> skip) {
+		Collection<String> htmlExtensions = config.getHtmlExtensions();
+		List<String> htmlBasenames = new ArrayList<String>();
+		if (config.isHtmlPairing()) {
+			for (Entry entry : entries) {
+				if (entry.attrs != null && entry.isFile()
+						&& Util.hasExtension(entry.file.getName(), htmlExtensions))
+					htmlBasenames.add(Util.splitFilename(entry.file)[0]);
+			}
+		}
+		List<File> subDirs = new ArrayList<File>();
+		for (Entry entry : entries) {
+			// Attributes are null for archives
+			if (entry.attrs == null || !entry.attrs.isDirectory())
+				continue;
+			if (entry.isSymLink() || entry.isJunctionOrSymlink())
+				continue;
+			String dirBasename = HtmlUtil.getHtmlDirBasename(entry.file);
+			if (dirBasename != null && htmlBasenames.contains(dirBasename))
+				continue;
+			if (skip.apply(entry.file))
+				continue;
+			subDirs.add(entry.file);
+		}
+		return subDirs;
+	}
+	
+	@NotNull
+	private List<Entry> listEntries() {
+		if (ProgramConf.Bool.NioFileListing.get() && FileIndex.isPlainDir(parentDir)) {
+			try {
+				if (scanner != null)
+					return scanner.take(parentDir);
+				return listEntriesWithAttributes(parentDir);
+			}
+			catch (IOException e) {
+				// Fall back to java.io listing below
+			}
+			catch (InvalidPathException e) {
+				// Fall back to java.io listing below
+			}
+		}
+		File[] files = Util.listFiles(parentDir);
+		List<Entry> entries = new ArrayList<Entry>(files.length);
+		for (File file : files)
+			entries.add(new Entry(file, null));
+		return entries;
+	}
+	
+	/**
+	 * Lists the given directory via NIO, reading the attributes of all entries
+	 * except archives. Must only be called for directories that are neither
+	 * archives nor inside archives.
+	 */
+	@NotNull
+	static List<Entry> listEntriesWithAttributes(@NotNull File parentDir)
+			throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		java.nio.file.Path dirPath = Paths.get(parentDir.getPath());
+		DirectoryStream<java.nio.file.Path> stream = Files.newDirectoryStream(dirPath);
+		try {
+			for (java.nio.file.Path path : stream) {
+				String name = path.getFileName().toString();
+				File file = parentDir instanceof TFile
+					? new TFile(parentDir, name)
+					: new File(parentDir, name);
+				
+				/*
+				 * Archives must be classified by TrueZIP, which treats zip
+				 * archives as directories.
+				 */
+				BasicFileAttributes attrs = null;
+				if (!(file instanceof TFile) || !((TFile) file).isArchive()) {
+					try {
+						attrs = Files.readAttributes(
+							path, BasicFileAttributes.class,
+							LinkOption.NOFOLLOW_LINKS);
+					}
+					catch (IOException e) {
+						// Leave it to the File methods to deal with the entry
+					}
+				}
+				entries.add(new Entry(file, attrs));
+			}
+		}
+		catch (DirectoryIteratorException e) {
+			throw e.getCause();
+		}
+		finally {
+			Closeables.closeQuietly(stream);
+		}
+		return entries;
 	}
 	
 	private void runWithoutHtmlPairing() {
-		for (File fileOrDir : Util.listFiles(parentDir)) {
+		for (Entry entry : listEntries()) {
 			if (isStopped())
 				return;
 			
+			File fileOrDir = entry.file;
 			boolean isFile;
 			try {
-				if (Util.isSymLink(fileOrDir))
+				if (entry.isSymLink())
 					continue;
 				if (skip(fileOrDir))
 					continue;
-				isFile = fileOrDir.isFile();
+				isFile = entry.isFile();
 				if (ProgramConf.Bool.IgnoreJunctionsAndSymlinks.get()
-						&& !isFile && Util.isJunctionOrSymlink(fileOrDir))
+						&& !isFile && entry.isJunctionOrSymlink())
 					continue;
 			}
 			catch (Throwable t) {
@@ -84,34 +302,35 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 				if (isHtmlFile(fileOrDir))
 					handleHtmlPair(fileOrDir, null);
 				else
-					handleFile(fileOrDir);
-			} else if (fileOrDir.isDirectory()) {
-				handleDir(fileOrDir);
+					handleFile(fileOrDir, entry.attrs);
+			} else if (entry.isDirectory()) {
+				handleDir(fileOrDir, entry.attrs);
 			}
 		}
 	}
 	
 	private void runWithHtmlPairing() {
-		File[] filesOrDirs = Util.listFiles(parentDir);
-		if (filesOrDirs.length == 0)
+		List<Entry> entries = listEntries();
+		if (entries.isEmpty())
 			return; // Returning early avoids allocating the two lists below
 		
 		List<File> htmlFiles = new LinkedList<File> ();
-		List<File> tempDirs = new ArrayList<File> ();
+		List<Entry> tempDirs = new ArrayList<Entry> ();
 		
 		// Note: The file filter should be applied *after* the HTML pairing.
 		
-		for (final File fileOrDir : filesOrDirs) {
+		for (Entry entry : entries) {
 			if (isStopped())
 				return;
 			
+			File fileOrDir = entry.file;
 			boolean isFile;
 			try {
-				if (Util.isSymLink(fileOrDir))
+				if (entry.isSymLink())
 					continue;
-				isFile = fileOrDir.isFile();
+				isFile = entry.isFile();
 				if (ProgramConf.Bool.IgnoreJunctionsAndSymlinks.get()
-						&& !isFile && Util.isJunctionOrSymlink(fileOrDir))
+						&& !isFile && entry.isJunctionOrSymlink())
 					continue;
 			}
 			catch (Throwable t) {
@@ -123,10 +342,10 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 				if (isHtmlFile(fileOrDir))
 					htmlFiles.add(fileOrDir);
 				else if (!skip(fileOrDir))
-					handleFile(fileOrDir);
+					handleFile(fileOrDir, entry.attrs);
 			}
-			else if (fileOrDir.isDirectory()) {
-				tempDirs.add(fileOrDir);
+			else if (entry.isDirectory()) {
+				tempDirs.add(entry);
 			}
 		}
 		
@@ -138,13 +357,14 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 		 * directories from outside.
 		 */
 		
-		for (File dirCandidate : tempDirs) {
+		for (Entry dirEntry : tempDirs) {
 			if (isStopped())
 				return;
+			File dirCandidate = dirEntry.file;
 			String dirBasename = HtmlUtil.getHtmlDirBasename(dirCandidate);
 			if (dirBasename == null) {
 				if (!skip(dirCandidate) && dirCandidate.isDirectory())
-					handleDir(dirCandidate);
+					handleDir(dirCandidate, dirEntry.attrs);
 				continue;
 			}
 			boolean htmlPairFound = false;
@@ -161,7 +381,7 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 			}
 			if (!htmlPairFound && !skip(dirCandidate)
 					&& dirCandidate.isDirectory())
-				handleDir(dirCandidate);
+				handleDir(dirCandidate, dirEntry.attrs);
 		}
 		
 		// Visit unpaired html files
@@ -201,7 +421,9 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 	}
 	
 	// guaranteed not to be an HTML file
-	protected abstract void handleFile(@NotNull File file);
+	// attrs are the attributes read during listing, or null if not available
+	protected abstract void handleFile(	@NotNull File file,
+										@Nullable BasicFileAttributes attrs);
 	
 	// if HTML pairing is off, this method will be called on HTML files as well,
 	// but with empty htmlDir argument
@@ -209,7 +431,9 @@ abstract class HtmlFileLister<T extends Throwable> extends Stoppable<T> {
 											@Nullable File htmlDir);
 	
 	// dir will never be a symlink
-	protected abstract void handleDir(@NotNull File dir);
+	// attrs are the attributes read during listing, or null if not available
+	protected abstract void handleDir(	@NotNull File dir,
+										@Nullable BasicFileAttributes attrs);
 	
 	// Will be called before any of the handle methods is called
 	protected abstract boolean skip(@NotNull File fileOrDir);
@@ -12,6 +12,8 @@
 package net.sourceforge.docfetcher.model.index.file;
 
 import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.util.Stoppable;
 import net.sourceforge.docfetcher.util.Util;
@@ -38,7 +40,7 @@ abstract class HtmlFileWalker extends Stoppable <Exception> {
 	
 	private void run(@NotNull File parentDir) {
 		new HtmlFileLister <Exception> (parentDir, config, null) {
-			protected void handleFile(File file) {
+			protected void handleFile(File file, BasicFileAttributes attrs) {
 				if (HtmlFileWalker.this.isStopped())
 					stop(); // Stop HTMML file lister
 				else
@@ -51,7 +53,7 @@ abstract class HtmlFileWalker extends Stoppable <Exception> {
 				else
 					HtmlFileWalker.this.handleHtmlPair(htmlFile, htmlDir);
 			}
-			protected void handleDir(File dir) {
+			protected void handleDir(File dir, BasicFileAttributes attrs) {
 				if (HtmlFileWalker.this.isStopped()) {
 					stop(); // Stop HTMML file lister
 					return;
@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Fields;
 import net.sourceforge.docfetcher.model.parse.ParseResult;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
@@ -23,6 +24,8 @@ import net.sourceforge.docfetcher.util.annotations.NotNull;
 
 import org.apache.lucene.document.Document;
 
+import com.google.common.primitives.Ints;
+
 /**
  * @author Tran Nam Quang
  */
@@ -67,13 +70,41 @@ abstract class LuceneDocWriter {
 			else
 				luceneDoc.add(Fields.TITLE.create(title));
 			luceneDoc.add(Fields.SIZE.create(file.length()));
-			luceneDoc.add(Fields.LAST_MODIFIED.create(String.valueOf(doc.getLastModified())));
+			luceneDoc.add(Fields.LAST_MODIFIED.create(doc.getLastModified()));
 			List<String> authors = parseResult.getAuthors();
 			if (authors != null)
 				for (String author : authors)
 					luceneDoc.add(Fields.AUTHOR.create(author));
+			
+			/*
+			 * Files without text would all have the same signature, so they
+			 * don't get one. The file size is included so that files with
+			 * the same text but different binary content are more likely
+			 * to be told apart.
+			 */
+			CharSequence content = parseResult.getContent();
+			if (!isBlank(content)) {
+				String signature = Fields.createSignatureHasher()
+					.putLong(file.length())
+					.putString(content)
+					.hash()
+					.toString();
+				luceneDoc.add(Fields.SIGNATURE.create(signature));
+			}
 		}
 		
+		/*
+		 * For paged documents, the page offsets and the term offsets are
+		 * stored if requested, so that the pages containing search hits can
+		 * be determined without parsing the document.
+		 */
+		int[] pageOffsets = parseResult.getPageOffsets();
+		boolean storePageOffsets = pageOffsets != null
+				&& appendMetadata()
+				&& ProgramConf.Bool.StorePdfPageOffsets.get();
+		if (storePageOffsets)
+			luceneDoc.add(Fields.PAGE_OFFSETS.create(Ints.join(",", pageOffsets)));
+		
 		/*
 		 * Create content field with metadata appended to it. Note that two
 		 * versions of the filename are appended: The filename with and without
@@ -82,7 +113,7 @@ abstract class LuceneDocWriter {
 		 * user wouldn't find the file if we store only the full filename and
 		 * the user searches for the filename without extension.
 		 */
-		luceneDoc.add(Fields.createContent(parseResult.getContent()));
+		luceneDoc.add(Fields.createContent(parseResult.getContent(), storePageOffsets));
 		StringBuilder metadata = parseResult.getMetadata();
 		metadata.append(filename);
 		String basename = Util.splitFilename(filename)[0];
@@ -94,6 +125,13 @@ abstract class LuceneDocWriter {
 		return luceneDoc;
 	}
 	
+	private static boolean isBlank(@NotNull CharSequence text) {
+		for (int i = 0; i < text.length(); i++)
+			if (!Character.isWhitespace(text.charAt(i)))
+				return false;
+		return true;
+	}
+	
 	protected abstract boolean appendMetadata();
 	
 	public abstract void write(	@NotNull FileDocument doc,
@@ -15,7 +15,11 @@ import java.io.Closeable;
 import java.io.IOException;
 
 import net.sourceforge.docfetcher.model.index.IndexWriterAdapter;
+import net.sourceforge.docfetcher.model.index.IndexWriterAdapter.WriterProfile;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Change;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 
 import org.apache.lucene.document.Document;
@@ -27,9 +31,13 @@ import org.apache.lucene.store.Directory;
 final class SimpleDocWriter extends LuceneDocWriter implements Closeable {
 	
 	private final IndexWriterAdapter writer;
+	private final IndexingMetrics metrics;
 	
-	public SimpleDocWriter(@NotNull Directory luceneDir) throws IOException {
-		writer = new IndexWriterAdapter(luceneDir);
+	public SimpleDocWriter(	@NotNull Directory luceneDir,
+							@NotNull WriterProfile profile,
+							@NotNull IndexingMetrics metrics) throws IOException {
+		this.metrics = Util.checkNotNull(metrics);
+		writer = new IndexWriterAdapter(luceneDir, profile);
 	}
 	
 	protected boolean appendMetadata() {
@@ -44,10 +52,16 @@ final class SimpleDocWriter extends LuceneDocWriter implements Closeable {
 			writer.add(luceneDoc);
 		else
 			writer.update(doc.getUniqueId(), luceneDoc);
+		metrics.recordChange(added ? Change.ADDED : Change.MODIFIED);
 	}
 
 	public void delete(String uid) throws IOException {
 		writer.delete(uid);
+		metrics.recordChange(Change.DELETED);
+	}
+
+	public void commit() throws IOException {
+		writer.commit();
 	}
 
 	public final void close() throws IOException {
@@ -21,6 +21,7 @@ import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.TreeNode;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
 import net.sourceforge.docfetcher.model.index.file.SolidArchiveTree.FailReporter;
@@ -52,10 +53,11 @@ final class SolidArchiveContext extends FileContext implements FailReporter {
 	                              	@Nullable Path originalPath,
 	                              	@NotNull Cancelable cancelable,
 	                              	@NotNull MutableInt fileCount,
+	                              	@NotNull IndexingMetrics metrics,
 	                              	boolean isTempArchive,
 	                              	@Nullable File indexParentDir) {
 		super(config, zipDetector, writer, reporter, originalPath, cancelable,
-			fileCount, indexParentDir);
+			fileCount, metrics, indexParentDir);
 		this.isTempArchive = isTempArchive;
 	}
 	
@@ -71,6 +73,7 @@ final class SolidArchiveContext extends FileContext implements FailReporter {
 				originalPath,
 				superContext.getStopper(),
 				superContext.getFileCount(),
+				superContext.getMetrics(),
 				isTempArchive,
 				indexParentDir
 		);
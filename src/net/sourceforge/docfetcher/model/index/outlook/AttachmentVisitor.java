@@ -49,6 +49,7 @@ abstract class AttachmentVisitor {
 		for (int i = 0; i < numberOfAttachments; i++) {
 			String filename = null;
 			File tempFile = null;
+			boolean handedOver = false;
 			try {
 				PSTAttachment attach = email.getAttachment(i);
 
@@ -85,7 +86,7 @@ abstract class AttachmentVisitor {
 				Closeables.closeQuietly(out);
 				Closeables.closeQuietly(in);
 
-				handleAttachment(filename, tempFile);
+				handedOver = handleAttachment(filename, tempFile);
 			}
 			catch (CheckedOutOfMemoryError e) {
 				if (filename == null)
@@ -100,14 +101,20 @@ abstract class AttachmentVisitor {
 				handleException(filename, e);
 			}
 			finally {
-				if (deleteTempFiles && tempFile != null)
+				if (deleteTempFiles && !handedOver && tempFile != null)
 					tempFile.delete();
 			}
 		}
 		runFinally();
 	}
 	
-	protected abstract void handleAttachment(	@NotNull String filename,
+	/**
+	 * Handles the given attachment, which was extracted into the given
+	 * temporary file. Returns true if the implementor takes over
+	 * responsibility for deleting the temporary file, e.g. because it will be
+	 * processed later, and false otherwise.
+	 */
+	protected abstract boolean handleAttachment(@NotNull String filename,
 												@NotNull File tempFile)
 			throws ParseException, CheckedOutOfMemoryError;
 	
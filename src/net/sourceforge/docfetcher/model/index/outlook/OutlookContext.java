@@ -3,10 +3,19 @@ package net.sourceforge.docfetcher.model.index.outlook;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Fields;
 import net.sourceforge.docfetcher.model.Path;
@@ -19,9 +28,11 @@ import net.sourceforge.docfetcher.model.index.IndexingError.ErrorType;
 import net.sourceforge.docfetcher.model.index.IndexingException;
 import net.sourceforge.docfetcher.model.index.IndexingInfo;
 import net.sourceforge.docfetcher.model.index.IndexingInfo.InfoType;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Change;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Phase;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.MutableInt;
-import net.sourceforge.docfetcher.model.parse.ParseException;
 import net.sourceforge.docfetcher.model.parse.ParseResult;
 import net.sourceforge.docfetcher.model.parse.ParseService;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
@@ -32,16 +43,36 @@ import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 import org.apache.lucene.document.Document;
 
+import com.google.common.hash.Hasher;
 import com.pff.PSTMessage;
 import com.pff.PSTRecipient;
 
+/**
+ * Indexes e-mails read from a PST file. Reading from the PST file happens in
+ * the calling thread, while the attachments are parsed by a pool of worker
+ * threads. The resulting Lucene documents are written in the order in which
+ * the e-mails were submitted. In order to bound the memory usage, the caller
+ * is blocked when the extracted attachments of the e-mails that haven't been
+ * written yet exceed a certain total size.
+ * <p>
+ * The receiver must be flushed via {@link #flush()} after the last e-mail has
+ * been submitted, and closed via {@link #close()} in any case.
+ */
 final class OutlookContext {
 	
 	private final IndexingConfig config;
 	private final IndexWriterAdapter writer;
 	private final IndexingReporter reporter;
+	private final IndexingMetrics metrics;
 	private final Cancelable cancelable;
 	private final MutableInt fileCount = new MutableInt(0);
+	
+	private final int threadCount = ProgramConf.Int.OutlookAttachmentThreads.get();
+	private final long maxPendingBytes = ProgramConf.Int.OutlookAttachmentMemoryCap.get() * 1024L * 1024L;
+	private final int maxPendingMails = threadCount * 8;
+	@Nullable private ExecutorService executor;
+	private final Deque<PendingMail> pendingMails = new ArrayDeque<PendingMail>();
+	private long pendingBytes = 0;
 
 	public OutlookContext(	@NotNull IndexingConfig config,
 	                      	@NotNull IndexWriterAdapter writer,
@@ -51,6 +82,7 @@ final class OutlookContext {
 		this.config = config;
 		this.writer = writer;
 		this.reporter = reporter;
+		this.metrics = reporter.getMetrics();
 		this.cancelable = cancelable;
 	}
 	
@@ -58,19 +90,108 @@ final class OutlookContext {
 		return cancelable.isCanceled();
 	}
 	
-	// Will handle attachments
+	/**
+	 * Submits the given e-mail for indexing. Its attachments are extracted
+	 * immediately and parsed asynchronously. The e-mail is written to the
+	 * index later, either during one of the next calls of this method or
+	 * during {@link #flush()}.
+	 */
 	public void index(	@NotNull MailDocument doc,
 						@NotNull PSTMessage email,
 						boolean added) throws IndexingException {
 		fileCount.increment();
 		reporter.info(new IndexingInfo(InfoType.EXTRACTING, doc, fileCount.get()));
+		doc.setError(null);
+		PendingMail pendingMail = createPendingMail(doc, email, added); // might store some errors
+		pendingMails.add(pendingMail);
+		pendingBytes += pendingMail.bytes;
+		writePendingMails(false);
+	}
+	
+	public void deleteFromIndex(@NotNull String uid) throws IndexingException {
 		try {
-			doc.setError(null);
-			Document luceneDoc = createLuceneDoc(doc, email); // might store some errors
-			if (added)
+			long startTime = System.nanoTime();
+			writer.delete(uid);
+			metrics.addTime(Phase.LUCENE_WRITE, System.nanoTime() - startTime);
+			metrics.recordChange(Change.DELETED);
+		} catch (IOException e) {
+			throw new IndexingException(e);
+		}
+	}
+	
+	/**
+	 * Waits until the attachments of all submitted e-mails have been parsed,
+	 * then writes the e-mails to the index.
+	 */
+	public void flush() throws IndexingException {
+		writePendingMails(true);
+	}
+	
+	/**
+	 * Discards all e-mails that haven't been written yet and shuts down the
+	 * worker threads. The discarded e-mails are marked as modified, so that
+	 * they will be indexed on the next update.
+	 */
+	public void close() {
+		for (PendingMail pendingMail : pendingMails) {
+			pendingMail.doc.setLastModified(-1);
+			for (PendingAttachment attachment : pendingMail.attachments)
+				attachment.cancel();
+		}
+		pendingMails.clear();
+		pendingBytes = 0;
+		if (executor != null)
+			executor.shutdown();
+	}
+	
+	/*
+	 * Writes the pending e-mails in submission order. An e-mail whose
+	 * attachments are still being parsed is only waited for if 'all' is true
+	 * or if the pending e-mails exceed the memory or count limits.
+	 */
+	private void writePendingMails(boolean all) throws IndexingException {
+		while (!pendingMails.isEmpty()) {
+			PendingMail head = pendingMails.peek();
+			boolean mustWait = all
+					|| pendingBytes > maxPendingBytes
+					|| pendingMails.size() > maxPendingMails;
+			if (!mustWait && !head.isDone())
+				break;
+			pendingMails.remove();
+			pendingBytes -= head.bytes;
+			write(head);
+		}
+	}
+	
+	private void write(@NotNull PendingMail pendingMail)
+			throws IndexingException {
+		MailDocument doc = pendingMail.doc;
+		Document luceneDoc = pendingMail.luceneDoc;
+		for (PendingAttachment attachment : pendingMail.attachments) {
+			try {
+				ParseResult parseResult = attachment.getResult();
+				pendingMail.signatureHasher.putString(parseResult.getContent());
+				luceneDoc.add(Fields.createContent(parseResult.getContent()));
+				StringBuilder metadata = parseResult.getMetadata();
+				metadata.append(attachment.filename);
+				luceneDoc.add(Fields.createContent(metadata));
+			}
+			catch (Throwable t) {
+				pendingMail.fail(attachment.filename, t);
+			}
+		}
+		doc.setErrors(pendingMail.errors);
+		String signature = pendingMail.signatureHasher.hash().toString();
+		luceneDoc.add(Fields.SIGNATURE.create(signature));
+		
+		try {
+			long startTime = System.nanoTime();
+			if (pendingMail.added)
 				writer.add(luceneDoc);
 			else
 				writer.update(doc.getUniqueId(), luceneDoc);
+			metrics.addTime(Phase.LUCENE_WRITE, System.nanoTime() - startTime);
+			metrics.recordChange(pendingMail.added ? Change.ADDED : Change.MODIFIED);
 		}
 		catch (IOException e) {
 			throw new IndexingException(e);
@@ -80,17 +201,10 @@ final class OutlookContext {
 		}
 	}
 	
-	public void deleteFromIndex(@NotNull String uid) throws IndexingException {
-		try {
-			writer.delete(uid);
-		} catch (IOException e) {
-			throw new IndexingException(e);
-		}
-	}
-	
 	@NotNull
-	private Document createLuceneDoc(	@NotNull final MailDocument doc,
-										@NotNull final PSTMessage email) {
+	private PendingMail createPendingMail(	@NotNull final MailDocument doc,
+											@NotNull final PSTMessage email,
+											boolean added) {
 		final Document luceneDoc = new Document();
 		String subject = email.getSubject();
 		String body = email.getBody();
@@ -111,10 +225,8 @@ final class OutlookContext {
 		 * #3440130.
 		 */
 		Date date = email.getMessageDeliveryTime();
-		if (date != null) {
-			String timestamp = String.valueOf(date.getTime());
-			luceneDoc.add(Fields.DATE.create(timestamp));
-		}
+		if (date != null)
+			luceneDoc.add(Fields.DATE.create(date.getTime()));
 		
 		StringBuilder contents = new StringBuilder();
 		contents.append(subject).append(" ");
@@ -123,47 +235,146 @@ final class OutlookContext {
 		contents.append(body).append(" ");
 		luceneDoc.add(Fields.createContent(contents));
 		
-		// Parse and append attachments
+		// Extract attachments and submit them for parsing
+		final PendingMail pendingMail = new PendingMail(doc, luceneDoc, added);
+		pendingMail.signatureHasher.putString(contents);
 		new AttachmentVisitor(config, email, true) {
-			@Nullable private List<IndexingError> errors;
-			
-			protected void handleAttachment(String filename,
-											File tempFile)
-					throws ParseException, CheckedOutOfMemoryError {
+			protected boolean handleAttachment(	String filename,
+												File tempFile) {
 				// TODO post-release-1.1: Maybe recurse into archive attachments
-
-				/*
-				 * It is assumed here that mime type detection is turned on for
-				 * all attachments, so we'll just hand over all attachments to
-				 * the parse service.
-				 */
-				Path path = doc.getPath().createSubPath(filename);
-				ParseResult parseResult = ParseService.parse(
-					config, tempFile, filename, path, reporter, cancelable);
-				luceneDoc.add(Fields.createContent(parseResult.getContent()));
-				StringBuilder metadata = parseResult.getMetadata();
-				metadata.append(filename);
-				luceneDoc.add(Fields.createContent(metadata));
+				pendingMail.attachments.add(submit(doc, filename, tempFile));
+				pendingMail.bytes += tempFile.length();
+				return true;
 			}
 			protected void handleException(	String filename,
 											Throwable t) {
-				Path path = doc.getPath().createSubPath(filename);
-				TreeNode attachNode = new AttachNode(path);
-
-				// Put error in temporary list and report it
-				if (errors == null)
-					errors = new ArrayList<IndexingError>(5);
-				IndexingError error = new IndexingError(
-					ErrorType.ATTACHMENT, attachNode, t);
-				errors.add(error);
-				reporter.fail(error);
-			}
-			protected void runFinally() {
-				doc.setErrors(errors);
+				pendingMail.fail(filename, t);
 			}
 		}.run();
 		
-		return luceneDoc;
+		return pendingMail;
+	}
+	
+	@NotNull
+	private PendingAttachment submit(	@NotNull MailDocument doc,
+										@NotNull final String filename,
+										@NotNull final File tempFile) {
+		/*
+		 * It is assumed here that mime type detection is turned on for all
+		 * attachments, so we'll just hand over all attachments to the parse
+		 * service.
+		 */
+		final Path path = doc.getPath().createSubPath(filename);
+		
+		/*
+		 * The sub-progress of the parsers refers to the last info line, so it
+		 * must not be reported from the worker threads: The calling thread
+		 * keeps adding info lines for the next e-mails in the meantime.
+		 */
+		final IndexingReporter parseReporter = threadCount <= 1
+			? reporter
+			: IndexingReporter.nullReporter;
+		FutureTask<ParseResult> task = new FutureTask<ParseResult>(new Callable<ParseResult>() {
+			public ParseResult call() throws Exception {
+				try {
+					return ParseService.parse(
+						config, tempFile, filename, path, parseReporter,
+						metrics, cancelable);
+				}
+				finally {
+					tempFile.delete();
+				}
+			}
+		});
+		
+		// With a single thread, parse in the current thread
+		if (threadCount <= 1) {
+			task.run();
+		}
+		else {
+			if (executor == null)
+				executor = Executors.newFixedThreadPool(threadCount);
+			executor.execute(task);
+		}
+		return new PendingAttachment(filename, tempFile, task);
+	}
+	
+	private final class PendingMail {
+		private final MailDocument doc;
+		private final Document luceneDoc;
+		private final boolean added;
+		private final List<PendingAttachment> attachments = new ArrayList<PendingAttachment>(2);
+		// Hashes the mail contents and the attachment texts, in that order
+		private final Hasher signatureHasher = Fields.createSignatureHasher();
+		@Nullable private List<IndexingError> errors;
+		private long bytes = 0;
+		
+		public PendingMail(	@NotNull MailDocument doc,
+							@NotNull Document luceneDoc,
+							boolean added) {
+			this.doc = doc;
+			this.luceneDoc = luceneDoc;
+			this.added = added;
+		}
+		
+		public boolean isDone() {
+			for (PendingAttachment attachment : attachments)
+				if (!attachment.future.isDone())
+					return false;
+			return true;
+		}
+		
+		// Stores the error in a temporary list and reports it
+		public void fail(@NotNull String filename, @NotNull Throwable t) {
+			Path path = doc.getPath().createSubPath(filename);
+			TreeNode attachNode = new AttachNode(path);
+			if (errors == null)
+				errors = new ArrayList<IndexingError>(5);
+			IndexingError error = new IndexingError(
+				ErrorType.ATTACHMENT, attachNode, t);
+			errors.add(error);
+			reporter.fail(error);
+		}
+	}
+	
+	private static final class PendingAttachment {
+		private final String filename;
+		private final File tempFile;
+		private final Future<ParseResult> future;
+		
+		public PendingAttachment(	@NotNull String filename,
+									@NotNull File tempFile,
+									@NotNull Future<ParseResult> future) {
+			this.filename = filename;
+			this.tempFile = tempFile;
+			this.future = future;
+		}
+		
+		// Throws the cause of a failed parse, unwrapped as the attachment
+		// visitor would unwrap it
+		@NotNull
+		public ParseResult getResult() throws Throwable {
+			try {
+				return future.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw e;
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof CheckedOutOfMemoryError)
+					throw cause.getCause();
+				if (cause instanceof IndexingException)
+					throw ((IndexingException) cause).getIOException();
+				throw cause;
+			}
+		}
+		
+		public void cancel() {
+			future.cancel(false);
+			tempFile.delete();
+		}
 	}
 	
 	/*
@@ -19,6 +19,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.DocumentType;
 import net.sourceforge.docfetcher.model.Path;
@@ -92,6 +93,7 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		IndexWriterAdapter writer = null;
 		
 		PSTFile pstFile = null;
+		OutlookContext context = null;
 		try {
 			/*
 			 * Return immediately if the last-modified field of the PST file
@@ -103,12 +105,14 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 				return IndexingResult.SUCCESS_UNCHANGED;
 			rootFolder.setLastModified(newLastModified);
 			
-			writer = new IndexWriterAdapter(getLuceneDir());
-			OutlookContext context = new OutlookContext(
+			writer = new IndexWriterAdapter(getLuceneDir(), getWriterProfile());
+			context = new OutlookContext(
 					getConfig(), writer, reporter, cancelable
 			);
 			pstFile = new PSTFile(rootFile.getPath());
-			visitFolder(context, rootFolder, pstFile.getRootFolder());
+			boolean fastUpdate = ProgramConf.Bool.OutlookFastUpdates.get();
+			visitFolder(context, pstFile, fastUpdate, rootFolder, pstFile.getRootFolder());
+			context.flush();
 			
 			simplifiedRootFolder = new TreeRootSimplifier<MailFolder> () {
 				protected boolean hasContent(MailFolder node) {
@@ -134,6 +138,8 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 			report(reporter, e.getIOException());
 		}
 		finally {
+			if (context != null)
+				context.close();
 			if (pstFile != null) {
 				Closeables.closeQuietly(pstFile.getFileHandle());
 			}
@@ -160,9 +166,169 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		return simplifiedRootFolder;
 	}
 	
+	/**
+	 * Compares the descriptor node IDs in the contents table of the given PST
+	 * folder with the IDs of the mails already in the index, and only loads
+	 * and indexes the mails whose IDs are new. The IDs that are still present
+	 * are removed from the given map of unseen mails. This avoids loading
+	 * every single mail of the folder just to check its last-modified date,
+	 * at the price of not detecting mails that were edited in place. Mails
+	 * whose indexing was discarded during the last update are reindexed.
+	 * <p>
+	 * Returns false without doing anything if the IDs cannot be retrieved
+	 * from the folder's contents table, in which case the caller should visit
+	 * all mails in the folder.
+	 */
+	private static boolean visitNewMails(	@NotNull OutlookContext context,
+											@NotNull PSTFile pstFile,
+											@NotNull MailFolder folder,
+											@NotNull PSTFolder pstFolder,
+											@NotNull Map<String, MailDocument> unseenMails,
+											@NotNull List<PSTFolder> subFoldersToVisit)
+			throws IndexingException, PSTException, IOException {
+		List<Integer> childIds = pstFolder.getChildDescriptorNodes();
+		if (childIds.size() != pstFolder.getContentCount())
+			return false;
+		
+		/*
+		 * Find the new IDs before loading anything, so that a folder whose
+		 * content hasn't changed is skipped without loading a single mail.
+		 */
+		Map<Integer, MailDocument> mailsToLoad = Maps.newLinkedHashMap();
+		for (Integer childId : childIds) {
+			MailDocument mail = unseenMails.remove(String.valueOf(childId));
+			
+			// A last-modified value of -1 is set by OutlookContext.close
+			if (mail == null || mail.getLastModified() == -1)
+				mailsToLoad.put(childId, mail);
+		}
+		
+		for (Map.Entry<Integer, MailDocument> entry : mailsToLoad.entrySet()) {
+			if (context.isStopped()) break;
+			PSTObject pstObject = PSTObject.detectAndLoadPSTObject(pstFile, entry.getKey());
+			if (pstObject instanceof PSTFolder) { // See bug #3561223
+				subFoldersToVisit.add((PSTFolder) pstObject);
+			}
+			else if (pstObject instanceof PSTMessage) {
+				PSTMessage pstMail = (PSTMessage) pstObject;
+				String id = String.valueOf(pstMail.getDescriptorNodeId());
+				Date lastModDate = pstMail.getLastModificationTime();
+				long lastMod = lastModDate == null ? 0 : lastModDate.getTime();
+				MailDocument mail = entry.getValue();
+				if (mail == null) { // Mail added
+					mail = new MailDocument(
+						folder, id, pstMail.getSubject(), lastMod);
+					context.index(mail, pstMail, true);
+				}
+				else { // Mail discarded during the last update
+					mail.setLastModified(lastMod);
+					context.index(mail, pstMail, false);
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Loads all mails in the given PST folder and indexes those that were
+	 * added or modified since the last update. The mails that are still
+	 * present are removed from the given map of unseen mails.
+	 */
+	private static void visitAllMails(	@NotNull OutlookContext context,
+										@NotNull MailFolder folder,
+										@NotNull PSTFolder pstFolder,
+										@NotNull Map<String, MailDocument> unseenMails,
+										@NotNull List<PSTFolder> subFoldersToVisit)
+			throws IndexingException, PSTException, IOException {
+		PSTObject pstObject;
+		try {
+			pstObject = pstFolder.getNextChild();
+		}
+		catch (IndexOutOfBoundsException e) {
+			// Bug #374. See similar bugfix inside the following loop.
+			Util.printErr(e.getMessage());
+			pstObject = null; // skip following loop
+		}
+		
+		while (pstObject != null) {
+			if (context.isStopped()) break;
+		
+			/*
+			 * Bug #3561223: The documentation for java-libpst 0.7
+			 * indicates we can expect the PST object to be an instance
+			 * of PSTMessage. However, a bug report has shown that it
+			 * may also be a PSTFolder, probably in some very rare
+			 * cases.
+			 */
+			if (pstObject instanceof PSTFolder) {
+				subFoldersToVisit.add((PSTFolder) pstObject);
+			}
+			else if (pstObject instanceof PSTMessage) {
+				/*
+				 * Note: The user should not be allowed to stop the
+				 * indexing in the middle of email processing (e.g.
+				 * between attachments), otherwise we could end up
+				 * indexing emails which have only one half of all
+				 * attachments, which would complicate email
+				 * modification detection.
+				 */
+				/*
+				 * Note: For the email UID, we'll use the 'descriptor
+				 * node ID' rather than the 'internet message ID', for
+				 * several reasons: (1) Not every email has an internet
+				 * message ID, e.g. unsent emails. (2) The descriptor
+				 * node ID is only an internal ID used by Outlook, but
+				 * it does not change. (3) The descriptor node ID allows
+				 * fast retrieval of single emails, which is what we
+				 * need for the preview.
+				 */
+				PSTMessage pstMail = (PSTMessage) pstObject;
+				String id = String.valueOf(pstMail.getDescriptorNodeId());
+				Date newLastModDate = pstMail.getLastModificationTime();
+				// Bug #397: The last-modification date can be null
+				long newLastMod = newLastModDate == null ? 0 : newLastModDate.getTime();
+				MailDocument mail = unseenMails.remove(id);
+				if (mail == null) { // Mail added
+					String subject = pstMail.getSubject();
+					mail = new MailDocument(
+						folder, id, subject, newLastMod);
+					context.index(mail, pstMail, true);
+				}
+				else if (mail.isModified(newLastMod)) { // Mail modified
+					/*
+					 * Note: Outlook mails are not immutable, because
+					 * Outlook allows modifying the subject and body, as
+					 * well as removing attachments. Such modifications
+					 * will alter the last-modified value as provided by
+					 * the PSTMessage object. It is not clear though
+					 * whether any other changes are possible, and if
+					 * so, whether we can rely on the last-modified
+					 * value to reflect such changes.
+					 */
+					mail.setLastModified(newLastMod);
+					context.index(mail, pstMail, false);
+				}
+			}
+		
+			try {
+				pstObject = pstFolder.getNextChild();
+			}
+			catch (IndexOutOfBoundsException e) {
+				/*
+				 * Temporary fix for bug #3489947. Affects java-libpst
+				 * v0.5 and probably also v0.7.
+				 */
+				Util.printErr(e.getMessage());
+				pstObject = null; // get out of loop
+			}
+		}
+	}
+	
 	// TODO doc: stores in the given folder whether it has 'deep' content or not.
 	@RecursiveMethod
 	private static void visitFolder(@NotNull OutlookContext context,
+									@NotNull PSTFile pstFile,
+									boolean fastUpdate,
 									@NotNull MailFolder folder,
 									@NotNull PSTFolder pstFolder)
 			throws IndexingException, PSTException {
@@ -174,88 +340,18 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 		// Visit mails
 		if (pstFolder.getContentCount() > 0) {
 			try {
-				PSTObject pstObject;
-				try {
-					pstObject = pstFolder.getNextChild();
-				}
-				catch (IndexOutOfBoundsException e) {
-					// Bug #374. See similar bugfix inside the following loop.
-					Util.printErr(e.getMessage());
-					pstObject = null; // skip following loop
-				}
-				
-				while (pstObject != null) {
-					if (context.isStopped()) break;
-					
-					/*
-					 * Bug #3561223: The documentation for java-libpst 0.7
-					 * indicates we can expect the PST object to be an instance
-					 * of PSTMessage. However, a bug report has shown that it
-					 * may also be a PSTFolder, probably in some very rare
-					 * cases.
-					 */
-					if (pstObject instanceof PSTFolder) {
-						subFoldersToVisit.add((PSTFolder) pstObject);
-					}
-					else if (pstObject instanceof PSTMessage) {
-						/*
-						 * Note: The user should not be allowed to stop the
-						 * indexing in the middle of email processing (e.g.
-						 * between attachments), otherwise we could end up
-						 * indexing emails which have only one half of all
-						 * attachments, which would complicate email
-						 * modification detection.
-						 */
-						/*
-						 * Note: For the email UID, we'll use the 'descriptor
-						 * node ID' rather than the 'internet message ID', for
-						 * several reasons: (1) Not every email has an internet
-						 * message ID, e.g. unsent emails. (2) The descriptor
-						 * node ID is only an internal ID used by Outlook, but
-						 * it does not change. (3) The descriptor node ID allows
-						 * fast retrieval of single emails, which is what we
-						 * need for the preview.
-						 */
-						PSTMessage pstMail = (PSTMessage) pstObject;
-						String id = String.valueOf(pstMail.getDescriptorNodeId());
-						Date newLastModDate = pstMail.getLastModificationTime();
-						// Bug #397: The last-modification date can be null
-						long newLastMod = newLastModDate == null ? 0 : newLastModDate.getTime();
-						MailDocument mail = unseenMails.remove(id);
-						if (mail == null) { // Mail added
-							String subject = pstMail.getSubject();
-							mail = new MailDocument(
-								folder, id, subject, newLastMod);
-							context.index(mail, pstMail, true);
-						}
-						else if (mail.isModified(newLastMod)) { // Mail modified
-							/*
-							 * Note: Outlook mails are not immutable, because
-							 * Outlook allows modifying the subject and body, as
-							 * well as removing attachments. Such modifications
-							 * will alter the last-modified value as provided by
-							 * the PSTMessage object. It is not clear though
-							 * whether any other changes are possible, and if
-							 * so, whether we can rely on the last-modified
-							 * value to reflect such changes.
-							 */
-							mail.setLastModified(newLastMod);
-							context.index(mail, pstMail, false);
-						}
-					}
-					
-					try {
-						pstObject = pstFolder.getNextChild();
-					}
-					catch (IndexOutOfBoundsException e) {
-						/*
-						 * Temporary fix for bug #3489947. Affects java-libpst
-						 * v0.5 and probably also v0.7.
-						 */
-						Util.printErr(e.getMessage());
-						pstObject = null; // get out of loop
-					}
-				}
+				/*
+				 * In fast update mode, only the mails that were added since the
+				 * last update are loaded. If this is not possible, fall back to
+				 * loading all mails.
+				 */
+				boolean visited = fastUpdate && visitNewMails(
+					context, pstFile, folder, pstFolder, unseenMails,
+					subFoldersToVisit);
+				if (!visited)
+					visitAllMails(
+						context, folder, pstFolder, unseenMails,
+						subFoldersToVisit);
 			} catch (IOException e) {
 				throw new IndexingException(e);
 			}
@@ -272,7 +368,7 @@ public final class OutlookIndex extends TreeIndex<MailDocument, MailFolder> {
 					MailFolder subFolder = unseenSubFolders.remove(foldername);
 					if (subFolder == null)
 						subFolder = new MailFolder(folder, foldername);
-					visitFolder(context, subFolder, pstSubFolder);
+					visitFolder(context, pstFile, fastUpdate, subFolder, pstSubFolder);
 					if (subFolder.hasDeepContent())
 						folder.setHasDeepContent(true);
 				}
@@ -11,15 +11,27 @@
 
 package net.sourceforge.docfetcher.model.index.outlook;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.util.List;
 
 import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.TreeIndex.IndexingResult;
 import net.sourceforge.docfetcher.model.UtilModel;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Change;
+import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
 
 import org.apache.lucene.store.Directory;
 import org.junit.Test;
 
+import com.google.common.io.Files;
+
 /**
  * @author Tran Nam Quang
  */
@@ -45,6 +57,48 @@ public final class OutlookIndexTest {
 		UtilModel.assertResultCount(luceneDir, "\"test.pdf\"", 1);
 	}
 	
+	@Test
+	public void testFastUpdate() throws Exception {
+		File tempDir = Util.createTempDir();
+		ProgramConf.Bool.OutlookFastUpdates.load("true");
+		try {
+			File pstFile = new File(tempDir, "test.pst");
+			Files.copy(TestFiles.outlook_test.get(), pstFile);
+			OutlookIndex index = new OutlookIndex(null, pstFile);
+			assertEquals(IndexingResult.SUCCESS_CHANGED, index.update(null, null));
+			UtilModel.assertDocCount(index.getLuceneDir(), 1);
+			
+			// Unchanged mails must be skipped without being reindexed
+			pstFile.setLastModified(pstFile.lastModified() - 10000);
+			final IndexingMetrics metrics = new IndexingMetrics();
+			IndexingReporter reporter = new IndexingReporter() {
+				public IndexingMetrics getMetrics() {
+					return metrics;
+				}
+			};
+			assertEquals(IndexingResult.SUCCESS_CHANGED, index.update(reporter, null));
+			UtilModel.assertDocCount(index.getLuceneDir(), 1);
+			UtilModel.assertResultCount(index.getLuceneDir(), "Subject1", 1);
+			for (Change change : Change.values())
+				assertEquals(0, metrics.getChangeCount(change));
+			
+			// Mails discarded by an interrupted update must be reindexed
+			List<MailDocument> mails = index.getRootFolder().getDocumentsDeep();
+			assertEquals(1, mails.size());
+			mails.get(0).setLastModified(-1);
+			pstFile.setLastModified(pstFile.lastModified() - 10000);
+			assertEquals(IndexingResult.SUCCESS_CHANGED, index.update(reporter, null));
+			assertEquals(1, metrics.getChangeCount(Change.MODIFIED));
+			assertEquals(0, metrics.getChangeCount(Change.ADDED));
+			assertTrue(mails.get(0).getLastModified() != -1);
+			UtilModel.assertDocCount(index.getLuceneDir(), 1);
+		}
+		finally {
+			ProgramConf.Bool.OutlookFastUpdates.load("false");
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
 	// TODO test
 	
 }
@@ -11,14 +11,17 @@
 
 package net.sourceforge.docfetcher.model.index.outlook;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.model.HotColdFileCache;
 import net.sourceforge.docfetcher.model.MailResource;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.Path.PathParts;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.outlook.PstFilePool.Handle;
 import net.sourceforge.docfetcher.model.parse.ParseException;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Util;
@@ -27,7 +30,6 @@ import net.sourceforge.docfetcher.util.annotations.NotNull;
 import org.apache.lucene.search.Query;
 
 import com.pff.PSTException;
-import com.pff.PSTFile;
 import com.pff.PSTMessage;
 import com.pff.PSTObject;
 
@@ -39,6 +41,9 @@ public final class OutlookMailFactory {
 	// TODO test
 	
 	private final HotColdFileCache unpackCache;
+	private final PstFilePool pstFilePool = new PstFilePool(
+		ProgramConf.Int.PstFilePoolSize.get(),
+		ProgramConf.Int.PstFileIdleTimeout.get() * 1000L);
 	
 	public OutlookMailFactory(@NotNull HotColdFileCache unpackCache) {
 		this.unpackCache = Util.checkNotNull(unpackCache);
@@ -59,15 +64,25 @@ public final class OutlookMailFactory {
 			long pstId = Long.valueOf(leftMiddle_right.getRight());
 			
 			String absLeft = left_middle.getLeft().getCanonicalPath();
-			PSTFile pstFile = new PSTFile(absLeft);
-			PSTMessage email = (PSTMessage) PSTObject.detectAndLoadPSTObject(
-				pstFile, pstId);
-			
 			Path emailId = new Path(Util.joinPath(
 				absLeft, left_middle.getRight(), leftMiddle_right.getRight()));
 			
-			return new OutlookMailResource(
-				config, query, isPhraseQuery, unpackCache, emailId, email);
+			/*
+			 * The PST file must stay open until the attachments have been
+			 * extracted, which happens in the mail resource constructor.
+			 */
+			Handle handle = pstFilePool.acquire(new File(absLeft));
+			try {
+				synchronized (handle.getLock()) {
+					PSTMessage email = (PSTMessage) PSTObject.detectAndLoadPSTObject(
+						handle.getPstFile(), pstId);
+					return new OutlookMailResource(
+						config, query, isPhraseQuery, unpackCache, emailId, email);
+				}
+			}
+			finally {
+				handle.release();
+			}
 		}
 		catch (FileNotFoundException e) {
 			throw e; // should not be caught by IOException catch clause
@@ -68,11 +68,12 @@ public final class OutlookMailResource extends MailResource {
 		
 		new AttachmentVisitor(config, email, false) {
 			// TODO post-release-1.1: tell attachment visitor to skip a file if it was found in the cache
-			protected void handleAttachment(String filename, File tempFile)
+			protected boolean handleAttachment(String filename, File tempFile)
 					throws ParseException {
 				Path cacheKey = emailId.createSubPath(filename);
 				FileResource fileResource = unpackCache.putIfAbsent(cacheKey, tempFile);
 				attachments.add(new Attachment(filename, fileResource));
+				return false;
 			}
 			protected void handleException(	String filename,
 											Throwable e) {
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.outlook;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.io.Closeables;
+import com.pff.PSTException;
+import com.pff.PSTFile;
+
+/**
+ * A pool of open PST files. Opening a PST file is expensive, since the header
+ * and the B-trees of the file have to be read, so when the user clicks through
+ * a number of e-mails in the same PST file, it pays off to keep the file open.
+ * <p>
+ * The pooled files are keyed by canonical path and last-modified value, so a
+ * PST file that was modified on disk is opened anew. Each pooled file has a
+ * reference count; a file is only closed after all its handles have been
+ * released and it has either been idle for the given amount of time, been
+ * replaced by a newer version, or been pushed out of the pool by other files.
+ * <p>
+ * {@code PSTFile} objects are not thread-safe, so clients must synchronize on
+ * the lock returned by {@link Handle#getLock()} while reading from the file.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class PstFilePool {
+
+	/**
+	 * A reference to a pooled PST file. Must be released after usage.
+	 */
+	public final class Handle {
+		private final Entry entry;
+		private boolean released = false; // guarded by pool lock
+
+		private Handle(@NotNull Entry entry) {
+			this.entry = entry;
+		}
+
+		@NotNull
+		public PSTFile getPstFile() {
+			return entry.pstFile;
+		}
+
+		/**
+		 * Returns the lock that guards the PST file of the receiver. All
+		 * handles to the same pooled PST file share the same lock.
+		 */
+		@NotNull
+		public Object getLock() {
+			return entry;
+		}
+
+		/**
+		 * Releases the receiver. Calling this method more than once has no
+		 * effect.
+		 */
+		public void release() {
+			synchronized (PstFilePool.this) {
+				if (released)
+					return;
+				released = true;
+				entry.refCount--;
+				entry.lastUsed = System.currentTimeMillis();
+				if (entry.refCount == 0 && entry.retired)
+					entry.close();
+				else
+					evictOverflow();
+			}
+		}
+	}
+
+	private static final class Entry {
+		private final String key;
+		private final PSTFile pstFile;
+		private int refCount = 0;
+		private long lastUsed;
+
+		/*
+		 * True if the entry was removed from the pool while it was still in
+		 * use. It will be closed when the last handle is released.
+		 */
+		private boolean retired = false;
+
+		private Entry(@NotNull String key, @NotNull PSTFile pstFile) {
+			this.key = key;
+			this.pstFile = pstFile;
+		}
+
+		private void close() {
+			Closeables.closeQuietly(pstFile.getFileHandle());
+		}
+	}
+
+	private final int maxSize;
+	private final long idleTimeout;
+
+	// Iteration order is from least to most recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true); // guarded by 'this' lock
+	@Nullable private Timer timer; // guarded by 'this' lock
+
+	/**
+	 * @param maxSize
+	 *            The maximum number of idle PST files kept open.
+	 * @param idleTimeout
+	 *            The time in milliseconds after which an idle PST file is
+	 *            closed.
+	 */
+	public PstFilePool(int maxSize, long idleTimeout) {
+		Util.checkThat(maxSize >= 1 && idleTimeout >= 0);
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Returns a handle to the given PST file, opening the file if it isn't in
+	 * the pool yet.
+	 */
+	@NotNull
+	public synchronized Handle acquire(@NotNull File file)
+			throws IOException, PSTException {
+		File canonicalFile = Util.getCanonicalFile(file);
+		String path = canonicalFile.getPath();
+		String key = path + "|" + canonicalFile.lastModified();
+
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			/*
+			 * Note: Opening the file while holding the lock blocks other
+			 * clients of the pool for a while, but this is acceptable, since
+			 * there's usually only one client at a time, namely the preview
+			 * panel.
+			 */
+			entry = new Entry(key, new PSTFile(path));
+			retireOutdated(path);
+			entries.put(key, entry);
+			startTimer();
+		}
+		entry.refCount++;
+		entry.lastUsed = System.currentTimeMillis();
+		return new Handle(entry);
+	}
+
+	// Removes all older versions of the PST file at the given path
+	private void retireOutdated(@NotNull String path) {
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.key.startsWith(path + "|")) {
+				it.remove();
+				retire(entry);
+			}
+		}
+	}
+
+	// Evicts the least recently used idle entries above the size limit
+	private void evictOverflow() {
+		int excess = entries.size() - maxSize;
+		Iterator<Entry> it = entries.values().iterator();
+		while (excess > 0 && it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.refCount > 0)
+				continue;
+			it.remove();
+			entry.close();
+			excess--;
+		}
+	}
+
+	/**
+	 * Closes all PST files that have been idle for longer than the idle
+	 * timeout.
+	 */
+	synchronized void evictIdle() {
+		long now = System.currentTimeMillis();
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.refCount == 0 && now - entry.lastUsed >= idleTimeout) {
+				it.remove();
+				entry.close();
+			}
+		}
+		if (entries.isEmpty())
+			stopTimer();
+	}
+
+	/**
+	 * Removes all PST files from the pool. Files that are still in use will
+	 * be closed when their last handle is released.
+	 */
+	public synchronized void clear() {
+		for (Entry entry : entries.values())
+			retire(entry);
+		entries.clear();
+		stopTimer();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	private static void retire(@NotNull Entry entry) {
+		if (entry.refCount == 0)
+			entry.close();
+		else
+			entry.retired = true;
+	}
+
+	private void startTimer() {
+		if (timer != null)
+			return;
+		timer = new Timer(PstFilePool.class.getName() + " (Close idle PST files)", true);
+		long period = Math.max(1000, idleTimeout / 2);
+		timer.schedule(new TimerTask() {
+			public void run() {
+				evictIdle();
+			}
+		}, period, period);
+	}
+
+	private void stopTimer() {
+		if (timer == null)
+			return;
+		timer.cancel();
+		timer = null;
+	}
+
+}
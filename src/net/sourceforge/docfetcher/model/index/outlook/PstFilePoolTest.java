@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.index.outlook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.model.index.outlook.PstFilePool.Handle;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.pff.PSTFile;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class PstFilePoolTest {
+
+	static {
+		AppUtil.Const.autoInit();
+	}
+	
+	@Test
+	public void testReuseAndEviction() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File file1 = new File(tempDir, "1.pst");
+			File file2 = new File(tempDir, "2.pst");
+			Files.copy(TestFiles.outlook_test.get(), file1);
+			Files.copy(TestFiles.outlook_test.get(), file2);
+			PstFilePool pool = new PstFilePool(1, 0);
+			
+			// Concurrent handles share the same PST file
+			Handle handle1 = pool.acquire(file1);
+			Handle handle2 = pool.acquire(file1);
+			assertSame(handle1.getPstFile(), handle2.getPstFile());
+			assertSame(handle1.getLock(), handle2.getLock());
+			handle1.release();
+			handle1.release(); // no effect
+			
+			// Files in use are not evicted, even if the pool is full
+			Handle handle3 = pool.acquire(file2);
+			assertEquals(2, pool.size());
+			pool.evictIdle();
+			assertEquals(2, pool.size());
+			assertTrue(isOpen(handle2.getPstFile()));
+			
+			// Released files are kept up to the maximum pool size
+			handle2.release();
+			assertEquals(1, pool.size());
+			assertFalse(isOpen(handle2.getPstFile()));
+			handle3.release();
+			assertEquals(1, pool.size());
+			assertTrue(isOpen(handle3.getPstFile()));
+			pool.evictIdle();
+			assertEquals(0, pool.size());
+			assertFalse(isOpen(handle3.getPstFile()));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	@Test
+	public void testModifiedFile() throws Exception {
+		File tempDir = Util.createTempDir();
+		try {
+			File file = new File(tempDir, "test.pst");
+			Files.copy(TestFiles.outlook_test.get(), file);
+			PstFilePool pool = new PstFilePool(4, 60000);
+			
+			Handle handle1 = pool.acquire(file);
+			file.setLastModified(file.lastModified() - 10000);
+			Handle handle2 = pool.acquire(file);
+			
+			// The outdated file stays open until its handle is released
+			assertNotSame(handle1.getPstFile(), handle2.getPstFile());
+			assertEquals(1, pool.size());
+			assertTrue(isOpen(handle1.getPstFile()));
+			handle1.release();
+			assertFalse(isOpen(handle1.getPstFile()));
+			
+			handle2.release();
+			pool.clear();
+			assertEquals(0, pool.size());
+			assertFalse(isOpen(handle2.getPstFile()));
+		}
+		finally {
+			Util.deleteRecursively(tempDir);
+		}
+	}
+	
+	private static boolean isOpen(PSTFile pstFile) {
+		return pstFile.getFileHandle().getChannel().isOpen();
+	}
+
+}
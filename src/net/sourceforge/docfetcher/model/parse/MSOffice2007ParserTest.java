@@ -7,6 +7,7 @@ import net.sourceforge.docfetcher.TestFiles;
 import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 
 import org.apache.poi.extractor.ExtractorFactory;
@@ -41,7 +42,8 @@ public final class MSOffice2007ParserTest {
 		long lengthBefore = file.length();
 		long modBefore = file.lastModified();
 		ParseService.parse(new IndexingConfig(), file, file.getName(),
-			new Path(file), IndexingReporter.nullReporter, Cancelable.nullCancelable);
+			new Path(file), IndexingReporter.nullReporter,
+			IndexingMetrics.nullMetrics, Cancelable.nullCancelable);
 		Assert.assertEquals(lengthBefore, file.length());
 		Assert.assertEquals(modBefore, file.lastModified());
 	}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import java.io.File;
+import java.util.Map;
+
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import com.google.common.collect.ImmutableMap;
+
+import de.schlichtherle.truezip.file.TFile;
+
+/**
+ * Admission control for text extraction. Before a file is parsed, the memory
+ * governor estimates how much heap the parsing will take, based on the file
+ * size, the file type and the archive nesting depth. Parsing then has to
+ * acquire that amount from a fixed budget, which caps the number of bytes
+ * that are being parsed concurrently.
+ * <p>
+ * A file whose estimated cost exceeds the entire budget is considered
+ * <em>oversized</em>. Such a file can still be admitted, but only when nothing
+ * else is being parsed, and callers may choose to defer it or to parse it in
+ * truncated mode.
+ * <p>
+ * The estimates are deliberately coarse: They only serve to keep the indexer
+ * away from the heap limit, not to predict the exact memory usage.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+public final class MemoryGovernor {
+
+	/*
+	 * Approximate ratio between the heap needed for parsing a file and the
+	 * size of the file on disk. Formats based on zipped XML are the worst
+	 * offenders, since they are both decompressed and turned into a DOM tree.
+	 */
+	private static final Map<String, Integer> costFactors = ImmutableMap.<String, Integer>builder()
+		.put("txt", 3)
+		.put("html", 4)
+		.put("htm", 4)
+		.put("rtf", 4)
+		.put("pdf", 6)
+		.put("doc", 8)
+		.put("xls", 8)
+		.put("ppt", 8)
+		.put("vsd", 8)
+		.put("docx", 15)
+		.put("xlsx", 15)
+		.put("pptx", 15)
+		.put("odt", 15)
+		.put("ods", 15)
+		.put("odp", 15)
+		.put("odg", 15)
+		.put("epub", 15)
+		.build();
+	private static final int DEFAULT_COST_FACTOR = 4;
+
+	private final long budget;
+	private long inFlight = 0; // guarded by 'this' lock
+
+	public MemoryGovernor(long budget) {
+		Util.checkThat(budget > 0);
+		this.budget = budget;
+	}
+
+	/**
+	 * Creates a memory governor whose budget is the given percentage of the
+	 * maximum heap size.
+	 */
+	@NotNull
+	public static MemoryGovernor fromHeapPercentage(int percentage) {
+		Util.checkThat(percentage > 0 && percentage <= 100);
+		long maxMemory = Runtime.getRuntime().maxMemory();
+		return new MemoryGovernor(Math.max(1, maxMemory / 100 * percentage));
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public synchronized long getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Returns the estimated number of heap bytes needed for parsing the given
+	 * file. Accepts TrueZIP files.
+	 */
+	public long estimateCost(@NotNull File file, @NotNull String filename) {
+		Integer factor = costFactors.get(Util.getExtension(filename));
+		long cost = file.length() * (factor == null ? DEFAULT_COST_FACTOR : factor);
+
+		/*
+		 * Entries of zip archives are read through TrueZIP's buffers, and
+		 * every level of nesting adds another layer of buffering.
+		 */
+		int depth = getArchiveDepth(file);
+		for (int i = 0; i < depth; i++)
+			cost += cost / 2;
+		return cost;
+	}
+
+	public boolean isOversized(long cost) {
+		return cost > budget;
+	}
+
+	/**
+	 * Blocks until the given cost fits into the remaining budget, then books
+	 * it and returns the booked amount, which must later be passed to
+	 * {@link #release(long)}. An oversized cost is booked as the full budget,
+	 * so that it is only admitted when nothing else is in flight. Returns
+	 * immediately if the given cancelable has been canceled.
+	 */
+	public long acquire(long cost, @NotNull Cancelable cancelable) {
+		long weight = Math.max(0, Math.min(cost, budget));
+		boolean interrupted = false;
+		synchronized (this) {
+			while (inFlight > 0 && inFlight + weight > budget) {
+				if (cancelable.isCanceled())
+					break;
+				try {
+					// Wake up periodically in order to check for cancellation
+					wait(250);
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			inFlight += weight;
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return weight;
+	}
+
+	/**
+	 * Books the given cost and returns the booked amount if it fits into the
+	 * remaining budget, otherwise returns -1 without blocking. Unlike
+	 * {@link #acquire(long, Cancelable)}, this is safe to call while already
+	 * holding a booking, e.g. for additional memory needed by a parse that is
+	 * already running.
+	 */
+	public synchronized long tryAcquire(long cost) {
+		long weight = Math.max(0, cost);
+		if (inFlight + weight > budget)
+			return -1;
+		inFlight += weight;
+		return weight;
+	}
+
+	public synchronized void release(long weight) {
+		inFlight = Math.max(0, inFlight - weight);
+		notifyAll();
+	}
+
+	private static int getArchiveDepth(@NotNull File file) {
+		if (!(file instanceof TFile))
+			return 0;
+		int depth = 0;
+		TFile archive = ((TFile) file).getEnclArchive();
+		while (archive != null) {
+			depth++;
+			archive = archive.getEnclArchive();
+		}
+		return depth;
+	}
+
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.docfetcher.model.Cancelable;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class MemoryGovernorTest {
+	
+	@Test
+	public void testEstimateCost() throws Exception {
+		File file = File.createTempFile("memory-governor", null);
+		file.deleteOnExit();
+		try {
+			Files.write("0123456789", file, Charsets.US_ASCII);
+			MemoryGovernor governor = new MemoryGovernor(100);
+			long txtCost = governor.estimateCost(file, "file.txt");
+			long docxCost = governor.estimateCost(file, "file.docx");
+			assertTrue(txtCost >= 10);
+			assertTrue(docxCost > txtCost);
+			assertFalse(governor.isOversized(txtCost));
+			assertTrue(governor.isOversized(docxCost));
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testAcquireBlocksUntilRelease() throws Exception {
+		final MemoryGovernor governor = new MemoryGovernor(100);
+		long weight = governor.acquire(80, Cancelable.nullCancelable);
+		assertEquals(80, governor.getInFlight());
+		
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread() {
+			public void run() {
+				governor.acquire(50, Cancelable.nullCancelable);
+				acquired.countDown();
+			}
+		};
+		thread.start();
+		assertFalse(acquired.await(300, TimeUnit.MILLISECONDS));
+		
+		governor.release(weight);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertEquals(50, governor.getInFlight());
+	}
+	
+	@Test
+	public void testTryAcquireDoesNotBlock() throws Exception {
+		MemoryGovernor governor = new MemoryGovernor(100);
+		long weight = governor.acquire(60, Cancelable.nullCancelable);
+		long extraWeight = governor.tryAcquire(30);
+		assertEquals(30, extraWeight);
+		assertEquals(-1, governor.tryAcquire(30));
+		assertEquals(90, governor.getInFlight());
+		governor.release(extraWeight);
+		governor.release(weight);
+		assertEquals(0, governor.getInFlight());
+	}
+	
+	@Test
+	public void testOversizedCostIsAdmittedAlone() throws Exception {
+		MemoryGovernor governor = new MemoryGovernor(100);
+		long weight = governor.acquire(1000, Cancelable.nullCancelable);
+		assertEquals(100, weight);
+		governor.release(weight);
+		assertEquals(0, governor.getInFlight());
+	}
+
+}
@@ -14,9 +14,11 @@ package net.sourceforge.docfetcher.model.parse;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.List;
 
 import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
@@ -30,11 +32,25 @@ public final class PagingPdfParser {
 	
 	private final File file;
 	private final PageHandler handler;
+	@Nullable private final List<Integer> pages;
 	private final StringWriter writer = new StringWriter();
+	private boolean stopped = false;
 
 	public PagingPdfParser(File file, PageHandler handler) {
+		this(file, handler, null);
+	}
+	
+	/**
+	 * Creates a parser that only extracts the given pages, specified as
+	 * zero-based page indices in ascending order. If the given list is null,
+	 * all pages are extracted.
+	 */
+	public PagingPdfParser(File file,
+	                       PageHandler handler,
+	                       @Nullable List<Integer> pages) {
 		this.file = file;
 		this.handler = handler;
+		this.pages = pages;
 	}
 	
 	public void run() throws ParseException, CheckedOutOfMemoryError {
@@ -54,7 +70,23 @@ public final class PagingPdfParser {
 			PagingStripper stripper = new PagingStripper();
 			stripper.setForceParsing(true);
 			stripper.setSortByPosition(true);
-			stripper.writeText(doc, writer);
+			if (pages == null) {
+				stripper.writeText(doc, writer);
+			}
+			else {
+				/*
+				 * The stripper skips the pages outside the given range without
+				 * parsing their contents, so extracting the pages one by one is
+				 * much faster than extracting all pages.
+				 */
+				for (int page : pages) {
+					if (stopped)
+						break;
+					stripper.setStartPage(page + 1);
+					stripper.setEndPage(page + 1);
+					stripper.writeText(doc, writer);
+				}
+			}
 		}
 		catch (Exception e) {
 			if (e instanceof ParseException) {
@@ -78,7 +110,7 @@ public final class PagingPdfParser {
 
 		protected void endPage(PDPage page) throws IOException {
 			StringBuffer buffer = writer.getBuffer();
-			boolean stopped = handler.handlePage(buffer.toString());
+			stopped = handler.handlePage(buffer.toString());
 			buffer.delete(0, buffer.length());
 			if (stopped)
 				setEndPage(0);
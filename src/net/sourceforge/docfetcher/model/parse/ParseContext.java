@@ -11,10 +11,14 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
+import java.io.File;
+
 import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
 
 /**
  * @author Tran Nam Quang
@@ -23,18 +27,24 @@ final class ParseContext {
 	
 	private final String filename;
 	private final IndexingReporter reporter;
+	private final IndexingMetrics metrics;
 	private final Cancelable cancelable;
+	private int maxChars = Integer.MAX_VALUE;
+	@Nullable private File file;
 
 	public ParseContext(@NotNull String filename) {
-		this(filename, IndexingReporter.nullReporter, Cancelable.nullCancelable);
+		this(filename, IndexingReporter.nullReporter,
+			IndexingMetrics.nullMetrics, Cancelable.nullCancelable);
 	}
 	
 	public ParseContext(@NotNull String filename,
 	                    @NotNull IndexingReporter reporter,
+	                    @NotNull IndexingMetrics metrics,
 						@NotNull Cancelable cancelable) {
-		Util.checkNotNull(filename, reporter, cancelable);
+		Util.checkNotNull(filename, reporter, metrics, cancelable);
 		this.filename = filename;
 		this.reporter = reporter;
+		this.metrics = metrics;
 		this.cancelable = cancelable;
 	}
 	
@@ -48,9 +58,44 @@ final class ParseContext {
 		return reporter;
 	}
 
+	@NotNull
+	public IndexingMetrics getMetrics() {
+		return metrics;
+	}
+
 	@NotNull
 	public Cancelable getCancelable() {
 		return cancelable;
 	}
+	
+	/**
+	 * Returns the number of characters after which parsers may stop extracting
+	 * text. This is less than <tt>Integer.MAX_VALUE</tt> if the file is parsed
+	 * in truncated mode. Parsers that cannot stop early may ignore this limit;
+	 * the parse service will cut their output afterwards.
+	 */
+	public int getMaxChars() {
+		return maxChars;
+	}
+	
+	void setMaxChars(int maxChars) {
+		Util.checkThat(maxChars > 0);
+		this.maxChars = maxChars;
+	}
+	
+	/**
+	 * Returns the file the parsed input stream was opened on, or null if the
+	 * input stream didn't come from a regular file, e.g. if it came from an
+	 * archive entry. Stream parsers may use this to read the file more than
+	 * once.
+	 */
+	@Nullable
+	public File getFile() {
+		return file;
+	}
+	
+	void setFile(@Nullable File file) {
+		this.file = file;
+	}
 
 }
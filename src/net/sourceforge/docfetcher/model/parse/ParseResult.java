@@ -32,6 +32,7 @@ public final class ParseResult {
 	@Nullable private List<String> authors;
 	@Nullable private List<String> miscMetadata;
 	@NotNull private String parserName;
+	@Nullable private int[] pageOffsets;
 	
 	public ParseResult(@Nullable CharSequence content) {
 		setContent(content);
@@ -106,6 +107,24 @@ public final class ParseResult {
 		return metadata;
 	}
 	
+	/**
+	 * Returns the offsets in the content at which the pages of a paged
+	 * document start, followed by the offset at which the last page ends. The
+	 * content after the end of the last page, if any, is not part of a page.
+	 * Returns null if the document has no pages or if the parser doesn't
+	 * record page offsets.
+	 */
+	@Nullable
+	public int[] getPageOffsets() {
+		return pageOffsets;
+	}
+	
+	@NotNull
+	public ParseResult setPageOffsets(@Nullable int[] pageOffsets) {
+		this.pageOffsets = pageOffsets;
+		return this;
+	}
+	
 	// Should not be called by Parser implementations
 	@Nullable
 	public String getParserName() {
@@ -30,6 +30,9 @@ import net.sourceforge.docfetcher.model.Cancelable;
 import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.IndexingException;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Outcome;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics.Phase;
 import net.sourceforge.docfetcher.model.index.IndexingReporter;
 import net.sourceforge.docfetcher.model.index.PatternAction;
 import net.sourceforge.docfetcher.model.index.PatternAction.MatchAction;
@@ -109,8 +112,34 @@ public final class ParseService {
 		new MSPowerPoint2007Parser()
 	);
 	
+	@Nullable private static MemoryGovernor memoryGovernor;
+	
 	private ParseService() {}
 	
+	/**
+	 * Returns the memory governor that limits the amount of concurrent
+	 * parsing. The governor is created lazily, since its budget depends on the
+	 * program configuration.
+	 */
+	@NotNull
+	public static synchronized MemoryGovernor getMemoryGovernor() {
+		if (memoryGovernor == null) {
+			int percentage = ProgramConf.Int.ParseMemoryBudget.get();
+			memoryGovernor = MemoryGovernor.fromHeapPercentage(percentage);
+		}
+		return memoryGovernor;
+	}
+	
+	/**
+	 * Returns whether parsing the given file is estimated to need more heap
+	 * than the entire parse memory budget. Accepts TrueZIP files.
+	 */
+	public static boolean isOversized(	@NotNull File file,
+										@NotNull String filename) {
+		MemoryGovernor governor = getMemoryGovernor();
+		return governor.isOversized(governor.estimateCost(file, filename));
+	}
+	
 	@Immutable
 	@NotNull
 	public static List<Parser> getParsers() {
@@ -200,10 +229,37 @@ public final class ParseService {
 	                                @NotNull String filename,
 	                                @NotNull Path filepath,
 	                                @NotNull IndexingReporter reporter,
+	                                @NotNull IndexingMetrics metrics,
 	                                @NotNull Cancelable cancelable)
 			throws ParseException, CheckedOutOfMemoryError {
-		ParseContext context = new ParseContext(filename, reporter, cancelable);
+		ParseContext context = new ParseContext(
+			filename, reporter, metrics, cancelable);
 		
+		/*
+		 * Wait until enough of the parse memory budget is available. Oversized
+		 * files are admitted only when nothing else is being parsed, and are
+		 * optionally parsed in truncated mode.
+		 */
+		MemoryGovernor governor = getMemoryGovernor();
+		long cost = governor.estimateCost(file, filename);
+		if (governor.isOversized(cost) && ProgramConf.Bool.TruncateOversizedFiles.get())
+			context.setMaxChars(ProgramConf.Int.OversizedFileMaxChars.get());
+		long weight = governor.acquire(cost, cancelable);
+		try {
+			return parse(config, file, filename, filepath, context);
+		}
+		finally {
+			governor.release(weight);
+		}
+	}
+	
+	@NotNull
+	private static ParseResult parse(	@NotNull IndexingConfig config,
+										@NotNull File file,
+										@NotNull String filename,
+										@NotNull Path filepath,
+										@NotNull ParseContext context)
+			throws ParseException, CheckedOutOfMemoryError {
 		// Search for appropriate parser by mimetype
 		for (PatternAction patternAction : config.getPatternActions()) {
 			if (patternAction.getAction() != MatchAction.DETECT_MIME)
@@ -211,8 +267,11 @@ public final class ParseService {
 			if (!patternAction.matches(filename, filepath, true))
 				continue;
 			try {
+				long startTime = System.nanoTime();
 				List<Parser> matchingParsers = getSortedMatchingParsers(
 					config, file, filename);
+				context.getMetrics().addTime(
+					Phase.MIME_DETECTION, System.nanoTime() - startTime);
 				for (Parser parser : matchingParsers) {
 					try {
 						return doParse(config, parser, file, context);
@@ -249,6 +308,9 @@ public final class ParseService {
 										@NotNull final File file,
 										@NotNull ParseContext context)
 			throws ParseException, CheckedOutOfMemoryError {
+		String parserName = parser.getClass().getSimpleName();
+		Outcome outcome = Outcome.FAILURE;
+		long startTime = System.nanoTime();
 		try {
 			ParseResult result = null;
 			if (ProgramConf.Bool.DryRun.get()) {
@@ -257,10 +319,13 @@ public final class ParseService {
 			else if (parser instanceof StreamParser) {
 				InputStream in = null;
 				try {
-					if (isZipEntry(file))
+					if (isZipEntry(file)) {
 						in = new TFileInputStream(file);
-					else
+					}
+					else {
 						in = new FileInputStream(file);
+						context.setFile(file);
+					}
 					StreamParser streamParser = (StreamParser) parser;
 					result = streamParser.parse(in, context);
 				}
@@ -312,7 +377,14 @@ public final class ParseService {
 			else {
 				throw new IllegalStateException();
 			}
-			String parserName = parser.getClass().getSimpleName();
+			
+			// Cut off the output of parsers that ignored the character limit
+			CharSequence content = result.getContent();
+			int maxChars = context.getMaxChars();
+			if (content.length() > maxChars)
+				result.setContent(content.subSequence(0, maxChars));
+			
+			outcome = Outcome.SUCCESS;
 			return result.setParserName(parserName);
 		}
 		catch (final RuntimeException e) {
@@ -328,8 +400,14 @@ public final class ParseService {
 			throw new ParseException(e);
 		}
 		catch (OutOfMemoryError e) {
+			outcome = Outcome.OUT_OF_MEMORY;
 			throw new CheckedOutOfMemoryError(e);
 		}
+		finally {
+			long duration = System.nanoTime() - startTime;
+			context.getMetrics().recordParse(
+				parserName, file.length(), duration, outcome);
+		}
 	}
 	
 	private static boolean isZipEntry(@NotNull File file) {
@@ -11,13 +11,26 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 
@@ -29,6 +42,10 @@ import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
 import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationMarkup;
 import org.apache.pdfbox.util.PDFTextStripper;
 
+import com.google.common.io.Closeables;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * @author Tran Nam Quang
  */
@@ -37,6 +54,8 @@ public final class PdfParser extends StreamParser {
 	private static final Collection<String> extensions = Collections.singleton("pdf");
 	private static final Collection<String> types = MediaType.Col.application("pdf");
 	
+	@Nullable private static ExecutorService rangeExecutor;
+	
 	PdfParser() {
 	}
 	
@@ -50,16 +69,7 @@ public final class PdfParser extends StreamParser {
 			 * TODO post-release-1.1: check if 'force' argument in PDDocument/Stripper increases
 			 * number of parsed PDF files
 			 */
-			pdfDoc = PDDocument.load(in, true);
-			
-			if (pdfDoc.isEncrypted()) {
-				try {
-					// Try empty password
-					pdfDoc.openProtection(new StandardDecryptionMaterial(""));
-				} catch (Exception e) {
-					throw new ParseException(Msg.doc_pw_protected.get());
-				}
-			}
+			pdfDoc = load(in);
 			
 			PDDocumentInformation pdInfo;
 			final int pageCount;
@@ -71,58 +81,267 @@ public final class PdfParser extends StreamParser {
 				// Bug #3529070 and #3528345
 				throw new ParseException(e);
 			}
-			StringWriter writer = new StringWriter();
-			final StringBuilder annotations = new StringBuilder();
 			
+			RangeStripper[] strippers = extract(pdfDoc, pageCount, context);
+			
+			// Reassemble the text of the page ranges in order
+			StringBuilder content = new StringBuilder();
+			StringBuilder annotations = new StringBuilder();
+			List<Integer> pageOffsets = new ArrayList<Integer>(pageCount + 1);
+			for (RangeStripper stripper : strippers) {
+				for (int offset : stripper.pageOffsets)
+					pageOffsets.add(content.length() + offset);
+				content.append(stripper.writer.getBuffer());
+				annotations.append(stripper.annotations);
+			}
+			pageOffsets.add(content.length());
+			content.append(" ");
+			content.append(annotations);
+
+			return new ParseResult(content).setTitle(
+				pdInfo.getTitle())
+					.addAuthor(pdInfo.getAuthor())
+					.addMiscMetadata(pdInfo.getSubject())
+					.addMiscMetadata(pdInfo.getKeywords())
+					.setPageOffsets(Ints.toArray(pageOffsets));
+		}
+		catch (IOException e) {
+			throw new ParseException(e);
+		}
+		finally {
+			close(pdfDoc);
+		}
+	}
+	
+	@NotNull
+	private static PDDocument load(@NotNull InputStream in)
+			throws IOException, ParseException {
+		PDDocument pdfDoc = PDDocument.load(in, true);
+		if (pdfDoc.isEncrypted()) {
+			try {
+				// Try empty password
+				pdfDoc.openProtection(new StandardDecryptionMaterial(""));
+			} catch (Exception e) {
+				close(pdfDoc);
+				throw new ParseException(Msg.doc_pw_protected.get());
+			}
+		}
+		return pdfDoc;
+	}
+	
+	/**
+	 * Extracts the text of the given PDF document and returns the strippers
+	 * that were used, in page order. Large PDF files are split into page
+	 * ranges that are extracted concurrently. Since {@code PDDocument}s aren't
+	 * thread-safe, each additional range is extracted from a separately loaded
+	 * copy of the PDF file, while the first range is extracted from the given
+	 * document on the calling thread.
+	 * <p>
+	 * Each additional copy must fit into the remaining parse memory budget,
+	 * otherwise the file is split into fewer ranges.
+	 */
+	@NotNull
+	private static RangeStripper[] extract(	@NotNull PDDocument pdfDoc,
+											final int pageCount,
+											@NotNull final ParseContext context)
+			throws IOException, ParseException {
+		final File file = context.getFile();
+		int maxThreadCount = Math.min(
+			ProgramConf.Int.PdfExtractionThreads.get(), pageCount);
+		
+		/*
+		 * Extract on a single thread if the file can't be loaded again, or if
+		 * we're in truncated mode, which only needs the first pages anyway.
+		 */
+		if (file == null
+				|| maxThreadCount <= 1
+				|| pageCount < ProgramConf.Int.PdfParallelPageThreshold.get()
+				|| context.getMaxChars() < Integer.MAX_VALUE)
+			return extractSingle(pdfDoc, pageCount, context);
+		
+		// Book the memory for the additional copies of the PDF file
+		MemoryGovernor governor = ParseService.getMemoryGovernor();
+		long copyCost = governor.estimateCost(file, context.getFilename());
+		long weight = 0;
+		int threadCount = 1;
+		while (threadCount < maxThreadCount) {
+			long copyWeight = governor.tryAcquire(copyCost);
+			if (copyWeight < 0)
+				break;
+			weight += copyWeight;
+			threadCount++;
+		}
+		
+		try {
+			if (threadCount <= 1)
+				return extractSingle(pdfDoc, pageCount, context);
+			return extractParallel(pdfDoc, file, pageCount, threadCount, context);
+		}
+		finally {
+			governor.release(weight);
+		}
+	}
+	
+	@NotNull
+	private static RangeStripper[] extractSingle(	@NotNull PDDocument pdfDoc,
+													int pageCount,
+													@NotNull ParseContext context)
+			throws IOException, ParseException {
+		RangeStripper stripper = new RangeStripper(
+			context, pageCount, new AtomicInteger());
+		stripper.extract(pdfDoc);
+		return new RangeStripper[] { stripper };
+	}
+	
+	@NotNull
+	private static RangeStripper[] extractParallel(	@NotNull PDDocument pdfDoc,
+													@NotNull final File file,
+													int pageCount,
+													int threadCount,
+													@NotNull ParseContext context)
+			throws IOException, ParseException {
+		final AtomicInteger pagesDone = new AtomicInteger();
+		final RangeStripper[] strippers = new RangeStripper[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			strippers[i] = new RangeStripper(context, pageCount, pagesDone);
+			strippers[i].setStartPage(pageCount * i / threadCount + 1);
+			strippers[i].setEndPage(pageCount * (i + 1) / threadCount);
+		}
+		
+		ExecutorService executor = getRangeExecutor();
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(threadCount - 1);
+		boolean success = false;
+		try {
+			for (int i = 1; i < threadCount; i++) {
+				final RangeStripper stripper = strippers[i];
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						if (stripper.isStopped())
+							return null;
+						PDDocument rangeDoc = null;
+						InputStream rangeIn = null;
+						try {
+							rangeIn = new FileInputStream(file);
+							rangeDoc = load(rangeIn);
+							stripper.extract(rangeDoc);
+							return null;
+						}
+						finally {
+							close(rangeDoc);
+							Closeables.closeQuietly(rangeIn);
+						}
+					}
+				}));
+			}
+			strippers[0].extract(pdfDoc);
+			success = true;
+		}
+		finally {
 			/*
-			 * If the PDF file is encrypted, the PDF stripper will automatically
-			 * try an empty password.
-			 * 
-			 * In contrast to the paging PDF parser that is used for the
-			 * preview, we do not need to call setSortByPosition(true) here
-			 * because the extracted text will be digested by Lucene anyway.
+			 * Always wait for the other ranges, since they hold copies of the
+			 * PDF file that are accounted for by the memory governor. If the
+			 * extraction has failed, tell them to stop as soon as possible.
 			 */
-			PDFTextStripper stripper = new PDFTextStripper() {
-				protected void startPage(PDPage page) throws IOException {
-					context.getReporter().subInfo(getCurrentPageNo(), pageCount);
-				}
-				protected void endPage(PDPage page) throws IOException {
-					if (context.getCancelable().isCanceled()) {
-						setEndPage(0);
-						return;
-					}
+			if (!success)
+				for (RangeStripper stripper : strippers)
+					stripper.stop();
+			boolean interrupted = false;
+			Throwable failure = null;
+			for (Future<Void> future : futures) {
+				while (true) {
 					try {
-						for (PDAnnotation a : page.getAnnotations()) {
-							if (a instanceof PDAnnotationMarkup) {
-								PDAnnotationMarkup annot = (PDAnnotationMarkup) a;
-								String title = annot.getTitlePopup();
-								String subject = annot.getSubject();
-								String contents = annot.getContents();
-								if (title != null) {
-									annotations.append(title + " ");
-								}
-								if (subject != null) {
-									annotations.append(subject + " ");
-								}
-								if (contents != null) {
-									annotations.append(contents + " ");
-								}
-							}
-						}
-					} catch (IOException e) {
-						if (e.getMessage().startsWith("Error: Unknown annotation type")) {
-							// Ignore unsupported annotations
-							System.err.println(e.getMessage());
-						} else {
-							throw e;
-						}
+						future.get();
+						break;
+					}
+					catch (ExecutionException e) {
+						if (failure == null)
+							failure = e.getCause();
+						for (RangeStripper stripper : strippers)
+							stripper.stop();
+						break;
+					}
+					catch (InterruptedException e) {
+						interrupted = true;
+						for (RangeStripper stripper : strippers)
+							stripper.stop();
 					}
 				}
-			};
-			stripper.setForceParsing(true);
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (success && failure != null) {
+				if (failure instanceof ParseException)
+					throw (ParseException) failure;
+				if (failure instanceof IOException)
+					throw (IOException) failure;
+				throw new ParseException(failure);
+			}
+		}
+		return strippers;
+	}
+	
+	/**
+	 * Returns the executor for the additional page ranges. The executor is
+	 * shared by all PDF files, so that the number of extra threads doesn't
+	 * grow with the number of PDF files being parsed at the same time. Its
+	 * threads terminate when idle.
+	 */
+	@NotNull
+	private static synchronized ExecutorService getRangeExecutor() {
+		if (rangeExecutor == null) {
+			int threadCount = Math.max(
+				1, ProgramConf.Int.PdfExtractionThreads.get() - 1);
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				threadCount, threadCount, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactoryBuilder()
+					.setNameFormat(PdfParser.class.getSimpleName() + "-%d")
+					.setDaemon(true)
+					.build());
+			executor.allowCoreThreadTimeOut(true);
+			rangeExecutor = executor;
+		}
+		return rangeExecutor;
+	}
+	
+	/**
+	 * Extracts the text and annotations of a range of pages of a PDF
+	 * document.
+	 */
+	private static final class RangeStripper extends PDFTextStripper {
+		private final ParseContext context;
+		private final int pageCount;
+		private final AtomicInteger pagesDone;
+		private final StringWriter writer = new StringWriter();
+		private final StringBuilder annotations = new StringBuilder();
+		private volatile boolean stopped = false;
+		
+		// Page start offsets, relative to the text of this range
+		private final List<Integer> pageOffsets = new ArrayList<Integer>();
+		
+		public RangeStripper(	@NotNull ParseContext context,
+								int pageCount,
+								@NotNull AtomicInteger pagesDone)
+				throws IOException {
+			this.context = context;
+			this.pageCount = pageCount;
+			this.pagesDone = pagesDone;
 			
+			/*
+			 * If the PDF file is encrypted, the PDF stripper will
+			 * automatically try an empty password.
+			 * 
+			 * In contrast to the paging PDF parser that is used for the
+			 * preview, we do not need to call setSortByPosition(true) here
+			 * because the extracted text will be digested by Lucene anyway.
+			 */
+			setForceParsing(true);
+		}
+		
+		public void extract(@NotNull PDDocument pdfDoc)
+				throws IOException, ParseException {
 			try {
-				stripper.writeText(pdfDoc, writer);
+				writeText(pdfDoc, writer);
 			}
 			catch (RuntimeException e) {
 				/*
@@ -131,21 +350,61 @@ public final class PdfParser extends StreamParser {
 				 */
 				throw new ParseException(e);
 			}
-			
-			writer.write(" ");
-			writer.write(annotations.toString());
-
-			return new ParseResult(writer.getBuffer()).setTitle(
-				pdInfo.getTitle())
-					.addAuthor(pdInfo.getAuthor())
-					.addMiscMetadata(pdInfo.getSubject())
-					.addMiscMetadata(pdInfo.getKeywords());
 		}
-		catch (IOException e) {
-			throw new ParseException(e);
+		
+		/**
+		 * Makes the extraction skip the remaining pages. Can be called from
+		 * any thread.
+		 */
+		public void stop() {
+			stopped = true;
 		}
-		finally {
-			close(pdfDoc);
+		
+		public boolean isStopped() {
+			return stopped;
+		}
+		
+		protected void startPage(PDPage page) throws IOException {
+			context.getReporter().subInfo(pagesDone.incrementAndGet(), pageCount);
+			pageOffsets.add(writer.getBuffer().length());
+		}
+		
+		protected void endPage(PDPage page) throws IOException {
+			if (stopped || context.getCancelable().isCanceled()) {
+				setEndPage(0);
+				return;
+			}
+			if (writer.getBuffer().length() > context.getMaxChars()) {
+				// Truncated mode: Skip the remaining pages
+				setEndPage(0);
+				return;
+			}
+			try {
+				for (PDAnnotation a : page.getAnnotations()) {
+					if (a instanceof PDAnnotationMarkup) {
+						PDAnnotationMarkup annot = (PDAnnotationMarkup) a;
+						String title = annot.getTitlePopup();
+						String subject = annot.getSubject();
+						String contents = annot.getContents();
+						if (title != null) {
+							annotations.append(title + " ");
+						}
+						if (subject != null) {
+							annotations.append(subject + " ");
+						}
+						if (contents != null) {
+							annotations.append(contents + " ");
+						}
+					}
+				}
+			} catch (IOException e) {
+				if (e.getMessage().startsWith("Error: Unknown annotation type")) {
+					// Ignore unsupported annotations
+					System.err.println(e.getMessage());
+				} else {
+					throw e;
+				}
+			}
 		}
 	}
 	
@@ -11,6 +11,8 @@
 
 package net.sourceforge.docfetcher.model.parse;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -18,7 +20,12 @@ import java.util.logging.Logger;
 
 import net.sourceforge.docfetcher.TestFiles;
 import net.sourceforge.docfetcher.enums.Msg;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.Path;
 import net.sourceforge.docfetcher.model.index.IndexingConfig;
+import net.sourceforge.docfetcher.model.index.IndexingMetrics;
+import net.sourceforge.docfetcher.model.index.IndexingReporter;
 
 import org.junit.Test;
 
@@ -43,4 +50,46 @@ public final class PdfParserTest {
 		}
 	}
 	
+	@Test
+	public void testPageOffsets() throws Exception {
+		ParseResult result = parse(TestFiles.multi_page_pdf.get());
+		int[] pageOffsets = result.getPageOffsets();
+		assertEquals(4, pageOffsets.length);
+		String content = result.getContent().toString();
+		for (int i = 0; i < 3; i++) {
+			String page = content.substring(pageOffsets[i], pageOffsets[i + 1]);
+			assertEquals("page " + (i + 1), page.trim());
+		}
+	}
+	
+	@Test
+	public void testParallelExtraction() throws Exception {
+		File file = TestFiles.multi_page_pdf.get();
+		ParseResult expected = parse(file);
+		try {
+			ProgramConf.Int.PdfExtractionThreads.load("3");
+			ProgramConf.Int.PdfParallelPageThreshold.load("1");
+			ParseResult actual = parse(file);
+			assertEquals(
+				expected.getContent().toString(),
+				actual.getContent().toString());
+			assertArrayEquals(
+				expected.getPageOffsets(), actual.getPageOffsets());
+			
+			// The memory booked for the extra copies must have been released
+			assertEquals(0, ParseService.getMemoryGovernor().getInFlight());
+		}
+		finally {
+			ProgramConf.Int.PdfExtractionThreads.load("1");
+			ProgramConf.Int.PdfParallelPageThreshold.load("500");
+		}
+	}
+	
+	private static ParseResult parse(File file) throws Exception {
+		return ParseService.parse(
+			new IndexingConfig(), file, file.getName(), new Path(file),
+			IndexingReporter.nullReporter, IndexingMetrics.nullMetrics,
+			Cancelable.nullCancelable);
+	}
+	
 }
@@ -19,6 +19,8 @@ import net.sourceforge.docfetcher.enums.Msg;
 import net.sourceforge.docfetcher.enums.ProgramConf;
 import net.sourceforge.docfetcher.util.CharsetDetectorHelper;
 
+import com.google.common.io.LimitInputStream;
+
 /**
  * @author Tran Nam Quang
  */
@@ -34,6 +36,13 @@ public final class TextParser extends StreamParser {
 	                            ParseContext context) throws ParseException {
 		try {
 			CharsetDetectorHelper.charsetOverride = ProgramConf.Str.TextEncodingOverride.get().trim();
+			
+			// In truncated mode, don't read more bytes than could possibly be
+			// needed; the excess characters are cut off by the parse service.
+			int maxChars = context.getMaxChars();
+			if (maxChars < Integer.MAX_VALUE)
+				in = new LimitInputStream(in, maxChars * 4L);
+			
 			String contents = CharsetDetectorHelper.toString(in);
 			return new ParseResult(contents);
 		}
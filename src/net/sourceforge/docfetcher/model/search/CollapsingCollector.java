@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldCache.StringIndex;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+/**
+ * A collector that groups hits with the same content signature, so that
+ * copies of a document take up only one place among the top hits. Each group
+ * is represented by its highest-scoring hit. Hits without a signature, such as
+ * documents from older indexes, are never grouped.
+ * <p>
+ * The signatures are looked up via ordinals from the field cache, and each
+ * ordinal of a segment is resolved to its group at most once. Only the
+ * <tt>maxHits</tt> best groups are kept, since no other group can make it into
+ * the top hits. The number of copies is counted per ordinal instead, so that
+ * the counts of the remaining groups are exact even if a group was evicted
+ * and came back later.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+final class CollapsingCollector extends Collector {
+
+	/** A representative hit and the number of its copies among the hits. */
+	public static final class Hit {
+		public final ScoreDoc scoreDoc;
+		public final int duplicateCount;
+
+		private Hit(@NotNull ScoreDoc scoreDoc, int duplicateCount) {
+			this.scoreDoc = scoreDoc;
+			this.duplicateCount = duplicateCount;
+		}
+	}
+
+	private static final class Group {
+		private final String signature;
+		private int doc;
+		private float score;
+		private int ord; // Ordinal in the current segment, or -1
+
+		private Group(@NotNull String signature) {
+			this.signature = signature;
+		}
+	}
+
+	/** The per-ordinal hit counts of a segment. */
+	private static final class SegmentCounts {
+		private final StringIndex signatures;
+		private final int[] counts;
+
+		private SegmentCounts(@NotNull StringIndex signatures) {
+			this.signatures = signatures;
+			this.counts = new int[signatures.lookup.length];
+		}
+	}
+
+	// Ascending score, then descending document number, i.e. weakest first
+	private static final Comparator<Group> groupComparator = new Comparator<Group>() {
+		public int compare(Group o1, Group o2) {
+			int cmp = Float.compare(o1.score, o2.score);
+			if (cmp != 0)
+				return cmp;
+			return o1.doc > o2.doc ? -1 : (o1.doc == o2.doc ? 0 : 1);
+		}
+	};
+
+	// Descending score, then ascending document number
+	private static final Comparator<Hit> hitComparator = new Comparator<Hit>() {
+		public int compare(Hit o1, Hit o2) {
+			int cmp = Float.compare(o2.scoreDoc.score, o1.scoreDoc.score);
+			if (cmp != 0)
+				return cmp;
+			int doc1 = o1.scoreDoc.doc;
+			int doc2 = o2.scoreDoc.doc;
+			return doc1 < doc2 ? -1 : (doc1 == doc2 ? 0 : 1);
+		}
+	};
+
+	private final int maxHits;
+	private final TopScoreDocCollector ungroupedCollector;
+	private final Map<String, Group> groups = new HashMap<String, Group>();
+	private final TreeSet<Group> groupQueue = new TreeSet<Group>(groupComparator);
+	private final List<SegmentCounts> segmentCounts = new ArrayList<SegmentCounts>();
+
+	// State of the current segment
+	@Nullable private Scorer scorer;
+	@Nullable private StringIndex signatures;
+	@Nullable private int[] counts;
+	@Nullable private Group[] segmentGroups;
+	private int docBase;
+
+	public CollapsingCollector(int maxHits) {
+		Util.checkThat(maxHits > 0);
+		this.maxHits = maxHits;
+		this.ungroupedCollector = TopScoreDocCollector.create(maxHits, true);
+	}
+
+	public void setScorer(Scorer scorer) throws IOException {
+		this.scorer = scorer;
+		ungroupedCollector.setScorer(scorer);
+	}
+
+	public void collect(int doc) throws IOException {
+		int ord = signatures.order[doc];
+		if (ord == 0) {
+			ungroupedCollector.collect(doc);
+			return;
+		}
+		counts[ord]++;
+		float score = scorer.score();
+		Group group = segmentGroups[ord];
+		if (group == null) {
+			String signature = signatures.lookup[ord];
+			group = groups.get(signature);
+			if (group == null) {
+				/*
+				 * A group that was evicted earlier can only come back with a
+				 * higher score than it had, so its score is still exact.
+				 */
+				if (groupQueue.size() >= maxHits) {
+					Group weakest = groupQueue.first();
+					// On a tie, the new hit loses due to its higher document number
+					if (score <= weakest.score)
+						return;
+					groupQueue.pollFirst();
+					groups.remove(weakest.signature);
+					if (weakest.ord >= 0)
+						segmentGroups[weakest.ord] = null;
+				}
+				group = new Group(signature);
+				group.doc = docBase + doc;
+				group.score = score;
+				groups.put(signature, group);
+				groupQueue.add(group);
+			}
+			group.ord = ord;
+			segmentGroups[ord] = group;
+		}
+		// Docs are collected in order, so ties go to the lowest document number
+		if (score > group.score) {
+			groupQueue.remove(group);
+			group.doc = docBase + doc;
+			group.score = score;
+			groupQueue.add(group);
+		}
+	}
+
+	public void setNextReader(IndexReader reader, int docBase)
+			throws IOException {
+		ungroupedCollector.setNextReader(reader, docBase);
+		this.docBase = docBase;
+		signatures = FieldCache.DEFAULT.getStringIndex(reader, Fields.SIGNATURE.key());
+		SegmentCounts current = new SegmentCounts(signatures);
+		segmentCounts.add(current);
+		counts = current.counts;
+		segmentGroups = new Group[signatures.lookup.length];
+		for (Group group : groupQueue)
+			group.ord = -1;
+	}
+
+	public boolean acceptsDocsOutOfOrder() {
+		return false;
+	}
+
+	/**
+	 * Returns the highest-scoring hits among the ungrouped hits and the
+	 * representatives of the groups, in the same order as a search without
+	 * grouping would return them.
+	 */
+	@NotNull
+	public List<Hit> getTopHits() {
+		List<Hit> hits = new ArrayList<Hit>();
+		for (ScoreDoc scoreDoc : ungroupedCollector.topDocs().scoreDocs)
+			hits.add(new Hit(scoreDoc, 0));
+		for (Group group : groupQueue) {
+			ScoreDoc scoreDoc = new ScoreDoc(group.doc, group.score);
+			hits.add(new Hit(scoreDoc, countHits(group.signature) - 1));
+		}
+		Collections.sort(hits, hitComparator);
+		if (hits.size() > maxHits)
+			return new ArrayList<Hit>(hits.subList(0, maxHits));
+		return hits;
+	}
+
+	private int countHits(@NotNull String signature) {
+		int count = 0;
+		for (SegmentCounts segment : segmentCounts) {
+			// The lookup array is sorted, except for the null entry at index 0
+			String[] lookup = segment.signatures.lookup;
+			int ord = Arrays.binarySearch(lookup, 1, lookup.length, signature);
+			if (ord > 0)
+				count += segment.counts[ord];
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import net.sourceforge.docfetcher.model.Fields;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class CollapsingCollectorTest {
+
+	@Test
+	public void testEvictedGroupComesBack() throws Exception {
+		RAMDirectory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(
+			Version.LUCENE_30, new WhitespaceAnalyzer(Version.LUCENE_30)));
+
+		// Group a is evicted by group c in the first segment...
+		addDoc(writer, "a1", "a", 1);
+		addDoc(writer, "b1", "b", 2);
+		addDoc(writer, "c1", "c", 4);
+		addDoc(writer, "a2", "a", 1);
+		writer.commit();
+
+		// ...and comes back in the second segment, evicting group b
+		addDoc(writer, "a3", "a", 8);
+		addDoc(writer, "c2", "c", 1);
+		writer.close();
+
+		IndexReader reader = IndexReader.open(dir);
+		IndexSearcher searcher = new IndexSearcher(reader);
+		try {
+			assertEquals(2, reader.getSequentialSubReaders().length);
+			CollapsingCollector collector = new CollapsingCollector(2);
+			searcher.search(new TermQuery(new Term("content", "word")), collector);
+			List<CollapsingCollector.Hit> hits = collector.getTopHits();
+
+			assertEquals(2, hits.size());
+			assertEquals("a3", getId(searcher, hits.get(0)));
+			assertEquals(2, hits.get(0).duplicateCount);
+			assertEquals("c1", getId(searcher, hits.get(1)));
+			assertEquals(1, hits.get(1).duplicateCount);
+		}
+		finally {
+			searcher.close();
+			reader.close();
+		}
+	}
+
+	private static void addDoc(	IndexWriter writer,
+								String id,
+								String signature,
+								float boost) throws Exception {
+		// The boosts are powers of two, so they survive the norm encoding
+		Document doc = new Document();
+		doc.add(new Field("id", id, Store.YES, Index.NOT_ANALYZED));
+		doc.add(new Field("content", "word", Store.NO, Index.ANALYZED));
+		doc.add(Fields.SIGNATURE.create(signature));
+		doc.setBoost(boost);
+		writer.addDocument(doc);
+	}
+
+	private static String getId(IndexSearcher searcher,
+								CollapsingCollector.Hit hit) throws Exception {
+		return searcher.doc(hit.scoreDoc.doc).get("id");
+	}
+
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldCache.StringIndex;
+import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.Scorer;
+
+/**
+ * A collector that counts the hits per parser, per size bucket and per index
+ * while passing all hits on to another collector, so that the facets of a
+ * search are computed in the same pass as the top hits.
+ * <p>
+ * The parser of each document is looked up via ordinals from the field cache,
+ * and the counts are kept per ordinal while a segment is collected. Documents
+ * written by older versions don't have an indexed parser field and are left
+ * out of the parser counts, since loading their stored parser names would
+ * require an extra pass over the segment. They are still counted in the other
+ * facets, and the parser counts become complete once the index is rebuilt.
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+final class FacetCollector extends Collector {
+
+	private final Collector delegate;
+	private final MultiSearcher searcher;
+	private final List<LuceneIndex> indexes;
+
+	private int hitCount = 0;
+	private final Map<String, Integer> parserCounts = new HashMap<String, Integer>();
+	private final int[] sizeBucketCounts = new int[Facets.getSizeBucketCount()];
+	private final int[] indexCounts;
+
+	// State of the current segment
+	@Nullable private StringIndex parsers;
+	@Nullable private int[] parserOrdCounts;
+	@Nullable private long[] sizes;
+	private int indexPos;
+
+	/**
+	 * Creates a collector for searches on the given multi-searcher, whose
+	 * sub-searchers belong to the given indexes in the same order.
+	 */
+	public FacetCollector(	@NotNull Collector delegate,
+							@NotNull MultiSearcher searcher,
+							@NotNull List<LuceneIndex> indexes) {
+		Util.checkNotNull(delegate, searcher, indexes);
+		this.delegate = delegate;
+		this.searcher = searcher;
+		this.indexes = indexes;
+		this.indexCounts = new int[indexes.size()];
+	}
+
+	public void setScorer(Scorer scorer) throws IOException {
+		delegate.setScorer(scorer);
+	}
+
+	public void collect(int doc) throws IOException {
+		delegate.collect(doc);
+		hitCount++;
+		parserOrdCounts[parsers.order[doc]]++;
+		long size = sizes[doc];
+		if (size != NumericValues.MISSING)
+			sizeBucketCounts[Facets.getSizeBucket(size)]++;
+		indexCounts[indexPos]++;
+	}
+
+	public void setNextReader(IndexReader reader, int docBase)
+			throws IOException {
+		delegate.setNextReader(reader, docBase);
+		flushParserCounts();
+		parsers = FieldCache.DEFAULT.getStringIndex(reader, Fields.PARSER.key());
+		parserOrdCounts = new int[parsers.lookup.length];
+		sizes = NumericValues.get(reader, Fields.SIZE.key());
+		indexPos = searcher.subSearcher(docBase);
+	}
+
+	public boolean acceptsDocsOutOfOrder() {
+		return delegate.acceptsDocsOutOfOrder();
+	}
+
+	/**
+	 * Returns the facets of all hits collected so far.
+	 */
+	@NotNull
+	public Facets getFacets() {
+		flushParserCounts();
+		Map<LuceneIndex, Integer> indexCountMap = new HashMap<LuceneIndex, Integer>();
+		for (int i = 0; i < indexCounts.length; i++)
+			if (indexCounts[i] > 0)
+				indexCountMap.put(indexes.get(i), indexCounts[i]);
+		return new Facets(
+			hitCount, new HashMap<String, Integer>(parserCounts),
+			sizeBucketCounts.clone(), indexCountMap);
+	}
+
+	// Adds the counts of the current segment to the parser counts
+	private void flushParserCounts() {
+		if (parsers == null)
+			return;
+		for (int ord = 1; ord < parserOrdCounts.length; ord++) {
+			int count = parserOrdCounts[ord];
+			if (count == 0)
+				continue;
+			String parserName = parsers.lookup[ord];
+			Integer oldCount = parserCounts.get(parserName);
+			parserCounts.put(parserName, oldCount == null ? count : oldCount + count);
+		}
+		Arrays.fill(parserOrdCounts, 0);
+	}
+
+}
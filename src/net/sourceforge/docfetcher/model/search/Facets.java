@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.util.Map;
+
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+/**
+ * The number of hits of a search per parser, per size bucket and per index.
+ * The counts are computed over all hits, including those beyond the maximum
+ * number of returned results.
+ *
+ * @author Tran Nam Quang
+ */
+public final class Facets {
+
+	// Lower bounds of the size buckets in bytes, the first bucket starting at 0
+	private static final long[] sizeBucketBounds = {
+		0, 10 * 1024, 100 * 1024, 1024 * 1024, 10 * 1024 * 1024 };
+
+	/** The total number of hits. */
+	public final int hitCount;
+
+	private final Map<String, Integer> parserCounts;
+	private final int[] sizeBucketCounts;
+	private final Map<LuceneIndex, Integer> indexCounts;
+
+	Facets(	int hitCount,
+			@NotNull Map<String, Integer> parserCounts,
+			@NotNull int[] sizeBucketCounts,
+			@NotNull Map<LuceneIndex, Integer> indexCounts) {
+		Util.checkNotNull(parserCounts, sizeBucketCounts, indexCounts);
+		Util.checkThat(sizeBucketCounts.length == sizeBucketBounds.length);
+		this.hitCount = hitCount;
+		this.parserCounts = parserCounts;
+		this.sizeBucketCounts = sizeBucketCounts;
+		this.indexCounts = indexCounts;
+	}
+
+	/**
+	 * Returns the number of hits that were parsed by the parser with the given
+	 * class name, e.g. "PdfParser". For e-mails, the parser name is
+	 * {@link net.sourceforge.docfetcher.model.Fields#EMAIL_PARSER}.
+	 */
+	public int getParserCount(@NotNull String parserName) {
+		Integer count = parserCounts.get(parserName);
+		return count == null ? 0 : count;
+	}
+
+	public static int getSizeBucketCount() {
+		return sizeBucketBounds.length;
+	}
+
+	/**
+	 * Returns the inclusive lower bound of the size bucket with the given
+	 * index, in bytes.
+	 */
+	public static long getSizeBucketMin(int bucket) {
+		return sizeBucketBounds[bucket];
+	}
+
+	/**
+	 * Returns the exclusive upper bound of the size bucket with the given
+	 * index in bytes, or null if the bucket has no upper bound.
+	 */
+	@Nullable
+	public static Long getSizeBucketMax(int bucket) {
+		if (bucket == sizeBucketBounds.length - 1)
+			return null;
+		return sizeBucketBounds[bucket + 1];
+	}
+
+	// Returns the bucket the given file size in bytes falls into
+	static int getSizeBucket(long size) {
+		for (int i = sizeBucketBounds.length - 1; i > 0; i--)
+			if (size >= sizeBucketBounds[i])
+				return i;
+		return 0;
+	}
+
+	/**
+	 * Returns the number of hits in the size bucket with the given index.
+	 */
+	public int getSizeCount(int bucket) {
+		return sizeBucketCounts[bucket];
+	}
+
+	/**
+	 * Returns the number of hits in the given index.
+	 */
+	public int getIndexCount(@NotNull LuceneIndex index) {
+		Integer count = indexCounts.get(index);
+		return count == null ? 0 : count;
+	}
+
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * Provides the values of numeric fields for sorting and range filtering
+ * inside Lucene, without loading the result documents.
+ * <p>
+ * The values are normally taken from the field cache, which requires the
+ * fields to be indexed as numeric fields. Documents written by older versions
+ * only have stored string values for some of these fields, for example the
+ * last-modified date. For such documents, the stored values are loaded once
+ * per index segment and cached until the segment is closed, so that old
+ * indexes can be sorted and filtered without being rebuilt.
+ * <p>
+ * If several fields are given, the value of a document is the value of the
+ * first field the document has a value for. This allows treating the
+ * last-modified date of files and the send date of e-mails as a single date.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+final class NumericValues {
+
+	/** The value of documents that have none of the requested fields. */
+	public static final long MISSING = Long.MIN_VALUE;
+
+	// Keys are the core cache keys of the segment readers
+	private static final Map<Object, Map<String, long[]>> cache = new WeakHashMap<Object, Map<String, long[]>>(); // guarded by class lock
+
+	private NumericValues() {
+	}
+
+	/**
+	 * Returns the values of the given fields for all documents of the given
+	 * segment reader, indexed by document number. The returned array must not
+	 * be modified.
+	 */
+	@NotNull
+	public static long[] get(	@NotNull IndexReader reader,
+								@NotNull String... fields) throws IOException {
+		Util.checkThat(fields.length > 0);
+		Object readerKey = reader.getCoreCacheKey();
+		String fieldsKey = Util.join(",", (Object[]) fields);
+		synchronized (NumericValues.class) {
+			Map<String, long[]> readerCache = cache.get(readerKey);
+			long[] values = readerCache == null ? null : readerCache.get(fieldsKey);
+			if (values != null)
+				return values;
+		}
+
+		/*
+		 * Computing the values outside the lock may cause the values to be
+		 * computed twice by concurrent searches, which is harmless.
+		 */
+		long[] values = compute(reader, fields);
+		synchronized (NumericValues.class) {
+			Map<String, long[]> readerCache = cache.get(readerKey);
+			if (readerCache == null) {
+				readerCache = new HashMap<String, long[]>();
+				cache.put(readerKey, readerCache);
+			}
+			readerCache.put(fieldsKey, values);
+		}
+		return values;
+	}
+
+	@NotNull
+	private static long[] compute(	@NotNull IndexReader reader,
+									@NotNull String[] fields)
+			throws IOException {
+		int maxDoc = reader.maxDoc();
+		long[] values = new long[maxDoc];
+		Arrays.fill(values, MISSING);
+		boolean[] done = new boolean[maxDoc];
+		for (int i = fields.length - 1; i >= 0; i--) {
+			long[] fieldValues = FieldCache.DEFAULT.getLongs(
+				reader, fields[i], FieldCache.NUMERIC_UTILS_LONG_PARSER, true);
+			Bits docsWithField = FieldCache.DEFAULT.getDocsWithField(
+				reader, fields[i]);
+			for (int doc = 0; doc < maxDoc; doc++) {
+				if (docsWithField.get(doc)) {
+					values[doc] = fieldValues[doc];
+					done[doc] = true;
+				}
+			}
+		}
+
+		// Fall back to the stored values of documents from older versions
+		MapFieldSelector selector = new MapFieldSelector(fields);
+		for (int doc = 0; doc < maxDoc; doc++) {
+			if (done[doc] || reader.isDeleted(doc))
+				continue;
+			Document luceneDoc = reader.document(doc, selector);
+			for (String field : fields) {
+				String value = luceneDoc.get(field);
+				if (value == null)
+					continue;
+				try {
+					values[doc] = Long.parseLong(value);
+					break;
+				}
+				catch (NumberFormatException e) {
+					continue;
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * A comparator source for sorting by the values of the given fields.
+	 * Documents without a value come before all other documents.
+	 */
+	public static final class ComparatorSource extends FieldComparatorSource {
+		private static final long serialVersionUID = 1L;
+
+		private final String[] fields;
+
+		public ComparatorSource(@NotNull String... fields) {
+			Util.checkThat(fields.length > 0);
+			this.fields = fields;
+		}
+
+		public FieldComparator<Long> newComparator(	String fieldname,
+													int numHits,
+													int sortPos,
+													boolean reversed) {
+			return new LongComparator(fields, numHits);
+		}
+	}
+
+	private static final class LongComparator extends FieldComparator<Long> {
+		private final String[] fields;
+		private final long[] slotValues;
+		@Nullable private long[] currentValues;
+		private long bottom;
+
+		private LongComparator(@NotNull String[] fields, int numHits) {
+			this.fields = fields;
+			this.slotValues = new long[numHits];
+		}
+
+		public int compare(int slot1, int slot2) {
+			return compare(slotValues[slot1], slotValues[slot2]);
+		}
+
+		public void setBottom(int slot) {
+			bottom = slotValues[slot];
+		}
+
+		public int compareBottom(int doc) {
+			return compare(bottom, currentValues[doc]);
+		}
+
+		public void copy(int slot, int doc) {
+			slotValues[slot] = currentValues[doc];
+		}
+
+		public void setNextReader(IndexReader reader, int docBase)
+				throws IOException {
+			currentValues = get(reader, fields);
+		}
+
+		public Long value(int slot) {
+			return slotValues[slot];
+		}
+
+		private static int compare(long v1, long v2) {
+			return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+		}
+	}
+
+	/**
+	 * A filter that only accepts documents whose value for the given fields
+	 * lies within the given bounds. A null bound means that there is no bound
+	 * on that side. Both bounds are inclusive. Documents without a value are
+	 * never accepted.
+	 */
+	public static final class RangeFilter extends Filter {
+		private static final long serialVersionUID = 1L;
+
+		private final String[] fields;
+		private final long min;
+		private final long max;
+
+		public RangeFilter(	@Nullable Long min,
+							@Nullable Long max,
+							@NotNull String... fields) {
+			Util.checkThat(fields.length > 0);
+			this.fields = fields;
+			this.min = min == null ? MISSING + 1 : min;
+			this.max = max == null ? Long.MAX_VALUE : max;
+		}
+
+		public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+			long[] values = get(reader, fields);
+			OpenBitSet bits = new OpenBitSet(values.length);
+			if (min > max)
+				return bits;
+			for (int doc = 0; doc < values.length; doc++) {
+				long value = values[doc];
+				if (value >= min && value <= max)
+					bits.fastSet(doc);
+			}
+			return bits;
+		}
+	}
+
+}
@@ -14,6 +14,7 @@ package net.sourceforge.docfetcher.model.search;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.Date;
+import java.util.List;
 
 import net.sourceforge.docfetcher.model.DocumentType;
 import net.sourceforge.docfetcher.model.Fields;
@@ -57,6 +58,14 @@ public final class ResultDocument {
 		public boolean isStopped();
 	}
 	
+	/**
+	 * Determines the pages of a paged document that contain search hits.
+	 */
+	interface HitPageLocator {
+		@Nullable
+		public List<Integer> getHitPages(@NotNull int[] pageOffsets);
+	}
+	
 	private final Document luceneDoc;
 	private final float score;
 	private final Query query;
@@ -72,6 +81,8 @@ public final class ResultDocument {
 	private Path parentPath;
 	private long sizeInKB = -1;
 	private String parserName;
+	@Nullable private HitPageLocator hitPageLocator;
+	private int duplicateCount = 0;
 	
 	public ResultDocument(	@NotNull Document luceneDoc,
 							float score,
@@ -224,6 +235,57 @@ public final class ResultDocument {
 		return parserName.equals(parserClass.getSimpleName());
 	}
 	
+	boolean hasPageOffsets() {
+		return luceneDoc.get(Fields.PAGE_OFFSETS.key()) != null;
+	}
+	
+	// Must be called before the receiver is handed out to clients
+	void setHitPageLocator(@NotNull HitPageLocator hitPageLocator) {
+		this.hitPageLocator = Util.checkNotNull(hitPageLocator);
+	}
+	
+	// Must be called before the receiver is handed out to clients
+	void setDuplicateCount(int duplicateCount) {
+		Util.checkThat(duplicateCount >= 0);
+		this.duplicateCount = duplicateCount;
+	}
+	
+	/**
+	 * Returns the number of other documents with the same content that were
+	 * collapsed into this one, or 0 if duplicates were not collapsed.
+	 */
+	public int getDuplicateCount() {
+		return duplicateCount;
+	}
+	
+	/**
+	 * Returns the zero-based indices of the pages that contain search hits,
+	 * in ascending order, or null if this information is not available. It is
+	 * only available for PDF files that were indexed with page offsets, and
+	 * only as long as the indexes haven't changed since the search. For phrase
+	 * queries, pages containing only some of the words of the phrase are
+	 * included as well.
+	 * <p>
+	 * This operation reads from the index, so it should be run in a non-GUI
+	 * thread.
+	 */
+	@Nullable
+	public List<Integer> getHitPages() {
+		if (hitPageLocator == null)
+			return null;
+		String value = luceneDoc.get(Fields.PAGE_OFFSETS.key());
+		String[] parts = value.split(",");
+		int[] pageOffsets = new int[parts.length];
+		try {
+			for (int i = 0; i < parts.length; i++)
+				pageOffsets[i] = Integer.parseInt(parts[i]);
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+		return hitPageLocator.getHitPages(pageOffsets);
+	}
+	
 	// Should be run in a thread
 	// thrown parse exception has localized error message
 	@NotNull
@@ -278,7 +340,11 @@ public final class ResultDocument {
 				}
 			};
 			if (isPdfFile()) {
-				new PagingPdfParser(fileResource.getFile(), handler).run();
+				// If known, only extract the pages containing search hits
+				List<Integer> hitPages = getHitPages();
+				if (hitPages != null && hitPages.isEmpty())
+					hitPages = null;
+				new PagingPdfParser(fileResource.getFile(), handler, hitPages).run();
 			} else if (isChmFile()) {
 				new PagingChmParser(fileResource.getFile(), handler).run();
 			}
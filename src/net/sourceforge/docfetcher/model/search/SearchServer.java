@@ -0,0 +1,395 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.docfetcher.gui.filter.FilesizeUnit;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.parse.ParseService;
+import net.sourceforge.docfetcher.model.parse.Parser;
+import net.sourceforge.docfetcher.model.search.Searcher.PageCursor;
+import net.sourceforge.docfetcher.model.search.Searcher.ResultPage;
+import net.sourceforge.docfetcher.model.search.WebQuery.SortKey;
+import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
+import net.sourceforge.docfetcher.util.JsonWriter;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
+import net.sourceforge.docfetcher.util.collect.ListMap;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server that answers search requests with JSON, so that the
+ * indexes can be queried from scripts and other tools. The server only binds
+ * to the loopback interface. All requests are served from the searcher of a
+ * single index registry.
+ * <p>
+ * Supported requests:
+ * <ul>
+ * <li><tt>GET /search?q=QUERY</tt>, with the optional parameters
+ * <tt>page</tt> (zero-based page index), <tt>minSize</tt> and
+ * <tt>maxSize</tt> (in bytes), <tt>minDate</tt> and <tt>maxDate</tt> (in
+ * milliseconds since the epoch), <tt>sort</tt> ("date" or "size", sorted in
+ * descending order unless <tt>order=asc</tt> is given), <tt>type</tt> (a
+ * parser name, such as "PdfParser"; may be repeated), <tt>index</tt> (the
+ * root path of an index; may be repeated) and <tt>cursor</tt> (the cursor
+ * returned with the preceding page, for fast retrieval of the requested
+ * page).
+ * <li><tt>GET /indexes</tt>, which lists the root paths of all indexes.
+ * </ul>
+ * Requests are handled by a fixed number of worker threads. If all workers are
+ * busy, up to a certain number of requests are queued; beyond that, the
+ * thread accepting the connections handles requests itself, which stops it
+ * from accepting further connections until the load decreases.
+ * Connections are kept alive between requests.
+ *
+ * @author Tran Nam Quang
+ */
+@ThreadSafe
+public final class SearchServer {
+
+	private final IndexRegistry indexRegistry;
+	private final HttpServer server;
+	private final ThreadPoolExecutor executor;
+
+	public SearchServer(@NotNull IndexRegistry indexRegistry,
+						int port,
+						int threadCount,
+						int queueCapacity) throws IOException {
+		Util.checkNotNull(indexRegistry);
+		Util.checkThat(threadCount >= 1 && queueCapacity >= 1);
+		this.indexRegistry = indexRegistry;
+
+		InetAddress address = InetAddress.getByName(null); // loopback
+		server = HttpServer.create(new InetSocketAddress(address, port), 0);
+		executor = new ThreadPoolExecutor(
+			threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(queueCapacity),
+			new ThreadPoolExecutor.CallerRunsPolicy());
+		server.setExecutor(executor);
+
+		server.createContext("/search", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleSearch(exchange);
+			}
+		});
+		server.createContext("/indexes", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleIndexes(exchange);
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Returns the port the server is listening on. This is useful if the
+	 * server was created with port 0, i.e. on an arbitrary free port.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops accepting new requests, waits up to the given number of seconds
+	 * for running requests to finish, then shuts down the worker threads.
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+	}
+
+	private void handleSearch(@NotNull HttpExchange exchange)
+			throws IOException {
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				sendError(exchange, 405, "Method not allowed");
+				return;
+			}
+			ListMap<String, String> params;
+			try {
+				params = parseQuery(exchange.getRequestURI().getRawQuery());
+			}
+			catch (IllegalArgumentException e) {
+				// Thrown by URLDecoder on malformed escape sequences
+				sendError(exchange, 400, "Malformed query: " + e.getMessage());
+				return;
+			}
+			String queryString = params.getValue("q");
+			if (queryString == null || queryString.trim().isEmpty()) {
+				sendError(exchange, 400, "Missing parameter: q");
+				return;
+			}
+
+			WebQuery webQuery;
+			try {
+				webQuery = createWebQuery(queryString, params);
+			}
+			catch (IllegalArgumentException e) {
+				sendError(exchange, 400, e.getMessage());
+				return;
+			}
+
+			Searcher searcher = indexRegistry.getSearcher();
+			if (searcher == null) {
+				sendError(exchange, 503, "Searcher not available");
+				return;
+			}
+			ResultPage page = searcher.search(webQuery);
+			sendJson(exchange, 200, toJson(queryString, page));
+		}
+		catch (SearchException e) {
+			sendError(exchange, 400, e.getMessage());
+		}
+		catch (CheckedOutOfMemoryError e) {
+			sendError(exchange, 503, "Out of memory");
+		}
+		catch (IOException e) {
+			sendError(exchange, 500, Util.getLowestMessage(e));
+		}
+		catch (RuntimeException e) {
+			Util.printErr(e);
+			sendError(exchange, 500, Util.getLowestMessage(e));
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	private void handleIndexes(@NotNull HttpExchange exchange)
+			throws IOException {
+		try {
+			JsonWriter json = new JsonWriter();
+			json.beginObject().name("indexes").beginArray();
+			for (LuceneIndex index : indexRegistry.getIndexes())
+				json.value(index.getCanonicalRootFile().getPath());
+			json.endArray().endObject();
+			sendJson(exchange, 200, json.toString());
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	@NotNull
+	private WebQuery createWebQuery(@NotNull String queryString,
+									@NotNull ListMap<String, String> params) {
+		WebQuery webQuery = new WebQuery(
+			queryString, toInt(params.getValue("page"), 0));
+		webQuery.setMinimumSize(
+			toLong(params.getValue("minSize")), FilesizeUnit.Byte);
+		webQuery.setMaximumSize(
+			toLong(params.getValue("maxSize")), FilesizeUnit.Byte);
+		webQuery.setMinimumDate(toLong(params.getValue("minDate")));
+		webQuery.setMaximumDate(toLong(params.getValue("maxDate")));
+		
+		String sort = params.getValue("sort");
+		if (sort != null && !sort.isEmpty()) {
+			SortKey sortKey;
+			try {
+				sortKey = SortKey.valueOf(sort.toUpperCase(Locale.ENGLISH));
+			}
+			catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown sort key: " + sort);
+			}
+			boolean ascending = "asc".equals(params.getValue("order"));
+			webQuery.setSortKey(sortKey, !ascending);
+		}
+
+		List<String> typeNames = getValues(params, "type");
+		if (!typeNames.isEmpty()) {
+			List<Parser> parsers = new ArrayList<Parser>(typeNames.size());
+			for (String typeName : typeNames) {
+				Parser parser = findParser(typeName);
+				if (parser == null)
+					throw new IllegalArgumentException("Unknown type: " + typeName);
+				parsers.add(parser);
+			}
+			webQuery.setIncludedTypes(parsers);
+		}
+
+		List<String> rootPaths = getValues(params, "index");
+		if (!rootPaths.isEmpty()) {
+			Collection<LuceneIndex> indexes = new ArrayList<LuceneIndex>(rootPaths.size());
+			for (String rootPath : rootPaths) {
+				LuceneIndex index = findIndex(rootPath);
+				if (index == null)
+					throw new IllegalArgumentException("Unknown index: " + rootPath);
+				indexes.add(index);
+			}
+			webQuery.setIncludedIndexes(indexes);
+		}
+		
+		String encodedCursor = params.getValue("cursor");
+		if (encodedCursor != null && !encodedCursor.isEmpty()) {
+			PageCursor cursor = PageCursor.decode(encodedCursor);
+			if (cursor == null)
+				throw new IllegalArgumentException("Invalid cursor: " + encodedCursor);
+			webQuery.setCursor(cursor);
+		}
+		return webQuery;
+	}
+
+	@Nullable
+	private static Parser findParser(@NotNull String name) {
+		for (Parser parser : ParseService.getParsers())
+			if (parser.getClass().getSimpleName().equals(name))
+				return parser;
+		return null;
+	}
+
+	@Nullable
+	private LuceneIndex findIndex(@NotNull String rootPath) {
+		for (LuceneIndex index : indexRegistry.getIndexes())
+			if (index.getCanonicalRootFile().equals(Util.getCanonicalFile(rootPath)))
+				return index;
+		return null;
+	}
+
+	@NotNull
+	private static String toJson(@NotNull String queryString,
+								@NotNull ResultPage page) {
+		JsonWriter json = new JsonWriter();
+		json.beginObject();
+		json.name("query").value(queryString);
+		json.name("pageIndex").value(page.pageIndex);
+		json.name("pageCount").value(page.pageCount);
+		json.name("hitCount").value(page.hitCount);
+		json.name("cursor").value(page.cursor == null ? null : page.cursor.encode());
+		json.name("results").beginArray();
+		for (ResultDocument doc : page.resultDocuments) {
+			json.beginObject();
+			json.name("title").value(doc.getTitle());
+			json.name("path").value(doc.getPath().getPath());
+			json.name("type").value(doc.getType());
+			json.name("parser").value(doc.getParserName());
+			json.name("score").value(doc.getScore());
+			json.name("sizeKB").value(doc.getSizeInKB());
+			json.name("isEmail").value(doc.isEmail());
+			if (doc.isEmail()) {
+				json.name("sender").value(doc.getSender());
+				if (doc.getDate() != null)
+					json.name("date").value(doc.getDate().getTime());
+			}
+			else {
+				json.name("filename").value(doc.getFilename());
+				json.name("lastModified").value(doc.getLastModified().getTime());
+				List<Integer> hitPages = doc.getHitPages();
+				if (hitPages != null) {
+					json.name("hitPages").beginArray();
+					for (int hitPage : hitPages)
+						json.value(hitPage + 1); // one-based
+					json.endArray();
+				}
+			}
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+		return json.toString();
+	}
+
+	private static void sendError(	@NotNull HttpExchange exchange,
+									int status,
+									@Nullable String message)
+			throws IOException {
+		JsonWriter json = new JsonWriter();
+		json.beginObject().name("error").value(message).endObject();
+		sendJson(exchange, status, json.toString());
+	}
+
+	private static void sendJson(	@NotNull HttpExchange exchange,
+									int status,
+									@NotNull String json) throws IOException {
+		byte[] bytes = json.getBytes(Charsets.UTF_8);
+		exchange.getResponseHeaders().set(
+			"Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	@NotNull
+	private static ListMap<String, String> parseQuery(@Nullable String rawQuery)
+			throws UnsupportedEncodingException {
+		ListMap<String, String> params = ListMap.create();
+		if (rawQuery == null)
+			return params;
+		for (String pair : rawQuery.split("&")) {
+			if (pair.isEmpty())
+				continue;
+			int i = pair.indexOf('=');
+			String key = i < 0 ? pair : pair.substring(0, i);
+			String value = i < 0 ? "" : pair.substring(i + 1);
+			params.add(
+				URLDecoder.decode(key, "UTF-8"),
+				URLDecoder.decode(value, "UTF-8"));
+		}
+		return params;
+	}
+
+	@NotNull
+	private static List<String> getValues(	@NotNull ListMap<String, String> params,
+											@NotNull String key) {
+		List<String> values = new ArrayList<String>(2);
+		for (ListMap.Entry<String, String> entry : params)
+			if (entry.getKey().equals(key))
+				values.add(entry.getValue());
+		return values;
+	}
+
+	private static int toInt(@Nullable String value, int defaultValue) {
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + value);
+		}
+	}
+
+	@Nullable
+	private static Long toLong(@Nullable String value) {
+		if (value == null || value.isEmpty())
+			return null;
+		try {
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: " + value);
+		}
+	}
+
+}
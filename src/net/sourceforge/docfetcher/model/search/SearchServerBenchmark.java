@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Load test for a running {@link SearchServer}. Sends search requests from a
+ * number of client threads for a fixed amount of time, then prints the
+ * throughput in queries per second and the latency distribution.
+ * <p>
+ * Usage: <tt>SearchServerBenchmark URL [THREADS] [SECONDS] [QUERY ...]</tt>,
+ * where URL is the base URL of the server, e.g. "http://localhost:8085". The
+ * given queries are sent in a round-robin fashion.
+ *
+ * @author Tran Nam Quang
+ */
+public final class SearchServerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			Util.printErr("Usage: SearchServerBenchmark URL [THREADS] [SECONDS] [QUERY ...]");
+			System.exit(1);
+		}
+		String baseUrl = args[0];
+		int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		List<String> queries = args.length > 3
+			? Arrays.asList(args).subList(3, args.length)
+			: Arrays.asList("test", "docfetcher", "a*", "\"lorem ipsum\"");
+
+		List<URL> urls = new ArrayList<URL>(queries.size());
+		for (String query : queries)
+			urls.add(new URL(baseUrl + "/search?q=" + URLEncoder.encode(query, "UTF-8")));
+
+		SearchServerBenchmark benchmark = new SearchServerBenchmark(urls);
+		benchmark.run(threadCount, seconds * 1000L);
+	}
+
+	private final List<URL> urls;
+	private final List<Long> latencies = new ArrayList<Long>(); // guarded by 'this' lock
+	private final AtomicInteger failures = new AtomicInteger();
+
+	private SearchServerBenchmark(@NotNull List<URL> urls) {
+		this.urls = urls;
+	}
+
+	private void run(int threadCount, final long durationMillis)
+			throws InterruptedException {
+		// Warm up the server and the JIT before measuring
+		for (URL url : urls)
+			sendRequest(url);
+		synchronized (this) {
+			latencies.clear();
+		}
+		failures.set(0);
+
+		final long end = System.currentTimeMillis() + durationMillis;
+		final CountDownLatch done = new CountDownLatch(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			final int offset = i;
+			new Thread() {
+				public void run() {
+					int n = offset;
+					while (System.currentTimeMillis() < end) {
+						URL url = urls.get(n++ % urls.size());
+						long start = System.nanoTime();
+						if (sendRequest(url))
+							addLatency(System.nanoTime() - start);
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		done.await();
+		printResults(threadCount, durationMillis);
+	}
+
+	// Returns success
+	private boolean sendRequest(@NotNull URL url) {
+		HttpURLConnection connection = null;
+		InputStream in = null;
+		try {
+			connection = (HttpURLConnection) url.openConnection();
+			int status = connection.getResponseCode();
+			in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+
+			/*
+			 * The response body must be read completely, otherwise the
+			 * connection can't be reused for the next request.
+			 */
+			if (in != null)
+				ByteStreams.toByteArray(in);
+			if (status == 200)
+				return true;
+		}
+		catch (IOException e) {
+			// Counted as failure below
+		}
+		finally {
+			Closeables.closeQuietly(in);
+		}
+		failures.incrementAndGet();
+		return false;
+	}
+
+	private synchronized void addLatency(long nanos) {
+		latencies.add(nanos);
+	}
+
+	private synchronized void printResults(int threadCount, long durationMillis) {
+		Collections.sort(latencies);
+		int count = latencies.size();
+		Util.println(String.format("Threads:       %d", threadCount));
+		Util.println(String.format("Requests:      %d (%d failed)", count, failures.get()));
+		Util.println(String.format("Queries/sec:   %.1f", count * 1000.0 / durationMillis));
+		if (count == 0)
+			return;
+		Util.println(String.format("Latency p50:   %.2f ms", getPercentile(50)));
+		Util.println(String.format("Latency p95:   %.2f ms", getPercentile(95)));
+		Util.println(String.format("Latency p99:   %.2f ms", getPercentile(99)));
+		Util.println(String.format("Latency p99.9: %.2f ms", getPercentile(99.9)));
+		Util.println(String.format("Latency max:   %.2f ms", latencies.get(count - 1) / 1000000.0));
+	}
+
+	// Returns milliseconds; must be called after sorting the latencies
+	private double getPercentile(double percentile) {
+		int index = (int) Math.ceil(latencies.size() * percentile / 100) - 1;
+		index = Math.max(0, Math.min(index, latencies.size() - 1));
+		return latencies.get(index) / 1000000.0;
+	}
+
+}
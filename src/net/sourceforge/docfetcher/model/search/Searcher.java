@@ -15,9 +15,15 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Lock;
@@ -36,6 +42,7 @@ import net.sourceforge.docfetcher.model.index.IndexingConfig;
 import net.sourceforge.docfetcher.model.index.file.FileFactory;
 import net.sourceforge.docfetcher.model.index.outlook.OutlookMailFactory;
 import net.sourceforge.docfetcher.model.parse.Parser;
+import net.sourceforge.docfetcher.model.search.ResultDocument.HitPageLocator;
 import net.sourceforge.docfetcher.util.CheckedOutOfMemoryError;
 import net.sourceforge.docfetcher.util.Event;
 import net.sourceforge.docfetcher.util.Util;
@@ -45,14 +52,20 @@ import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
 import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.VisibleForPackageGroup;
-import net.sourceforge.docfetcher.util.collect.AlphanumComparator;
 import net.sourceforge.docfetcher.util.collect.LazyList;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermFreqVector;
+import org.apache.lucene.index.TermPositionVector;
+import org.apache.lucene.index.TermVectorOffsetInfo;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.ChainedFilter;
+import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
@@ -64,9 +77,15 @@ import org.apache.lucene.search.PrefixFilter;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermsFilter;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.Weight;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
 import com.google.common.io.Closeables;
 
 /**
@@ -99,14 +118,128 @@ public final class Searcher {
 		/** The total number of result documents across all pages. */
 		public final int hitCount;
 		
+		/**
+		 * A cursor for retrieving the next page, or null if this is the last
+		 * page. See {@link WebQuery#setCursor(PageCursor)}.
+		 */
+		@Nullable
+		public final PageCursor cursor;
+		
 		private ResultPage(	@NotNull List<ResultDocument> resultDocuments,
 							int pageIndex,
 							int pageCount,
-							int hitCount) {
+							int hitCount,
+							@Nullable PageCursor cursor) {
 			this.resultDocuments = Util.checkNotNull(resultDocuments);
 			this.pageIndex = pageIndex;
 			this.pageCount = pageCount;
 			this.hitCount = hitCount;
+			this.cursor = cursor;
+		}
+	}
+	
+	public static final class SearchResults {
+		/** The result documents, sorted by descending score. */
+		@ImmutableCopy
+		public final List<ResultDocument> resultDocuments;
+		
+		/** The facets of all hits, or null if no facets were requested. */
+		@Nullable
+		public final Facets facets;
+		
+		private SearchResults(	@NotNull List<ResultDocument> resultDocuments,
+								@Nullable Facets facets) {
+			this.resultDocuments = Util.checkNotNull(resultDocuments);
+			this.facets = facets;
+		}
+	}
+	
+	/**
+	 * The position after the last result of a result page. With a cursor, the
+	 * next page can be retrieved by collecting only the results that come
+	 * after the cursor, rather than collecting and sorting the results of all
+	 * preceding pages again.
+	 * <p>
+	 * The cursor contains the score and document number of the last returned
+	 * result in each index. It becomes invalid when the set of searched
+	 * indexes changes or when the indexes are updated, in which case the
+	 * searcher silently falls back to collecting all preceding results.
+	 */
+	public static final class PageCursor {
+		private final int generation;
+		private final int queryHash;
+		private final int pageIndex;
+		private final int hitCount;
+		
+		/*
+		 * One entry per Lucene sub-searcher; the document numbers are relative
+		 * to the sub-searcher. An entry is null if no result of that
+		 * sub-searcher was returned so far.
+		 */
+		private final ScoreDoc[] lastHits;
+		
+		private PageCursor(	int generation,
+							int queryHash,
+							int pageIndex,
+							int hitCount,
+							@NotNull ScoreDoc[] lastHits) {
+			this.generation = generation;
+			this.queryHash = queryHash;
+			this.pageIndex = pageIndex;
+			this.hitCount = hitCount;
+			this.lastHits = lastHits;
+		}
+		
+		/**
+		 * Returns a string representation of the receiver that contains only
+		 * URL-safe characters and can be turned back into a cursor with
+		 * {@link #decode(String)}.
+		 */
+		@NotNull
+		public String encode() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(generation).append('_').append(queryHash);
+			sb.append('_').append(pageIndex).append('_').append(hitCount);
+			for (ScoreDoc hit : lastHits) {
+				sb.append('_');
+				if (hit == null)
+					sb.append('x');
+				else
+					sb.append(hit.doc).append('.').append(Float.floatToIntBits(hit.score));
+			}
+			return sb.toString();
+		}
+		
+		/**
+		 * Reconstructs a cursor from the output of {@link #encode()}. Returns
+		 * null if the given string is not a valid cursor.
+		 */
+		@Nullable
+		public static PageCursor decode(@NotNull String encoded) {
+			String[] parts = encoded.split("_", -1);
+			if (parts.length < 4)
+				return null;
+			try {
+				ScoreDoc[] lastHits = new ScoreDoc[parts.length - 4];
+				for (int i = 0; i < lastHits.length; i++) {
+					String part = parts[i + 4];
+					if (part.equals("x"))
+						continue;
+					int j = part.indexOf('.');
+					if (j < 0)
+						return null;
+					int doc = Integer.parseInt(part.substring(0, j));
+					int scoreBits = Integer.parseInt(part.substring(j + 1));
+					lastHits[i] = new ScoreDoc(doc, Float.intBitsToFloat(scoreBits));
+				}
+				return new PageCursor(
+					Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+					Integer.parseInt(parts[2]), Integer.parseInt(parts[3]),
+					lastHits);
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
 		}
 	}
 	
@@ -123,6 +256,12 @@ public final class Searcher {
 	
 	@NotNull private MultiSearcher luceneSearcher; // guarded by read-write lock
 	@NotNull private List<LuceneIndex> indexes; // guarded by read-write lock
+	@NotNull private Map<LuceneIndex, IndexReader> readers = Maps.newHashMap(); // guarded by read-write lock
+	/*
+	 * Invalidates page cursors. It starts at a random value, so that cursors
+	 * from before a restart don't match the current indexes.
+	 */
+	private int generation = new Random().nextInt(); // guarded by read-write lock
 	@Nullable private volatile IOException ioException;
 	
 	private final Lock readLock;
@@ -227,12 +366,20 @@ public final class Searcher {
 	private List<CorruptedIndex> setLuceneSearcher(@NotNull List<LuceneIndex> indexes)
 			throws IOException {
 		this.indexes = Util.checkNotNull(indexes);
+		generation++;
+		Map<LuceneIndex, IndexReader> oldReaders = readers;
+		readers = Maps.newHashMap();
         Searchable[] searchables = new Searchable[indexes.size()];
         LazyList<CorruptedIndex> corrupted = new LazyList<CorruptedIndex>();
 		for (int i = 0; i < indexes.size(); i++) {
 			LuceneIndex index = indexes.get(i);
             try {
-                searchables[i] = new IndexSearcher(index.getLuceneDir());
+                IndexReader reader = openReader(index, oldReaders.remove(index));
+                readers.put(index, reader);
+                IndexSearcher indexSearcher = new IndexSearcher(reader);
+                // Compute scores when sorting by field, for the result documents
+                indexSearcher.setDefaultFieldSortScoring(true, false);
+                searchables[i] = indexSearcher;
             }
             catch (IOException e) {
             	Util.printErr(e);
@@ -240,15 +387,75 @@ public final class Searcher {
                 corrupted.add(new CorruptedIndex(index, e));
             }
         }
+		
+		// Close the readers of removed indexes
+		for (IndexReader reader : oldReaders.values())
+			Closeables.closeQuietly(reader);
+		
         luceneSearcher = new MultiSearcher(searchables);
         return corrupted;
 	}
 	
+	/**
+	 * Returns a reader for the given index. If a reader of the previous Lucene
+	 * searcher is given, it is reused if the index hasn't changed, and reopened
+	 * otherwise. This way, replacing the Lucene searcher after an index was
+	 * added, updated or reloaded doesn't reopen all other indexes, and the
+	 * readers of unchanged segments keep their field caches.
+	 */
+	@NotNull
+	private static IndexReader openReader(	@NotNull LuceneIndex index,
+											@Nullable IndexReader oldReader)
+			throws IOException {
+		if (oldReader != null) {
+			try {
+				IndexReader newReader = IndexReader.openIfChanged(oldReader);
+				if (newReader == null)
+					return oldReader;
+				Closeables.closeQuietly(oldReader);
+				return newReader;
+			}
+			catch (IOException e) {
+				// Fall back to opening a new reader, e.g. after a rebuild
+				Closeables.closeQuietly(oldReader);
+			}
+		}
+		return IndexReader.open(index.getLuceneDir());
+	}
+	
 	@ImmutableCopy
 	@NotNull
 	@ThreadSafe
 	public List<ResultDocument> search(@NotNull String queryString)
 			throws SearchException, CheckedOutOfMemoryError {
+		return search(queryString, false, false).resultDocuments;
+	}
+	
+	/**
+	 * Same as {@link #search(String)}, but additionally counts the hits per
+	 * parser, per size bucket and per index. The counts are computed while the
+	 * hits are collected and cover all hits, not just the returned ones.
+	 * <p>
+	 * If <tt>collapseDuplicates</tt> is true, hits with identical content are
+	 * grouped while they are collected, and only the highest-scoring hit of
+	 * each group is returned, with the number of the other hits available via
+	 * {@link ResultDocument#getDuplicateCount()}. The facet counts still
+	 * include all hits.
+	 */
+	@NotNull
+	@ThreadSafe
+	public SearchResults searchWithFacets(	@NotNull String queryString,
+											boolean collapseDuplicates)
+			throws SearchException, CheckedOutOfMemoryError {
+		return search(queryString, true, collapseDuplicates);
+	}
+	
+	@NotNull
+	@ThreadSafe
+	private SearchResults search(	@NotNull String queryString,
+									boolean withFacets,
+									boolean collapseDuplicates)
+			throws SearchException, CheckedOutOfMemoryError {
 		/*
 		 * Note: For the desktop interface, we'll always search in all available
 		 * indexes, even those which are unchecked on the filter panel. This
@@ -279,20 +486,57 @@ public final class Searcher {
 			checkIndexesExist();
 			
 			// Perform search; might throw OutOfMemoryError
-			ScoreDoc[] scoreDocs = luceneSearcher.search(query, MAX_RESULTS).scoreDocs;
+			ScoreDoc[] scoreDocs;
+			int[] duplicateCounts = null;
+			Facets facets = null;
+			if (withFacets || collapseDuplicates) {
+				Collector collector;
+				TopScoreDocCollector topCollector = null;
+				CollapsingCollector collapsingCollector = null;
+				if (collapseDuplicates)
+					collector = collapsingCollector = new CollapsingCollector(MAX_RESULTS);
+				else
+					collector = topCollector = TopScoreDocCollector.create(MAX_RESULTS, false);
+				FacetCollector facetCollector = null;
+				if (withFacets)
+					collector = facetCollector = new FacetCollector(
+						collector, luceneSearcher, indexes);
+				luceneSearcher.search(query, collector);
+				
+				if (collapsingCollector != null) {
+					List<CollapsingCollector.Hit> hits = collapsingCollector.getTopHits();
+					scoreDocs = new ScoreDoc[hits.size()];
+					duplicateCounts = new int[hits.size()];
+					for (int i = 0; i < scoreDocs.length; i++) {
+						scoreDocs[i] = hits.get(i).scoreDoc;
+						duplicateCounts[i] = hits.get(i).duplicateCount;
+					}
+				}
+				else {
+					scoreDocs = topCollector.topDocs().scoreDocs;
+				}
+				if (facetCollector != null)
+					facets = facetCollector.getFacets();
+			}
+			else {
+				scoreDocs = luceneSearcher.search(query, MAX_RESULTS).scoreDocs;
+			}
 
 			// Create result documents
 			ResultDocument[] results = new ResultDocument[scoreDocs.length];
 			for (int i = 0; i < scoreDocs.length; i++) {
 				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
+				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(scoreDocs[i].doc));
 				IndexingConfig config = index.getConfig();
 				results[i] = new ResultDocument(
 					doc, score, query, isPhraseQuery, config, fileFactory,
 					outlookMailFactory);
+				setHitPageLocator(results[i], scoreDocs[i].doc, query);
+				if (duplicateCounts != null)
+					results[i].setDuplicateCount(duplicateCounts[i]);
 			}
-			return Arrays.asList(results);
+			return new SearchResults(Arrays.asList(results), facets);
 		}
 		catch (IllegalArgumentException e) {
 			throw wrapEmptyIndexException(e);
@@ -325,50 +569,87 @@ public final class Searcher {
 			throw e;
 	}
 	
+	/**
+	 * Returns the documents directly inside the folders with the given UID
+	 * prefixes, sorted by UID, i.e. by path. At most {@link #MAX_RESULTS}
+	 * documents are returned. The UID prefix of a folder can be obtained via
+	 * {@link #getUidPrefix(LuceneIndex, Path)}.
+	 * 
+	 * @see #list(Collection, int)
+	 */
 	@ImmutableCopy
 	@NotNull
 	@ThreadSafe
-	public List<ResultDocument> list(@NotNull Set<String> uids)
+	public List<ResultDocument> list(@NotNull Collection<String> uidPrefixes)
 			throws SearchException, CheckedOutOfMemoryError {
-		// Construct a filter that only matches documents with the given UIDs
-		TermsFilter uidFilter = new TermsFilter();
-		String fieldName = Fields.UID.key();
-		for (String uid : uids)
-			uidFilter.addTerm(new Term(fieldName, uid));
-		
+		return list(uidPrefixes, 0, MAX_RESULTS, 0).resultDocuments;
+	}
+	
+	/**
+	 * Returns the requested page of the documents directly inside the folders
+	 * with the given UID prefixes, sorted by UID, i.e. by path. The returned
+	 * page is empty if the page index is beyond the last page, and it never
+	 * carries a cursor.
+	 * <p>
+	 * Instead of running a query, this method walks the sorted UID terms of
+	 * the indexes, starting at the given prefixes. The subtrees of subfolders
+	 * are skipped without enumerating them, and the stored fields are only
+	 * loaded for the documents on the requested page.
+	 */
+	@NotNull
+	@ThreadSafe
+	public ResultPage list(@NotNull Collection<String> uidPrefixes, int pageIndex)
+			throws SearchException, CheckedOutOfMemoryError {
+		Util.checkThat(pageIndex >= 0);
+		return list(uidPrefixes, pageIndex * PAGE_SIZE, PAGE_SIZE, pageIndex);
+	}
+	
+	@NotNull
+	@ThreadSafe
+	private ResultPage list(@NotNull Collection<String> uidPrefixes,
+							int start,
+							int count,
+							int pageIndex)
+			throws SearchException, CheckedOutOfMemoryError {
+		Util.checkNotNull(uidPrefixes);
+		Set<String> prefixes = new HashSet<String>(uidPrefixes);
 		Query query = new MatchAllDocsQuery();
 		
 		readLock.lock();
 		try {
 			checkIndexesExist();
 			
-			// Perform search; might throw OutOfMemoryError
-			ScoreDoc[] scoreDocs = luceneSearcher.search(query, uidFilter, MAX_RESULTS).scoreDocs;
-			
-			// Create result documents
-			ResultDocument[] results = new ResultDocument[scoreDocs.length];
-			for (int i = 0; i < results.length; i++) {
-				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
-				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
-				IndexingConfig config = index.getConfig();
-				results[i] = new ResultDocument(
-					doc, score, query, true, config, fileFactory,
-					outlookMailFactory);
+			/*
+			 * Each pair of sub-searcher and prefix yields its hits in UID
+			 * order, so the first hits of the merged list are among the first
+			 * hits of each pair.
+			 */
+			Searchable[] searchables = luceneSearcher.getSearchables();
+			List<ListHit> hits = new ArrayList<ListHit>();
+			int hitCount = 0;
+			for (int i = 0; i < searchables.length; i++) {
+				if (!(searchables[i] instanceof IndexSearcher))
+					continue;
+				IndexReader reader = ((IndexSearcher) searchables[i]).getIndexReader();
+				for (String prefix : prefixes)
+					hitCount += collectListHits(reader, i, prefix, start + count, hits);
 			}
+			Collections.sort(hits);
 			
-			// Sort results by title
-			Arrays.sort(results, new Comparator<ResultDocument>() {
-				public int compare(ResultDocument o1, ResultDocument o2) {
-					return AlphanumComparator.ignoreCaseInstance.compare(
-						o1.getTitle(), o2.getTitle());
-				}
-			});
+			// Create result documents for the requested range only
+			int end = Math.min(start + count, hits.size());
+			List<ResultDocument> results = new ArrayList<ResultDocument>(Math.max(0, end - start));
+			for (int i = start; i < end; i++) {
+				ListHit hit = hits.get(i);
+				Document doc = searchables[hit.subSearcher].doc(hit.doc);
+				IndexingConfig config = indexes.get(hit.subSearcher).getConfig();
+				results.add(new ResultDocument(
+					doc, 1, query, true, config, fileFactory,
+					outlookMailFactory));
+			}
 			
-			return Arrays.asList(results);
-		}
-		catch (IllegalArgumentException e) {
-			throw wrapEmptyIndexException(e);
+			int pageCount = (int) Math.ceil((float) hitCount / PAGE_SIZE);
+			return new ResultPage(results, pageIndex, pageCount, hitCount, null);
 		}
 		catch (IOException e) {
 			throw new SearchException(e.getMessage()); // TODO i18n
@@ -381,10 +662,83 @@ public final class Searcher {
 		}
 	}
 	
+	/**
+	 * Adds the first hits of the documents directly below the given UID prefix
+	 * to the given list, up to the given maximum, and returns the total number
+	 * of such documents.
+	 */
+	@NotThreadSafe
+	private static int collectListHits(	@NotNull IndexReader reader,
+										int subSearcher,
+										@NotNull String prefix,
+										int maxHits,
+										@NotNull List<ListHit> hits)
+			throws IOException {
+		String fieldName = Fields.UID.key();
+		int hitCount = 0;
+		int added = 0;
+		TermEnum termEnum = reader.terms(new Term(fieldName, prefix));
+		TermDocs termDocs = reader.termDocs();
+		try {
+			while (true) {
+				Term term = termEnum.term();
+				if (term == null || !term.field().equals(fieldName))
+					break;
+				String uid = term.text();
+				if (!uid.startsWith(prefix))
+					break;
+				
+				/*
+				 * The UID belongs to a subfolder: Skip all UIDs of the
+				 * subfolder by seeking to the first term after them. The
+				 * character '0' directly follows the path separator '/'.
+				 */
+				int sepIndex = uid.indexOf('/', prefix.length());
+				if (sepIndex >= 0) {
+					termEnum.close();
+					String next = uid.substring(0, sepIndex) + '0';
+					termEnum = reader.terms(new Term(fieldName, next));
+					continue;
+				}
+				
+				// Terms of deleted documents remain until the index is merged
+				termDocs.seek(termEnum);
+				if (termDocs.next()) {
+					hitCount++;
+					if (added < maxHits) {
+						hits.add(new ListHit(uid, subSearcher, termDocs.doc()));
+						added++;
+					}
+				}
+				if (!termEnum.next())
+					break;
+			}
+		}
+		finally {
+			Closeables.closeQuietly(termDocs);
+			Closeables.closeQuietly(termEnum);
+		}
+		return hitCount;
+	}
+	
+	/**
+	 * Returns the prefix shared by the UIDs of all documents below the folder
+	 * with the given path in the given index.
+	 */
+	@NotNull
+	public static String getUidPrefix(	@NotNull LuceneIndex index,
+										@NotNull Path folderPath) {
+		return index.getDocumentType().createUniqueId(folderPath) + "/";
+	}
+	
 	/**
 	 * For the given query, returns the requested page of results. This method
 	 * should not be called anymore after {@link #shutdown()} has been called,
 	 * otherwise an IOException will be thrown.
+	 * <p>
+	 * If the query carries the cursor of the preceding page, only the results
+	 * of the requested page are collected, so that the cost of retrieving a
+	 * page does not grow with the page index.
 	 */
 	@NotNull
 	@ThreadSafe
@@ -404,6 +758,13 @@ public final class Searcher {
 				true));
 		}
 		
+		// Add date filter to filter chain
+		if (webQuery.minDate != null || webQuery.maxDate != null) {
+			filters.add(new NumericValues.RangeFilter(
+				webQuery.minDate, webQuery.maxDate, Fields.LAST_MODIFIED.key(),
+				Fields.DATE.key()));
+		}
+		
 		// Add type filter to filter chain
 		if (webQuery.parsers != null) {
 			TermsFilter typeFilter = new TermsFilter();
@@ -422,8 +783,7 @@ public final class Searcher {
 			int i = 0;
 			for (LuceneIndex index : webQuery.indexes) {
 				Path path = index.getRootFolder().getPath();
-				String uid = index.getDocumentType().createUniqueId(path);
-				Term prefix = new Term(Fields.UID.key(), uid + "/");
+				Term prefix = new Term(Fields.UID.key(), getUidPrefix(index, path));
 				indexFilters[i++] = new PrefixFilter(prefix);
 			}
 			filters.add(new ChainedFilter(indexFilters, ChainedFilter.OR));
@@ -437,14 +797,31 @@ public final class Searcher {
 		QueryWrapper queryWrapper = createQuery(webQuery.query);
 		Query query = queryWrapper.query;
 		boolean isPhraseQuery = queryWrapper.isPhraseQuery;
+		int queryHash = getQueryHash(query, webQuery);
+		Sort sort = createSort(webQuery);
 		
 		readLock.lock();
 		try {
 			checkIndexesExist();
 			
-			// Perform search; might throw OutOfMemoryError
+			PageCursor cursor = webQuery.cursor;
+			if (cursor != null
+					&& sort == null
+					&& cursor.generation == generation
+					&& cursor.lastHits.length == luceneSearcher.getSearchables().length
+					&& cursor.queryHash == queryHash
+					&& cursor.pageIndex + 1 == webQuery.pageIndex
+					&& webQuery.pageIndex * PAGE_SIZE < cursor.hitCount)
+				return searchAfter(query, isPhraseQuery, filter, cursor);
+			
+			/*
+			 * Perform search; might throw OutOfMemoryError. When sorting by
+			 * field, only the top hits are collected, as when sorting by score.
+			 */
 			int maxResults = (webQuery.pageIndex + 1) * PAGE_SIZE;
-			TopDocs topDocs = luceneSearcher.search(query, filter, maxResults);
+			TopDocs topDocs = sort == null
+				? luceneSearcher.search(query, filter, maxResults)
+				: luceneSearcher.search(query, filter, maxResults, sort);
 			ScoreDoc[] scoreDocs = topDocs.scoreDocs;
 			
 			// Compute start and end indices of returned page
@@ -463,19 +840,34 @@ public final class Searcher {
 			for (int i = start; i < end; i++) {
 				Document doc = luceneSearcher.doc(scoreDocs[i].doc);
 				float score = scoreDocs[i].score;
-				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(i));
+				LuceneIndex index = indexes.get(luceneSearcher.subSearcher(scoreDocs[i].doc));
 				IndexingConfig config = index.getConfig();
 				results[i - start] = new ResultDocument(
 					doc, score, query, isPhraseQuery, config, fileFactory,
 					outlookMailFactory);
+				setHitPageLocator(results[i - start], scoreDocs[i].doc, query);
 			}
 			
 			int hitCount = topDocs.totalHits;
 			int newPageIndex = start / PAGE_SIZE;
 			int pageCount = (int) Math.ceil((float) hitCount / PAGE_SIZE);
 			
+			// Create cursor from the last hit of each sub-searcher
+			PageCursor nextCursor = null;
+			if (sort == null && newPageIndex < pageCount - 1) {
+				ScoreDoc[] lastHits = new ScoreDoc[luceneSearcher.getSearchables().length];
+				for (int i = 0; i < end; i++) {
+					int doc = scoreDocs[i].doc;
+					lastHits[luceneSearcher.subSearcher(doc)] = new ScoreDoc(
+						luceneSearcher.subDoc(doc), scoreDocs[i].score);
+				}
+				nextCursor = new PageCursor(
+					generation, queryHash, newPageIndex, hitCount, lastHits);
+			}
+			
 			return new ResultPage(
-				Arrays.asList(results), newPageIndex, pageCount, hitCount);
+				Arrays.asList(results), newPageIndex, pageCount, hitCount,
+				nextCursor);
 		}
 		catch (IllegalArgumentException e) {
 			throw wrapEmptyIndexException(e);
@@ -488,6 +880,226 @@ public final class Searcher {
 		}
 	}
 	
+	/**
+	 * Returns the page following the given cursor. Each sub-searcher only
+	 * collects the hits after its last returned hit, and the hits of all
+	 * sub-searchers are then merged in the same order as the
+	 * {@link MultiSearcher} would merge them.
+	 */
+	@NotNull
+	@NotThreadSafe
+	private ResultPage searchAfter(	@NotNull Query query,
+									boolean isPhraseQuery,
+									@Nullable Filter filter,
+									@NotNull PageCursor cursor)
+			throws IOException {
+		/*
+		 * Use the weight of the multi-searcher rather than letting each
+		 * sub-searcher create its own, so that the scores are computed with
+		 * the document frequencies of all indexes combined and are therefore
+		 * identical to the scores on the preceding pages.
+		 */
+		Searchable[] searchables = luceneSearcher.getSearchables();
+		Weight weight = luceneSearcher.createNormalizedWeight(query);
+		boolean inOrder = !weight.scoresDocsOutOfOrder();
+		
+		List<SubHit> hits = new ArrayList<SubHit>();
+		int hitCount = 0;
+		for (int i = 0; i < searchables.length; i++) {
+			TopScoreDocCollector collector = TopScoreDocCollector.create(
+				PAGE_SIZE, cursor.lastHits[i], inOrder);
+			searchables[i].search(weight, filter, collector);
+			TopDocs topDocs = collector.topDocs();
+			hitCount += topDocs.totalHits;
+			for (ScoreDoc scoreDoc : topDocs.scoreDocs)
+				hits.add(new SubHit(i, scoreDoc));
+		}
+		Collections.sort(hits);
+		
+		int end = Math.min(PAGE_SIZE, hits.size());
+		ResultDocument[] results = new ResultDocument[end];
+		ScoreDoc[] lastHits = cursor.lastHits.clone();
+		for (int i = 0; i < end; i++) {
+			SubHit hit = hits.get(i);
+			Document doc = searchables[hit.subSearcher].doc(hit.scoreDoc.doc);
+			IndexingConfig config = indexes.get(hit.subSearcher).getConfig();
+			results[i] = new ResultDocument(
+				doc, hit.scoreDoc.score, query, isPhraseQuery, config,
+				fileFactory, outlookMailFactory);
+			setHitPageLocator(
+				results[i], hit.subSearcher, hit.scoreDoc.doc, query);
+			lastHits[hit.subSearcher] = hit.scoreDoc;
+		}
+		
+		int pageIndex = cursor.pageIndex + 1;
+		int pageCount = (int) Math.ceil((float) hitCount / PAGE_SIZE);
+		PageCursor nextCursor = null;
+		if (pageIndex < pageCount - 1)
+			nextCursor = new PageCursor(
+				generation, cursor.queryHash, pageIndex, hitCount, lastHits);
+		
+		return new ResultPage(
+			Arrays.asList(results), pageIndex, pageCount, hitCount, nextCursor);
+	}
+	
+	@NotThreadSafe
+	private void setHitPageLocator(	@NotNull ResultDocument result,
+									int doc,
+									@NotNull Query query) {
+		setHitPageLocator(
+			result, luceneSearcher.subSearcher(doc),
+			luceneSearcher.subDoc(doc), query);
+	}
+	
+	// The document number must be relative to the given sub-searcher
+	@NotThreadSafe
+	private void setHitPageLocator(	@NotNull ResultDocument result,
+									final int subSearcher,
+									final int subDoc,
+									@NotNull final Query query) {
+		if (!result.hasPageOffsets())
+			return;
+		final int generation = this.generation;
+		result.setHitPageLocator(new HitPageLocator() {
+			public List<Integer> getHitPages(int[] pageOffsets) {
+				return Searcher.this.getHitPages(
+					generation, subSearcher, subDoc, query, pageOffsets);
+			}
+		});
+	}
+	
+	/**
+	 * Returns the pages of the given document that contain at least one of
+	 * the terms of the given query, using the term offsets stored in the
+	 * index. Returns null if the term offsets are not available, or if the
+	 * Lucene searcher has been replaced since the document was found.
+	 */
+	@Nullable
+	@ThreadSafe
+	private List<Integer> getHitPages(	int generation,
+										int subSearcher,
+										int subDoc,
+										@NotNull Query query,
+										@NotNull int[] pageOffsets) {
+		readLock.lock();
+		try {
+			if (generation != this.generation)
+				return null;
+			Searchable searchable = luceneSearcher.getSearchables()[subSearcher];
+			if (!(searchable instanceof IndexSearcher))
+				return null;
+			IndexSearcher indexSearcher = (IndexSearcher) searchable;
+			String fieldName = Fields.CONTENT.key();
+			TermFreqVector vector = indexSearcher.getIndexReader().getTermFreqVector(
+				subDoc, fieldName);
+			if (!(vector instanceof TermPositionVector))
+				return null;
+			TermPositionVector positionVector = (TermPositionVector) vector;
+			
+			// Wildcard queries etc. must be rewritten into term queries first
+			Set<Term> terms = new HashSet<Term>();
+			indexSearcher.rewrite(query).extractTerms(terms);
+			
+			SortedSet<Integer> pages = new TreeSet<Integer>();
+			for (Term term : terms) {
+				if (!term.field().equals(fieldName))
+					continue;
+				int index = positionVector.indexOf(term.text());
+				if (index < 0)
+					continue;
+				TermVectorOffsetInfo[] offsets = positionVector.getOffsets(index);
+				if (offsets == null)
+					return null;
+				for (TermVectorOffsetInfo offset : offsets) {
+					int page = getPage(pageOffsets, offset.getStartOffset());
+					if (page >= 0)
+						pages.add(page);
+				}
+			}
+			return new ArrayList<Integer>(pages);
+		}
+		catch (IOException e) {
+			return null;
+		}
+		catch (UnsupportedOperationException e) {
+			return null; // Thrown by extractTerms for some query types
+		}
+		finally {
+			readLock.unlock();
+		}
+	}
+	
+	// Returns the reader the current Lucene searcher uses for the given index
+	@Nullable
+	@VisibleForTesting
+	IndexReader getReader(@NotNull LuceneIndex index) {
+		readLock.lock();
+		try {
+			return readers.get(index);
+		}
+		finally {
+			readLock.unlock();
+		}
+	}
+	
+	// Returns -1 if the given offset is not inside any page
+	@VisibleForTesting
+	static int getPage(@NotNull int[] pageOffsets, int offset) {
+		int end = pageOffsets.length - 1;
+		if (end < 1 || offset < pageOffsets[0] || offset >= pageOffsets[end])
+			return -1;
+		int i = Arrays.binarySearch(pageOffsets, offset);
+		if (i < 0)
+			return -i - 2;
+		
+		// Skip empty pages starting at the same offset
+		while (i + 1 < end && pageOffsets[i + 1] == offset)
+			i++;
+		return i;
+	}
+	
+	// Identifies the query and filters a page cursor was created for
+	private static int getQueryHash(@NotNull Query query,
+									@NotNull WebQuery webQuery) {
+		List<Object> parts = new ArrayList<Object>();
+		parts.add(query.toString());
+		parts.add(webQuery.minSize);
+		parts.add(webQuery.maxSize);
+		parts.add(webQuery.minDate);
+		parts.add(webQuery.maxDate);
+		if (webQuery.parsers != null)
+			for (Parser parser : webQuery.parsers)
+				parts.add(parser.getClass().getName());
+		parts.add(null); // separator
+		if (webQuery.indexes != null)
+			for (LuceneIndex index : webQuery.indexes)
+				parts.add(index.getRootFolder().getPath().getCanonicalPath());
+		return parts.hashCode();
+	}
+	
+	// Returns null if the results should be sorted by score
+	@Nullable
+	private static Sort createSort(@NotNull WebQuery webQuery) {
+		if (webQuery.sortKey == null)
+			return null;
+		String[] fields;
+		switch (webQuery.sortKey) {
+		case DATE:
+			fields = new String[] {
+				Fields.LAST_MODIFIED.key(), Fields.DATE.key() };
+			break;
+		case SIZE:
+			fields = new String[] { Fields.SIZE.key() };
+			break;
+		default:
+			throw new IllegalStateException();
+		}
+		SortField sortField = new SortField(
+			fields[0], new NumericValues.ComparatorSource(fields),
+			webQuery.sortDescending);
+		return new Sort(sortField, SortField.FIELD_SCORE);
+	}
+	
 	@NotNull
 	@ThreadSafe
 	private static QueryWrapper createQuery(@NotNull String queryString)
@@ -574,6 +1186,9 @@ public final class Searcher {
 		try {
 			indexRegistry.removeListeners(addedListener, null);
 			Closeables.closeQuietly(luceneSearcher);
+			for (IndexReader reader : readers.values())
+				Closeables.closeQuietly(reader);
+			readers.clear();
 		}
 		finally {
 			writeLock.unlock();
@@ -589,6 +1204,45 @@ public final class Searcher {
 		}
 	}
 	
+	private static final class SubHit implements Comparable<SubHit> {
+		public final int subSearcher;
+		public final ScoreDoc scoreDoc;
+		
+		private SubHit(int subSearcher, @NotNull ScoreDoc scoreDoc) {
+			this.subSearcher = subSearcher;
+			this.scoreDoc = scoreDoc;
+		}
+		
+		// Descending score, then ascending document order across sub-searchers
+		public int compareTo(SubHit o) {
+			int cmp = Float.compare(o.scoreDoc.score, scoreDoc.score);
+			if (cmp != 0)
+				return cmp;
+			if (subSearcher != o.subSearcher)
+				return subSearcher < o.subSearcher ? -1 : 1;
+			return scoreDoc.doc < o.scoreDoc.doc ? -1 : (scoreDoc.doc == o.scoreDoc.doc ? 0 : 1);
+		}
+	}
+	
+	private static final class ListHit implements Comparable<ListHit> {
+		public final String uid;
+		public final int subSearcher;
+		public final int doc;
+		
+		private ListHit(@NotNull String uid, int subSearcher, int doc) {
+			this.uid = Util.checkNotNull(uid);
+			this.subSearcher = subSearcher;
+			this.doc = doc;
+		}
+		
+		public int compareTo(ListHit o) {
+			int cmp = uid.compareTo(o.uid);
+			if (cmp != 0)
+				return cmp;
+			return subSearcher < o.subSearcher ? -1 : (subSearcher == o.subSearcher ? 0 : 1);
+		}
+	}
+	
 	private static final class QueryWrapper {
 		public final Query query;
 		public final boolean isPhraseQuery;
@@ -0,0 +1,537 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.model.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.docfetcher.TestFiles;
+import net.sourceforge.docfetcher.enums.ProgramConf;
+import net.sourceforge.docfetcher.model.Cancelable;
+import net.sourceforge.docfetcher.model.Fields;
+import net.sourceforge.docfetcher.model.HotColdFileCache;
+import net.sourceforge.docfetcher.model.IndexLoadingProblems.CorruptedIndex;
+import net.sourceforge.docfetcher.model.IndexRegistry;
+import net.sourceforge.docfetcher.model.LuceneIndex;
+import net.sourceforge.docfetcher.model.Path;
+import net.sourceforge.docfetcher.model.index.Task.CancelAction;
+import net.sourceforge.docfetcher.model.index.Task.CancelHandler;
+import net.sourceforge.docfetcher.model.index.file.FileFactory;
+import net.sourceforge.docfetcher.model.index.IndexWriterAdapter;
+import net.sourceforge.docfetcher.model.index.file.FileFolder;
+import net.sourceforge.docfetcher.model.index.file.FileIndex;
+import net.sourceforge.docfetcher.model.index.outlook.OutlookMailFactory;
+import net.sourceforge.docfetcher.model.search.ResultDocument.PreviewPageHandler;
+import net.sourceforge.docfetcher.model.search.Searcher.PageCursor;
+import net.sourceforge.docfetcher.model.search.Searcher.ResultPage;
+import net.sourceforge.docfetcher.model.search.Searcher.SearchResults;
+import net.sourceforge.docfetcher.model.search.WebQuery.SortKey;
+import net.sourceforge.docfetcher.util.AppUtil;
+import net.sourceforge.docfetcher.util.Util;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+
+/**
+ * @author Tran Nam Quang
+ */
+public final class SearcherTest {
+	
+	static {
+		AppUtil.Const.autoInit();
+	}
+	
+	private File tempDir;
+	private File indexParentDir;
+	private IndexRegistry registry;
+	@Nullable private Searcher searcher;
+	
+	@Before
+	public void setUp() throws Exception {
+		tempDir = Util.createTempDir();
+		indexParentDir = new File(tempDir, "indexes");
+		registry = new IndexRegistry(indexParentDir, 1, 1);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		if (searcher != null)
+			searcher.shutdown();
+		registry.getQueue().shutdown(new CancelHandler() {
+			public CancelAction cancel() {
+				return CancelAction.KEEP;
+			}
+		});
+		Util.deleteRecursively(tempDir);
+	}
+	
+	@Test
+	public void testCursorPaging() throws Exception {
+		// Two indexes with many ties in the scores
+		registry.addIndex(createIndex("root0", 130));
+		createSearcher();
+		registry.addIndex(createIndex("root1", 95));
+		
+		ResultPage page = searcher.search(new WebQuery("word", 0));
+		assertEquals(225, page.hitCount);
+		assertEquals(5, page.pageCount);
+		
+		// Pages retrieved with a cursor must equal those retrieved without
+		for (int i = 1; i < page.pageCount; i++) {
+			PageCursor cursor = page.cursor;
+			assertNotNull(cursor);
+			WebQuery webQuery = new WebQuery("word", i);
+			webQuery.setCursor(PageCursor.decode(cursor.encode()));
+			page = searcher.search(webQuery);
+			ResultPage expected = searcher.search(new WebQuery("word", i));
+			assertEqualPages(expected, page);
+		}
+		assertNull(page.cursor);
+		
+		// A cursor for a different query must be ignored
+		PageCursor cursor = searcher.search(new WebQuery("word", 0)).cursor;
+		WebQuery webQuery = new WebQuery("filler", 1);
+		webQuery.setCursor(cursor);
+		assertEqualPages(
+			searcher.search(new WebQuery("filler", 1)),
+			searcher.search(webQuery));
+		
+		// A cursor with the wrong number of entries must be ignored
+		String encoded = searcher.search(new WebQuery("word", 0)).cursor.encode();
+		webQuery = new WebQuery("word", 1);
+		webQuery.setCursor(PageCursor.decode(encoded.substring(0, encoded.lastIndexOf('_'))));
+		assertEqualPages(
+			searcher.search(new WebQuery("word", 1)),
+			searcher.search(webQuery));
+		
+		// A cursor must be ignored after the indexes have changed
+		registry.addIndex(createIndex("root2", 10));
+		webQuery = new WebQuery("word", 1);
+		webQuery.setCursor(cursor);
+		page = searcher.search(webQuery);
+		assertEquals(235, page.hitCount);
+		assertEqualPages(searcher.search(new WebQuery("word", 1)), page);
+		
+		assertNull(PageCursor.decode("1_2_x"));
+		assertNull(PageCursor.decode("1_2_3_4_y"));
+	}
+	
+	@Test
+	public void testHitPages() throws Exception {
+		ProgramConf.Bool.StorePdfPageOffsets.load("true");
+		try {
+			File rootDir = new File(tempDir, "root");
+			rootDir.mkdirs();
+			Files.copy(TestFiles.multi_page_pdf.get(), new File(rootDir, "multi-page.pdf"));
+			FileIndex index = new FileIndex(indexParentDir, rootDir);
+			index.update(null, Cancelable.nullCancelable);
+			registry.addIndex(index);
+			createSearcher();
+			
+			List<ResultDocument> results = searcher.search("3");
+			assertEquals(1, results.size());
+			assertEquals(Arrays.asList(2), results.get(0).getHitPages());
+			
+			results = searcher.search("page");
+			assertEquals(Arrays.asList(0, 1, 2), results.get(0).getHitPages());
+			
+			// The preview only extracts the pages with hits
+			final List<String> pageTexts = new ArrayList<String>();
+			results = searcher.search("2 OR 3");
+			results.get(0).readPages(new PreviewPageHandler() {
+				public void handlePage(HighlightedString pageText) {
+					pageTexts.add(pageText.getString().trim());
+				}
+				public boolean isStopped() {
+					return false;
+				}
+			});
+			assertEquals(Arrays.asList("page 2", "page 3"), pageTexts);
+			
+			// Hit pages are unavailable after the indexes have changed
+			results = searcher.search("page");
+			searcher.replaceLuceneSearcher();
+			assertNull(results.get(0).getHitPages());
+		}
+		finally {
+			ProgramConf.Bool.StorePdfPageOffsets.load("false");
+		}
+	}
+	
+	@Test
+	public void testList() throws Exception {
+		// A subfolder whose documents must not be listed with its parent
+		File subDir = new File(tempDir, "root0/sub");
+		subDir.mkdirs();
+		for (int i = 0; i < 3; i++)
+			Files.write("word", new File(subDir, i + ".txt"), Charsets.UTF_8);
+		Files.write("word", new File(tempDir, "root0/sub.txt"), Charsets.UTF_8);
+		
+		FileIndex index0 = createIndex("root0", 130);
+		FileIndex index1 = createIndex("root1", 95);
+		registry.addIndex(index0);
+		registry.addIndex(index1);
+		createSearcher();
+		
+		List<String> prefixes = Arrays.asList(
+			Searcher.getUidPrefix(index0, index0.getRootFolder().getPath()),
+			Searcher.getUidPrefix(index1, index1.getRootFolder().getPath()));
+		
+		// The pages must add up to the unpaged listing, sorted by path
+		List<ResultDocument> all = searcher.list(prefixes);
+		assertEquals(226, all.size());
+		List<String> pagedPaths = new ArrayList<String>();
+		ResultPage page = searcher.list(prefixes, 0);
+		assertEquals(226, page.hitCount);
+		assertEquals(5, page.pageCount);
+		for (int i = 0; i < page.pageCount; i++) {
+			page = searcher.list(prefixes, i);
+			assertEquals(i, page.pageIndex);
+			assertNull(page.cursor);
+			for (ResultDocument doc : page.resultDocuments)
+				pagedPaths.add(doc.getPath().getPath());
+		}
+		assertEquals(26, page.resultDocuments.size());
+		List<String> paths = new ArrayList<String>();
+		for (ResultDocument doc : all)
+			paths.add(doc.getPath().getPath());
+		assertEquals(paths, pagedPaths);
+		List<String> sortedPaths = new ArrayList<String>(paths);
+		Collections.sort(sortedPaths);
+		assertEquals(sortedPaths, paths);
+		assertTrue(searcher.list(prefixes, 5).resultDocuments.isEmpty());
+		
+		// Listing the subfolder
+		Path subPath = index0.getRootFolder().getPath().createSubPath("sub");
+		all = searcher.list(Collections.singleton(
+			Searcher.getUidPrefix(index0, subPath)));
+		assertEquals(3, all.size());
+	}
+	
+	@Test
+	public void testSortAndDateFilter() throws Exception {
+		// Newer files are smaller
+		File rootDir = new File(tempDir, "root");
+		rootDir.mkdirs();
+		for (int i = 0; i < 5; i++) {
+			File file = new File(rootDir, i + ".txt");
+			String text = "word " + Strings.repeat("filler ", 10 - 2 * i);
+			Files.write(text, file, Charsets.UTF_8);
+			file.setLastModified((i + 1) * 1000000000L);
+		}
+		FileIndex index = new FileIndex(indexParentDir, rootDir);
+		index.update(null, Cancelable.nullCancelable);
+		
+		// Document written by an older version, with a non-numeric date
+		Document oldDoc = new Document();
+		String uidPrefix = Searcher.getUidPrefix(index, index.getRootFolder().getPath());
+		oldDoc.add(Fields.UID.create(uidPrefix + "old.txt"));
+		oldDoc.add(Fields.createContent("word"));
+		oldDoc.add(Fields.FILENAME.create("old.txt"));
+		oldDoc.add(Fields.TYPE.create("txt"));
+		oldDoc.add(Fields.PARSER.create("TextParser"));
+		oldDoc.add(Fields.SIZE.create(1));
+		oldDoc.add(new Field(Fields.LAST_MODIFIED.key(), "3500000000", Store.YES, Index.NO));
+		IndexWriterAdapter writer = new IndexWriterAdapter(index.getLuceneDir());
+		writer.add(oldDoc);
+		writer.close();
+		
+		registry.addIndex(index);
+		createSearcher();
+		
+		WebQuery webQuery = new WebQuery("word", 0);
+		webQuery.setSortKey(SortKey.DATE, true);
+		ResultPage page = searcher.search(webQuery);
+		assertEquals(
+			Arrays.asList("4.txt", "3.txt", "old.txt", "2.txt", "1.txt", "0.txt"),
+			getFilenames(page));
+		assertNull(page.cursor);
+		
+		webQuery.setMinimumDate(2500000000L);
+		webQuery.setMaximumDate(4500000000L);
+		assertEquals(
+			Arrays.asList("3.txt", "old.txt", "2.txt"),
+			getFilenames(searcher.search(webQuery)));
+		
+		webQuery = new WebQuery("word", 0);
+		webQuery.setSortKey(SortKey.SIZE, false);
+		assertEquals(
+			Arrays.asList("old.txt", "4.txt", "3.txt", "2.txt", "1.txt", "0.txt"),
+			getFilenames(searcher.search(webQuery)));
+	}
+	
+	@Test
+	public void testFacets() throws Exception {
+		FileIndex index0 = createIndex("root0", 30);
+		FileIndex index1 = createIndex("root1", 20);
+		
+		// Document written by an older version, with a non-indexed parser
+		Document oldDoc = new Document();
+		String uidPrefix = Searcher.getUidPrefix(index1, index1.getRootFolder().getPath());
+		oldDoc.add(Fields.UID.create(uidPrefix + "old.pdf"));
+		oldDoc.add(Fields.createContent("word"));
+		oldDoc.add(Fields.SIZE.create(20 * 1024));
+		oldDoc.add(new Field(Fields.PARSER.key(), "PdfParser", Store.YES, Index.NO));
+		IndexWriterAdapter writer = new IndexWriterAdapter(index1.getLuceneDir());
+		writer.add(oldDoc);
+		writer.close();
+		
+		registry.addIndex(index0);
+		registry.addIndex(index1);
+		createSearcher();
+		
+		SearchResults results = searcher.searchWithFacets("word", false);
+		assertEquals(51, results.resultDocuments.size());
+		Facets facets = results.facets;
+		assertEquals(51, facets.hitCount);
+		assertEquals(50, facets.getParserCount("TextParser"));
+		// Left out of the parser counts, but not out of the other facets
+		assertEquals(0, facets.getParserCount("PdfParser"));
+		assertEquals(0, facets.getParserCount("HtmlParser"));
+		assertEquals(50, facets.getSizeCount(0));
+		assertEquals(1, facets.getSizeCount(1));
+		assertEquals(30, facets.getIndexCount(index0));
+		assertEquals(21, facets.getIndexCount(index1));
+		
+		
+		// Counting the facets must not change the results
+		List<ResultDocument> expected = searcher.search("word");
+		for (int i = 0; i < expected.size(); i++) {
+			ResultDocument actual = results.resultDocuments.get(i);
+			assertEquals(expected.get(i).getPath(), actual.getPath());
+			assertEquals(expected.get(i).getScore(), actual.getScore());
+		}
+	}
+	
+	@Test
+	public void testCollapseDuplicates() throws Exception {
+		// Three copies of one file and a file with different content
+		File rootDir = new File(tempDir, "root");
+		for (String path : new String[] {"a/copy.txt", "b/copy.txt", "c.txt"}) {
+			File file = new File(rootDir, path);
+			file.getParentFile().mkdirs();
+			Files.write("word copy", file, Charsets.UTF_8);
+		}
+		Files.write("word word unique", new File(rootDir, "unique.txt"), Charsets.UTF_8);
+		FileIndex index = new FileIndex(indexParentDir, rootDir);
+		index.update(null, Cancelable.nullCancelable);
+		registry.addIndex(index);
+		createSearcher();
+		
+		assertEquals(4, searcher.search("word").size());
+		
+		SearchResults results = searcher.searchWithFacets("word", true);
+		List<ResultDocument> docs = results.resultDocuments;
+		assertEquals(2, docs.size());
+		int duplicateCount = 0;
+		for (ResultDocument doc : docs)
+			duplicateCount += doc.getDuplicateCount();
+		assertEquals(2, duplicateCount);
+		assertEquals(4, results.facets.hitCount);
+	}
+	
+	@Test
+	public void testReplaceLuceneSearcher() throws Exception {
+		FileIndex index0 = createIndex("root0", 10);
+		FileIndex index1 = createIndex("root1", 5);
+		registry.addIndex(index0);
+		registry.addIndex(index1);
+		createSearcher();
+		assertEquals(15, searcher.search("word").size());
+		
+		IndexReader reader0 = searcher.getReader(index0);
+		IndexReader reader1 = searcher.getReader(index1);
+		assertNotNull(reader0);
+		assertNotNull(reader1);
+		
+		// Unchanged indexes are reused, changed ones are reopened
+		searcher.replaceLuceneSearcher();
+		assertSame(reader0, searcher.getReader(index0));
+		assertSame(reader1, searcher.getReader(index1));
+		assertEquals(15, searcher.search("word").size());
+		Files.write("word", new File(tempDir, "root1/new.txt"), Charsets.UTF_8);
+		index1.update(null, Cancelable.nullCancelable);
+		searcher.replaceLuceneSearcher();
+		assertSame(reader0, searcher.getReader(index0));
+		assertNotSame(reader1, searcher.getReader(index1));
+		assertEquals(0, reader1.getRefCount());
+		assertEquals(16, searcher.search("word").size());
+		
+		// The readers of removed indexes are closed
+		registry.removeIndexes(Collections.<LuceneIndex>singletonList(index0), false);
+		searcher.replaceLuceneSearcher();
+		assertNull(searcher.getReader(index0));
+		assertEquals(0, reader0.getRefCount());
+		assertEquals(6, searcher.search("word").size());
+	}
+	
+	@Test
+	public void testSearchDuringSave() throws Exception {
+		final FileIndex index = createIndex("root", 10);
+		final CountDownLatch saveEntered = new CountDownLatch(1);
+		final CountDownLatch saveReleased = new CountDownLatch(1);
+		new BlockingFolder(index.getRootFolder(), saveEntered, saveReleased);
+		registry.addIndex(index);
+		createSearcher();
+		
+		// Block a save while it is serializing the index
+		Thread saveThread = new Thread() {
+			public void run() {
+				registry.save(index);
+			}
+		};
+		saveThread.start();
+		try {
+			assertTrue(saveEntered.await(30, TimeUnit.SECONDS));
+			
+			// Searches must not wait for the save to finish
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				Future<Integer> resultCount = executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						return searcher.search("word").size();
+					}
+				});
+				assertEquals(10, resultCount.get(30, TimeUnit.SECONDS).intValue());
+			}
+			finally {
+				executor.shutdown();
+			}
+			assertTrue(saveThread.isAlive());
+		}
+		finally {
+			saveReleased.countDown();
+			saveThread.join();
+		}
+		assertTrue(new File(index.getIndexDirPath().getCanonicalFile(), "tree-index.ser").isFile());
+	}
+	
+	/**
+	 * A folder that blocks while being serialized, until it is released.
+	 */
+	private static final class BlockingFolder extends FileFolder {
+		private static final long serialVersionUID = 1L;
+		
+		private final transient CountDownLatch entered;
+		private final transient CountDownLatch released;
+		
+		public BlockingFolder(	FileFolder parent,
+								CountDownLatch entered,
+								CountDownLatch released) {
+			super(parent, "blocking", null);
+			this.entered = entered;
+			this.released = released;
+		}
+		
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			entered.countDown();
+			try {
+				released.await();
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			out.defaultWriteObject();
+		}
+	}
+	
+	@Test
+	public void testGetSizeBucket() {
+		assertEquals(0, Facets.getSizeBucket(0));
+		assertEquals(0, Facets.getSizeBucket(10 * 1024 - 1));
+		assertEquals(1, Facets.getSizeBucket(10 * 1024));
+		int last = Facets.getSizeBucketCount() - 1;
+		assertEquals(last, Facets.getSizeBucket(Long.MAX_VALUE));
+		assertNull(Facets.getSizeBucketMax(last));
+	}
+	
+	@Test
+	public void testGetPage() {
+		int[] pageOffsets = {0, 10, 10, 20};
+		assertEquals(0, Searcher.getPage(pageOffsets, 0));
+		assertEquals(0, Searcher.getPage(pageOffsets, 9));
+		assertEquals(2, Searcher.getPage(pageOffsets, 10));
+		assertEquals(2, Searcher.getPage(pageOffsets, 19));
+		assertEquals(-1, Searcher.getPage(pageOffsets, 20));
+		assertEquals(-1, Searcher.getPage(new int[] {0}, 0));
+	}
+	
+	private void createSearcher() throws Exception {
+		HotColdFileCache unpackCache = new HotColdFileCache(10);
+		searcher = new Searcher(
+			registry, new FileFactory(unpackCache),
+			new OutlookMailFactory(unpackCache),
+			new ArrayList<CorruptedIndex>());
+	}
+	
+	private FileIndex createIndex(String name, int fileCount) throws Exception {
+		File rootDir = new File(tempDir, name);
+		rootDir.mkdirs();
+		for (int i = 0; i < fileCount; i++) {
+			String text = Strings.repeat("word ", i % 5 + 1) + "filler";
+			Files.write(text, new File(rootDir, i + ".txt"), Charsets.UTF_8);
+		}
+		FileIndex index = new FileIndex(indexParentDir, rootDir);
+		index.update(null, Cancelable.nullCancelable);
+		return index;
+	}
+	
+	private static List<String> getFilenames(ResultPage page) {
+		List<String> filenames = new ArrayList<String>();
+		for (ResultDocument doc : page.resultDocuments)
+			filenames.add(doc.getFilename());
+		return filenames;
+	}
+	
+	private static void assertEqualPages(ResultPage expected, ResultPage actual) {
+		assertEquals(expected.pageIndex, actual.pageIndex);
+		assertEquals(expected.pageCount, actual.pageCount);
+		assertEquals(expected.hitCount, actual.hitCount);
+		List<ResultDocument> expectedDocs = expected.resultDocuments;
+		List<ResultDocument> actualDocs = actual.resultDocuments;
+		assertEquals(expectedDocs.size(), actualDocs.size());
+		for (int i = 0; i < expectedDocs.size(); i++) {
+			assertEquals(expectedDocs.get(i).getPath(), actualDocs.get(i).getPath());
+			assertEquals(expectedDocs.get(i).getScore(), actualDocs.get(i).getScore(), 0);
+		}
+	}
+
+}
@@ -16,6 +16,7 @@ import java.util.Collection;
 import net.sourceforge.docfetcher.gui.filter.FilesizeUnit;
 import net.sourceforge.docfetcher.model.LuceneIndex;
 import net.sourceforge.docfetcher.model.parse.Parser;
+import net.sourceforge.docfetcher.model.search.Searcher.PageCursor;
 import net.sourceforge.docfetcher.util.Util;
 import net.sourceforge.docfetcher.util.annotations.NotNull;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
@@ -25,12 +26,23 @@ import net.sourceforge.docfetcher.util.annotations.Nullable;
  */
 public final class WebQuery {
 	
+	/**
+	 * The keys by which results can be sorted instead of by score. For files,
+	 * the date is the last-modified date; for e-mails, it is the send date.
+	 */
+	public enum SortKey { DATE, SIZE }
+	
 	final String query;
 	final int pageIndex;
 	@Nullable Long minSize;
 	@Nullable Long maxSize;
+	@Nullable Long minDate;
+	@Nullable Long maxDate;
+	@Nullable SortKey sortKey;
+	boolean sortDescending;
 	@Nullable Collection<Parser> parsers;
 	@Nullable Collection<LuceneIndex> indexes;
+	@Nullable PageCursor cursor;
 
 	/**
 	 * Constructs a new query object for the given query string. The given
@@ -69,6 +81,35 @@ public final class WebQuery {
 		this.maxSize = FilesizeUnit.Byte.convert(maxSize, unit);
 	}
 
+	/**
+	 * Sets the earliest date for the results to be returned, in milliseconds
+	 * since the epoch. For files, the last-modified date is used; for e-mails,
+	 * the send date. If the given date is null, the results will have no lower
+	 * date bound. Results without a date are excluded if either date bound is
+	 * set.
+	 */
+	public void setMinimumDate(@Nullable Long minDate) {
+		this.minDate = minDate;
+	}
+	
+	/**
+	 * Sets the latest date for the results to be returned, in milliseconds
+	 * since the epoch. See {@link #setMinimumDate(Long)}.
+	 */
+	public void setMaximumDate(@Nullable Long maxDate) {
+		this.maxDate = maxDate;
+	}
+	
+	/**
+	 * Sets the key by which the results are sorted. If the given key is null,
+	 * the results are sorted by descending score, which is the default. Ties
+	 * are broken by score. Sorted results are not paged with cursors.
+	 */
+	public void setSortKey(@Nullable SortKey sortKey, boolean descending) {
+		this.sortKey = sortKey;
+		this.sortDescending = descending;
+	}
+	
 	/**
 	 * Sets the file types to be included in the results. If null is specified,
 	 * all types will be included.
@@ -77,6 +118,17 @@ public final class WebQuery {
 		this.parsers = parsers;
 	}
 	
+	/**
+	 * Sets the cursor of the page preceding the requested page, as obtained
+	 * from {@link Searcher.ResultPage#cursor}. This allows the searcher to
+	 * collect only the results of the requested page. The cursor is ignored
+	 * if it doesn't belong to the preceding page of the same query, or if the
+	 * indexes have changed since it was created.
+	 */
+	public void setCursor(@Nullable PageCursor cursor) {
+		this.cursor = cursor;
+	}
+	
 	/**
 	 * Sets the locations to be included in the results. If null is specified,
 	 * all locations will be included.
@@ -20,8 +20,8 @@ import java.nio.charset.UnsupportedCharsetException;
 import java.util.Properties;
 
 import net.sourceforge.docfetcher.util.annotations.NotNull;
-import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
 import net.sourceforge.docfetcher.util.annotations.Nullable;
+import net.sourceforge.docfetcher.util.annotations.ThreadSafe;
 
 import org.mozilla.universalchardet.UniversalDetector;
 
@@ -34,15 +34,16 @@ import com.google.common.io.Files;
  */
 public final class CharsetDetectorHelper {
 	
-	@NotNull public static String charsetOverride = "";
+	// Set by the text parser, which may run on several threads at once
+	@NotNull public static volatile String charsetOverride = "";
 	
-	@Nullable private static UniversalDetector charsetDetector;
+	@Nullable private static UniversalDetector charsetDetector; // guarded by class lock
 	
 	private CharsetDetectorHelper() {
 	}
 	
 	@NotNull
-	@NotThreadSafe
+	@ThreadSafe
 	public static Properties load(@NotNull File propsFile) throws IOException {
 		byte[] bytes = Files.toByteArray(propsFile);
 		String contents = toString(bytes);
@@ -52,7 +53,7 @@ public final class CharsetDetectorHelper {
 	}
 	
 	@NotNull
-	@NotThreadSafe
+	@ThreadSafe
 	public static String toString(@NotNull InputStream in)
 			throws IOException {
 		byte[] bytes = ByteStreams.toByteArray(in);
@@ -60,7 +61,7 @@ public final class CharsetDetectorHelper {
 	}
 	
 	@NotNull
-	@NotThreadSafe
+	@ThreadSafe
 	public static String toString(@NotNull File file)
 			throws IOException {
 		byte[] bytes = Files.toByteArray(file);
@@ -68,17 +69,27 @@ public final class CharsetDetectorHelper {
 	}
 	
 	@NotNull
-	@NotThreadSafe
+	@ThreadSafe
 	public static String toString(@NotNull byte[] bytes)
 			throws IOException {
-		if (!charsetOverride.trim().isEmpty()) {
+		String override = charsetOverride.trim();
+		if (!override.isEmpty()) {
 			try {
-				return new String(bytes, charsetOverride.trim());
+				return new String(bytes, override);
 			} catch (UnsupportedCharsetException e) {
-				throw new IOException("Charset not found: " + charsetOverride.trim());
+				throw new IOException("Charset not found: " + override);
 			}
 		}
 		
+		String charsetName = detectCharset(bytes);
+		String contents = charsetName == null ? new String(
+			bytes, Charsets.ISO_8859_1) : new String(bytes, charsetName);
+		return contents;
+	}
+	
+	// The shared detector is reset after each use, so the uses must not overlap
+	@Nullable
+	private static synchronized String detectCharset(@NotNull byte[] bytes) {
 		if (charsetDetector == null)
 			charsetDetector = new UniversalDetector(null);
 		
@@ -86,15 +97,12 @@ public final class CharsetDetectorHelper {
 		ByteArrayInputStream byteIn = new ByteArrayInputStream(bytes);
 		
 		int nread;
-		while ((nread = byteIn.read(buf)) > 0 && !charsetDetector.isDone())
+		while ((nread = byteIn.read(buf, 0, buf.length)) > 0 && !charsetDetector.isDone())
 			charsetDetector.handleData(buf, 0, nread);
 		charsetDetector.dataEnd();
 		String charsetName = charsetDetector.getDetectedCharset();
 		charsetDetector.reset();
-		
-		String contents = charsetName == null ? new String(
-			bytes, Charsets.ISO_8859_1) : new String(bytes, charsetName);
-		return contents;
+		return charsetName;
 	}
 
 }
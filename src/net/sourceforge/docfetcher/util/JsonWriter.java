@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Tran Nam Quang.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Tran Nam Quang - initial API and implementation
+ *******************************************************************************/
+
+package net.sourceforge.docfetcher.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+import net.sourceforge.docfetcher.util.annotations.NotNull;
+import net.sourceforge.docfetcher.util.annotations.NotThreadSafe;
+import net.sourceforge.docfetcher.util.annotations.Nullable;
+
+/**
+ * A minimal writer for JSON output, for machine-readable reports. Separators
+ * between values are inserted automatically. Example:
+ *
+ * <pre>
+ * String json = new JsonWriter()
+ * 	.beginObject()
+ * 	.name("files").value(42)
+ * 	.name("errors").beginArray().value("a").value("b").endArray()
+ * 	.endObject()
+ * 	.toString();
+ * </pre>
+ *
+ * @author Tran Nam Quang
+ */
+@NotThreadSafe
+public final class JsonWriter {
+
+	private final StringBuilder sb = new StringBuilder();
+
+	/*
+	 * One entry per open object or array; true if the next value in that
+	 * object or array is the first one and therefore needs no comma.
+	 */
+	private final Deque<Boolean> firstFlags = new ArrayDeque<Boolean>();
+	private boolean afterName = false;
+
+	@NotNull
+	public JsonWriter beginObject() {
+		beforeValue();
+		sb.append('{');
+		firstFlags.push(true);
+		return this;
+	}
+
+	@NotNull
+	public JsonWriter endObject() {
+		Util.checkThat(!firstFlags.isEmpty() && !afterName);
+		firstFlags.pop();
+		sb.append('}');
+		return this;
+	}
+
+	@NotNull
+	public JsonWriter beginArray() {
+		beforeValue();
+		sb.append('[');
+		firstFlags.push(true);
+		return this;
+	}
+
+	@NotNull
+	public JsonWriter endArray() {
+		Util.checkThat(!firstFlags.isEmpty() && !afterName);
+		firstFlags.pop();
+		sb.append(']');
+		return this;
+	}
+
+	@NotNull
+	public JsonWriter name(@NotNull String name) {
+		Util.checkThat(!afterName);
+		beforeValue();
+		appendString(name);
+		sb.append(':');
+		afterName = true;
+		return this;
+	}
+
+	@NotNull
+	public JsonWriter value(@Nullable String value) {
+		beforeValue();
+		if (value == null)
+			sb.append("null");
+		else
+			appendString(value);
+		return this;
+	}
+
+	@NotNull
+	public JsonWriter value(long value) {
+		beforeValue();
+		sb.append(value);
+		return this;
+	}
+
+	@NotNull
+	public JsonWriter value(double value) {
+		beforeValue();
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			sb.append("null");
+		else
+			sb.append(String.format(Locale.ENGLISH, "%.3f", value));
+		return this;
+	}
+
+	@NotNull
+	public JsonWriter value(boolean value) {
+		beforeValue();
+		sb.append(value);
+		return this;
+	}
+
+	private void beforeValue() {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (firstFlags.isEmpty())
+			return;
+		if (firstFlags.pop())
+			firstFlags.push(false);
+		else {
+			firstFlags.push(false);
+			sb.append(',');
+		}
+	}
+
+	private void appendString(@NotNull String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < 0x20)
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	@NotNull
+	public String toString() {
+		return sb.toString();
+	}
+
+}
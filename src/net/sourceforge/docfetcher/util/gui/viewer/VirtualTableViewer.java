@@ -199,6 +199,27 @@ public abstract class VirtualTableViewer<E> {
 		return selElements;
 	}
 	
+	/**
+	 * Returns up to the given number of elements after and before the focused
+	 * element, alternating between the two directions and starting with the
+	 * nearest elements. Returns an empty list if no element is focused.
+	 */
+	@MutableCopy
+	@NotNull
+	public final List<E> getAdjacentElements(int count) {
+		int focusIndex = table.getSelectionIndex();
+		if (focusIndex < 0 || elements == null)
+			return new ArrayList<E>(0);
+		List<E> adjacent = new ArrayList<E>(2 * count);
+		for (int i = 1; i <= count; i++) {
+			if (focusIndex + i < elements.size())
+				adjacent.add(elements.get(focusIndex + i));
+			if (focusIndex - i >= 0)
+				adjacent.add(elements.get(focusIndex - i));
+		}
+		return adjacent;
+	}
+	
 	public final void scrollToTop() {
 		ScrollBar verticalBar = table.getVerticalBar();
 		if (verticalBar != null)